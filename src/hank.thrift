@@ -12,6 +12,12 @@ union HankExceptions {
 
   /** There was some internal error in the server. This is pretty bad. */
   4: string internal_error;
+
+  /** The request's deadline passed before it could be served */
+  5: bool deadline_exceeded;
+
+  /** The host is too busy with the request's domain to serve it. Another replica may not be. */
+  6: bool overloaded;
 }
 
 union HankResponse {
@@ -25,10 +31,22 @@ union HankResponse {
   3: HankExceptions xception;
 }
 
+/**
+ * timeout_ms is how many milliseconds the caller is willing to wait for the
+ * response, counted from when the part daemon receives the request. 0 means
+ * there is no timeout. It's relative so that the caller's and the part
+ * daemon's clocks don't have to agree.
+ */
 service PartDaemon {
-  HankResponse get(1:i32 domain_id, 2:binary key);
+  HankResponse get(1:i32 domain_id, 2:binary key, 3:i64 timeout_ms);
+
+  /** One response per key, in the same order as the keys */
+  list<HankResponse> getBulk(1:i32 domain_id, 2:list<binary> keys, 3:i64 timeout_ms);
 }
 
 service SmartClient {
   HankResponse get(1:string domain_name, 2:binary key);
+
+  /** One response per key, in the same order as the keys */
+  list<HankResponse> getBulk(1:string domain_name, 2:list<binary> keys);
 }
\ No newline at end of file
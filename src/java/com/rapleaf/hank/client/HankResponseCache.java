@@ -0,0 +1,330 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.client;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rapleaf.hank.generated.HankResponse;
+
+/**
+ * A bounded LRU cache of the responses a {@link HankSmartClient} got, keyed by
+ * domain id and key. Only found values and not_found responses are cached,
+ * never errors. Domains don't change until the ring group moves to a new
+ * version, so the client clears the cache whenever that might be happening.
+ *
+ * Every clear starts a new generation. A response is only cached if no clear
+ * happened since the request for it was sent, so that a slow response from
+ * the old version can't end up in the cache after it was cleared.
+ *
+ * Like the part daemon's block cache, entries are spread over independently
+ * locked segments that each evict their own least recently used entries, so
+ * that concurrent requests don't all contend on a single lock. Small caches
+ * use fewer segments so that each still gets a useful share of the limits.
+ */
+public final class HankResponseCache {
+  // rough per-entry cost of the map entry, the key object and the arrays
+  static final int ENTRY_OVERHEAD_BYTES = 96;
+
+  static final int MAX_NUM_SEGMENTS = 16;
+  // don't split the limits any finer than this many entries per segment
+  static final int MIN_SEGMENT_ENTRIES = 64;
+
+  // keys stored in the map own an exact copy of their bytes and are never
+  // modified. lookups go through a per-thread probe key instead, which points
+  // at the caller's buffer so that a lookup doesn't allocate.
+  private static final class CacheKey {
+    private int domainId;
+    private byte[] bytes;
+    private int off;
+    private int len;
+    private int hashCode;
+
+    public CacheKey set(int domainId, byte[] bytes, int off, int len) {
+      this.domainId = domainId;
+      this.bytes = bytes;
+      this.off = off;
+      this.len = len;
+      int h = 1;
+      for (int i = off; i < off + len; i++) {
+        h = 31 * h + bytes[i];
+      }
+      this.hashCode = 31 * domainId + h;
+      return this;
+    }
+
+    public CacheKey copy() {
+      byte[] copy = new byte[len];
+      System.arraycopy(bytes, off, copy, 0, len);
+      return new CacheKey().set(domainId, copy, 0, len);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof CacheKey)) {
+        return false;
+      }
+      CacheKey other = (CacheKey) obj;
+      if (domainId != other.domainId || len != other.len) {
+        return false;
+      }
+      for (int i = 0; i < len; i++) {
+        if (bytes[off + i] != other.bytes[other.off + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static final class Probe {
+    private final CacheKey key = new CacheKey();
+    // only used for keys that aren't backed by an accessible array
+    private byte[] scratch = new byte[0];
+
+    public CacheKey set(int domainId, ByteBuffer buffer) {
+      if (buffer.hasArray()) {
+        return key.set(domainId, buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+      }
+      if (scratch.length < buffer.remaining()) {
+        scratch = new byte[buffer.remaining()];
+      }
+      buffer.duplicate().get(scratch, 0, buffer.remaining());
+      return key.set(domainId, scratch, 0, buffer.remaining());
+    }
+  }
+
+  private final class Segment {
+    // access ordered, so iteration starts at the least recently used entry.
+    // a null value means the key wasn't found.
+    private final LinkedHashMap<CacheKey, byte[]> entries = new LinkedHashMap<CacheKey, byte[]>(16, 0.75f, true);
+    private final int maxNumEntries;
+    private final long maxNumBytes;
+    private long numBytes = 0;
+
+    public Segment(int maxNumEntries, long maxNumBytes) {
+      this.maxNumEntries = maxNumEntries;
+      this.maxNumBytes = maxNumBytes;
+    }
+
+    public synchronized boolean containsKey(CacheKey key) {
+      return entries.containsKey(key);
+    }
+
+    public synchronized byte[] get(CacheKey key) {
+      return entries.get(key);
+    }
+
+    /**
+     * @return the number of entries evicted
+     */
+    public synchronized long put(long generation, CacheKey key, byte[] value) {
+      // checked under the segment lock, so that a clear() either sees this
+      // entry and drops it or makes us skip it
+      if (generation != HankResponseCache.this.generation) {
+        return 0;
+      }
+      long size = getSize(key, value);
+      if (maxNumBytes > 0 && size > maxNumBytes) {
+        return 0;
+      }
+      if (entries.containsKey(key)) {
+        numBytes -= getSize(key, entries.remove(key));
+      }
+      CacheKey stored = key.copy();
+      entries.put(stored, value);
+      numBytes += size;
+
+      long evictions = 0;
+      Iterator<Map.Entry<CacheKey, byte[]>> iterator = entries.entrySet().iterator();
+      while ((maxNumEntries > 0 && entries.size() > maxNumEntries) || (maxNumBytes > 0 && numBytes > maxNumBytes)) {
+        Map.Entry<CacheKey, byte[]> eldest = iterator.next();
+        numBytes -= getSize(eldest.getKey(), eldest.getValue());
+        iterator.remove();
+        evictions++;
+      }
+      return evictions;
+    }
+
+    public synchronized void clear() {
+      entries.clear();
+      numBytes = 0;
+    }
+
+    public synchronized int getNumEntries() {
+      return entries.size();
+    }
+
+    public synchronized long getNumBytes() {
+      return numBytes;
+    }
+  }
+
+  private final Segment[] segments;
+  private final ThreadLocal<Probe> probes = new ThreadLocal<Probe>() {
+    @Override
+    protected Probe initialValue() {
+      return new Probe();
+    }
+  };
+  private volatile long generation = 0;
+
+  private final AtomicLong numHits = new AtomicLong(0);
+  private final AtomicLong numMisses = new AtomicLong(0);
+  private final AtomicLong numEvictions = new AtomicLong(0);
+
+  /**
+   * @param maxNumEntries if positive, the most responses to keep
+   * @param maxNumBytes if positive, the most bytes of keys and values to keep,
+   *          counting {@value #ENTRY_OVERHEAD_BYTES} bytes of overhead per
+   *          entry
+   */
+  public HankResponseCache(int maxNumEntries, long maxNumBytes) {
+    int numSegments = MAX_NUM_SEGMENTS;
+    while (numSegments > 1
+        && ((maxNumEntries > 0 && maxNumEntries / numSegments < MIN_SEGMENT_ENTRIES)
+            || (maxNumBytes > 0 && maxNumBytes / numSegments < MIN_SEGMENT_ENTRIES * ENTRY_OVERHEAD_BYTES))) {
+      numSegments /= 2;
+    }
+    segments = new Segment[numSegments];
+    for (int i = 0; i < numSegments; i++) {
+      segments[i] = new Segment(maxNumEntries / numSegments, maxNumBytes / numSegments);
+    }
+  }
+
+  /**
+   * @return the cached response, or null if there isn't one
+   */
+  HankResponse get(int domainId, ByteBuffer key) {
+    CacheKey probe = probes.get().set(domainId, key);
+    Segment segment = segmentFor(probe);
+    byte[] value = segment.get(probe);
+    if (value == null && !segment.containsKey(probe)) {
+      numMisses.incrementAndGet();
+      return null;
+    }
+    numHits.incrementAndGet();
+    // every caller gets its own response, since reading a value moves the
+    // buffer's position
+    return value == null ? HankResponse.not_found(true) : HankResponse.value(ByteBuffer.wrap(value));
+  }
+
+  long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Cache a response, unless it's an error or the cache was cleared since
+   * <i>generation</i>.
+   */
+  void put(long generation, int domainId, ByteBuffer key, HankResponse response) {
+    if (generation != this.generation || response == null) {
+      return;
+    }
+    byte[] value;
+    if (response.getSetField() == HankResponse._Fields.VALUE) {
+      value = toBytes(response.buffer_for_value());
+    } else if (response.getSetField() == HankResponse._Fields.NOT_FOUND) {
+      value = null;
+    } else {
+      return;
+    }
+    CacheKey probe = probes.get().set(domainId, key);
+    numEvictions.addAndGet(segmentFor(probe).put(generation, probe, value));
+  }
+
+  /**
+   * Drop every cached response, and ignore responses to requests sent before
+   * now.
+   */
+  synchronized void clear() {
+    generation++;
+    for (Segment segment : segments) {
+      segment.clear();
+    }
+  }
+
+  private Segment segmentFor(CacheKey key) {
+    int h = key.hashCode();
+    h ^= (h >>> 16);
+    return segments[(h & 0x7fffffff) % segments.length];
+  }
+
+  private static long getSize(CacheKey key, byte[] value) {
+    return ENTRY_OVERHEAD_BYTES + key.len + (value == null ? 0 : value.length);
+  }
+
+  private static byte[] toBytes(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
+  int getNumSegments() {
+    return segments.length;
+  }
+
+  public int getNumEntries() {
+    int numEntries = 0;
+    for (Segment segment : segments) {
+      numEntries += segment.getNumEntries();
+    }
+    return numEntries;
+  }
+
+  public long getNumBytes() {
+    long numBytes = 0;
+    for (Segment segment : segments) {
+      numBytes += segment.getNumBytes();
+    }
+    return numBytes;
+  }
+
+  public long getNumHits() {
+    return numHits.get();
+  }
+
+  public long getNumMisses() {
+    return numMisses.get();
+  }
+
+  public long getNumEvictions() {
+    return numEvictions.get();
+  }
+
+  /**
+   * @return the fraction of lookups that were hits, or 0 if there were none
+   */
+  public double getHitRate() {
+    long hits = numHits.get();
+    long numLookups = hits + numMisses.get();
+    return numLookups == 0 ? 0 : (double) hits / numLookups;
+  }
+
+  @Override
+  public String toString() {
+    return "HankResponseCache [numEntries=" + getNumEntries() + ", numBytes=" + getNumBytes()
+        + ", numHits=" + getNumHits() + ", numMisses=" + getNumMisses() + ", numEvictions=" + getNumEvictions() + "]";
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.client;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.thrift.async.AsyncMethodCallback;
+
+import com.rapleaf.hank.generated.HankResponse;
+
+/**
+ * The eventual response to an asynchronous get. Gets that are already in
+ * flight can't be cancelled.
+ */
+public class HankResponseFuture implements Future<HankResponse>, AsyncMethodCallback<HankResponse> {
+  private final CountDownLatch done = new CountDownLatch(1);
+  private volatile HankResponse response;
+  private volatile Exception error;
+
+  @Override
+  public void onComplete(HankResponse response) {
+    this.response = response;
+    done.countDown();
+  }
+
+  @Override
+  public void onError(Exception error) {
+    this.error = error;
+    done.countDown();
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    return false;
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return false;
+  }
+
+  @Override
+  public boolean isDone() {
+    return done.getCount() == 0;
+  }
+
+  @Override
+  public HankResponse get() throws InterruptedException, ExecutionException {
+    done.await();
+    return getResponse();
+  }
+
+  @Override
+  public HankResponse get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+    if (!done.await(timeout, unit)) {
+      throw new TimeoutException();
+    }
+    return getResponse();
+  }
+
+  private HankResponse getResponse() throws ExecutionException {
+    if (error != null) {
+      throw new ExecutionException(error);
+    }
+    return response;
+  }
+}
@@ -18,16 +18,30 @@ package com.rapleaf.hank.client;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.apache.thrift.TException;
+import org.apache.thrift.async.AsyncMethodCallback;
 
 import com.rapleaf.hank.coordinator.Coordinator;
 import com.rapleaf.hank.coordinator.Domain;
 import com.rapleaf.hank.coordinator.DomainGroup;
+import com.rapleaf.hank.coordinator.DomainGroupChangeListener;
 import com.rapleaf.hank.coordinator.DomainGroupVersionDomainVersion;
 import com.rapleaf.hank.coordinator.Host;
 import com.rapleaf.hank.coordinator.HostDomain;
@@ -46,19 +60,52 @@ import com.rapleaf.hank.util.Bytes;
  * HankSmartClient implements the logic of determining which PartDaemon to
  * contact to fulfill requests for a given key, as well as managing a connection
  * pool and detecting PartDaemon failures.
+ *
+ * Every request can be given a timeout, or gets the one in the client's
+ * options. A request that runs out of time returns deadline_exceeded, and
+ * the time it has left is passed on to the part daemons so that they can skip
+ * requests nobody is waiting for anymore.
  */
-public class HankSmartClient implements Iface, RingGroupChangeListener, RingStateChangeListener {
+public class HankSmartClient implements Iface, RingGroupChangeListener, RingStateChangeListener, DomainGroupChangeListener {
   private static final HankResponse NO_SUCH_DOMAIN = HankResponse.xception(HankExceptions.no_such_domain(true));
+  private static final HankResponse ZERO_REPLICAS = HankResponse.xception(HankExceptions.zero_replicas(true));
+  private static final HankResponse DEADLINE_EXCEEDED = HankResponse.xception(HankExceptions.deadline_exceeded(true));
 
   private static final Logger LOG = Logger.getLogger(HankSmartClient.class);
 
   private final DomainGroup domainGroup;
   private final RingGroup ringGroupConfig;
+  private final HankSmartClientOptions options;
 
   private final Map<PartDaemonAddress, List<PartDaemonConnection>> connectionCache = new HashMap<PartDaemonAddress, List<PartDaemonConnection>>();
 
   private final Map<Integer, Map<Integer, PartDaemonConnectionSet>> domainToPartitionToConnectionSet = new HashMap<Integer, Map<Integer, PartDaemonConnectionSet>>();
 
+  // bulk gets are batched per host rather than per partition
+  private final Map<Integer, Map<Integer, List<PartDaemonAddress>>> domainToPartitionToHosts = new HashMap<Integer, Map<Integer, List<PartDaemonAddress>>>();
+  private final Map<PartDaemonAddress, PartDaemonConnectionSet> hostToConnectionSet = new HashMap<PartDaemonAddress, PartDaemonConnectionSet>();
+  private final AtomicInteger nextHostIdx = new AtomicInteger(0);
+  // runs the per-host parts of bulk gets, and hedged gets
+  private final ExecutorService requestExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+    private final AtomicInteger x = new AtomicInteger(0);
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "HankSmartClient Request Thread #" + x.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  // asynchronous gets share one selector thread
+  private final PartDaemonAsyncSelector asyncSelector;
+  private final Map<PartDaemonAddress, List<PartDaemonAsyncConnection>> hostToAsyncConnections = new HashMap<PartDaemonAddress, List<PartDaemonAsyncConnection>>();
+
+  // null unless caching is enabled
+  private final HankResponseCache cache;
+
+  private final Map<PartDaemonAddress, HostCircuitBreaker> circuitBreakers = new HashMap<PartDaemonAddress, HostCircuitBreaker>();
+
   /**
    * Create a new HankSmartClient that uses the supplied coordinator and works
    * with the requested ring group. Note that a given HankSmartClient can only
@@ -71,17 +118,55 @@ public class HankSmartClient implements Iface, RingGroupChangeListener, RingStat
    * @throws TException
    */
   public HankSmartClient(Coordinator coord, String ringGroupName, int numConnectionsPerHost) throws IOException, TException {
+    this(coord, ringGroupName, numConnectionsPerHost, 1);
+  }
+
+  /**
+   * @param coord
+   * @param ringGroupName
+   * @param numConnectionsPerHost
+   * @param numAsyncConnectionsPerHost the number of non-blocking connections
+   *          to each host used by asynchronous gets. They're only opened once
+   *          they're used.
+   * @throws IOException
+   * @throws TException
+   */
+  public HankSmartClient(Coordinator coord, String ringGroupName, int numConnectionsPerHost, int numAsyncConnectionsPerHost) throws IOException, TException {
+    this(coord, ringGroupName, new HankSmartClientOptions()
+        .setNumConnectionsPerHost(numConnectionsPerHost)
+        .setNumAsyncConnectionsPerHost(numAsyncConnectionsPerHost));
+  }
+
+  /**
+   * @param coord
+   * @param ringGroupName
+   * @param options
+   * @throws IOException
+   * @throws TException
+   */
+  public HankSmartClient(Coordinator coord, String ringGroupName, HankSmartClientOptions options) throws IOException, TException {
     ringGroupConfig = coord.getRingGroupConfig(ringGroupName);
     this.domainGroup = ringGroupConfig.getDomainGroup();
+    this.options = options;
+    if (options.getNumAsyncConnectionsPerHost() > 0) {
+      asyncSelector = new PartDaemonAsyncSelector();
+      asyncSelector.start();
+    } else {
+      asyncSelector = null;
+    }
+    cache = options.isCacheEnabled() ? new HankResponseCache(options.getCacheMaxNumEntries(), options.getCacheMaxNumBytes()) : null;
 
-    loadCache(numConnectionsPerHost);
+    loadCache();
     ringGroupConfig.setListener(this);
+    domainGroup.setListener(this);
     for (Ring ringConfig : ringGroupConfig.getRings()) {
       ringConfig.setStateChangeListener(this);
     }
   }
 
-  private void loadCache(int numConnectionsPerHost) throws IOException, TException {
+  private void loadCache() throws IOException, TException {
+    int numConnectionsPerHost = options.getNumConnectionsPerHost();
+    int numAsyncConnectionsPerHost = options.getNumAsyncConnectionsPerHost();
     // preprocess the config to create skeleton domain -> part -> [hosts] map
     DomainGroup domainGroup = ringGroupConfig.getDomainGroup();
 
@@ -108,13 +193,25 @@ public class HankSmartClient implements Iface, RingGroupChangeListener, RingStat
         }
 
         // establish connection to hosts
+        HostLatencyTracker latencyTracker = new HostLatencyTracker();
+        HostCircuitBreaker circuitBreaker = new HostCircuitBreaker(options.getCircuitBreakerFailureThreshold(),
+            options.getCircuitBreakerMinOpenMs(), options.getCircuitBreakerMaxOpenMs());
+        circuitBreakers.put(hostConfig.getAddress(), circuitBreaker);
         List<PartDaemonConnection> hostConnections = new ArrayList<PartDaemonConnection>(numConnectionsPerHost);
         for (int i = 0; i < numConnectionsPerHost; i++) {
-          hostConnections.add(new PartDaemonConnection(hostConfig));
+          hostConnections.add(new PartDaemonConnection(hostConfig, latencyTracker, circuitBreaker, options.isPipelined()));
         }
         connectionCache.put(hostConfig.getAddress(), hostConnections);
+        hostToConnectionSet.put(hostConfig.getAddress(), new PartDaemonConnectionSet(hostConnections, options, null));
+
+        List<PartDaemonAsyncConnection> asyncConnections = new ArrayList<PartDaemonAsyncConnection>(numAsyncConnectionsPerHost);
+        for (int i = 0; i < numAsyncConnectionsPerHost; i++) {
+          asyncConnections.add(new PartDaemonAsyncConnection(hostConfig, circuitBreaker, asyncSelector));
+        }
+        hostToAsyncConnections.put(hostConfig.getAddress(), asyncConnections);
       }
     }
+    domainToPartitionToHosts.putAll(domainPartToHostList);
 
     for (Map.Entry<Integer, Map<Integer, List<PartDaemonAddress>>> entry1 : domainPartToHostList.entrySet()) {
       Map<Integer, PartDaemonConnectionSet> domainMap = new HashMap<Integer, PartDaemonConnectionSet>();
@@ -125,7 +222,7 @@ public class HankSmartClient implements Iface, RingGroupChangeListener, RingStat
             clientBundles.add(conn);
           }
         }
-        domainMap.put(entry2.getKey(), new PartDaemonConnectionSet(clientBundles));
+        domainMap.put(entry2.getKey(), new PartDaemonConnectionSet(clientBundles, options, requestExecutor));
       }
       domainToPartitionToConnectionSet.put(entry1.getKey(), domainMap);
     }
@@ -133,6 +230,15 @@ public class HankSmartClient implements Iface, RingGroupChangeListener, RingStat
 
   @Override
   public HankResponse get(String domainName, ByteBuffer key) throws TException {
+    return get(domainName, key, options.getRequestTimeoutMs());
+  }
+
+  /**
+   * @param timeoutMs how long to wait for the value before returning
+   *          deadline_exceeded. 0 means wait as long as it takes.
+   */
+  public HankResponse get(String domainName, ByteBuffer key, long timeoutMs) throws TException {
+    long deadlineMs = getDeadlineMs(timeoutMs);
     int partition = -1;
     Integer domainId = null;
     try {
@@ -175,15 +281,551 @@ public class HankSmartClient implements Iface, RingGroupChangeListener, RingStat
       return HankResponse.xception(HankExceptions.internal_error(errMsg));
     }
     LOG.trace("Looking in domain " + domainName + ", in partition " + partition + ", for key: " + Bytes.bytesToHexString(key));
-    return connectionSet.get(domainId, key);
+    if (cache == null) {
+      return connectionSet.get(domainId, key, deadlineMs);
+    }
+    HankResponse response = cache.get(domainId, key);
+    if (response == null) {
+      long generation = cache.getGeneration();
+      response = connectionSet.get(domainId, key, deadlineMs);
+      cache.put(generation, domainId, key, response);
+    }
+    return response;
+  }
+
+  /**
+   * @return 0 if there's no timeout, or when the timeout runs out, in
+   *         milliseconds since the epoch
+   */
+  private static long getDeadlineMs(long timeoutMs) {
+    return timeoutMs > 0 ? System.currentTimeMillis() + timeoutMs : 0;
+  }
+
+  /**
+   * Part daemons are sent the time that's left rather than the deadline
+   * itself, since their clocks may not agree with ours.
+   * @return 0 if there's no deadline, or the milliseconds left until
+   *         <i>deadlineMs</i>, at least 1
+   */
+  static long getTimeoutMs(long deadlineMs) {
+    return deadlineMs > 0 ? Math.max(1, deadlineMs - System.currentTimeMillis()) : 0;
+  }
+
+  /**
+   * @return the circuit breaker of each host, to check on their health
+   */
+  public Map<PartDaemonAddress, HostCircuitBreaker> getCircuitBreakers() {
+    return Collections.unmodifiableMap(circuitBreakers);
+  }
+
+  /**
+   * @return the cache of responses, or null if caching is disabled
+   */
+  public HankResponseCache getCache() {
+    return cache;
+  }
+
+  /**
+   * Get a value without blocking. The callback is run once the response
+   * arrives, on the thread that does all the asynchronous IO, so it should
+   * hand off any real work. It gets an error only if the request failed; Hank
+   * errors like no_such_domain come back as responses, just as they do from
+   * {@link #get(String, ByteBuffer)}.
+   */
+  public void getAsync(String domainName, ByteBuffer key, AsyncMethodCallback<HankResponse> callback) {
+    getAsync(domainName, key, options.getRequestTimeoutMs(), callback);
+  }
+
+  /**
+   * Get a value without blocking, completing with deadline_exceeded if it
+   * takes longer than <i>timeoutMs</i>. 0 means no timeout.
+   * @see #getAsync(String, ByteBuffer, AsyncMethodCallback)
+   */
+  public void getAsync(String domainName, ByteBuffer key, long timeoutMs, AsyncMethodCallback<HankResponse> callback) {
+    long deadlineMs = getDeadlineMs(timeoutMs);
+    Integer domainId = null;
+    Domain domain = null;
+    try {
+      domainId = domainGroup.getDomainId(domainName);
+      if (domainId != null) {
+        domain = domainGroup.getDomain(domainId);
+      }
+    } catch (IOException e) {
+      // TODO: this might be bad.
+      LOG.error(e);
+    }
+    if (domain == null) {
+      callback.onComplete(NO_SUCH_DOMAIN);
+      return;
+    }
+
+    if (cache != null) {
+      HankResponse cached = cache.get(domainId, key);
+      if (cached != null) {
+        callback.onComplete(cached);
+        return;
+      }
+      callback = new CachingCallback(cache.getGeneration(), domainId, key, callback);
+    }
+
+    int partition = domain.getPartitioner().partition(key, domain.getNumParts());
+    Map<Integer, List<PartDaemonAddress>> partitionToHosts = domainToPartitionToHosts.get(domainId);
+    List<PartDaemonAddress> hosts = partitionToHosts == null ? null : partitionToHosts.get(partition);
+    if (hosts == null) {
+      String errMsg = String.format("Got a null list of hosts for domain %s (%d) when looking for partition %d", domainName, domainId, partition);
+      LOG.error(errMsg);
+      callback.onComplete(HankResponse.xception(HankExceptions.internal_error(errMsg)));
+      return;
+    }
+
+    LOG.trace("Looking in domain " + domainName + ", in partition " + partition + ", for key: " + Bytes.bytesToHexString(key));
+    new FailoverCallback(domainId, key, deadlineMs, hosts, callback).start();
+  }
+
+  /**
+   * Sends an asynchronous get to one replica after another, as long as they
+   * fail or are overloaded and there's time left, the same way
+   * {@link PartDaemonConnectionSet} does for blocking gets. Only the final
+   * outcome is passed on.
+   */
+  private final class FailoverCallback implements AsyncMethodCallback<HankResponse> {
+    private final int domainId;
+    private final ByteBuffer key;
+    private final long deadlineMs;
+    private final List<PartDaemonAddress> hosts;
+    private final AsyncMethodCallback<HankResponse> callback;
+    private final Set<PartDaemonAddress> triedHosts = new HashSet<PartDaemonAddress>();
+
+    public FailoverCallback(int domainId, ByteBuffer key, long deadlineMs, List<PartDaemonAddress> hosts, AsyncMethodCallback<HankResponse> callback) {
+      this.domainId = domainId;
+      this.key = key;
+      this.deadlineMs = deadlineMs;
+      this.hosts = hosts;
+      this.callback = callback;
+    }
+
+    public void start() {
+      PartDaemonAsyncConnection connection = chooseAsyncConnection(hosts, triedHosts);
+      if (connection == null) {
+        callback.onComplete(ZERO_REPLICAS);
+        return;
+      }
+      send(connection);
+    }
+
+    private void send(PartDaemonAsyncConnection connection) {
+      triedHosts.add(connection.getAddress());
+      connection.get(domainId, key, deadlineMs, this);
+    }
+
+    @Override
+    public void onComplete(HankResponse response) {
+      PartDaemonAsyncConnection next = null;
+      if (PartDaemonConnectionSet.isOverloaded(response) && !isExpired(deadlineMs)) {
+        next = chooseAsyncConnection(hosts, triedHosts);
+      }
+      if (next == null) {
+        callback.onComplete(response);
+        return;
+      }
+      LOG.debug("Host is overloaded, trying " + next.getAddress());
+      send(next);
+    }
+
+    @Override
+    public void onError(Exception e) {
+      PartDaemonAsyncConnection next = isExpired(deadlineMs) ? null : chooseAsyncConnection(hosts, triedHosts);
+      if (next == null) {
+        if (isExpired(deadlineMs)) {
+          callback.onComplete(DEADLINE_EXCEEDED);
+        } else {
+          callback.onError(e);
+        }
+        return;
+      }
+      LOG.debug("Async get failed, trying " + next.getAddress(), e);
+      send(next);
+    }
+  }
+
+  /**
+   * Caches the response to an asynchronous get before passing it on.
+   */
+  private final class CachingCallback implements AsyncMethodCallback<HankResponse> {
+    private final long generation;
+    private final int domainId;
+    private final ByteBuffer key;
+    private final AsyncMethodCallback<HankResponse> callback;
+
+    public CachingCallback(long generation, int domainId, ByteBuffer key, AsyncMethodCallback<HankResponse> callback) {
+      this.generation = generation;
+      this.domainId = domainId;
+      this.key = key;
+      this.callback = callback;
+    }
+
+    @Override
+    public void onComplete(HankResponse response) {
+      cache.put(generation, domainId, key, response);
+      callback.onComplete(response);
+    }
+
+    @Override
+    public void onError(Exception e) {
+      callback.onError(e);
+    }
+  }
+
+  /**
+   * Get a value without blocking.
+   * @see #getAsync(String, ByteBuffer, AsyncMethodCallback)
+   */
+  public Future<HankResponse> getAsync(String domainName, ByteBuffer key) {
+    return getAsync(domainName, key, options.getRequestTimeoutMs());
+  }
+
+  /**
+   * Get a value without blocking.
+   * @see #getAsync(String, ByteBuffer, long, AsyncMethodCallback)
+   */
+  public Future<HankResponse> getAsync(String domainName, ByteBuffer key, long timeoutMs) {
+    HankResponseFuture future = new HankResponseFuture();
+    getAsync(domainName, key, timeoutMs, future);
+    return future;
+  }
+
+  /**
+   * Round robin over the hosts, skipping any that have no open connections or
+   * whose circuit breakers are open, and pick the host's connection with the
+   * fewest pending gets.
+   * @param excludedHosts hosts not to use
+   */
+  private PartDaemonAsyncConnection chooseAsyncConnection(List<PartDaemonAddress> hosts, Set<PartDaemonAddress> excludedHosts) {
+    if (hosts.isEmpty()) {
+      return null;
+    }
+    int start = nextHostIdx.getAndIncrement() & Integer.MAX_VALUE;
+    for (int i = 0; i < hosts.size(); i++) {
+      PartDaemonAddress host = hosts.get((start + i) % hosts.size());
+      if (excludedHosts.contains(host) || !circuitBreakers.get(host).isAvailable()) {
+        continue;
+      }
+      PartDaemonAsyncConnection best = null;
+      int bestPending = Integer.MAX_VALUE;
+      for (PartDaemonAsyncConnection connection : hostToAsyncConnections.get(host)) {
+        if (connection.isClosed()) {
+          continue;
+        }
+        int pending = connection.getNumPending();
+        if (pending < bestPending) {
+          best = connection;
+          bestPending = pending;
+        }
+      }
+      if (best != null) {
+        return best;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get the values of many keys in one domain. Keys are grouped by the host
+   * that will serve their partition, each host gets a single request, and the
+   * requests run in parallel. If a host fails, or turns keys away because
+   * it's overloaded, those keys are grouped again over the other replicas of
+   * their partitions, until they run out or the deadline passes. The responses are in the same order as the keys.
+   */
+  @Override
+  public List<HankResponse> getBulk(String domainName, List<ByteBuffer> keys) throws TException {
+    return getBulk(domainName, keys, options.getRequestTimeoutMs());
+  }
+
+  /**
+   * @param timeoutMs how long to wait for the values. Keys whose host doesn't
+   *          answer in time get deadline_exceeded. 0 means wait as long as it
+   *          takes.
+   * @see #getBulk(String, List)
+   */
+  public List<HankResponse> getBulk(String domainName, List<ByteBuffer> keys, long timeoutMs) throws TException {
+    long deadlineMs = getDeadlineMs(timeoutMs);
+    HankResponse[] responses = new HankResponse[keys.size()];
+
+    Integer domainId = null;
+    Domain domain = null;
+    try {
+      domainId = domainGroup.getDomainId(domainName);
+      if (domainId != null) {
+        domain = domainGroup.getDomain(domainId);
+      }
+    } catch (IOException e) {
+      // TODO: this might be bad.
+      LOG.error(e);
+    }
+    if (domain == null) {
+      Arrays.fill(responses, NO_SUCH_DOMAIN);
+      return Arrays.asList(responses);
+    }
+
+    Map<Integer, List<PartDaemonAddress>> partitionToHosts = domainToPartitionToHosts.get(domainId);
+    if (partitionToHosts == null) {
+      String errMsg = String.format("Got a null domain->part map for domain %s (%d)!", domainName, domainId);
+      LOG.error(errMsg);
+      Arrays.fill(responses, HankResponse.xception(HankExceptions.internal_error(errMsg)));
+      return Arrays.asList(responses);
+    }
+
+    // the keys that aren't cached go out in rounds. each round groups the
+    // keys that still need an answer by the host chosen for their partition.
+    // keys whose host failed or was overloaded are retried on the partition's
+    // other replicas.
+    long generation = cache == null ? 0 : cache.getGeneration();
+    int[] partitions = new int[keys.size()];
+    List<Integer> remaining = new ArrayList<Integer>(keys.size());
+    for (int i = 0; i < keys.size(); i++) {
+      if (cache != null) {
+        responses[i] = cache.get(domainId, keys.get(i));
+        if (responses[i] != null) {
+          continue;
+        }
+      }
+      partitions[i] = domain.getPartitioner().partition(keys.get(i), domain.getNumParts());
+      remaining.add(i);
+    }
+
+    Map<Integer, Set<PartDaemonAddress>> partitionToFailedHosts = new HashMap<Integer, Set<PartDaemonAddress>>();
+    List<BulkRequest> sentRequests = new ArrayList<BulkRequest>();
+    while (!remaining.isEmpty()) {
+      if (!partitionToFailedHosts.isEmpty() && isExpired(deadlineMs)) {
+        for (int position : remaining) {
+          responses[position] = DEADLINE_EXCEEDED;
+        }
+        break;
+      }
+
+      Map<Integer, PartDaemonAddress> partitionToChosenHost = new HashMap<Integer, PartDaemonAddress>();
+      Map<PartDaemonAddress, BulkRequest> requests = new LinkedHashMap<PartDaemonAddress, BulkRequest>();
+      for (int position : remaining) {
+        int partition = partitions[position];
+        PartDaemonAddress host = partitionToChosenHost.get(partition);
+        if (host == null) {
+          List<PartDaemonAddress> hosts = partitionToHosts.get(partition);
+          if (hosts == null) {
+            String errMsg = String.format("Got a null list of hosts for domain %s (%d) when looking for partition %d", domainName, domainId, partition);
+            LOG.error(errMsg);
+            responses[position] = HankResponse.xception(HankExceptions.internal_error(errMsg));
+            continue;
+          }
+          host = chooseHost(hosts, partitionToFailedHosts.get(partition), requests.keySet());
+          if (host == null) {
+            // a key that was already tried keeps the response of its last try
+            if (responses[position] == null) {
+              responses[position] = ZERO_REPLICAS;
+            }
+            continue;
+          }
+          partitionToChosenHost.put(partition, host);
+        }
+
+        BulkRequest request = requests.get(host);
+        if (request == null) {
+          request = new BulkRequest(domainId, host, hostToConnectionSet.get(host), deadlineMs, responses);
+          requests.put(host, request);
+        }
+        request.add(position, keys.get(position));
+      }
+
+      run(requests.values());
+      sentRequests.addAll(requests.values());
+
+      remaining = new ArrayList<Integer>();
+      for (BulkRequest request : requests.values()) {
+        for (int position : request.getFailedPositions()) {
+          Set<PartDaemonAddress> failedHosts = partitionToFailedHosts.get(partitions[position]);
+          if (failedHosts == null) {
+            failedHosts = new HashSet<PartDaemonAddress>();
+            partitionToFailedHosts.put(partitions[position], failedHosts);
+          }
+          failedHosts.add(request.host);
+          remaining.add(position);
+        }
+      }
+    }
+
+    if (cache != null) {
+      for (BulkRequest request : sentRequests) {
+        request.cacheResponses(cache, generation);
+      }
+    }
+    return Arrays.asList(responses);
+  }
+
+  /**
+   * Send the requests in parallel, running one of them in this thread.
+   */
+  private void run(Collection<BulkRequest> requests) throws TException {
+    List<Future<?>> futures = new ArrayList<Future<?>>(requests.size());
+    BulkRequest inlineRequest = null;
+    for (BulkRequest request : requests) {
+      if (inlineRequest == null) {
+        inlineRequest = request;
+      } else {
+        futures.add(requestExecutor.submit(request));
+      }
+    }
+    if (inlineRequest != null) {
+      inlineRequest.run();
+    }
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new TException("Interrupted while waiting for bulk get responses", e);
+      } catch (ExecutionException e) {
+        throw new TException(e.getCause());
+      }
+    }
+  }
+
+  private static boolean isExpired(long deadlineMs) {
+    return deadlineMs > 0 && System.currentTimeMillis() >= deadlineMs;
+  }
+
+  /**
+   * Prefer a host that's already part of this round of a bulk get, so that
+   * it's split across as few hosts as possible. Otherwise, spread partitions
+   * over their hosts round robin, skipping hosts with no open connections or
+   * open circuit breakers.
+   *
+   * @param excludedHosts hosts that already failed the partition. May be null.
+   * @return the chosen host, or null if none of them are available
+   */
+  private PartDaemonAddress chooseHost(List<PartDaemonAddress> hosts, Set<PartDaemonAddress> excludedHosts, Set<PartDaemonAddress> alreadyChosen) {
+    for (PartDaemonAddress host : hosts) {
+      if (alreadyChosen.contains(host) && (excludedHosts == null || !excludedHosts.contains(host))) {
+        return host;
+      }
+    }
+    if (hosts.isEmpty()) {
+      return null;
+    }
+    int start = nextHostIdx.getAndIncrement() & Integer.MAX_VALUE;
+    for (int i = 0; i < hosts.size(); i++) {
+      PartDaemonAddress host = hosts.get((start + i) % hosts.size());
+      if ((excludedHosts == null || !excludedHosts.contains(host)) && hostToConnectionSet.get(host).isAvailable()) {
+        return host;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The keys of a bulk get that are going to one host, along with their
+   * positions in the original request.
+   */
+  private static final class BulkRequest implements Runnable {
+    private final int domainId;
+    private final PartDaemonAddress host;
+    private final PartDaemonConnectionSet connectionSet;
+    private final long deadlineMs;
+    private final HankResponse[] responses;
+    private final List<Integer> positions = new ArrayList<Integer>();
+    private final List<ByteBuffer> keys = new ArrayList<ByteBuffer>();
+    // whether the host couldn't be reached
+    private boolean failed = false;
+
+    public BulkRequest(int domainId, PartDaemonAddress host, PartDaemonConnectionSet connectionSet, long deadlineMs, HankResponse[] responses) {
+      this.domainId = domainId;
+      this.host = host;
+      this.connectionSet = connectionSet;
+      this.deadlineMs = deadlineMs;
+      this.responses = responses;
+    }
+
+    public void add(int position, ByteBuffer key) {
+      positions.add(position);
+      keys.add(key);
+    }
+
+    @Override
+    public void run() {
+      List<HankResponse> hostResponses;
+      try {
+        hostResponses = connectionSet.getBulk(domainId, keys, deadlineMs);
+      } catch (TException e) {
+        LOG.warn("Bulk get of " + keys.size() + " keys from " + host + " failed", e);
+        failed = true;
+        fill(HankResponse.xception(HankExceptions.internal_error("Bulk get failed: " + e.getMessage())));
+        return;
+      }
+      if (hostResponses == null || hostResponses.size() != keys.size()) {
+        String errMsg = String.format("Expected %d responses to a bulk get, but got %s", keys.size(), hostResponses == null ? null : hostResponses.size());
+        LOG.error(errMsg);
+        fill(HankResponse.xception(HankExceptions.internal_error(errMsg)));
+        return;
+      }
+      for (int i = 0; i < positions.size(); i++) {
+        responses[positions.get(i)] = hostResponses.get(i);
+      }
+    }
+
+    /**
+     * @return the positions of the keys that should be retried on another
+     *         host: all of them if the host couldn't be reached, otherwise the
+     *         ones it was too overloaded to look up
+     */
+    public List<Integer> getFailedPositions() {
+      if (failed) {
+        return positions;
+      }
+      List<Integer> overloaded = Collections.emptyList();
+      for (int position : positions) {
+        if (PartDaemonConnectionSet.isOverloaded(responses[position])) {
+          if (overloaded.isEmpty()) {
+            overloaded = new ArrayList<Integer>();
+          }
+          overloaded.add(position);
+        }
+      }
+      return overloaded;
+    }
+
+    public void cacheResponses(HankResponseCache cache, long generation) {
+      for (int i = 0; i < positions.size(); i++) {
+        cache.put(generation, domainId, keys.get(i), responses[positions.get(i)]);
+      }
+    }
+
+    private void fill(HankResponse response) {
+      for (int position : positions) {
+        responses[position] = response;
+      }
+    }
   }
 
   @Override
   public void onRingGroupChange(RingGroup newRingGroup) {
     LOG.debug("Smart Client notified of ring group change!");
+    clearCache();
   }
 
   @Override
   public void onRingStateChange(Ring ringConfig) {
+    // a ring that just went up or down for an update changes which version
+    // some of the answers come from
+    clearCache();
+  }
+
+  @Override
+  public void onDomainGroupChange(DomainGroup newDomainGroup) {
+    LOG.debug("Smart Client notified of domain group change!");
+    clearCache();
+  }
+
+  private void clearCache() {
+    if (cache != null) {
+      cache.clear();
+    }
   }
 }
@@ -0,0 +1,236 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.client;
+
+/**
+ * Tuning knobs for a {@link HankSmartClient}. Setters return this, so options
+ * can be chained.
+ */
+public class HankSmartClientOptions {
+  private int numConnectionsPerHost = 1;
+  private long requestTimeoutMs = 0;
+  private int numAsyncConnectionsPerHost = 1;
+  private boolean pipelined = false;
+  private long hedgeDelayMs = 0;
+  private double hedgeDelayPercentile = 0;
+  private ReplicaSelection replicaSelection = ReplicaSelection.ROUND_ROBIN;
+  private String preferredHostNameSuffix = null;
+  private int cacheMaxNumEntries = 0;
+  private long cacheMaxNumBytes = 0;
+  private int circuitBreakerFailureThreshold = 3;
+  private long circuitBreakerMinOpenMs = 1000;
+  private long circuitBreakerMaxOpenMs = 30000;
+
+  public int getNumConnectionsPerHost() {
+    return numConnectionsPerHost;
+  }
+
+  /**
+   * The number of blocking connections to each host. Each one serves a single
+   * synchronous get at a time.
+   */
+  public HankSmartClientOptions setNumConnectionsPerHost(int numConnectionsPerHost) {
+    this.numConnectionsPerHost = numConnectionsPerHost;
+    return this;
+  }
+
+  public long getRequestTimeoutMs() {
+    return requestTimeoutMs;
+  }
+
+  /**
+   * How long a request may take when the caller doesn't give its own timeout.
+   * A request that runs out of time returns a deadline_exceeded error, and
+   * the part daemon skips it if it hasn't started on it yet. 0, the default,
+   * means requests don't time out.
+   */
+  public HankSmartClientOptions setRequestTimeoutMs(long requestTimeoutMs) {
+    this.requestTimeoutMs = requestTimeoutMs;
+    return this;
+  }
+
+  public boolean isPipelined() {
+    return pipelined;
+  }
+
+  /**
+   * If true, threads share the blocking connections rather than take turns
+   * using them. Each request is sent as soon as it's made, and responses are
+   * matched back to their callers as they arrive, so one or two connections
+   * per host are usually enough.
+   */
+  public HankSmartClientOptions setPipelined(boolean pipelined) {
+    this.pipelined = pipelined;
+    return this;
+  }
+
+  public int getNumAsyncConnectionsPerHost() {
+    return numAsyncConnectionsPerHost;
+  }
+
+  /**
+   * The number of non-blocking connections to each host used by asynchronous
+   * gets. They're only opened once they're used. Each one carries any number
+   * of gets at once, so one is usually enough.
+   */
+  public HankSmartClientOptions setNumAsyncConnectionsPerHost(int numAsyncConnectionsPerHost) {
+    this.numAsyncConnectionsPerHost = numAsyncConnectionsPerHost;
+    return this;
+  }
+
+  public long getHedgeDelayMs() {
+    return hedgeDelayMs;
+  }
+
+  /**
+   * If positive, a get that hasn't been answered after this long is also sent
+   * to another replica, and whichever answer comes first is used. When
+   * {@link #setHedgeDelayPercentile(double)} is also set, this is the minimum
+   * delay.
+   */
+  public HankSmartClientOptions setHedgeDelayMs(long hedgeDelayMs) {
+    this.hedgeDelayMs = hedgeDelayMs;
+    return this;
+  }
+
+  public double getHedgeDelayPercentile() {
+    return hedgeDelayPercentile;
+  }
+
+  /**
+   * If positive, hedge gets that take longer than this percentile (e.g. 0.95)
+   * of the recent latencies of the host they went to. Until a host has enough
+   * latency samples, only the fixed delay applies.
+   */
+  public HankSmartClientOptions setHedgeDelayPercentile(double hedgeDelayPercentile) {
+    this.hedgeDelayPercentile = hedgeDelayPercentile;
+    return this;
+  }
+
+  public ReplicaSelection getReplicaSelection() {
+    return replicaSelection;
+  }
+
+  /**
+   * How to pick the replica each get goes to. Defaults to round robin.
+   */
+  public HankSmartClientOptions setReplicaSelection(ReplicaSelection replicaSelection) {
+    this.replicaSelection = replicaSelection;
+    return this;
+  }
+
+  public String getPreferredHostNameSuffix() {
+    return preferredHostNameSuffix;
+  }
+
+  /**
+   * If set, gets only go to hosts whose names end with this (e.g.
+   * ".dc1.example.com") as long as one of them has an open connection. The
+   * other hosts are only used when none of the preferred ones are available.
+   */
+  public HankSmartClientOptions setPreferredHostNameSuffix(String preferredHostNameSuffix) {
+    this.preferredHostNameSuffix = preferredHostNameSuffix;
+    return this;
+  }
+
+  public int getCacheMaxNumEntries() {
+    return cacheMaxNumEntries;
+  }
+
+  /**
+   * If positive, responses are cached, and at most this many of them are
+   * kept. The least recently used ones are evicted first.
+   */
+  public HankSmartClientOptions setCacheMaxNumEntries(int cacheMaxNumEntries) {
+    this.cacheMaxNumEntries = cacheMaxNumEntries;
+    return this;
+  }
+
+  public long getCacheMaxNumBytes() {
+    return cacheMaxNumBytes;
+  }
+
+  /**
+   * If positive, responses are cached, and the cached keys and values take up
+   * at most about this many bytes.
+   */
+  public HankSmartClientOptions setCacheMaxNumBytes(long cacheMaxNumBytes) {
+    this.cacheMaxNumBytes = cacheMaxNumBytes;
+    return this;
+  }
+
+  public int getCircuitBreakerFailureThreshold() {
+    return circuitBreakerFailureThreshold;
+  }
+
+  /**
+   * After this many transport errors in a row, a host is skipped for a while.
+   * 0 turns the circuit breakers off. Defaults to 3.
+   */
+  public HankSmartClientOptions setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+    this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+    return this;
+  }
+
+  public long getCircuitBreakerMinOpenMs() {
+    return circuitBreakerMinOpenMs;
+  }
+
+  /**
+   * How long a host is skipped the first time its breaker opens. It doubles
+   * each time the host fails again right after, up to the max. Defaults to 1
+   * second.
+   */
+  public HankSmartClientOptions setCircuitBreakerMinOpenMs(long circuitBreakerMinOpenMs) {
+    this.circuitBreakerMinOpenMs = circuitBreakerMinOpenMs;
+    return this;
+  }
+
+  public long getCircuitBreakerMaxOpenMs() {
+    return circuitBreakerMaxOpenMs;
+  }
+
+  /**
+   * The longest a host is skipped for at a time. Defaults to 30 seconds.
+   */
+  public HankSmartClientOptions setCircuitBreakerMaxOpenMs(long circuitBreakerMaxOpenMs) {
+    this.circuitBreakerMaxOpenMs = circuitBreakerMaxOpenMs;
+    return this;
+  }
+
+  public boolean isCacheEnabled() {
+    return cacheMaxNumEntries > 0 || cacheMaxNumBytes > 0;
+  }
+
+  public boolean isHedgingEnabled() {
+    return hedgeDelayMs > 0 || hedgeDelayPercentile > 0;
+  }
+
+  @Override
+  public String toString() {
+    return "HankSmartClientOptions [numConnectionsPerHost=" + numConnectionsPerHost
+        + ", requestTimeoutMs=" + requestTimeoutMs
+        + ", pipelined=" + pipelined
+        + ", numAsyncConnectionsPerHost=" + numAsyncConnectionsPerHost
+        + ", hedgeDelayMs=" + hedgeDelayMs + ", hedgeDelayPercentile="
+        + hedgeDelayPercentile + ", replicaSelection=" + replicaSelection
+        + ", preferredHostNameSuffix=" + preferredHostNameSuffix
+        + ", cacheMaxNumEntries=" + cacheMaxNumEntries + ", cacheMaxNumBytes=" + cacheMaxNumBytes
+        + ", circuitBreakerFailureThreshold=" + circuitBreakerFailureThreshold
+        + ", circuitBreakerMinOpenMs=" + circuitBreakerMinOpenMs
+        + ", circuitBreakerMaxOpenMs=" + circuitBreakerMaxOpenMs + "]";
+  }
+}
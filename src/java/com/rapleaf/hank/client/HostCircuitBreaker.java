@@ -0,0 +1,124 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.client;
+
+/**
+ * Keeps requests away from a part daemon that keeps failing. After enough
+ * transport errors in a row, the breaker opens and the host is skipped for a
+ * while. Once that time is up, requests are let through again (half open):
+ * the first success closes the breaker, and the first failure opens it again
+ * for twice as long, up to a limit.
+ *
+ * Shared by all the connections to a host.
+ */
+public final class HostCircuitBreaker {
+  public static enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN;
+  }
+
+  private final int failureThreshold;
+  private final long minOpenMs;
+  private final long maxOpenMs;
+
+  private State state = State.CLOSED;
+  private int consecutiveFailures = 0;
+  private long openMs;
+  private long openUntil = 0;
+
+  private long numFailures = 0;
+  private long numTrips = 0;
+
+  /**
+   * @param failureThreshold the number of failures in a row that opens the
+   *          breaker. If 0, it never opens.
+   * @param minOpenMs how long the breaker stays open the first time
+   * @param maxOpenMs the longest the breaker stays open
+   */
+  public HostCircuitBreaker(int failureThreshold, long minOpenMs, long maxOpenMs) {
+    this.failureThreshold = failureThreshold;
+    this.minOpenMs = minOpenMs;
+    this.maxOpenMs = maxOpenMs;
+    this.openMs = minOpenMs;
+  }
+
+  /**
+   * @return false if requests shouldn't be sent to the host right now
+   */
+  synchronized boolean isAvailable() {
+    if (state == State.OPEN && System.currentTimeMillis() >= openUntil) {
+      state = State.HALF_OPEN;
+    }
+    return state != State.OPEN;
+  }
+
+  synchronized void recordSuccess() {
+    consecutiveFailures = 0;
+    if (state != State.CLOSED) {
+      state = State.CLOSED;
+      openMs = minOpenMs;
+    }
+  }
+
+  synchronized void recordFailure() {
+    numFailures++;
+    consecutiveFailures++;
+    if (failureThreshold <= 0) {
+      return;
+    }
+    if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+      if (state == State.HALF_OPEN) {
+        openMs = Math.min(maxOpenMs, openMs * 2);
+      }
+      state = State.OPEN;
+      openUntil = System.currentTimeMillis() + openMs;
+      numTrips++;
+    }
+  }
+
+  public synchronized State getState() {
+    // an expired open breaker is half open, even if nobody asked yet
+    if (state == State.OPEN && System.currentTimeMillis() >= openUntil) {
+      return State.HALF_OPEN;
+    }
+    return state;
+  }
+
+  public synchronized int getConsecutiveFailures() {
+    return consecutiveFailures;
+  }
+
+  /**
+   * @return the total number of failed requests to the host
+   */
+  public synchronized long getNumFailures() {
+    return numFailures;
+  }
+
+  /**
+   * @return the number of times the breaker has opened
+   */
+  public synchronized long getNumTrips() {
+    return numTrips;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "HostCircuitBreaker [state=" + getState() + ", consecutiveFailures=" + consecutiveFailures
+        + ", numFailures=" + numFailures + ", numTrips=" + numTrips + "]";
+  }
+}
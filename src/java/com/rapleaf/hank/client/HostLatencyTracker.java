@@ -0,0 +1,131 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.client;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recent request latencies to a single part daemon and the number of requests
+ * in flight to it, shared by all the connections to it. Keeps a moving average
+ * and a window of the latest samples to estimate percentiles from.
+ *
+ * Only requests the host actually served are sampled. A host that turns
+ * requests away answers almost at once, so it's tracked as overloaded for a
+ * while instead, and loses to every host that isn't.
+ */
+final class HostLatencyTracker {
+  static final int WINDOW_SIZE = 128;
+  // fewer samples than this don't say much about the tail
+  static final int MIN_SAMPLES = 16;
+  private static final double AVERAGE_WEIGHT = 0.1;
+  // re-sorting the window for every hedged request would be a waste
+  private static final int SAMPLES_PER_PERCENTILE_UPDATE = 8;
+  static final long OVERLOADED_PENALTY_MS = 1000;
+
+  private final long[] window = new long[WINDOW_SIZE];
+  private int numSamples = 0;
+  private int nextSample = 0;
+  private double averageNanos = 0;
+
+  private double cachedPercentile = -1;
+  private long cachedPercentileNanos = -1;
+  private int samplesSinceCached = 0;
+
+  private final AtomicInteger numInFlight = new AtomicInteger(0);
+  // 0 if the host has never turned a request away
+  private volatile long lastOverloadedMs = 0;
+
+  /**
+   * Call before sending a request to the host, including before waiting for a
+   * connection to it, and call {@link #requestFinished()} once it's answered.
+   */
+  public void requestStarted() {
+    numInFlight.incrementAndGet();
+  }
+
+  public void requestFinished() {
+    numInFlight.decrementAndGet();
+  }
+
+  public int getNumInFlight() {
+    return numInFlight.get();
+  }
+
+  public synchronized void record(long latencyNanos) {
+    window[nextSample] = latencyNanos;
+    nextSample = (nextSample + 1) % WINDOW_SIZE;
+    if (numSamples < WINDOW_SIZE) {
+      numSamples++;
+    }
+    averageNanos = numSamples == 1 ? latencyNanos : averageNanos + AVERAGE_WEIGHT * (latencyNanos - averageNanos);
+    samplesSinceCached++;
+  }
+
+  /**
+   * Note that the host turned a request away because it's overloaded.
+   */
+  public void recordOverloaded() {
+    lastOverloadedMs = System.currentTimeMillis();
+  }
+
+  /**
+   * @return true if the host turned a request away in the last
+   *         {@link #OVERLOADED_PENALTY_MS}
+   */
+  public boolean isOverloaded() {
+    long last = lastOverloadedMs;
+    return last > 0 && System.currentTimeMillis() - last < OVERLOADED_PENALTY_MS;
+  }
+
+  /**
+   * @return the exponentially weighted moving average latency, or 0 if there
+   *         are no samples yet
+   */
+  public synchronized double getAverageNanos() {
+    return averageNanos;
+  }
+
+  public synchronized int getNumSamples() {
+    return numSamples;
+  }
+
+  /**
+   * @param percentile between 0 and 1
+   * @return the latency that <i>percentile</i> of the recent requests were
+   *         faster than, or -1 if there aren't enough samples yet
+   */
+  public synchronized long getPercentileNanos(double percentile) {
+    if (numSamples < MIN_SAMPLES) {
+      return -1;
+    }
+    if (percentile != cachedPercentile || samplesSinceCached >= SAMPLES_PER_PERCENTILE_UPDATE) {
+      long[] sorted = Arrays.copyOf(window, numSamples);
+      Arrays.sort(sorted);
+      int idx = (int) Math.ceil(percentile * numSamples) - 1;
+      cachedPercentileNanos = sorted[Math.max(0, Math.min(numSamples - 1, idx))];
+      cachedPercentile = percentile;
+      samplesSinceCached = 0;
+    }
+    return cachedPercentileNanos;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "HostLatencyTracker [numSamples=" + numSamples + ", averageNanos=" + (long) averageNanos
+        + ", numInFlight=" + numInFlight + ", overloaded=" + isOverloaded() + "]";
+  }
+}
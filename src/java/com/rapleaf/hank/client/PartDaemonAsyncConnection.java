@@ -0,0 +1,490 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import org.apache.log4j.Logger;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TByteArrayOutputStream;
+import org.apache.thrift.TException;
+import org.apache.thrift.async.AsyncMethodCallback;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryInputTransport;
+
+import com.rapleaf.hank.coordinator.Host;
+import com.rapleaf.hank.coordinator.HostState;
+import com.rapleaf.hank.coordinator.HostStateChangeListener;
+import com.rapleaf.hank.coordinator.PartDaemonAddress;
+import com.rapleaf.hank.generated.HankExceptions;
+import com.rapleaf.hank.generated.HankResponse;
+import com.rapleaf.hank.generated.PartDaemon;
+
+/**
+ * A non-blocking connection to a part daemon that carries many gets at once.
+ * Like {@link PipelinedPartDaemonClient}, each get is tagged with its own
+ * sequence id and written as soon as it's made, without waiting for the
+ * responses to earlier ones, and responses are matched back to their gets by
+ * sequence id as they arrive. All the IO happens on the client's
+ * {@link PartDaemonAsyncSelector}, which is also where callbacks run, so they
+ * should be quick. Callers are never blocked.
+ *
+ * The socket is opened lazily by the first get after the host starts serving,
+ * and is reopened by the next get after any error. An error fails every get
+ * waiting on the socket. When the host stops serving, new gets are refused,
+ * and the socket is closed once the ones already made are done.
+ *
+ * A get whose deadline passes completes with a deadline_exceeded response
+ * rather than an error, without affecting the others. It's forgotten right
+ * away, and its response is thrown away if it ever arrives, so that a host
+ * that stopped responding doesn't pile up gets that gave up.
+ *
+ * Like {@link PartDaemonConnection}, it tells the host's
+ * {@link HostCircuitBreaker} about every socket error and late response, and
+ * about every response that does arrive.
+ */
+final class PartDaemonAsyncConnection implements HostStateChangeListener, PartDaemonAsyncSelector.Handler {
+  private static final Logger LOG = Logger.getLogger(PartDaemonAsyncConnection.class);
+
+  private static final HankResponse DEADLINE_EXCEEDED = HankResponse.xception(HankExceptions.deadline_exceeded(true));
+
+  // anything bigger means the stream is corrupt
+  private static final int MAX_FRAME_SIZE = 256 * 1024 * 1024;
+
+  private final class PendingGet implements Runnable {
+    private final int seqId;
+    private final long deadlineMs;
+    private final AsyncMethodCallback<HankResponse> callback;
+    private final ByteBuffer frame;
+    // set once the response arrives
+    private HankResponse response;
+    private Exception error;
+
+    public PendingGet(int seqId, long deadlineMs, AsyncMethodCallback<HankResponse> callback, ByteBuffer frame) {
+      this.seqId = seqId;
+      this.deadlineMs = deadlineMs;
+      this.callback = callback;
+      this.frame = frame;
+    }
+
+    /**
+     * Runs on the selector thread once the deadline passes.
+     */
+    @Override
+    public void run() {
+      synchronized (PartDaemonAsyncConnection.this) {
+        if (pendingGets.get(seqId) != this) {
+          // already done
+          return;
+        }
+        pendingGets.remove(seqId);
+        if (closed && pendingGets.isEmpty()) {
+          closeChannel();
+        }
+      }
+      circuitBreaker.recordFailure();
+      complete(this, DEADLINE_EXCEEDED);
+    }
+  }
+
+  private final Host host;
+  private final HostCircuitBreaker circuitBreaker;
+  private final PartDaemonAsyncSelector selector;
+
+  // guarded by this
+  private final Map<Integer, PendingGet> pendingGets = new HashMap<Integer, PendingGet>();
+  private final Queue<PendingGet> unsentGets = new LinkedList<PendingGet>();
+  private int nextSeqId = 0;
+  private boolean flushScheduled = false;
+  private boolean closed = true;
+
+  // only touched by the selector thread
+  private SocketChannel channel;
+  private SelectionKey key;
+  private final Queue<ByteBuffer> writeQueue = new LinkedList<ByteBuffer>();
+  private final ByteBuffer frameSize = ByteBuffer.allocate(4);
+  private ByteBuffer frame;
+
+  private final Runnable flushTask = new Runnable() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  private final Runnable closeIfIdleTask = new Runnable() {
+    @Override
+    public void run() {
+      synchronized (PartDaemonAsyncConnection.this) {
+        if (closed && pendingGets.isEmpty()) {
+          closeChannel();
+        }
+      }
+    }
+  };
+
+  /**
+   * @param circuitBreaker shared by all the connections to the same host
+   */
+  public PartDaemonAsyncConnection(Host host, HostCircuitBreaker circuitBreaker, PartDaemonAsyncSelector selector) throws IOException {
+    this.host = host;
+    this.circuitBreaker = circuitBreaker;
+    this.selector = selector;
+    host.setStateChangeListener(this);
+    onHostStateChange(host);
+  }
+
+  public PartDaemonAddress getAddress() {
+    return host.getAddress();
+  }
+
+  public synchronized boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * @return the number of gets waiting for their responses
+   */
+  public synchronized int getNumPending() {
+    return pendingGets.size();
+  }
+
+  /**
+   * @param deadlineMs when to give up, in milliseconds since the epoch. 0
+   *          means never.
+   */
+  public void get(int domainId, ByteBuffer key, long deadlineMs, AsyncMethodCallback<HankResponse> callback) {
+    if (deadlineMs > 0 && System.currentTimeMillis() >= deadlineMs) {
+      callback.onComplete(DEADLINE_EXCEEDED);
+      return;
+    }
+    Exception error = null;
+    boolean scheduleFlush = false;
+    synchronized (this) {
+      if (closed) {
+        error = new IOException("Connection to " + host.getAddress() + " is closed");
+      } else {
+        int seqId = nextSeqId++;
+        try {
+          PendingGet get = new PendingGet(seqId, deadlineMs, callback, serialize(seqId, domainId, key, deadlineMs));
+          pendingGets.put(seqId, get);
+          unsentGets.add(get);
+          scheduleFlush = !flushScheduled;
+          flushScheduled = true;
+        } catch (TException e) {
+          error = e;
+        }
+      }
+    }
+    if (error != null) {
+      callback.onError(error);
+    } else if (scheduleFlush) {
+      selector.execute(flushTask);
+    }
+  }
+
+  /**
+   * @return the framed call, ready to be written
+   */
+  private static ByteBuffer serialize(int seqId, int domainId, ByteBuffer key, long deadlineMs) throws TException {
+    PartDaemon.get_args args = new PartDaemon.get_args();
+    args.set_domain_id(domainId);
+    args.set_key(key);
+    args.set_timeout_ms(HankSmartClient.getTimeoutMs(deadlineMs));
+
+    TByteArrayOutputStream out = new TByteArrayOutputStream();
+    // room for the frame size
+    out.write(0);
+    out.write(0);
+    out.write(0);
+    out.write(0);
+    TProtocol protocol = new TCompactProtocol(new TIOStreamTransport(out));
+    protocol.writeMessageBegin(new TMessage("get", TMessageType.CALL, seqId));
+    args.write(protocol);
+    protocol.writeMessageEnd();
+
+    ByteBuffer frame = ByteBuffer.wrap(out.get(), 0, out.len());
+    frame.putInt(0, out.len() - 4);
+    return frame;
+  }
+
+  /**
+   * Hand the gets made since the last flush to the socket, opening it if
+   * needed. Runs on the selector thread.
+   */
+  private void flush() {
+    List<PendingGet> failed = null;
+    Exception error = null;
+    synchronized (this) {
+      flushScheduled = false;
+      if (unsentGets.isEmpty()) {
+        return;
+      }
+      PendingGet get;
+      while ((get = unsentGets.poll()) != null) {
+        writeQueue.add(get.frame);
+        if (get.deadlineMs > 0) {
+          selector.schedule(get.deadlineMs, get);
+        }
+      }
+      try {
+        if (channel == null) {
+          open();
+        } else if (channel.isConnected()) {
+          write();
+        }
+      } catch (IOException e) {
+        error = e;
+        failed = reset();
+      }
+    }
+    if (error != null) {
+      circuitBreaker.recordFailure();
+    }
+    fail(failed, error);
+  }
+
+  // must hold the lock, on the selector thread
+  private void open() throws IOException {
+    channel = SocketChannel.open();
+    channel.configureBlocking(false);
+    channel.socket().setTcpNoDelay(true);
+    frameSize.clear();
+    frame = null;
+    if (channel.connect(new InetSocketAddress(host.getAddress().getHostName(), host.getAddress().getPortNumber()))) {
+      key = selector.register(channel, SelectionKey.OP_READ, this);
+      write();
+    } else {
+      key = selector.register(channel, SelectionKey.OP_CONNECT, this);
+    }
+  }
+
+  @Override
+  public void onReady(SelectionKey key) {
+    List<PendingGet> failed = null;
+    Exception error = null;
+    List<PendingGet> completed = new ArrayList<PendingGet>();
+    synchronized (this) {
+      if (key != this.key) {
+        // left over from a socket that has since been closed
+        return;
+      }
+      try {
+        if (key.isConnectable()) {
+          channel.finishConnect();
+          key.interestOps(SelectionKey.OP_READ);
+          write();
+        }
+        if (key.isValid() && key.isReadable()) {
+          read(completed);
+        }
+        if (key.isValid() && key.isWritable()) {
+          write();
+        }
+      } catch (Exception e) {
+        LOG.trace("Connection to " + host.getAddress() + " failed", e);
+        error = e;
+        failed = reset();
+      }
+    }
+    if (!completed.isEmpty()) {
+      circuitBreaker.recordSuccess();
+    }
+    if (error != null) {
+      circuitBreaker.recordFailure();
+    }
+    for (PendingGet get : completed) {
+      if (get.error == null) {
+        complete(get, get.response);
+      } else {
+        fail(get, get.error);
+      }
+    }
+    fail(failed, error);
+  }
+
+  // must hold the lock, on the selector thread
+  private void write() throws IOException {
+    while (!writeQueue.isEmpty()) {
+      ByteBuffer buffer = writeQueue.peek();
+      channel.write(buffer);
+      if (buffer.hasRemaining()) {
+        break;
+      }
+      writeQueue.poll();
+    }
+    key.interestOps(writeQueue.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+  }
+
+  /**
+   * Read as many whole responses as have arrived, adding the gets they
+   * complete to <i>completed</i>. Must hold the lock, on the selector thread.
+   */
+  private void read(List<PendingGet> completed) throws IOException, TException {
+    while (true) {
+      if (frame == null) {
+        if (channel.read(frameSize) < 0) {
+          throw new EOFException("Connection to " + host.getAddress() + " was closed by the host");
+        }
+        if (frameSize.hasRemaining()) {
+          return;
+        }
+        int size = frameSize.getInt(0);
+        if (size <= 0 || size > MAX_FRAME_SIZE) {
+          throw new IOException("Read an invalid frame size of " + size + " from " + host.getAddress());
+        }
+        frame = ByteBuffer.allocate(size);
+      }
+      if (channel.read(frame) < 0) {
+        throw new EOFException("Connection to " + host.getAddress() + " was closed by the host");
+      }
+      if (frame.hasRemaining()) {
+        return;
+      }
+      byte[] bytes = frame.array();
+      frame = null;
+      frameSize.clear();
+      readResponse(bytes, completed);
+    }
+  }
+
+  // must hold the lock
+  private void readResponse(byte[] bytes, List<PendingGet> completed) throws TException {
+    TProtocol protocol = new TCompactProtocol(new TMemoryInputTransport(bytes));
+    TMessage message = protocol.readMessageBegin();
+    PendingGet get = pendingGets.remove(message.seqid);
+    if (get == null) {
+      // the get gave up before its response arrived
+      LOG.trace("Dropping the late response to get " + message.seqid + " from " + host.getAddress());
+      return;
+    }
+    if (message.type == TMessageType.EXCEPTION) {
+      get.error = TApplicationException.read(protocol);
+    } else {
+      PartDaemon.get_result result = new PartDaemon.get_result();
+      result.read(protocol);
+      if (result.is_set_success()) {
+        get.response = result.success;
+      } else {
+        get.error = new TApplicationException(TApplicationException.MISSING_RESULT, "get failed: unknown result");
+      }
+    }
+    protocol.readMessageEnd();
+    completed.add(get);
+    if (closed && pendingGets.isEmpty()) {
+      closeChannel();
+    }
+  }
+
+  /**
+   * Close the socket, since it can't be trusted after an error, and give up
+   * on every get waiting on it.
+   * @return the gets whose callbacks still have to be told. Must hold the
+   *         lock, on the selector thread.
+   */
+  private List<PendingGet> reset() {
+    closeChannel();
+    List<PendingGet> failed = new ArrayList<PendingGet>(pendingGets.values());
+    pendingGets.clear();
+    unsentGets.clear();
+    return failed;
+  }
+
+  // must hold the lock, on the selector thread
+  private void closeChannel() {
+    if (channel == null) {
+      return;
+    }
+    key.cancel();
+    try {
+      channel.close();
+    } catch (IOException e) {
+      LOG.debug("Failed to close the connection to " + host.getAddress(), e);
+    }
+    channel = null;
+    key = null;
+    writeQueue.clear();
+    frame = null;
+  }
+
+  private void fail(List<PendingGet> failed, Exception error) {
+    if (failed == null) {
+      return;
+    }
+    for (PendingGet get : failed) {
+      fail(get, error);
+    }
+  }
+
+  // a callback that throws mustn't keep the other gets from completing
+  private void complete(PendingGet get, HankResponse response) {
+    try {
+      get.callback.onComplete(response);
+    } catch (RuntimeException e) {
+      LOG.error("Callback for a get from " + host.getAddress() + " failed", e);
+    }
+  }
+
+  private void fail(PendingGet get, Exception error) {
+    try {
+      get.callback.onError(error);
+    } catch (RuntimeException e) {
+      LOG.error("Callback for a get from " + host.getAddress() + " failed", e);
+    }
+  }
+
+  @Override
+  public void onHostStateChange(Host host) {
+    boolean closing = false;
+    synchronized (this) {
+      try {
+        if (host.getState() == HostState.SERVING) {
+          closed = false;
+        } else if (!closed) {
+          closed = true;
+          closing = true;
+        }
+      } catch (IOException e) {
+        LOG.error("Exception while trying to get host state!", e);
+      }
+    }
+    // the gets already made are left to finish, and close the socket after
+    if (closing) {
+      selector.execute(closeIfIdleTask);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "PartDaemonAsyncConnection [host=" + host.getAddress() + ", closed=" + isClosed()
+        + ", pending=" + getNumPending() + "]";
+  }
+}
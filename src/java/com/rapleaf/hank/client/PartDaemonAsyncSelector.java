@@ -0,0 +1,148 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.client;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The thread that does all the IO of the {@link PartDaemonAsyncConnection}s of
+ * a client, and runs their timeouts. Connections hand it work with
+ * {@link #execute(Runnable)}, and only touch their channels from this thread.
+ * Callbacks run here too, so they should be quick.
+ */
+final class PartDaemonAsyncSelector extends Thread {
+  private static final Logger LOG = Logger.getLogger(PartDaemonAsyncSelector.class);
+
+  /**
+   * Told whenever its channel is ready for one of the operations it's
+   * interested in.
+   */
+  static interface Handler {
+    public void onReady(SelectionKey key);
+  }
+
+  private static final class Timeout implements Comparable<Timeout> {
+    private final long atMs;
+    private final Runnable task;
+
+    public Timeout(long atMs, Runnable task) {
+      this.atMs = atMs;
+      this.task = task;
+    }
+
+    @Override
+    public int compareTo(Timeout other) {
+      return atMs < other.atMs ? -1 : (atMs == other.atMs ? 0 : 1);
+    }
+  }
+
+  private final Selector selector;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+  // only touched by this thread
+  private final PriorityQueue<Timeout> timeouts = new PriorityQueue<Timeout>();
+  private volatile boolean stopped = false;
+
+  public PartDaemonAsyncSelector() throws IOException {
+    super("PartDaemon async selector");
+    setDaemon(true);
+    selector = Selector.open();
+  }
+
+  /**
+   * Run <i>task</i> on this thread as soon as possible.
+   */
+  public void execute(Runnable task) {
+    tasks.add(task);
+    selector.wakeup();
+  }
+
+  /**
+   * Run <i>task</i> on this thread once <i>atMs</i> has passed. Must be called
+   * from this thread.
+   */
+  public void schedule(long atMs, Runnable task) {
+    timeouts.add(new Timeout(atMs, task));
+  }
+
+  /**
+   * Must be called from this thread.
+   */
+  public SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws IOException {
+    return channel.register(selector, ops, handler);
+  }
+
+  @Override
+  public void run() {
+    while (!stopped) {
+      try {
+        runTasks();
+        long waitMs = runTimeouts();
+        selector.select(waitMs);
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (key.isValid()) {
+            ((Handler) key.attachment()).onReady(key);
+          }
+        }
+      } catch (IOException e) {
+        LOG.error("Selector failed", e);
+      } catch (RuntimeException e) {
+        // a connection or callback that throws shouldn't stop all the others
+        LOG.error("Unexpected exception in the async selector", e);
+      }
+    }
+    try {
+      selector.close();
+    } catch (IOException e) {
+      LOG.debug("Failed to close the selector", e);
+    }
+  }
+
+  private void runTasks() {
+    Runnable task;
+    while ((task = tasks.poll()) != null) {
+      task.run();
+    }
+  }
+
+  /**
+   * @return how long to wait for the next timeout, 0 if there are none
+   */
+  private long runTimeouts() {
+    long now = System.currentTimeMillis();
+    while (!timeouts.isEmpty() && timeouts.peek().atMs <= now) {
+      timeouts.poll().task.run();
+    }
+    // select(0) waits as long as it takes
+    return timeouts.isEmpty() ? 0 : Math.max(1, timeouts.peek().atMs - now);
+  }
+
+  public void shutDown() {
+    stopped = true;
+    selector.wakeup();
+  }
+}
@@ -16,7 +16,12 @@
 package com.rapleaf.hank.client;
 
 import java.io.IOException;
-import java.util.concurrent.locks.Lock;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
@@ -29,49 +34,390 @@ import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
 
 import com.rapleaf.hank.coordinator.Host;
+import com.rapleaf.hank.coordinator.HostState;
 import com.rapleaf.hank.coordinator.HostStateChangeListener;
+import com.rapleaf.hank.coordinator.PartDaemonAddress;
+import com.rapleaf.hank.generated.HankResponse;
 import com.rapleaf.hank.generated.PartDaemon;
 import com.rapleaf.hank.generated.PartDaemon.Client;
 
+/**
+ * A blocking connection to a part daemon. Normally it carries one request at a
+ * time, and callers take turns using it. In pipelined mode, callers share it
+ * instead: their requests are all written to the socket right away and the
+ * responses are matched back to them as they arrive, so a handful of
+ * connections can serve many threads.
+ *
+ * Connecting never happens on the caller's thread or the coordinator's. When
+ * the host starts serving, or a request fails because of the transport, the
+ * connection is closed and reopened in the background, backing off while the
+ * host keeps refusing. The socket is opened without holding any locks, so a
+ * host that's slow to refuse doesn't hold up requests or state changes, and
+ * it's closed without waiting for the request using it, which fails that
+ * request instead.
+ *
+ * A request with a deadline fails with a transport error once the deadline
+ * passes, and counts as a failure of the host. Waiting for a turn on the
+ * connection counts towards the deadline too.
+ */
 final class PartDaemonConnection implements HostStateChangeListener {
   private static final Logger LOG = Logger.getLogger(PartDaemonConnection.class);
 
-  private final Lock lock = new ReentrantLock();
+  static final long MIN_RECONNECT_DELAY_MS = 100;
+  static final long MAX_RECONNECT_DELAY_MS = 30000;
+  private static final int CONNECT_TIMEOUT_MS = 1000;
+  // a few threads, so that hosts that time out connecting don't hold up the
+  // reconnects to the others for long
+  private static final int NUM_RECONNECT_THREADS = 4;
+
+  private static final ScheduledExecutorService RECONNECT_EXECUTOR = Executors.newScheduledThreadPool(NUM_RECONNECT_THREADS, new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "PartDaemonConnection Reconnect Thread");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  private final ReentrantLock lock = new ReentrantLock();
 
-  public TTransport transport;
-  public Client client;
+  // written under stateChangeMutex, and also under the lock when they're set,
+  // so that requests see them whole
+  private TTransport transport;
+  private TSocket socket;
+  // the socket's current read timeout, so that it's only set when it changes
+  private int socketTimeoutMs = 0;
+  private Client client;
+  private volatile PipelinedPartDaemonClient pipelinedClient;
 
   private final Host hostConfig;
+  private final HostLatencyTracker latencyTracker;
+  private final HostCircuitBreaker circuitBreaker;
+  private final boolean pipelined;
 
   private final Object stateChangeMutex = new Object();
 
-  private boolean closed = true;
+  private volatile boolean closed = true;
+  // guarded by stateChangeMutex. stays set while the reconnect is running, so
+  // that there's only ever one at a time.
+  private boolean reconnectScheduled = false;
+  private long reconnectDelayMs = MIN_RECONNECT_DELAY_MS;
 
   public PartDaemonConnection(Host hostConfig) throws TException, IOException {
+    this(hostConfig, new HostLatencyTracker());
+  }
+
+  public PartDaemonConnection(Host hostConfig, HostLatencyTracker latencyTracker) throws TException, IOException {
+    this(hostConfig, latencyTracker, new HostCircuitBreaker(0, 0, 0), false);
+  }
+
+  /**
+   * @param hostConfig
+   * @param latencyTracker shared by all the connections to the same host
+   * @param circuitBreaker shared by all the connections to the same host
+   * @param pipelined whether callers share the connection rather than take
+   *          turns
+   * @throws TException
+   * @throws IOException
+   */
+  public PartDaemonConnection(Host hostConfig, HostLatencyTracker latencyTracker, HostCircuitBreaker circuitBreaker, boolean pipelined) throws TException, IOException {
     this.hostConfig = hostConfig;
+    this.latencyTracker = latencyTracker;
+    this.circuitBreaker = circuitBreaker;
+    this.pipelined = pipelined;
     hostConfig.setStateChangeListener(this);
-    onHostStateChange(hostConfig);
+    // the first connection is made right away, so that the client is ready to
+    // use once it's constructed
+    if (hostConfig.getState() == HostState.SERVING) {
+      TSocket socket = null;
+      try {
+        socket = openSocket();
+      } catch (TTransportException e) {
+        LOG.warn("Failed to connect to " + hostConfig.getAddress() + ": " + e.getMessage());
+      }
+      synchronized (stateChangeMutex) {
+        if (socket != null) {
+          publish(socket);
+        }
+        if (closed) {
+          scheduleReconnect();
+        }
+      }
+    }
   }
 
-  public void lock() {
-    lock.lock();
+  /**
+   * @param deadlineMs when to give up, in milliseconds since the epoch. 0
+   *          means never.
+   */
+  public HankResponse get(int domainId, ByteBuffer key, long deadlineMs) throws TException {
+    if (pipelined) {
+      // failures are handled when the pipelined client reports them
+      HankResponse response;
+      try {
+        response = getPipelinedClient().get(domainId, key, deadlineMs);
+      } catch (TTransportException e) {
+        onPipelinedTimeout(e);
+        throw e;
+      }
+      circuitBreaker.recordSuccess();
+      return response;
+    }
+    HankResponse response = null;
+    Client usedClient = null;
+    TTransportException transportError = null;
+    lock(deadlineMs);
+    try {
+      Client client = getClient();
+      usedClient = client;
+      setSocketTimeout(deadlineMs);
+      response = client.get(domainId, key, HankSmartClient.getTimeoutMs(deadlineMs));
+    } catch (TTransportException e) {
+      transportError = e;
+    } finally {
+      lock.unlock();
+    }
+    if (transportError != null) {
+      onTransportError(usedClient, transportError);
+      throw transportError;
+    }
+    circuitBreaker.recordSuccess();
+    return response;
+  }
+
+  public List<HankResponse> getBulk(int domainId, List<ByteBuffer> keys, long deadlineMs) throws TException {
+    if (pipelined) {
+      // failures are handled when the pipelined client reports them
+      List<HankResponse> responses;
+      try {
+        responses = getPipelinedClient().getBulk(domainId, keys, deadlineMs);
+      } catch (TTransportException e) {
+        onPipelinedTimeout(e);
+        throw e;
+      }
+      circuitBreaker.recordSuccess();
+      return responses;
+    }
+    List<HankResponse> responses = null;
+    Client usedClient = null;
+    TTransportException transportError = null;
+    lock(deadlineMs);
+    try {
+      Client client = getClient();
+      usedClient = client;
+      setSocketTimeout(deadlineMs);
+      responses = client.getBulk(domainId, keys, HankSmartClient.getTimeoutMs(deadlineMs));
+    } catch (TTransportException e) {
+      transportError = e;
+    } finally {
+      lock.unlock();
+    }
+    if (transportError != null) {
+      onTransportError(usedClient, transportError);
+      throw transportError;
+    }
+    circuitBreaker.recordSuccess();
+    return responses;
   }
 
-  public void unlock() {
-    lock.unlock();
+  /**
+   * Wait for a turn on the connection, but not past the deadline. Running out
+   * of time here isn't the host's fault, so it doesn't count against it.
+   */
+  private void lock(long deadlineMs) throws TException {
+    if (deadlineMs <= 0) {
+      lock.lock();
+      return;
+    }
+    try {
+      if (!lock.tryLock(deadlineMs - System.currentTimeMillis(), TimeUnit.MILLISECONDS)) {
+        throw new TTransportException(TTransportException.TIMED_OUT, "Timed out waiting for the connection to " + hostConfig.getAddress());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TException("Interrupted while waiting for the connection to " + hostConfig.getAddress(), e);
+    }
+    if (System.currentTimeMillis() >= deadlineMs) {
+      lock.unlock();
+      throw new TTransportException(TTransportException.TIMED_OUT, "Deadline passed before the request to " + hostConfig.getAddress() + " was sent");
+    }
+  }
+
+  // must hold the lock
+  private void setSocketTimeout(long deadlineMs) {
+    int timeoutMs = 0;
+    if (deadlineMs > 0) {
+      // a read that times out fails the request, and the connection with it
+      timeoutMs = (int) Math.max(1, Math.min(Integer.MAX_VALUE, deadlineMs - System.currentTimeMillis()));
+    }
+    if (timeoutMs != socketTimeoutMs) {
+      socket.setTimeout(timeoutMs);
+      socketTimeoutMs = timeoutMs;
+    }
+  }
+
+  /**
+   * The socket can't be trusted after a transport error, so close it and
+   * reconnect in the background. Only the client that failed is closed, in
+   * case the connection has been reopened since.
+   */
+  private void onTransportError(Client failedClient, TTransportException e) {
+    if (failedClient == null) {
+      // the connection was already closed when the request was made
+      return;
+    }
+    synchronized (stateChangeMutex) {
+      if (closed || failedClient != client) {
+        // closed under the request, which isn't the host's fault
+        return;
+      }
+      circuitBreaker.recordFailure();
+      LOG.warn("Request to " + hostConfig.getAddress() + " failed, reconnecting", e);
+      disconnect();
+      scheduleReconnect();
+    }
+  }
+
+  /**
+   * A pipelined call that timed out leaves the connection working for the
+   * others, but the host still gets the blame.
+   */
+  private void onPipelinedTimeout(TTransportException e) {
+    if (e.getType() == TTransportException.TIMED_OUT) {
+      circuitBreaker.recordFailure();
+    }
+  }
+
+  private void onPipelinedClientFailure() {
+    synchronized (stateChangeMutex) {
+      if (closed || pipelinedClient == null || pipelinedClient.isOpen()) {
+        // closed on purpose
+        return;
+      }
+      circuitBreaker.recordFailure();
+      LOG.warn("Pipelined connection to " + hostConfig.getAddress() + " failed, reconnecting");
+      disconnect();
+      scheduleReconnect();
+    }
+  }
+
+  // must hold stateChangeMutex
+  private void scheduleReconnect() {
+    if (reconnectScheduled) {
+      return;
+    }
+    reconnectScheduled = true;
+    RECONNECT_EXECUTOR.schedule(new Runnable() {
+      @Override
+      public void run() {
+        reconnect();
+      }
+    }, reconnectDelayMs, TimeUnit.MILLISECONDS);
+  }
+
+  private void reconnect() {
+    synchronized (stateChangeMutex) {
+      if (!closed || !isServing()) {
+        reconnectScheduled = false;
+        return;
+      }
+    }
+    TSocket socket = null;
+    try {
+      socket = openSocket();
+    } catch (TTransportException e) {
+      // the host is retried with backoff, so only the first failure in a row
+      // is worth a warning
+      String message = "Failed to connect to " + hostConfig.getAddress() + ": " + e.getMessage();
+      if (reconnectDelayMs == MIN_RECONNECT_DELAY_MS) {
+        LOG.warn(message);
+      } else {
+        LOG.debug(message);
+      }
+    }
+    synchronized (stateChangeMutex) {
+      reconnectScheduled = false;
+      if (socket == null) {
+        reconnectDelayMs = Math.min(MAX_RECONNECT_DELAY_MS, reconnectDelayMs * 2);
+        scheduleReconnect();
+        return;
+      }
+      reconnectDelayMs = MIN_RECONNECT_DELAY_MS;
+      // the host may have stopped serving while we were connecting
+      if (isServing()) {
+        publish(socket);
+      } else {
+        socket.close();
+      }
+    }
+  }
+
+  private boolean isServing() {
+    try {
+      return hostConfig.getState() == HostState.SERVING;
+    } catch (IOException e) {
+      LOG.error("Exception while trying to get host state!", e);
+      // try anyway
+      return true;
+    }
+  }
+
+  // must hold the lock
+  private Client getClient() throws TTransportException {
+    // the client is left in place if the connection is closed while a
+    // request is using it
+    if (closed || client == null) {
+      throw new TTransportException(TTransportException.NOT_OPEN, "Connection to " + hostConfig.getAddress() + " is closed");
+    }
+    return client;
+  }
+
+  private PipelinedPartDaemonClient getPipelinedClient() throws TTransportException {
+    PipelinedPartDaemonClient pipelinedClient = this.pipelinedClient;
+    if (pipelinedClient == null) {
+      throw new TTransportException(TTransportException.NOT_OPEN, "Connection to " + hostConfig.getAddress() + " is closed");
+    }
+    return pipelinedClient;
   }
 
   public boolean isClosed() {
+    if (pipelined) {
+      PipelinedPartDaemonClient pipelinedClient = this.pipelinedClient;
+      return closed || pipelinedClient == null || !pipelinedClient.isOpen();
+    }
     return closed;
   }
 
+  /**
+   * @return true if some thread is using the connection right now
+   */
+  public boolean isBusy() {
+    if (pipelined) {
+      PipelinedPartDaemonClient pipelinedClient = this.pipelinedClient;
+      return pipelinedClient != null && pipelinedClient.getNumPending() > 0;
+    }
+    return lock.isLocked();
+  }
+
+  public PartDaemonAddress getAddress() {
+    return hostConfig.getAddress();
+  }
+
+  public HostLatencyTracker getLatencyTracker() {
+    return latencyTracker;
+  }
+
+  public HostCircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
   @Override
   public void onHostStateChange(Host hostConfig) {
     synchronized (stateChangeMutex) {
       try {
         switch (hostConfig.getState()) {
           case SERVING:
-            connect();
+            scheduleReconnect();
             break;
 
           default:
@@ -83,34 +429,85 @@ final class PartDaemonConnection implements HostStateChangeListener {
     }
   }
 
+  /**
+   * Close the connection without waiting for the lock, since a request
+   * blocked on a host that stopped answering may be holding it. Closing the
+   * socket fails that request. The fields are cleared now if the connection
+   * is free, and otherwise replaced when it's next opened. Must hold
+   * stateChangeMutex.
+   */
   private void disconnect() {
-    if (!isClosed()) {
-      lock.lock();
-      closed = true;
-      transport.close();
-      transport = null;
-      client = null;
-      lock.unlock();
+    if (closed) {
+      return;
     }
-  }
-
-  private void connect() {
-    if (isClosed()) {
-      LOG.trace("Trying to connect to " + hostConfig.getAddress() + ", waiting on the lock...");
-      lock.lock();
-      transport = new TFramedTransport(new TSocket(hostConfig.getAddress().getHostName(), hostConfig.getAddress().getPortNumber()));
+    closed = true;
+    // the socket goes first, so that nothing is left blocked writing to it
+    transport.close();
+    if (pipelinedClient != null) {
+      pipelinedClient.close();
+    }
+    if (lock.tryLock()) {
       try {
-        transport.open();
-      } catch (TTransportException e) {
-        LOG.error("Failed to establish connection to host!", e);
+        pipelinedClient = null;
         transport = null;
-        return;
+        socket = null;
+        client = null;
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Open a socket to the host. Holds no locks, since it can take up to the
+   * connect timeout.
+   */
+  private TSocket openSocket() throws TTransportException {
+    LOG.trace("Trying to connect to " + hostConfig.getAddress());
+    TSocket socket = new TSocket(hostConfig.getAddress().getHostName(), hostConfig.getAddress().getPortNumber(), CONNECT_TIMEOUT_MS);
+    socket.open();
+    // the timeout was only meant for connecting
+    socket.setTimeout(0);
+    return socket;
+  }
+
+  /**
+   * Start using <i>socket</i>, unless another one was opened in the meantime.
+   * Must hold stateChangeMutex.
+   */
+  private void publish(TSocket socket) {
+    if (!closed) {
+      socket.close();
+      return;
+    }
+    lock.lock();
+    try {
+      if (pipelined) {
+        // the pipelined client does its own framing
+        transport = socket;
+        pipelinedClient = new PipelinedPartDaemonClient(socket, hostConfig.getAddress().toString(), new Runnable() {
+          @Override
+          public void run() {
+            onPipelinedClientFailure();
+          }
+        });
+      } else {
+        this.socket = socket;
+        socketTimeoutMs = 0;
+        transport = new TFramedTransport(socket);
+        TProtocol proto = new TCompactProtocol(transport);
+        client = new PartDaemon.Client(proto);
       }
-      TProtocol proto = new TCompactProtocol(transport);
-      client = new PartDaemon.Client(proto);
       closed = false;
       LOG.trace("Connection to " + hostConfig.getAddress() + " opened!");
+    } finally {
       lock.unlock();
     }
   }
-}
\ No newline at end of file
+
+  @Override
+  public String toString() {
+    return "PartDaemonConnection [host=" + hostConfig.getAddress() + ", closed=" + isClosed()
+        + ", pipelined=" + pipelined + "]";
+  }
+}
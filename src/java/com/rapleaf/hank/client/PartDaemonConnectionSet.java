@@ -15,51 +15,555 @@
  */
 package com.rapleaf.hank.client;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.apache.thrift.TException;
+import org.apache.thrift.transport.TTransportException;
 
+import com.rapleaf.hank.coordinator.PartDaemonAddress;
 import com.rapleaf.hank.generated.HankExceptions;
 import com.rapleaf.hank.generated.HankResponse;
 
+/**
+ * The connections to all the hosts serving a partition. Each get goes to one
+ * open connection, picked according to the client's {@link ReplicaSelection}
+ * and preferring hosts in its locality. If hedging is enabled, a get that is
+ * slow to come back is also sent to the replica on another host that has
+ * recently been the fastest, still preferring hosts in the client's locality,
+ * and whichever response arrives first is used.
+ *
+ * Hosts whose circuit breakers are open are skipped, and a get that fails
+ * because of the transport, or that a host turns away because it's
+ * overloaded, is retried on the other hosts, as long as its deadline hasn't
+ * passed.
+ */
 public class PartDaemonConnectionSet {
   private static final HankResponse ZERO_REPLICAS = HankResponse.xception(HankExceptions.zero_replicas(true));
+  private static final HankResponse DEADLINE_EXCEEDED = HankResponse.xception(HankExceptions.deadline_exceeded(true));
 
   private static final Logger LOG = Logger.getLogger(PartDaemonConnectionSet.class);
 
   private final List<PartDaemonConnection> connections = new ArrayList<PartDaemonConnection>();
   private final AtomicInteger nextIdx = new AtomicInteger(0);
+  private final Random random = new Random();
+
+  private final ReplicaSelection replicaSelection;
+  // whether each connection goes to a preferred host
+  private final boolean[] preferred;
+  private final boolean anyPreferred;
+
+  private final long hedgeDelayMs;
+  private final double hedgeDelayPercentile;
+  private final ExecutorService executor;
 
   public PartDaemonConnectionSet(List<PartDaemonConnection> connections) {
+    this(connections, new HankSmartClientOptions(), null);
+  }
+
+  /**
+   * @param connections
+   * @param options the replica selection and hedging settings are used
+   * @param executor runs the gets when hedging is enabled. If null, gets are
+   *          never hedged.
+   */
+  public PartDaemonConnectionSet(List<PartDaemonConnection> connections, HankSmartClientOptions options, ExecutorService executor) {
     this.connections.addAll(connections);
+    this.replicaSelection = options.getReplicaSelection();
+    this.hedgeDelayMs = options.getHedgeDelayMs();
+    this.hedgeDelayPercentile = options.getHedgeDelayPercentile();
+    this.executor = executor;
+
+    String suffix = options.getPreferredHostNameSuffix();
+    preferred = new boolean[this.connections.size()];
+    boolean anyPreferred = false;
+    for (int i = 0; i < preferred.length; i++) {
+      preferred[i] = suffix != null && this.connections.get(i).getAddress().getHostName().endsWith(suffix);
+      anyPreferred |= preferred[i];
+    }
+    this.anyPreferred = anyPreferred;
   }
 
   public HankResponse get(int domainId, ByteBuffer key) throws TException {
-    int numAttempts = 0;
+    return get(domainId, key, 0);
+  }
+
+  /**
+   * @param deadlineMs when to give up and return deadline_exceeded, in
+   *          milliseconds since the epoch. 0 means never.
+   */
+  public HankResponse get(int domainId, ByteBuffer key, long deadlineMs) throws TException {
+    if (executor != null && (hedgeDelayMs > 0 || hedgeDelayPercentile > 0)) {
+      return hedgedGet(domainId, key, deadlineMs);
+    }
     LOG.trace("There are " + connections.size() + " connections for domain id " + domainId);
-    while (numAttempts < connections.size()) {
-      numAttempts++;
-      int pos = nextIdx.getAndIncrement() % connections.size();
-      PartDaemonConnection connection = connections.get(pos);
-      if (connection.isClosed()) {
-        LOG.trace("Connection " + connection + " was closed, so skipped it.");
+    // on a transport error or an overloaded host, fail over to the other hosts
+    // one at a time
+    Set<PartDaemonAddress> failedHosts = null;
+    TTransportException lastError = null;
+    HankResponse overloaded = null;
+    PartDaemonConnection connection;
+    while ((connection = chooseConnection(failedHosts)) != null) {
+      if (isExpired(deadlineMs)) {
+        return DEADLINE_EXCEEDED;
+      }
+      try {
+        HankResponse response = timedGet(connection, domainId, key, deadlineMs);
+        if (!isOverloaded(response)) {
+          return response;
+        }
+        LOG.debug("Host " + connection.getAddress() + " is overloaded, trying another host");
+        overloaded = response;
+      } catch (TTransportException e) {
+        LOG.debug("Get from " + connection.getAddress() + " failed, trying another host", e);
+        lastError = e;
+      }
+      if (failedHosts == null) {
+        failedHosts = new HashSet<PartDaemonAddress>();
+      }
+      failedHosts.add(connection.getAddress());
+    }
+    if (isExpired(deadlineMs)) {
+      return DEADLINE_EXCEEDED;
+    }
+    if (overloaded != null) {
+      return overloaded;
+    }
+    if (lastError != null) {
+      throw lastError;
+    }
+    LOG.trace("None of the " + connections.size() + " connections are available.");
+    return ZERO_REPLICAS;
+  }
+
+  /**
+   * Only gets the host actually served are sampled: turning a get away, or
+   * giving up on it because its deadline passed, is quick and would make the
+   * host look fast.
+   */
+  private static HankResponse timedGet(PartDaemonConnection connection, int domainId, ByteBuffer key, long deadlineMs) throws TException {
+    HostLatencyTracker tracker = connection.getLatencyTracker();
+    tracker.requestStarted();
+    try {
+      long start = System.nanoTime();
+      HankResponse result = connection.get(domainId, key, deadlineMs);
+      if (isOverloaded(result)) {
+        tracker.recordOverloaded();
+      } else if (!isDeadlineExceeded(result)) {
+        tracker.record(System.nanoTime() - start);
+      }
+      return result;
+    } finally {
+      tracker.requestFinished();
+    }
+  }
+
+  /**
+   * @param excludedHosts hosts not to use. May be null.
+   * @return an open connection to a host whose circuit breaker isn't open,
+   *         picked according to the replica selection policy, or null if
+   *         there isn't one
+   */
+  private PartDaemonConnection chooseConnection(Set<PartDaemonAddress> excludedHosts) {
+    int n = connections.size();
+    if (n == 0) {
+      return null;
+    }
+    boolean preferredOnly = isPreferredOnly(excludedHosts);
+
+    switch (replicaSelection) {
+      case LEAST_OUTSTANDING: {
+        // start at a different place each time, so that ties are spread out
+        int start = nextIdx.getAndIncrement() & Integer.MAX_VALUE;
+        int best = -1;
+        for (int i = 0; i < n; i++) {
+          int idx = (start + i) % n;
+          if (isEligible(idx, preferredOnly, excludedHosts) && (best == -1 || compareOutstanding(idx, best) < 0)) {
+            best = idx;
+          }
+        }
+        return best == -1 ? null : connections.get(best);
+      }
+
+      case POWER_OF_TWO_CHOICES: {
+        int first = findEligible(random.nextInt(n), preferredOnly, excludedHosts, -1);
+        if (first == -1) {
+          return null;
+        }
+        int second = findEligible(random.nextInt(n), preferredOnly, excludedHosts, first);
+        if (second != -1 && compareExpectedWait(second, first) < 0) {
+          return connections.get(second);
+        }
+        return connections.get(first);
+      }
+
+      default: {
+        int start = nextIdx.getAndIncrement() & Integer.MAX_VALUE;
+        int idx = findEligible(start % n, preferredOnly, excludedHosts, -1);
+        return idx == -1 ? null : connections.get(idx);
+      }
+    }
+  }
+
+  // only fall back to the other hosts if none of the preferred ones are up
+  private boolean isPreferredOnly(Set<PartDaemonAddress> excludedHosts) {
+    if (anyPreferred) {
+      for (int i = 0; i < connections.size(); i++) {
+        if (preferred[i] && isEligible(i, false, excludedHosts)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private boolean isEligible(int idx, boolean preferredOnly, Set<PartDaemonAddress> excludedHosts) {
+    PartDaemonConnection connection = connections.get(idx);
+    return !connection.isClosed()
+        && (!preferredOnly || preferred[idx])
+        && (excludedHosts == null || !excludedHosts.contains(connection.getAddress()))
+        && connection.getCircuitBreaker().isAvailable();
+  }
+
+  /**
+   * @return the first eligible connection at or after start, wrapping around,
+   *         other than the excluded one. -1 if there isn't one.
+   */
+  private int findEligible(int start, boolean preferredOnly, Set<PartDaemonAddress> excludedHosts, int excluded) {
+    int n = connections.size();
+    for (int i = 0; i < n; i++) {
+      int idx = (start + i) % n;
+      if (idx != excluded && isEligible(idx, preferredOnly, excludedHosts)) {
+        return idx;
+      }
+    }
+    return -1;
+  }
+
+  private int compareOutstanding(int a, int b) {
+    HostLatencyTracker trackerA = connections.get(a).getLatencyTracker();
+    HostLatencyTracker trackerB = connections.get(b).getLatencyTracker();
+    int cmp = compareOverloaded(trackerA, trackerB);
+    if (cmp == 0) {
+      cmp = compare(trackerA.getNumInFlight(), trackerB.getNumInFlight());
+    }
+    if (cmp == 0) {
+      cmp = Double.compare(trackerA.getAverageNanos(), trackerB.getAverageNanos());
+    }
+    return cmp == 0 ? compareBusy(a, b) : cmp;
+  }
+
+  private int compareExpectedWait(int a, int b) {
+    int cmp = compareOverloaded(connections.get(a).getLatencyTracker(), connections.get(b).getLatencyTracker());
+    if (cmp == 0) {
+      cmp = Double.compare(getExpectedWaitNanos(a), getExpectedWaitNanos(b));
+    }
+    return cmp == 0 ? compareBusy(a, b) : cmp;
+  }
+
+  // a host that's been turning gets away loses to any that hasn't
+  private static int compareOverloaded(HostLatencyTracker a, HostLatencyTracker b) {
+    return compare(a.isOverloaded() ? 1 : 0, b.isOverloaded() ? 1 : 0);
+  }
+
+  /**
+   * A host that hasn't answered anything yet is expected to be instant, so
+   * that it gets tried.
+   */
+  private double getExpectedWaitNanos(int idx) {
+    HostLatencyTracker tracker = connections.get(idx).getLatencyTracker();
+    return (tracker.getNumInFlight() + 1) * tracker.getAverageNanos();
+  }
+
+  // between connections to equally loaded hosts, use one that's free
+  private int compareBusy(int a, int b) {
+    return compare(connections.get(a).isBusy() ? 1 : 0, connections.get(b).isBusy() ? 1 : 0);
+  }
+
+  private static int compare(int a, int b) {
+    return a < b ? -1 : (a == b ? 0 : 1);
+  }
+
+  static boolean isOverloaded(HankResponse response) {
+    return response.isSet(HankResponse._Fields.XCEPTION)
+        && response.get_xception().isSet(HankExceptions._Fields.OVERLOADED);
+  }
+
+  private static boolean isDeadlineExceeded(HankResponse response) {
+    return response.isSet(HankResponse._Fields.XCEPTION)
+        && response.get_xception().isSet(HankExceptions._Fields.DEADLINE_EXCEEDED);
+  }
+
+  /**
+   * A host that's overloaded turns away all of a bulk get's keys.
+   */
+  private static boolean isOverloaded(List<HankResponse> responses) {
+    return !responses.isEmpty() && isOverloaded(responses.get(0));
+  }
+
+  private static boolean isExpired(long deadlineMs) {
+    return deadlineMs > 0 && System.currentTimeMillis() >= deadlineMs;
+  }
+
+  /**
+   * @return how long until the deadline, or Long.MAX_VALUE if there isn't one
+   */
+  private static long getRemainingNanos(long deadlineMs) {
+    if (deadlineMs <= 0) {
+      return Long.MAX_VALUE;
+    }
+    return TimeUnit.MILLISECONDS.toNanos(Math.max(0, deadlineMs - System.currentTimeMillis()));
+  }
+
+  private HankResponse hedgedGet(int domainId, ByteBuffer key, long deadlineMs) throws TException {
+    PartDaemonConnection primary = chooseConnection(null);
+    if (primary == null) {
+      LOG.trace("None of the " + connections.size() + " connections are open.");
+      return ZERO_REPLICAS;
+    }
+    Set<PartDaemonAddress> triedHosts = new HashSet<PartDaemonAddress>();
+    BlockingQueue<HedgedGet> done = new LinkedBlockingQueue<HedgedGet>();
+    submit(primary, domainId, key, deadlineMs, done, triedHosts);
+    int numOutstanding = 1;
+    Exception lastError = null;
+    HankResponse overloaded = null;
+    try {
+      long delayNanos = getHedgeDelayNanos(primary);
+      HedgedGet first = poll(done, Math.min(delayNanos > 0 ? delayNanos : Long.MAX_VALUE, getRemainingNanos(deadlineMs)));
+      if (first == null && isExpired(deadlineMs)) {
+        return DEADLINE_EXCEEDED;
+      }
+      if (first == null || !first.succeeded()) {
+        // the backup is chosen now rather than up front, since it's rarely
+        // needed. a primary that already failed, or turned the get away, is
+        // replaced right away.
+        PartDaemonConnection backup = getFastestOtherHost(triedHosts);
+        if (backup != null) {
+          LOG.trace("Get from " + primary.getAddress() + (first == null ? " is taking longer than " + delayNanos + "ns" : " failed")
+              + ", hedging to " + backup.getAddress());
+          submit(backup, domainId, key, deadlineMs, done, triedHosts);
+          numOutstanding++;
+        }
+      }
+      if (first != null) {
+        done.add(first);
+      }
+      // the first successful response wins. the other get is left to finish
+      // in the background, since a connection can't drop a request it sent
+      while (numOutstanding > 0) {
+        HedgedGet get = poll(done, getRemainingNanos(deadlineMs));
+        if (get == null) {
+          return DEADLINE_EXCEEDED;
+        }
+        numOutstanding--;
+        if (get.succeeded()) {
+          return get.response;
+        }
+        if (get.error == null) {
+          overloaded = get.response;
+        } else {
+          lastError = get.error;
+        }
+        // once the hedged attempts have all failed, fail over to the other
+        // hosts one at a time, like an unhedged get
+        if (numOutstanding == 0 && !isExpired(deadlineMs)) {
+          PartDaemonConnection next = chooseConnection(triedHosts);
+          if (next != null) {
+            LOG.debug("Get from " + get.connection.getAddress() + " failed, trying " + next.getAddress());
+            submit(next, domainId, key, deadlineMs, done, triedHosts);
+            numOutstanding++;
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TException("Interrupted while waiting for a get response", e);
+    }
+    if (isExpired(deadlineMs)) {
+      return DEADLINE_EXCEEDED;
+    }
+    if (overloaded != null) {
+      return overloaded;
+    }
+    throw new TException("Get failed on all the hosts tried", lastError);
+  }
+
+  private void submit(PartDaemonConnection connection, int domainId, ByteBuffer key, long deadlineMs, BlockingQueue<HedgedGet> done, Set<PartDaemonAddress> triedHosts) {
+    triedHosts.add(connection.getAddress());
+    executor.submit(new HedgedGet(connection, domainId, key, deadlineMs, done));
+  }
+
+  /**
+   * @param timeoutNanos Long.MAX_VALUE to wait as long as it takes
+   * @return the next finished get, or null if none finished in time
+   */
+  private static HedgedGet poll(BlockingQueue<HedgedGet> done, long timeoutNanos) throws InterruptedException {
+    return timeoutNanos == Long.MAX_VALUE ? done.take() : done.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+  }
+
+  private long getHedgeDelayNanos(PartDaemonConnection connection) {
+    long delayNanos = TimeUnit.MILLISECONDS.toNanos(hedgeDelayMs);
+    if (hedgeDelayPercentile > 0) {
+      delayNanos = Math.max(delayNanos, connection.getLatencyTracker().getPercentileNanos(hedgeDelayPercentile));
+    }
+    return delayNanos;
+  }
+
+  /**
+   * @param excludedHosts hosts not to use
+   * @return an open connection to a host whose circuit breaker isn't open,
+   *         other than the excluded ones, with the lowest average latency.
+   *         Preferred hosts come first, as in
+   *         {@link #chooseConnection(Set)}, and then hosts that aren't
+   *         overloaded. Null if there isn't one.
+   */
+  private PartDaemonConnection getFastestOtherHost(Set<PartDaemonAddress> excludedHosts) {
+    boolean preferredOnly = isPreferredOnly(excludedHosts);
+    PartDaemonConnection best = null;
+    for (int i = 0; i < connections.size(); i++) {
+      if (!isEligible(i, preferredOnly, excludedHosts)) {
         continue;
       }
-      connection.lock();
+      PartDaemonConnection connection = connections.get(i);
+      if (best == null || compareLatency(connection.getLatencyTracker(), best.getLatencyTracker()) < 0) {
+        best = connection;
+      }
+    }
+    return best;
+  }
+
+  private static int compareLatency(HostLatencyTracker a, HostLatencyTracker b) {
+    int cmp = compareOverloaded(a, b);
+    return cmp == 0 ? Double.compare(a.getAverageNanos(), b.getAverageNanos()) : cmp;
+  }
+
+  /**
+   * One of the attempts of a hedged get. Reports itself to the queue when
+   * it's done, whether or not it succeeded.
+   */
+  private static final class HedgedGet implements Runnable {
+    private final PartDaemonConnection connection;
+    private final int domainId;
+    private final ByteBuffer key;
+    private final long deadlineMs;
+    private final BlockingQueue<HedgedGet> done;
+    private HankResponse response;
+    private Exception error;
+
+    public HedgedGet(PartDaemonConnection connection, int domainId, ByteBuffer key, long deadlineMs, BlockingQueue<HedgedGet> done) {
+      this.connection = connection;
+      this.domainId = domainId;
+      // the attempts may be serializing the key at the same time
+      this.key = key.duplicate();
+      this.deadlineMs = deadlineMs;
+      this.done = done;
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (connection.isClosed()) {
+          error = new IOException("Connection to " + connection.getAddress() + " is closed");
+        } else {
+          response = timedGet(connection, domainId, key, deadlineMs);
+        }
+      } catch (Exception e) {
+        LOG.trace("Get from " + connection.getAddress() + " failed", e);
+        error = e;
+      }
+      done.add(this);
+    }
+
+    /**
+     * @return true if the get came back with a response other than overloaded
+     */
+    public boolean succeeded() {
+      return error == null && !isOverloaded(response);
+    }
+  }
+
+  public List<HankResponse> getBulk(int domainId, List<ByteBuffer> keys) throws TException {
+    return getBulk(domainId, keys, 0);
+  }
+
+  /**
+   * @param deadlineMs when to give up and return deadline_exceeded for all
+   *          the keys, in milliseconds since the epoch. 0 means never.
+   */
+  public List<HankResponse> getBulk(int domainId, List<ByteBuffer> keys, long deadlineMs) throws TException {
+    Set<PartDaemonAddress> failedHosts = null;
+    TTransportException lastError = null;
+    List<HankResponse> overloaded = null;
+    PartDaemonConnection connection;
+    while ((connection = chooseConnection(failedHosts)) != null) {
+      if (isExpired(deadlineMs)) {
+        return fill(keys.size(), DEADLINE_EXCEEDED);
+      }
+      // bulk gets count towards the load on a host, but their latencies
+      // aren't comparable to those of single gets
+      HostLatencyTracker tracker = connection.getLatencyTracker();
+      tracker.requestStarted();
       try {
-        HankResponse result = connection.client.get(domainId, key);
-        return result;
+        List<HankResponse> responses = connection.getBulk(domainId, keys, deadlineMs);
+        if (!isOverloaded(responses)) {
+          return responses;
+        }
+        LOG.debug("Host " + connection.getAddress() + " is overloaded, trying another host");
+        tracker.recordOverloaded();
+        overloaded = responses;
+      } catch (TTransportException e) {
+        LOG.debug("Bulk get from " + connection.getAddress() + " failed, trying another host", e);
+        lastError = e;
       } finally {
-        connection.unlock();
+        tracker.requestFinished();
+      }
+      if (failedHosts == null) {
+        failedHosts = new HashSet<PartDaemonAddress>();
       }
+      failedHosts.add(connection.getAddress());
     }
-    if (numAttempts == connections.size()) {
-      LOG.trace("None of the " + connections.size() + " connections are open.");
+    if (isExpired(deadlineMs)) {
+      return fill(keys.size(), DEADLINE_EXCEEDED);
     }
-    return ZERO_REPLICAS;
+    if (overloaded != null) {
+      return overloaded;
+    }
+    if (lastError != null) {
+      throw lastError;
+    }
+    LOG.trace("None of the " + connections.size() + " connections are available.");
+    return fill(keys.size(), ZERO_REPLICAS);
+  }
+
+  private static List<HankResponse> fill(int numKeys, HankResponse response) {
+    List<HankResponse> responses = new ArrayList<HankResponse>(numKeys);
+    for (int i = 0; i < numKeys; i++) {
+      responses.add(response);
+    }
+    return responses;
+  }
+
+  /**
+   * @return true if at least one of the connections is open, and its host's
+   *         circuit breaker isn't open
+   */
+  public boolean isAvailable() {
+    for (PartDaemonConnection connection : connections) {
+      if (!connection.isClosed() && connection.getCircuitBreaker().isAvailable()) {
+        return true;
+      }
+    }
+    return false;
   }
 }
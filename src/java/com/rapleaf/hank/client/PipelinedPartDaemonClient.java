@@ -0,0 +1,254 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.client;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+import com.rapleaf.hank.generated.HankResponse;
+import com.rapleaf.hank.generated.PartDaemon;
+
+/**
+ * A PartDaemon client that many threads can use at once over a single
+ * transport. Each request is tagged with its own sequence id and written as
+ * soon as it's made, without waiting for the responses to earlier ones. A
+ * reader thread matches responses back to their callers by sequence id as
+ * they arrive.
+ *
+ * Once anything goes wrong on the transport, every outstanding and later call
+ * fails, and the client has to be replaced. The failure callback says when
+ * that happens. A call whose deadline passes gives up without affecting the
+ * others, and its response is thrown away whenever it arrives.
+ */
+final class PipelinedPartDaemonClient {
+  private static final Logger LOG = Logger.getLogger(PipelinedPartDaemonClient.class);
+
+  private static final class PendingCall {
+    private final String methodName;
+    private final TBase<?, ?> result;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Exception error;
+
+    public PendingCall(String methodName, TBase<?, ?> result) {
+      this.methodName = methodName;
+      this.result = result;
+    }
+
+    public void fail(Exception e) {
+      error = e;
+      done.countDown();
+    }
+  }
+
+  private final TTransport socket;
+  // reading and writing happen at the same time, and framed transports and
+  // protocols keep state (a framed transport even shares its frame size
+  // buffer between the two), so each direction gets its own
+  private final TTransport outTransport;
+  private final TProtocol inProtocol;
+  private final TProtocol outProtocol;
+
+  private final Object writeLock = new Object();
+  private int nextSeqId = 0;
+  private final Map<Integer, PendingCall> pendingCalls = new ConcurrentHashMap<Integer, PendingCall>();
+  private volatile Exception error;
+  private final Runnable onFailure;
+
+  public PipelinedPartDaemonClient(TTransport socket, String name) {
+    this(socket, name, null);
+  }
+
+  /**
+   * @param socket an open, unframed transport. It's closed when the client
+   *          is.
+   * @param name used to name the reader thread
+   * @param onFailure if not null, run once when the client stops working,
+   *          including when it's closed. No locks are held when it runs.
+   */
+  public PipelinedPartDaemonClient(TTransport socket, String name, Runnable onFailure) {
+    this.socket = socket;
+    this.onFailure = onFailure;
+    this.outTransport = new TFramedTransport(socket);
+    this.inProtocol = new TCompactProtocol(new TFramedTransport(socket));
+    this.outProtocol = new TCompactProtocol(outTransport);
+    Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        readResponses();
+      }
+    }, "Pipelined PartDaemon client reader for " + name);
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /**
+   * @param deadlineMs when to stop waiting for the response, in milliseconds
+   *          since the epoch. 0 means wait as long as it takes.
+   */
+  public HankResponse get(int domainId, ByteBuffer key, long deadlineMs) throws TException {
+    PartDaemon.get_args args = new PartDaemon.get_args();
+    args.set_domain_id(domainId);
+    args.set_key(key);
+    args.set_timeout_ms(HankSmartClient.getTimeoutMs(deadlineMs));
+    PartDaemon.get_result result = new PartDaemon.get_result();
+    call("get", args, result, deadlineMs);
+    if (result.is_set_success()) {
+      return result.success;
+    }
+    throw new TApplicationException(TApplicationException.MISSING_RESULT, "get failed: unknown result");
+  }
+
+  public List<HankResponse> getBulk(int domainId, List<ByteBuffer> keys, long deadlineMs) throws TException {
+    PartDaemon.getBulk_args args = new PartDaemon.getBulk_args();
+    args.set_domain_id(domainId);
+    args.set_keys(keys);
+    args.set_timeout_ms(HankSmartClient.getTimeoutMs(deadlineMs));
+    PartDaemon.getBulk_result result = new PartDaemon.getBulk_result();
+    call("getBulk", args, result, deadlineMs);
+    if (result.is_set_success()) {
+      return result.success;
+    }
+    throw new TApplicationException(TApplicationException.MISSING_RESULT, "getBulk failed: unknown result");
+  }
+
+  /**
+   * @return the number of calls waiting for their responses, including the
+   *         ones whose callers gave up
+   */
+  public int getNumPending() {
+    return pendingCalls.size();
+  }
+
+  public boolean isOpen() {
+    return error == null;
+  }
+
+  public void close() {
+    fail(new TTransportException(TTransportException.NOT_OPEN, "Client was closed"));
+  }
+
+  private void call(String methodName, TBase<?, ?> args, TBase<?, ?> result, long deadlineMs) throws TException {
+    PendingCall call = new PendingCall(methodName, result);
+    TException writeError = null;
+    synchronized (writeLock) {
+      if (error != null) {
+        throw new TTransportException(TTransportException.NOT_OPEN, "Client is closed: " + error);
+      }
+      int seqId = nextSeqId++;
+      // registered before it's sent, so that the response can't beat it
+      pendingCalls.put(seqId, call);
+      try {
+        outProtocol.writeMessageBegin(new TMessage(methodName, TMessageType.CALL, seqId));
+        args.write(outProtocol);
+        outProtocol.writeMessageEnd();
+        outTransport.flush();
+      } catch (TException e) {
+        writeError = e;
+      }
+    }
+    if (writeError != null) {
+      fail(writeError);
+      throw new TTransportException(TTransportException.UNKNOWN, methodName + " failed: " + writeError, writeError);
+    }
+
+    try {
+      if (deadlineMs <= 0) {
+        call.done.await();
+      } else if (!call.done.await(deadlineMs - System.currentTimeMillis(), TimeUnit.MILLISECONDS)) {
+        // the call stays registered, so that the reader can match its
+        // response and drop it
+        throw new TTransportException(TTransportException.TIMED_OUT, methodName + " timed out");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TException("Interrupted while waiting for a response to " + methodName, e);
+    }
+    if (call.error instanceof TException) {
+      throw (TException) call.error;
+    } else if (call.error != null) {
+      throw new TException(call.error);
+    }
+  }
+
+  private void readResponses() {
+    try {
+      while (true) {
+        TMessage message = inProtocol.readMessageBegin();
+        PendingCall call = pendingCalls.remove(message.seqid);
+        if (call == null) {
+          throw new TApplicationException(TApplicationException.BAD_SEQUENCE_ID, "Got a response to unknown call " + message.seqid);
+        }
+        if (message.type == TMessageType.EXCEPTION) {
+          TApplicationException x = TApplicationException.read(inProtocol);
+          inProtocol.readMessageEnd();
+          call.fail(x);
+          continue;
+        }
+        try {
+          call.result.read(inProtocol);
+          inProtocol.readMessageEnd();
+        } catch (TException e) {
+          call.fail(e);
+          throw e;
+        }
+        call.done.countDown();
+      }
+    } catch (Exception e) {
+      if (isOpen()) {
+        LOG.error("Failed to read a response, closing the connection", e);
+      }
+      fail(e);
+    }
+  }
+
+  private void fail(Exception e) {
+    // closing the socket first unblocks a writer that's holding the lock
+    socket.close();
+    boolean first;
+    synchronized (writeLock) {
+      // any call that registers after this sees the error
+      first = error == null;
+      if (first) {
+        error = e;
+      }
+      List<PendingCall> failed = new ArrayList<PendingCall>(pendingCalls.values());
+      pendingCalls.clear();
+      for (PendingCall call : failed) {
+        call.fail(new TTransportException(TTransportException.NOT_OPEN, call.methodName + " failed: " + error));
+      }
+    }
+    if (first && onFailure != null) {
+      onFailure.run();
+    }
+  }
+}
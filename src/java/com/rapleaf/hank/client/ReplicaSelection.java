@@ -0,0 +1,39 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.client;
+
+/**
+ * How the smart client picks which replica of a partition a get goes to.
+ */
+public enum ReplicaSelection {
+  /**
+   * Take turns between the open connections, regardless of how busy or fast
+   * their hosts are.
+   */
+  ROUND_ROBIN,
+  /**
+   * Use the connection whose host has the fewest requests in flight from this
+   * client. Ties go to the host with the lowest recent average latency.
+   */
+  LEAST_OUTSTANDING,
+  /**
+   * Pick two connections at random and use the one whose host is expected to
+   * answer sooner, going by its requests in flight and its recent average
+   * latency. Spreads load almost as well as checking every host, without
+   * piling onto whichever host looked best a moment ago.
+   */
+  POWER_OF_TWO_CHOICES;
+}
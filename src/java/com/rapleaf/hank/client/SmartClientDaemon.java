@@ -57,7 +57,8 @@ public class SmartClientDaemon {
    */
   private void serve() throws IOException, TException {
     // set up the service handler
-    HankSmartClient handler = new HankSmartClient(coord, ringGroupName, 1);
+    HankSmartClient handler = new HankSmartClient(coord, ringGroupName,
+        new HankSmartClientOptions().setRequestTimeoutMs(configurator.getRequestTimeoutMs()));
 
     // launch the thrift server
     TNonblockingServerSocket serverSocket = new TNonblockingServerSocket(configurator.getPortNumber());
@@ -9,11 +9,11 @@ import java.util.zip.GZIPOutputStream;
 public class JavaGzipCompressionCodec implements CompressionCodec {
   @Override
   public int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOff) {
-    if (srcLength - srcOffset == 0) {
+    if (srcLength == 0) {
       return 0;
     }
     try {
-      ByteArrayOutputStream bytesOut = new ByteArrayOutputStream(srcLength - srcOffset);
+      ByteArrayOutputStream bytesOut = new ByteArrayOutputStream(srcLength);
       GZIPOutputStream gzip = new GZIPOutputStream(bytesOut);
       gzip.write(src, srcOffset, srcLength);
       gzip.flush();
@@ -28,21 +28,21 @@ public class JavaGzipCompressionCodec implements CompressionCodec {
 
   @Override
   public int decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOff) {
-    if (srcLength - srcOffset == 0) {
+    if (srcLength == 0) {
       return 0;
     }
     try {
       ByteArrayInputStream bytesIn = new ByteArrayInputStream(src, srcOffset, srcLength);
       GZIPInputStream gzip = new GZIPInputStream(bytesIn);
       int curOff = dstOff;
-      while (curOff < dst.length - dstOff) {
+      while (curOff < dst.length) {
         int amtRead = gzip.read(dst, curOff, dst.length - curOff);
         if (amtRead == -1) {
           break;
         }
         curOff += amtRead;
       }
-      return curOff;
+      return curOff - dstOff;
     } catch (IOException e) {
       throw new RuntimeException("Unexpected IOException while decompressing!", e);
     }
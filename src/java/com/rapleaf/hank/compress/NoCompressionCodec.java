@@ -4,13 +4,13 @@ public class NoCompressionCodec implements CompressionCodec {
   @Override
   public int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOff) {
     System.arraycopy(src, srcOffset, dst, dstOff, srcLength);
-    return srcLength - srcOffset;
+    return srcLength;
   }
 
   @Override
   public int decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOff) {
     System.arraycopy(src, srcOffset, dst, dstOff, srcLength);
-    return srcLength - srcOffset;
+    return srcLength;
   }
 
   @Override
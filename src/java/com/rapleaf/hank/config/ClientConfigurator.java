@@ -17,4 +17,9 @@ package com.rapleaf.hank.config;
 
 
 public interface ClientConfigurator extends Configurator {
+  /**
+   * How long a request may take, in milliseconds, unless the caller sets its
+   * own timeout. 0 means requests don't time out.
+   */
+  public long getRequestTimeoutMs();
 }
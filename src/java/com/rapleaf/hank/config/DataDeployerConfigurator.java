@@ -20,4 +20,11 @@ public interface DataDeployerConfigurator extends Configurator {
   public String getRingGroupName();
 
   public long getSleepInterval();
+
+  /**
+   * If true, rings are updated while their part daemons keep serving, instead
+   * of being taken down for the update.
+   * @return
+   */
+  public boolean isUpdateWhileServing();
 }
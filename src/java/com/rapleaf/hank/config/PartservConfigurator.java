@@ -48,9 +48,56 @@ public interface PartservConfigurator extends Configurator {
    */
   public int getNumConcurrentUpdates();
 
+  /**
+   * How many blocks ahead of the merge the Update Daemon reads and
+   * decompresses each of a partition's base and deltas, on a thread per
+   * file. Zero reads them inline.
+   * @return
+   */
+  public int getMergeReadAheadBlocks();
+
+  /**
+   * Whether the Update Daemon should merge remote deltas straight from where
+   * they are, instead of copying them to local disk first. Bases are still
+   * copied.
+   * @return
+   */
+  public boolean getStreamRemoteDeltas();
+
   /**
    * How many threads allowed to the Thrift Server.
    * @return
    */
   public int getNumThreads();
+
+  /**
+   * How many bytes of decompressed blocks the Part Daemon may cache, shared
+   * across all the domains it serves. Zero disables the cache.
+   * @return
+   */
+  public long getBlockCacheCapacity();
+
+  /**
+   * Which Thrift server the Part Daemon serves with: "hsha", "selector_pool"
+   * or "event_loop". See {@link com.rapleaf.hank.part_daemon.ServerEngine}.
+   * @return
+   */
+  public String getServerEngine();
+
+  /**
+   * How many selector threads the Thrift server spreads its connections over,
+   * for the engines that have more than one.
+   * @return
+   */
+  public int getNumSelectorThreads();
+
+  /**
+   * How many requests for a domain the Part Daemon may serve at once. Requests
+   * beyond that are turned away with an overloaded error, which the client
+   * can retry on another replica, so that one busy domain can't tie up all
+   * the worker threads. Zero means no limit.
+   * @param domainName
+   * @return
+   */
+  public int getMaxConcurrentRequests(String domainName);
 }
@@ -18,7 +18,7 @@ package com.rapleaf.hank.config;
 /**
  * Configuration particular to the SmartClient Daemon.
  */
-public interface SmartClientDaemonConfigurator extends Configurator {
+public interface SmartClientDaemonConfigurator extends ClientConfigurator {
   public String getRingGroupName();
   public int getPortNumber();
   public int getNumThreads();
@@ -16,11 +16,15 @@
 package com.rapleaf.hank.config.yaml;
 
 import java.io.FileNotFoundException;
+import java.util.Map;
 
 import com.rapleaf.hank.config.ClientConfigurator;
 import com.rapleaf.hank.config.InvalidConfigurationException;
 
 public class YamlClientConfigurator extends BaseYamlConfigurator implements ClientConfigurator {
+  private static final String CLIENT_SECTION_KEY = "client";
+  private static final String REQUEST_TIMEOUT_MS_KEY = "request_timeout_ms";
+
   public YamlClientConfigurator() {
     super();
   }
@@ -28,4 +32,22 @@ public class YamlClientConfigurator extends BaseYamlConfigurator implements Clie
   public YamlClientConfigurator(String configPath) throws FileNotFoundException, InvalidConfigurationException {
     super(configPath);
   }
+
+  @Override
+  public long getRequestTimeoutMs() {
+    Map<String, Object> clientSection = (Map<String, Object>) config.get(CLIENT_SECTION_KEY);
+    if (clientSection == null || !clientSection.containsKey(REQUEST_TIMEOUT_MS_KEY)) {
+      return 0;
+    }
+    return ((Number) clientSection.get(REQUEST_TIMEOUT_MS_KEY)).longValue();
+  }
+
+  @Override
+  protected void validate() throws InvalidConfigurationException {
+    super.validate();
+    Map<String, Object> clientSection = (Map<String, Object>) config.get(CLIENT_SECTION_KEY);
+    if (clientSection != null && clientSection.containsKey(REQUEST_TIMEOUT_MS_KEY) && !(clientSection.get(REQUEST_TIMEOUT_MS_KEY) instanceof Number)) {
+      throw new InvalidConfigurationException("'client' section's 'request_timeout_ms' key must be a number!");
+    }
+  }
 }
@@ -26,6 +26,7 @@ public class YamlDataDeployerConfigurator extends BaseYamlConfigurator implement
   private static final String DATA_DEPLOYER_SECTION_KEY = "data_deployer";
   private static final String SLEEP_INTERVAL_KEY = "sleep_interval";
   private static final String RING_GROUP_NAME_KEY = "ring_group_name";
+  private static final String UPDATE_WHILE_SERVING_KEY = "update_while_serving";
 
   public YamlDataDeployerConfigurator(String configPath) throws IOException, InvalidConfigurationException {
     super(configPath);
@@ -41,6 +42,12 @@ public class YamlDataDeployerConfigurator extends BaseYamlConfigurator implement
     return ((Integer) ((Map<String, Object>) config.get(DATA_DEPLOYER_SECTION_KEY)).get(SLEEP_INTERVAL_KEY)).longValue();
   }
 
+  @Override
+  public boolean isUpdateWhileServing() {
+    Boolean updateWhileServing = (Boolean) ((Map<String, Object>) config.get(DATA_DEPLOYER_SECTION_KEY)).get(UPDATE_WHILE_SERVING_KEY);
+    return updateWhileServing != null && updateWhileServing;
+  }
+
   @Override
   protected void validate() throws InvalidConfigurationException {
     super.validate();
@@ -63,5 +70,10 @@ public class YamlDataDeployerConfigurator extends BaseYamlConfigurator implement
           + "' section must contain a '" + SLEEP_INTERVAL_KEY
           + "' key of type long!");
     }
+    if (dataDeployerSection.containsKey(UPDATE_WHILE_SERVING_KEY) && !(dataDeployerSection.get(UPDATE_WHILE_SERVING_KEY) instanceof Boolean)) {
+      throw new InvalidConfigurationException("'" + DATA_DEPLOYER_SECTION_KEY
+          + "' section's '" + UPDATE_WHILE_SERVING_KEY
+          + "' key must be of type boolean!");
+    }
   }
 }
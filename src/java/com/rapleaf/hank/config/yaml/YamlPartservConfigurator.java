@@ -24,6 +24,7 @@ import java.util.Set;
 
 import com.rapleaf.hank.config.InvalidConfigurationException;
 import com.rapleaf.hank.config.PartservConfigurator;
+import com.rapleaf.hank.part_daemon.ServerEngine;
 
 public class YamlPartservConfigurator extends BaseYamlConfigurator implements PartservConfigurator {
   private static final String PARTSERV_SECTION_KEY = "partserv";
@@ -32,8 +33,16 @@ public class YamlPartservConfigurator extends BaseYamlConfigurator implements Pa
   private static final String RING_GROUP_NAME_KEY = "ring_group_name";
   private static final String PART_DAEMON_SECTION_KEY = "part_daemon";
   private static final String NUM_WORKER_THREADS = "num_worker_threads";
+  private static final String BLOCK_CACHE_CAPACITY_KEY = "block_cache_capacity";
+  private static final String SERVER_ENGINE_KEY = "server_engine";
+  private static final String NUM_SELECTOR_THREADS_KEY = "num_selector_threads";
+  private static final String DOMAIN_CONCURRENCY_LIMITS_KEY = "domain_concurrency_limits";
   private static final String UPDATE_DAEMON_SECTION_KEY = "update_daemon";
   private static final String NUM_CONCURRENT_UPDATES_KEY = "num_concurrent_updates";
+  private static final String MERGE_READ_AHEAD_BLOCKS_KEY = "merge_read_ahead_blocks";
+  private static final String STREAM_REMOTE_DELTAS_KEY = "stream_remote_deltas";
+
+  private static final int DEFAULT_MERGE_READ_AHEAD_BLOCKS = 4;
 
   public YamlPartservConfigurator(String path) throws IOException,
   InvalidConfigurationException {
@@ -92,6 +101,35 @@ public class YamlPartservConfigurator extends BaseYamlConfigurator implements Pa
     if (!partDaemonSection.containsKey(NUM_WORKER_THREADS) || !(partDaemonSection.get(NUM_WORKER_THREADS) instanceof Integer)) {
       throw new InvalidConfigurationException("'part_daemon' section must contain a 'num_worker_threads' key of type int!");
     }
+    if (partDaemonSection.containsKey(BLOCK_CACHE_CAPACITY_KEY)
+        && !(partDaemonSection.get(BLOCK_CACHE_CAPACITY_KEY) instanceof Integer || partDaemonSection.get(BLOCK_CACHE_CAPACITY_KEY) instanceof Long)) {
+      throw new InvalidConfigurationException("'block_cache_capacity' in the 'part_daemon' section must be of type long!");
+    }
+    if (partDaemonSection.containsKey(SERVER_ENGINE_KEY)) {
+      if (!(partDaemonSection.get(SERVER_ENGINE_KEY) instanceof String)) {
+        throw new InvalidConfigurationException("'server_engine' in the 'part_daemon' section must be of type string!");
+      }
+      try {
+        ServerEngine.parse((String) partDaemonSection.get(SERVER_ENGINE_KEY));
+      } catch (IllegalArgumentException e) {
+        throw new InvalidConfigurationException("Unknown 'server_engine' in the 'part_daemon' section: "
+            + partDaemonSection.get(SERVER_ENGINE_KEY));
+      }
+    }
+    if (partDaemonSection.containsKey(NUM_SELECTOR_THREADS_KEY)
+        && !(partDaemonSection.get(NUM_SELECTOR_THREADS_KEY) instanceof Integer)) {
+      throw new InvalidConfigurationException("'num_selector_threads' in the 'part_daemon' section must be of type int!");
+    }
+    if (partDaemonSection.containsKey(DOMAIN_CONCURRENCY_LIMITS_KEY)) {
+      if (!(partDaemonSection.get(DOMAIN_CONCURRENCY_LIMITS_KEY) instanceof Map)) {
+        throw new InvalidConfigurationException("'domain_concurrency_limits' in the 'part_daemon' section must be a map of domain names to ints!");
+      }
+      for (Object limit : ((Map<String, Object>) partDaemonSection.get(DOMAIN_CONCURRENCY_LIMITS_KEY)).values()) {
+        if (!(limit instanceof Integer) || (Integer) limit < 0) {
+          throw new InvalidConfigurationException("'domain_concurrency_limits' in the 'part_daemon' section must be a map of domain names to non-negative ints!");
+        }
+      }
+    }
 
     // update daemon section
     if(!partservSection.containsKey(UPDATE_DAEMON_SECTION_KEY)) {
@@ -104,6 +142,14 @@ public class YamlPartservConfigurator extends BaseYamlConfigurator implements Pa
     if (!updateDaemonSection.containsKey(NUM_CONCURRENT_UPDATES_KEY) || !(updateDaemonSection.get(NUM_CONCURRENT_UPDATES_KEY) instanceof Integer)) {
       throw new InvalidConfigurationException("'update_daemon' section must contain a 'num_concurrent_updates' section of type int!");
     }
+    if (updateDaemonSection.containsKey(MERGE_READ_AHEAD_BLOCKS_KEY)
+        && !(updateDaemonSection.get(MERGE_READ_AHEAD_BLOCKS_KEY) instanceof Integer)) {
+      throw new InvalidConfigurationException("'merge_read_ahead_blocks' in the 'update_daemon' section must be of type int!");
+    }
+    if (updateDaemonSection.containsKey(STREAM_REMOTE_DELTAS_KEY)
+        && !(updateDaemonSection.get(STREAM_REMOTE_DELTAS_KEY) instanceof Boolean)) {
+      throw new InvalidConfigurationException("'stream_remote_deltas' in the 'update_daemon' section must be of type boolean!");
+    }
   }
 
   @Override
@@ -111,8 +157,59 @@ public class YamlPartservConfigurator extends BaseYamlConfigurator implements Pa
     return ((Integer)((Map<String, Object>) getPartservSection().get(UPDATE_DAEMON_SECTION_KEY)).get(NUM_CONCURRENT_UPDATES_KEY)).intValue();
   }
 
+  @Override
+  public int getMergeReadAheadBlocks() {
+    Integer blocks = (Integer) ((Map<String, Object>) getPartservSection().get(UPDATE_DAEMON_SECTION_KEY)).get(MERGE_READ_AHEAD_BLOCKS_KEY);
+    if (blocks == null) {
+      return DEFAULT_MERGE_READ_AHEAD_BLOCKS;
+    }
+    return blocks;
+  }
+
+  @Override
+  public boolean getStreamRemoteDeltas() {
+    Boolean streamRemoteDeltas = (Boolean) ((Map<String, Object>) getPartservSection().get(UPDATE_DAEMON_SECTION_KEY)).get(STREAM_REMOTE_DELTAS_KEY);
+    return streamRemoteDeltas != null && streamRemoteDeltas;
+  }
+
   @Override
   public int getNumThreads() {
     return ((Integer)((Map<String, Object>) getPartservSection().get(PART_DAEMON_SECTION_KEY)).get(NUM_WORKER_THREADS)).intValue();
   }
+
+  @Override
+  public long getBlockCacheCapacity() {
+    Number capacity = (Number) ((Map<String, Object>) getPartservSection().get(PART_DAEMON_SECTION_KEY)).get(BLOCK_CACHE_CAPACITY_KEY);
+    if (capacity == null) {
+      return 0;
+    }
+    return capacity.longValue();
+  }
+
+  @Override
+  public String getServerEngine() {
+    String engine = (String) ((Map<String, Object>) getPartservSection().get(PART_DAEMON_SECTION_KEY)).get(SERVER_ENGINE_KEY);
+    if (engine == null) {
+      return ServerEngine.HSHA.name().toLowerCase();
+    }
+    return engine;
+  }
+
+  @Override
+  public int getNumSelectorThreads() {
+    Integer numSelectorThreads = (Integer) ((Map<String, Object>) getPartservSection().get(PART_DAEMON_SECTION_KEY)).get(NUM_SELECTOR_THREADS_KEY);
+    if (numSelectorThreads == null) {
+      return Runtime.getRuntime().availableProcessors();
+    }
+    return numSelectorThreads;
+  }
+
+  @Override
+  public int getMaxConcurrentRequests(String domainName) {
+    Map<String, Object> limits = (Map<String, Object>) ((Map<String, Object>) getPartservSection().get(PART_DAEMON_SECTION_KEY)).get(DOMAIN_CONCURRENCY_LIMITS_KEY);
+    if (limits == null || !limits.containsKey(domainName)) {
+      return 0;
+    }
+    return (Integer) limits.get(domainName);
+  }
 }
@@ -27,6 +27,7 @@ public class YamlSmartClientDaemonConfigurator extends BaseYamlConfigurator impl
   private static final String NUM_WORKER_THREADS = "num_worker_threads";
   private static final String SERVICE_PORT_KEY = "service_port";
   private static final String RING_GROUP_NAME_KEY = "ring_group_name";
+  private static final String REQUEST_TIMEOUT_MS_KEY = "request_timeout_ms";
 
   public YamlSmartClientDaemonConfigurator(String path) throws IOException, InvalidConfigurationException {
     super(path);
@@ -47,6 +48,15 @@ public class YamlSmartClientDaemonConfigurator extends BaseYamlConfigurator impl
     return (String) ((Map<String, Object>) config.get(SMART_CLIENT_SECTION_KEY)).get(RING_GROUP_NAME_KEY);
   }
 
+  @Override
+  public long getRequestTimeoutMs() {
+    Map<String, Object> smartClientSection = (Map<String, Object>) config.get(SMART_CLIENT_SECTION_KEY);
+    if (!smartClientSection.containsKey(REQUEST_TIMEOUT_MS_KEY)) {
+      return 0;
+    }
+    return ((Number) smartClientSection.get(REQUEST_TIMEOUT_MS_KEY)).longValue();
+  }
+
   @Override
   protected void validate() throws InvalidConfigurationException {
     super.validate();
@@ -66,6 +76,9 @@ public class YamlSmartClientDaemonConfigurator extends BaseYamlConfigurator impl
     if (!smartClientSection.containsKey(RING_GROUP_NAME_KEY)) {
       throw new InvalidConfigurationException("'smart_client' section must contain a 'ring_group_name' key!");
     }
+    if (smartClientSection.containsKey(REQUEST_TIMEOUT_MS_KEY) && !(smartClientSection.get(REQUEST_TIMEOUT_MS_KEY) instanceof Number)) {
+      throw new InvalidConfigurationException("'smart_client' section's 'request_timeout_ms' key must be a number!");
+    }
   }
 
 }
@@ -49,7 +49,7 @@ public class DataDeployer implements RingGroupChangeListener, DomainGroupChangeL
   private boolean goingDown = false;
 
   public DataDeployer(DataDeployerConfigurator config) {
-    this(config, new RingGroupUpdateTransitionFunctionImpl());
+    this(config, new RingGroupUpdateTransitionFunctionImpl(config.isUpdateWhileServing()));
   }
 
   DataDeployer(DataDeployerConfigurator config, RingGroupUpdateTransitionFunction transFunc) {
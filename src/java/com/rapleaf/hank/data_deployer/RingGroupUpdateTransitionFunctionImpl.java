@@ -21,6 +21,7 @@ import java.util.Queue;
 
 import org.apache.log4j.Logger;
 
+import com.rapleaf.hank.coordinator.Host;
 import com.rapleaf.hank.coordinator.HostCommand;
 import com.rapleaf.hank.coordinator.HostState;
 import com.rapleaf.hank.coordinator.Ring;
@@ -31,6 +32,21 @@ public class RingGroupUpdateTransitionFunctionImpl implements RingGroupUpdateTra
 
   private static Logger LOG = Logger.getLogger(RingGroupUpdateTransitionFunctionImpl.class);
 
+  private final boolean updateWhileServing;
+
+  public RingGroupUpdateTransitionFunctionImpl() {
+    this(false);
+  }
+
+  /**
+   * @param updateWhileServing if true, a ring's hosts are told to update while
+   *          they keep serving, rather than the ring being taken down first.
+   *          Rings are still updated one at a time.
+   */
+  public RingGroupUpdateTransitionFunctionImpl(boolean updateWhileServing) {
+    this.updateWhileServing = updateWhileServing;
+  }
+
   @Override
   public void manageTransitions(RingGroup ringGroup) throws IOException {
     boolean anyUpdatesPending = false;
@@ -88,6 +104,9 @@ public class RingGroupUpdateTransitionFunctionImpl implements RingGroupUpdateTra
 
             // let's check if we're done updating yet
             int numHostsUpdating = ring.getHostsInState(HostState.UPDATING).size();
+            if (updateWhileServing) {
+              numHostsUpdating += getNumHostsUpdatingWhileServing(ring);
+            }
             if (numHostsUpdating > 0) {
               // we're not done updating yet.
               LOG.debug("Ring " + ring.getRingNumber() + " still has "
@@ -152,8 +171,15 @@ public class RingGroupUpdateTransitionFunctionImpl implements RingGroupUpdateTra
       LOG.debug("There were " + downable.size()
           + " candidates for the next ring to update. Selecting ring "
           + toDown.getRingNumber() + ".");
-      toDown.commandAll(HostCommand.GO_TO_IDLE);
-      toDown.setState(RingState.GOING_DOWN);
+      if (updateWhileServing) {
+        // the hosts will swap in the new versions once they have them, so
+        // there's no need to take the ring down
+        toDown.commandAll(HostCommand.EXECUTE_UPDATE);
+        toDown.setState(RingState.UPDATING);
+      } else {
+        toDown.commandAll(HostCommand.GO_TO_IDLE);
+        toDown.setState(RingState.GOING_DOWN);
+      }
     }
 
     // if there are no updates pending, then it's impossible for for there to
@@ -164,4 +190,22 @@ public class RingGroupUpdateTransitionFunctionImpl implements RingGroupUpdateTra
       ringGroup.updateComplete();
     }
   }
+
+  /**
+   * Hosts updating while serving stay in the SERVING state, so the only sign
+   * that they aren't done yet is the update command they haven't completed.
+   * Hosts already in the UPDATING state are counted separately.
+   */
+  private static int getNumHostsUpdatingWhileServing(Ring ring) throws IOException {
+    int numHostsUpdating = 0;
+    for (Host host : ring.getHosts()) {
+      HostState state = host.getState();
+      if (state != HostState.UPDATING && state != HostState.OFFLINE
+          && (host.getCurrentCommand() == HostCommand.EXECUTE_UPDATE
+              || host.getCommandQueue().contains(HostCommand.EXECUTE_UPDATE))) {
+        numHostsUpdating++;
+      }
+    }
+    return numHostsUpdating;
+  }
 }
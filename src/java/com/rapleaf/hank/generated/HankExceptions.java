@@ -19,6 +19,8 @@ public class HankExceptions extends org.apache.thrift.TUnion<HankExceptions, Han
   private static final org.apache.thrift.protocol.TField NO_SUCH_DOMAIN_FIELD_DESC = new org.apache.thrift.protocol.TField("no_such_domain", org.apache.thrift.protocol.TType.BOOL, (short)2);
   private static final org.apache.thrift.protocol.TField ZERO_REPLICAS_FIELD_DESC = new org.apache.thrift.protocol.TField("zero_replicas", org.apache.thrift.protocol.TType.BOOL, (short)3);
   private static final org.apache.thrift.protocol.TField INTERNAL_ERROR_FIELD_DESC = new org.apache.thrift.protocol.TField("internal_error", org.apache.thrift.protocol.TType.STRING, (short)4);
+  private static final org.apache.thrift.protocol.TField DEADLINE_EXCEEDED_FIELD_DESC = new org.apache.thrift.protocol.TField("deadline_exceeded", org.apache.thrift.protocol.TType.BOOL, (short)5);
+  private static final org.apache.thrift.protocol.TField OVERLOADED_FIELD_DESC = new org.apache.thrift.protocol.TField("overloaded", org.apache.thrift.protocol.TType.BOOL, (short)6);
 
   /** The set of fields this struct contains, along with convenience methods for finding and manipulating them. */
   public enum _Fields implements org.apache.thrift.TFieldIdEnum {
@@ -37,7 +39,15 @@ public class HankExceptions extends org.apache.thrift.TUnion<HankExceptions, Han
     /**
      * There was some internal error in the server. This is pretty bad.
      */
-    INTERNAL_ERROR((short)4, "internal_error");
+    INTERNAL_ERROR((short)4, "internal_error"),
+    /**
+     * The request's deadline passed before it could be served
+     */
+    DEADLINE_EXCEEDED((short)5, "deadline_exceeded"),
+    /**
+     * The host is too busy with the request's domain to serve it. Another replica may not be.
+     */
+    OVERLOADED((short)6, "overloaded");
 
     private static final Map<String, _Fields> byName = new HashMap<String, _Fields>();
 
@@ -60,6 +70,10 @@ public class HankExceptions extends org.apache.thrift.TUnion<HankExceptions, Han
           return ZERO_REPLICAS;
         case 4: // INTERNAL_ERROR
           return INTERNAL_ERROR;
+        case 5: // DEADLINE_EXCEEDED
+          return DEADLINE_EXCEEDED;
+        case 6: // OVERLOADED
+          return OVERLOADED;
         default:
           return null;
       }
@@ -110,6 +124,10 @@ public class HankExceptions extends org.apache.thrift.TUnion<HankExceptions, Han
         new org.apache.thrift.meta_data.FieldValueMetaData(org.apache.thrift.protocol.TType.BOOL)));
     tmpMap.put(_Fields.INTERNAL_ERROR, new org.apache.thrift.meta_data.FieldMetaData("internal_error", org.apache.thrift.TFieldRequirementType.DEFAULT, 
         new org.apache.thrift.meta_data.FieldValueMetaData(org.apache.thrift.protocol.TType.STRING)));
+    tmpMap.put(_Fields.DEADLINE_EXCEEDED, new org.apache.thrift.meta_data.FieldMetaData("deadline_exceeded", org.apache.thrift.TFieldRequirementType.DEFAULT, 
+        new org.apache.thrift.meta_data.FieldValueMetaData(org.apache.thrift.protocol.TType.BOOL)));
+    tmpMap.put(_Fields.OVERLOADED, new org.apache.thrift.meta_data.FieldMetaData("overloaded", org.apache.thrift.TFieldRequirementType.DEFAULT, 
+        new org.apache.thrift.meta_data.FieldValueMetaData(org.apache.thrift.protocol.TType.BOOL)));
     metaDataMap = Collections.unmodifiableMap(tmpMap);
     org.apache.thrift.meta_data.FieldMetaData.addStructMetaDataMap(HankExceptions.class, metaDataMap);
   }
@@ -153,6 +171,18 @@ public class HankExceptions extends org.apache.thrift.TUnion<HankExceptions, Han
     return x;
   }
 
+  public static HankExceptions deadline_exceeded(boolean value) {
+    HankExceptions x = new HankExceptions();
+    x.set_deadline_exceeded(value);
+    return x;
+  }
+
+  public static HankExceptions overloaded(boolean value) {
+    HankExceptions x = new HankExceptions();
+    x.set_overloaded(value);
+    return x;
+  }
+
 
   @Override
   protected void checkType(_Fields setField, Object value) throws ClassCastException {
@@ -177,6 +207,16 @@ public class HankExceptions extends org.apache.thrift.TUnion<HankExceptions, Han
           break;
         }
         throw new ClassCastException("Was expecting value of type String for field 'internal_error', but got " + value.getClass().getSimpleName());
+      case DEADLINE_EXCEEDED:
+        if (value instanceof Boolean) {
+          break;
+        }
+        throw new ClassCastException("Was expecting value of type Boolean for field 'deadline_exceeded', but got " + value.getClass().getSimpleName());
+      case OVERLOADED:
+        if (value instanceof Boolean) {
+          break;
+        }
+        throw new ClassCastException("Was expecting value of type Boolean for field 'overloaded', but got " + value.getClass().getSimpleName());
       default:
         throw new IllegalArgumentException("Unknown field id " + setField);
     }
@@ -223,6 +263,24 @@ public class HankExceptions extends org.apache.thrift.TUnion<HankExceptions, Han
             org.apache.thrift.protocol.TProtocolUtil.skip(iprot, field.type);
             return null;
           }
+        case DEADLINE_EXCEEDED:
+          if (field.type == DEADLINE_EXCEEDED_FIELD_DESC.type) {
+            Boolean deadline_exceeded;
+            deadline_exceeded = iprot.readBool();
+            return deadline_exceeded;
+          } else {
+            org.apache.thrift.protocol.TProtocolUtil.skip(iprot, field.type);
+            return null;
+          }
+        case OVERLOADED:
+          if (field.type == OVERLOADED_FIELD_DESC.type) {
+            Boolean overloaded;
+            overloaded = iprot.readBool();
+            return overloaded;
+          } else {
+            org.apache.thrift.protocol.TProtocolUtil.skip(iprot, field.type);
+            return null;
+          }
         default:
           throw new IllegalStateException("setField wasn't null, but didn't match any of the case statements!");
       }
@@ -251,6 +309,14 @@ public class HankExceptions extends org.apache.thrift.TUnion<HankExceptions, Han
         String internal_error = (String)value_;
         oprot.writeString(internal_error);
         return;
+      case DEADLINE_EXCEEDED:
+        Boolean deadline_exceeded = (Boolean)value_;
+        oprot.writeBool(deadline_exceeded);
+        return;
+      case OVERLOADED:
+        Boolean overloaded = (Boolean)value_;
+        oprot.writeBool(overloaded);
+        return;
       default:
         throw new IllegalStateException("Cannot write union with unknown field " + setField_);
     }
@@ -267,6 +333,10 @@ public class HankExceptions extends org.apache.thrift.TUnion<HankExceptions, Han
         return ZERO_REPLICAS_FIELD_DESC;
       case INTERNAL_ERROR:
         return INTERNAL_ERROR_FIELD_DESC;
+      case DEADLINE_EXCEEDED:
+        return DEADLINE_EXCEEDED_FIELD_DESC;
+      case OVERLOADED:
+        return OVERLOADED_FIELD_DESC;
       default:
         throw new IllegalArgumentException("Unknown field id " + setField);
     }
@@ -364,6 +434,44 @@ public class HankExceptions extends org.apache.thrift.TUnion<HankExceptions, Han
     value_ = value;
   }
 
+  /**
+   * The request's deadline passed before it could be served
+   */
+  public boolean get_deadline_exceeded() {
+    if (getSetField() == _Fields.DEADLINE_EXCEEDED) {
+      return (Boolean)getFieldValue();
+    } else {
+      throw new RuntimeException("Cannot get field 'deadline_exceeded' because union is currently set to " + getFieldDesc(getSetField()).name);
+    }
+  }
+
+  /**
+   * The request's deadline passed before it could be served
+   */
+  public void set_deadline_exceeded(boolean value) {
+    setField_ = _Fields.DEADLINE_EXCEEDED;
+    value_ = value;
+  }
+
+  /**
+   * The host is too busy with the request's domain to serve it. Another replica may not be.
+   */
+  public boolean get_overloaded() {
+    if (getSetField() == _Fields.OVERLOADED) {
+      return (Boolean)getFieldValue();
+    } else {
+      throw new RuntimeException("Cannot get field 'overloaded' because union is currently set to " + getFieldDesc(getSetField()).name);
+    }
+  }
+
+  /**
+   * The host is too busy with the request's domain to serve it. Another replica may not be.
+   */
+  public void set_overloaded(boolean value) {
+    setField_ = _Fields.OVERLOADED;
+    value_ = value;
+  }
+
   public boolean equals(Object other) {
     if (other instanceof HankExceptions) {
       return equals((HankExceptions)other);
@@ -6,11 +6,13 @@
 package com.rapleaf.hank.generated;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.lang.builder.HashCodeBuilder;
@@ -21,13 +23,17 @@ public class PartDaemon {
 
   public interface Iface {
 
-    public HankResponse get(int domain_id, ByteBuffer key) throws org.apache.thrift.TException;
+    public HankResponse get(int domain_id, ByteBuffer key, long timeout_ms) throws org.apache.thrift.TException;
+
+    public List<HankResponse> getBulk(int domain_id, List<ByteBuffer> keys, long timeout_ms) throws org.apache.thrift.TException;
 
   }
 
   public interface AsyncIface {
 
-    public void get(int domain_id, ByteBuffer key, org.apache.thrift.async.AsyncMethodCallback<AsyncClient.get_call> resultHandler) throws org.apache.thrift.TException;
+    public void get(int domain_id, ByteBuffer key, long timeout_ms, org.apache.thrift.async.AsyncMethodCallback<AsyncClient.get_call> resultHandler) throws org.apache.thrift.TException;
+
+    public void getBulk(int domain_id, List<ByteBuffer> keys, long timeout_ms, org.apache.thrift.async.AsyncMethodCallback<AsyncClient.getBulk_call> resultHandler) throws org.apache.thrift.TException;
 
   }
 
@@ -51,17 +57,18 @@ public class PartDaemon {
       super(iprot, oprot);
     }
 
-    public HankResponse get(int domain_id, ByteBuffer key) throws org.apache.thrift.TException
+    public HankResponse get(int domain_id, ByteBuffer key, long timeout_ms) throws org.apache.thrift.TException
     {
-      send_get(domain_id, key);
+      send_get(domain_id, key, timeout_ms);
       return recv_get();
     }
 
-    public void send_get(int domain_id, ByteBuffer key) throws org.apache.thrift.TException
+    public void send_get(int domain_id, ByteBuffer key, long timeout_ms) throws org.apache.thrift.TException
     {
       get_args args = new get_args();
       args.set_domain_id(domain_id);
       args.set_key(key);
+      args.set_timeout_ms(timeout_ms);
       sendBase("get", args);
     }
 
@@ -75,6 +82,31 @@ public class PartDaemon {
       throw new org.apache.thrift.TApplicationException(org.apache.thrift.TApplicationException.MISSING_RESULT, "get failed: unknown result");
     }
 
+    public List<HankResponse> getBulk(int domain_id, List<ByteBuffer> keys, long timeout_ms) throws org.apache.thrift.TException
+    {
+      send_getBulk(domain_id, keys, timeout_ms);
+      return recv_getBulk();
+    }
+
+    public void send_getBulk(int domain_id, List<ByteBuffer> keys, long timeout_ms) throws org.apache.thrift.TException
+    {
+      getBulk_args args = new getBulk_args();
+      args.set_domain_id(domain_id);
+      args.set_keys(keys);
+      args.set_timeout_ms(timeout_ms);
+      sendBase("getBulk", args);
+    }
+
+    public List<HankResponse> recv_getBulk() throws org.apache.thrift.TException
+    {
+      getBulk_result result = new getBulk_result();
+      receiveBase(result, "getBulk");
+      if (result.is_set_success()) {
+        return result.success;
+      }
+      throw new org.apache.thrift.TApplicationException(org.apache.thrift.TApplicationException.MISSING_RESULT, "getBulk failed: unknown result");
+    }
+
   }
   public static class AsyncClient extends org.apache.thrift.async.TAsyncClient implements AsyncIface {
     public static class Factory implements org.apache.thrift.async.TAsyncClientFactory<AsyncClient> {
@@ -93,9 +125,9 @@ public class PartDaemon {
       super(protocolFactory, clientManager, transport);
     }
 
-    public void get(int domain_id, ByteBuffer key, org.apache.thrift.async.AsyncMethodCallback<get_call> resultHandler) throws org.apache.thrift.TException {
+    public void get(int domain_id, ByteBuffer key, long timeout_ms, org.apache.thrift.async.AsyncMethodCallback<get_call> resultHandler) throws org.apache.thrift.TException {
       checkReady();
-      get_call method_call = new get_call(domain_id, key, resultHandler, this, protocolFactory, transport);
+      get_call method_call = new get_call(domain_id, key, timeout_ms, resultHandler, this, protocolFactory, transport);
       this.currentMethod = method_call;
       manager.call(method_call);
     }
@@ -103,10 +135,12 @@ public class PartDaemon {
     public static class get_call extends org.apache.thrift.async.TAsyncMethodCall {
       private int domain_id;
       private ByteBuffer key;
-      public get_call(int domain_id, ByteBuffer key, org.apache.thrift.async.AsyncMethodCallback<get_call> resultHandler, org.apache.thrift.async.TAsyncClient client, org.apache.thrift.protocol.TProtocolFactory protocolFactory, org.apache.thrift.transport.TNonblockingTransport transport) throws org.apache.thrift.TException {
+      private long timeout_ms;
+      public get_call(int domain_id, ByteBuffer key, long timeout_ms, org.apache.thrift.async.AsyncMethodCallback<get_call> resultHandler, org.apache.thrift.async.TAsyncClient client, org.apache.thrift.protocol.TProtocolFactory protocolFactory, org.apache.thrift.transport.TNonblockingTransport transport) throws org.apache.thrift.TException {
         super(client, protocolFactory, transport, resultHandler, false);
         this.domain_id = domain_id;
         this.key = key;
+        this.timeout_ms = timeout_ms;
       }
 
       public void write_args(org.apache.thrift.protocol.TProtocol prot) throws org.apache.thrift.TException {
@@ -114,6 +148,7 @@ public class PartDaemon {
         get_args args = new get_args();
         args.set_domain_id(domain_id);
         args.set_key(key);
+        args.set_timeout_ms(timeout_ms);
         args.write(prot);
         prot.writeMessageEnd();
       }
@@ -128,6 +163,44 @@ public class PartDaemon {
       }
     }
 
+    public void getBulk(int domain_id, List<ByteBuffer> keys, long timeout_ms, org.apache.thrift.async.AsyncMethodCallback<getBulk_call> resultHandler) throws org.apache.thrift.TException {
+      checkReady();
+      getBulk_call method_call = new getBulk_call(domain_id, keys, timeout_ms, resultHandler, this, protocolFactory, transport);
+      this.currentMethod = method_call;
+      manager.call(method_call);
+    }
+
+    public static class getBulk_call extends org.apache.thrift.async.TAsyncMethodCall {
+      private int domain_id;
+      private List<ByteBuffer> keys;
+      private long timeout_ms;
+      public getBulk_call(int domain_id, List<ByteBuffer> keys, long timeout_ms, org.apache.thrift.async.AsyncMethodCallback<getBulk_call> resultHandler, org.apache.thrift.async.TAsyncClient client, org.apache.thrift.protocol.TProtocolFactory protocolFactory, org.apache.thrift.transport.TNonblockingTransport transport) throws org.apache.thrift.TException {
+        super(client, protocolFactory, transport, resultHandler, false);
+        this.domain_id = domain_id;
+        this.keys = keys;
+        this.timeout_ms = timeout_ms;
+      }
+
+      public void write_args(org.apache.thrift.protocol.TProtocol prot) throws org.apache.thrift.TException {
+        prot.writeMessageBegin(new org.apache.thrift.protocol.TMessage("getBulk", org.apache.thrift.protocol.TMessageType.CALL, 0));
+        getBulk_args args = new getBulk_args();
+        args.set_domain_id(domain_id);
+        args.set_keys(keys);
+        args.set_timeout_ms(timeout_ms);
+        args.write(prot);
+        prot.writeMessageEnd();
+      }
+
+      public List<HankResponse> getResult() throws org.apache.thrift.TException {
+        if (getState() != org.apache.thrift.async.TAsyncMethodCall.State.RESPONSE_READ) {
+          throw new IllegalStateException("Method call not finished!");
+        }
+        org.apache.thrift.transport.TMemoryInputTransport memoryTransport = new org.apache.thrift.transport.TMemoryInputTransport(getFrameBuffer().array());
+        org.apache.thrift.protocol.TProtocol prot = client.getProtocolFactory().getProtocol(memoryTransport);
+        return (new Client(prot)).recv_getBulk();
+      }
+    }
+
   }
 
   public static class Processor<I extends Iface> extends org.apache.thrift.TBaseProcessor implements org.apache.thrift.TProcessor {
@@ -142,6 +215,7 @@ public class PartDaemon {
 
     private static <I extends Iface> Map<String,  org.apache.thrift.ProcessFunction<I, ? extends  org.apache.thrift.TBase>> getProcessMap(Map<String,  org.apache.thrift.ProcessFunction<I, ? extends  org.apache.thrift.TBase>> processMap) {
       processMap.put("get", new get());
+      processMap.put("getBulk", new getBulk());
       return processMap;
     }
 
@@ -156,7 +230,23 @@ public class PartDaemon {
 
       protected get_result getResult(I iface, get_args args) throws org.apache.thrift.TException {
         get_result result = new get_result();
-        result.success = iface.get(args.domain_id, args.key);
+        result.success = iface.get(args.domain_id, args.key, args.timeout_ms);
+        return result;
+      }
+    }
+
+    private static class getBulk<I extends Iface> extends org.apache.thrift.ProcessFunction<I, getBulk_args> {
+      public getBulk() {
+        super("getBulk");
+      }
+
+      protected getBulk_args getEmptyArgsInstance() {
+        return new getBulk_args();
+      }
+
+      protected getBulk_result getResult(I iface, getBulk_args args) throws org.apache.thrift.TException {
+        getBulk_result result = new getBulk_result();
+        result.success = iface.getBulk(args.domain_id, args.keys, args.timeout_ms);
         return result;
       }
     }
@@ -168,14 +258,17 @@ public class PartDaemon {
 
     private static final org.apache.thrift.protocol.TField DOMAIN_ID_FIELD_DESC = new org.apache.thrift.protocol.TField("domain_id", org.apache.thrift.protocol.TType.I32, (short)1);
     private static final org.apache.thrift.protocol.TField KEY_FIELD_DESC = new org.apache.thrift.protocol.TField("key", org.apache.thrift.protocol.TType.STRING, (short)2);
+    private static final org.apache.thrift.protocol.TField TIMEOUT_MS_FIELD_DESC = new org.apache.thrift.protocol.TField("timeout_ms", org.apache.thrift.protocol.TType.I64, (short)3);
 
     public int domain_id;
     public ByteBuffer key;
+    public long timeout_ms;
 
     /** The set of fields this struct contains, along with convenience methods for finding and manipulating them. */
     public enum _Fields implements org.apache.thrift.TFieldIdEnum {
       DOMAIN_ID((short)1, "domain_id"),
-      KEY((short)2, "key");
+      KEY((short)2, "key"),
+      TIMEOUT_MS((short)3, "timeout_ms");
 
       private static final Map<String, _Fields> byName = new HashMap<String, _Fields>();
 
@@ -194,6 +287,8 @@ public class PartDaemon {
             return DOMAIN_ID;
           case 2: // KEY
             return KEY;
+          case 3: // TIMEOUT_MS
+            return TIMEOUT_MS;
           default:
             return null;
         }
@@ -235,7 +330,8 @@ public class PartDaemon {
 
     // isset id assignments
     private static final int __DOMAIN_ID_ISSET_ID = 0;
-    private BitSet __isset_bit_vector = new BitSet(1);
+    private static final int __TIMEOUT_MS_ISSET_ID = 1;
+    private BitSet __isset_bit_vector = new BitSet(2);
 
     public static final Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> metaDataMap;
     static {
@@ -244,6 +340,8 @@ public class PartDaemon {
           new org.apache.thrift.meta_data.FieldValueMetaData(org.apache.thrift.protocol.TType.I32)));
       tmpMap.put(_Fields.KEY, new org.apache.thrift.meta_data.FieldMetaData("key", org.apache.thrift.TFieldRequirementType.DEFAULT, 
           new org.apache.thrift.meta_data.FieldValueMetaData(org.apache.thrift.protocol.TType.STRING          , true)));
+      tmpMap.put(_Fields.TIMEOUT_MS, new org.apache.thrift.meta_data.FieldMetaData("timeout_ms", org.apache.thrift.TFieldRequirementType.DEFAULT, 
+          new org.apache.thrift.meta_data.FieldValueMetaData(org.apache.thrift.protocol.TType.I64)));
       metaDataMap = Collections.unmodifiableMap(tmpMap);
       org.apache.thrift.meta_data.FieldMetaData.addStructMetaDataMap(get_args.class, metaDataMap);
     }
@@ -253,12 +351,15 @@ public class PartDaemon {
 
     public get_args(
       int domain_id,
-      ByteBuffer key)
+      ByteBuffer key,
+      long timeout_ms)
     {
       this();
       this.domain_id = domain_id;
       set_domain_id_isSet(true);
       this.key = key;
+      this.timeout_ms = timeout_ms;
+      set_timeout_ms_isSet(true);
     }
 
     /**
@@ -272,6 +373,7 @@ public class PartDaemon {
         this.key = org.apache.thrift.TBaseHelper.copyBinary(other.key);
 ;
       }
+      this.timeout_ms = other.timeout_ms;
     }
 
     public get_args deepCopy() {
@@ -283,6 +385,8 @@ public class PartDaemon {
       set_domain_id_isSet(false);
       this.domain_id = 0;
       this.key = null;
+      set_timeout_ms_isSet(false);
+      this.timeout_ms = 0;
     }
 
     public int get_domain_id() {
@@ -342,6 +446,29 @@ public class PartDaemon {
       }
     }
 
+    public long get_timeout_ms() {
+      return this.timeout_ms;
+    }
+
+    public get_args set_timeout_ms(long timeout_ms) {
+      this.timeout_ms = timeout_ms;
+      set_timeout_ms_isSet(true);
+      return this;
+    }
+
+    public void unset_timeout_ms() {
+      __isset_bit_vector.clear(__TIMEOUT_MS_ISSET_ID);
+    }
+
+    /** Returns true if field timeout_ms is set (has been assigned a value) and false otherwise */
+    public boolean is_set_timeout_ms() {
+      return __isset_bit_vector.get(__TIMEOUT_MS_ISSET_ID);
+    }
+
+    public void set_timeout_ms_isSet(boolean value) {
+      __isset_bit_vector.set(__TIMEOUT_MS_ISSET_ID, value);
+    }
+
     public void setFieldValue(_Fields field, Object value) {
       switch (field) {
       case DOMAIN_ID:
@@ -360,6 +487,14 @@ public class PartDaemon {
         }
         break;
 
+      case TIMEOUT_MS:
+        if (value == null) {
+          unset_timeout_ms();
+        } else {
+          set_timeout_ms((Long)value);
+        }
+        break;
+
       }
     }
 
@@ -371,6 +506,9 @@ public class PartDaemon {
       case KEY:
         return get_key();
 
+      case TIMEOUT_MS:
+        return Long.valueOf(get_timeout_ms());
+
       }
       throw new IllegalStateException();
     }
@@ -386,6 +524,8 @@ public class PartDaemon {
         return is_set_domain_id();
       case KEY:
         return is_set_key();
+      case TIMEOUT_MS:
+        return is_set_timeout_ms();
       }
       throw new IllegalStateException();
     }
@@ -421,6 +561,15 @@ public class PartDaemon {
           return false;
       }
 
+      boolean this_present_timeout_ms = true;
+      boolean that_present_timeout_ms = true;
+      if (this_present_timeout_ms || that_present_timeout_ms) {
+        if (!(this_present_timeout_ms && that_present_timeout_ms))
+          return false;
+        if (this.timeout_ms != that.timeout_ms)
+          return false;
+      }
+
       return true;
     }
 
@@ -438,6 +587,11 @@ public class PartDaemon {
       if (present_key)
         builder.append(key);
 
+      boolean present_timeout_ms = true;
+      builder.append(present_timeout_ms);
+      if (present_timeout_ms)
+        builder.append(timeout_ms);
+
       return builder.toHashCode();
     }
 
@@ -469,6 +623,16 @@ public class PartDaemon {
           return lastComparison;
         }
       }
+      lastComparison = Boolean.valueOf(is_set_timeout_ms()).compareTo(typedOther.is_set_timeout_ms());
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+      if (is_set_timeout_ms()) {
+        lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.timeout_ms, typedOther.timeout_ms);
+        if (lastComparison != 0) {
+          return lastComparison;
+        }
+      }
       return 0;
     }
 
@@ -501,6 +665,14 @@ public class PartDaemon {
               org.apache.thrift.protocol.TProtocolUtil.skip(iprot, field.type);
             }
             break;
+          case 3: // TIMEOUT_MS
+            if (field.type == org.apache.thrift.protocol.TType.I64) {
+              this.timeout_ms = iprot.readI64();
+              set_timeout_ms_isSet(true);
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, field.type);
+            }
+            break;
           default:
             org.apache.thrift.protocol.TProtocolUtil.skip(iprot, field.type);
         }
@@ -524,6 +696,9 @@ public class PartDaemon {
         oprot.writeBinary(this.key);
         oprot.writeFieldEnd();
       }
+      oprot.writeFieldBegin(TIMEOUT_MS_FIELD_DESC);
+      oprot.writeI64(this.timeout_ms);
+      oprot.writeFieldEnd();
       oprot.writeFieldStop();
       oprot.writeStructEnd();
     }
@@ -544,6 +719,10 @@ public class PartDaemon {
         org.apache.thrift.TBaseHelper.toString(this.key, sb);
       }
       first = false;
+      if (!first) sb.append(", ");
+      sb.append("timeout_ms:");
+      sb.append(this.timeout_ms);
+      first = false;
       sb.append(")");
       return sb.toString();
     }
@@ -563,7 +742,7 @@ public class PartDaemon {
     private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException {
       try {
         // it doesn't seem like you should have to do this, but java serialization is wacky, and doesn't call the default constructor.
-        __isset_bit_vector = new BitSet(1);
+        __isset_bit_vector = new BitSet(2);
         read(new org.apache.thrift.protocol.TCompactProtocol(new org.apache.thrift.transport.TIOStreamTransport(in)));
       } catch (org.apache.thrift.TException te) {
         throw new java.io.IOException(te);
@@ -876,4 +1055,871 @@ public class PartDaemon {
 
   }
 
+  public static class getBulk_args implements org.apache.thrift.TBase<getBulk_args, getBulk_args._Fields>, java.io.Serializable, Cloneable   {
+    private static final org.apache.thrift.protocol.TStruct STRUCT_DESC = new org.apache.thrift.protocol.TStruct("getBulk_args");
+
+    private static final org.apache.thrift.protocol.TField DOMAIN_ID_FIELD_DESC = new org.apache.thrift.protocol.TField("domain_id", org.apache.thrift.protocol.TType.I32, (short)1);
+    private static final org.apache.thrift.protocol.TField KEYS_FIELD_DESC = new org.apache.thrift.protocol.TField("keys", org.apache.thrift.protocol.TType.LIST, (short)2);
+    private static final org.apache.thrift.protocol.TField TIMEOUT_MS_FIELD_DESC = new org.apache.thrift.protocol.TField("timeout_ms", org.apache.thrift.protocol.TType.I64, (short)3);
+
+    public int domain_id;
+    public List<ByteBuffer> keys;
+    public long timeout_ms;
+
+    /** The set of fields this struct contains, along with convenience methods for finding and manipulating them. */
+    public enum _Fields implements org.apache.thrift.TFieldIdEnum {
+      DOMAIN_ID((short)1, "domain_id"),
+      KEYS((short)2, "keys"),
+      TIMEOUT_MS((short)3, "timeout_ms");
+
+      private static final Map<String, _Fields> byName = new HashMap<String, _Fields>();
+
+      static {
+        for (_Fields field : EnumSet.allOf(_Fields.class)) {
+          byName.put(field.getFieldName(), field);
+        }
+      }
+
+      /**
+       * Find the _Fields constant that matches fieldId, or null if its not found.
+       */
+      public static _Fields findByThriftId(int fieldId) {
+        switch(fieldId) {
+          case 1: // DOMAIN_ID
+            return DOMAIN_ID;
+          case 2: // KEYS
+            return KEYS;
+          case 3: // TIMEOUT_MS
+            return TIMEOUT_MS;
+          default:
+            return null;
+        }
+      }
+
+      /**
+       * Find the _Fields constant that matches fieldId, throwing an exception
+       * if it is not found.
+       */
+      public static _Fields findByThriftIdOrThrow(int fieldId) {
+        _Fields fields = findByThriftId(fieldId);
+        if (fields == null) throw new IllegalArgumentException("Field " + fieldId + " doesn't exist!");
+        return fields;
+      }
+
+      /**
+       * Find the _Fields constant that matches name, or null if its not found.
+       */
+      public static _Fields findByName(String name) {
+        return byName.get(name);
+      }
+
+      private final short _thriftId;
+      private final String _fieldName;
+
+      _Fields(short thriftId, String fieldName) {
+        _thriftId = thriftId;
+        _fieldName = fieldName;
+      }
+
+      public short getThriftFieldId() {
+        return _thriftId;
+      }
+
+      public String getFieldName() {
+        return _fieldName;
+      }
+    }
+
+    // isset id assignments
+    private static final int __DOMAIN_ID_ISSET_ID = 0;
+    private static final int __TIMEOUT_MS_ISSET_ID = 1;
+    private BitSet __isset_bit_vector = new BitSet(2);
+
+    public static final Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> metaDataMap;
+    static {
+      Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> tmpMap = new EnumMap<_Fields, org.apache.thrift.meta_data.FieldMetaData>(_Fields.class);
+      tmpMap.put(_Fields.DOMAIN_ID, new org.apache.thrift.meta_data.FieldMetaData("domain_id", org.apache.thrift.TFieldRequirementType.DEFAULT, 
+          new org.apache.thrift.meta_data.FieldValueMetaData(org.apache.thrift.protocol.TType.I32)));
+      tmpMap.put(_Fields.KEYS, new org.apache.thrift.meta_data.FieldMetaData("keys", org.apache.thrift.TFieldRequirementType.DEFAULT, 
+          new org.apache.thrift.meta_data.ListMetaData(org.apache.thrift.protocol.TType.LIST, 
+              new org.apache.thrift.meta_data.FieldValueMetaData(org.apache.thrift.protocol.TType.STRING              , true))));
+      tmpMap.put(_Fields.TIMEOUT_MS, new org.apache.thrift.meta_data.FieldMetaData("timeout_ms", org.apache.thrift.TFieldRequirementType.DEFAULT, 
+          new org.apache.thrift.meta_data.FieldValueMetaData(org.apache.thrift.protocol.TType.I64)));
+      metaDataMap = Collections.unmodifiableMap(tmpMap);
+      org.apache.thrift.meta_data.FieldMetaData.addStructMetaDataMap(getBulk_args.class, metaDataMap);
+    }
+
+    public getBulk_args() {
+    }
+
+    public getBulk_args(
+      int domain_id,
+      List<ByteBuffer> keys,
+      long timeout_ms)
+    {
+      this();
+      this.domain_id = domain_id;
+      set_domain_id_isSet(true);
+      this.keys = keys;
+      this.timeout_ms = timeout_ms;
+      set_timeout_ms_isSet(true);
+    }
+
+    /**
+     * Performs a deep copy on <i>other</i>.
+     */
+    public getBulk_args(getBulk_args other) {
+      __isset_bit_vector.clear();
+      __isset_bit_vector.or(other.__isset_bit_vector);
+      this.domain_id = other.domain_id;
+      if (other.is_set_keys()) {
+        List<ByteBuffer> __this__keys = new ArrayList<ByteBuffer>();
+        for (ByteBuffer other_element : other.keys) {
+          ByteBuffer temp_binary_element = org.apache.thrift.TBaseHelper.copyBinary(other_element);
+;
+          __this__keys.add(temp_binary_element);
+        }
+        this.keys = __this__keys;
+      }
+      this.timeout_ms = other.timeout_ms;
+    }
+
+    public getBulk_args deepCopy() {
+      return new getBulk_args(this);
+    }
+
+    @Override
+    public void clear() {
+      set_domain_id_isSet(false);
+      this.domain_id = 0;
+      this.keys = null;
+      set_timeout_ms_isSet(false);
+      this.timeout_ms = 0;
+    }
+
+    public int get_domain_id() {
+      return this.domain_id;
+    }
+
+    public getBulk_args set_domain_id(int domain_id) {
+      this.domain_id = domain_id;
+      set_domain_id_isSet(true);
+      return this;
+    }
+
+    public void unset_domain_id() {
+      __isset_bit_vector.clear(__DOMAIN_ID_ISSET_ID);
+    }
+
+    /** Returns true if field domain_id is set (has been assigned a value) and false otherwise */
+    public boolean is_set_domain_id() {
+      return __isset_bit_vector.get(__DOMAIN_ID_ISSET_ID);
+    }
+
+    public void set_domain_id_isSet(boolean value) {
+      __isset_bit_vector.set(__DOMAIN_ID_ISSET_ID, value);
+    }
+
+    public int get_keys_size() {
+      return (this.keys == null) ? 0 : this.keys.size();
+    }
+
+    public java.util.Iterator<ByteBuffer> get_keys_iterator() {
+      return (this.keys == null) ? null : this.keys.iterator();
+    }
+
+    public void add_to_keys(ByteBuffer elem) {
+      if (this.keys == null) {
+        this.keys = new ArrayList<ByteBuffer>();
+      }
+      this.keys.add(elem);
+    }
+
+    public List<ByteBuffer> get_keys() {
+      return this.keys;
+    }
+
+    public getBulk_args set_keys(List<ByteBuffer> keys) {
+      this.keys = keys;
+      return this;
+    }
+
+    public void unset_keys() {
+      this.keys = null;
+    }
+
+    /** Returns true if field keys is set (has been assigned a value) and false otherwise */
+    public boolean is_set_keys() {
+      return this.keys != null;
+    }
+
+    public void set_keys_isSet(boolean value) {
+      if (!value) {
+        this.keys = null;
+      }
+    }
+
+    public long get_timeout_ms() {
+      return this.timeout_ms;
+    }
+
+    public getBulk_args set_timeout_ms(long timeout_ms) {
+      this.timeout_ms = timeout_ms;
+      set_timeout_ms_isSet(true);
+      return this;
+    }
+
+    public void unset_timeout_ms() {
+      __isset_bit_vector.clear(__TIMEOUT_MS_ISSET_ID);
+    }
+
+    /** Returns true if field timeout_ms is set (has been assigned a value) and false otherwise */
+    public boolean is_set_timeout_ms() {
+      return __isset_bit_vector.get(__TIMEOUT_MS_ISSET_ID);
+    }
+
+    public void set_timeout_ms_isSet(boolean value) {
+      __isset_bit_vector.set(__TIMEOUT_MS_ISSET_ID, value);
+    }
+
+    public void setFieldValue(_Fields field, Object value) {
+      switch (field) {
+      case DOMAIN_ID:
+        if (value == null) {
+          unset_domain_id();
+        } else {
+          set_domain_id((Integer)value);
+        }
+        break;
+
+      case KEYS:
+        if (value == null) {
+          unset_keys();
+        } else {
+          set_keys((List<ByteBuffer>)value);
+        }
+        break;
+
+      case TIMEOUT_MS:
+        if (value == null) {
+          unset_timeout_ms();
+        } else {
+          set_timeout_ms((Long)value);
+        }
+        break;
+
+      }
+    }
+
+    public Object getFieldValue(_Fields field) {
+      switch (field) {
+      case DOMAIN_ID:
+        return Integer.valueOf(get_domain_id());
+
+      case KEYS:
+        return get_keys();
+
+      case TIMEOUT_MS:
+        return Long.valueOf(get_timeout_ms());
+
+      }
+      throw new IllegalStateException();
+    }
+
+    /** Returns true if field corresponding to fieldID is set (has been assigned a value) and false otherwise */
+    public boolean isSet(_Fields field) {
+      if (field == null) {
+        throw new IllegalArgumentException();
+      }
+
+      switch (field) {
+      case DOMAIN_ID:
+        return is_set_domain_id();
+      case KEYS:
+        return is_set_keys();
+      case TIMEOUT_MS:
+        return is_set_timeout_ms();
+      }
+      throw new IllegalStateException();
+    }
+
+    @Override
+    public boolean equals(Object that) {
+      if (that == null)
+        return false;
+      if (that instanceof getBulk_args)
+        return this.equals((getBulk_args)that);
+      return false;
+    }
+
+    public boolean equals(getBulk_args that) {
+      if (that == null)
+        return false;
+
+      boolean this_present_domain_id = true;
+      boolean that_present_domain_id = true;
+      if (this_present_domain_id || that_present_domain_id) {
+        if (!(this_present_domain_id && that_present_domain_id))
+          return false;
+        if (this.domain_id != that.domain_id)
+          return false;
+      }
+
+      boolean this_present_keys = true && this.is_set_keys();
+      boolean that_present_keys = true && that.is_set_keys();
+      if (this_present_keys || that_present_keys) {
+        if (!(this_present_keys && that_present_keys))
+          return false;
+        if (!this.keys.equals(that.keys))
+          return false;
+      }
+
+      boolean this_present_timeout_ms = true;
+      boolean that_present_timeout_ms = true;
+      if (this_present_timeout_ms || that_present_timeout_ms) {
+        if (!(this_present_timeout_ms && that_present_timeout_ms))
+          return false;
+        if (this.timeout_ms != that.timeout_ms)
+          return false;
+      }
+
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      HashCodeBuilder builder = new HashCodeBuilder();
+
+      boolean present_domain_id = true;
+      builder.append(present_domain_id);
+      if (present_domain_id)
+        builder.append(domain_id);
+
+      boolean present_keys = true && (is_set_keys());
+      builder.append(present_keys);
+      if (present_keys)
+        builder.append(keys);
+
+      boolean present_timeout_ms = true;
+      builder.append(present_timeout_ms);
+      if (present_timeout_ms)
+        builder.append(timeout_ms);
+
+      return builder.toHashCode();
+    }
+
+    public int compareTo(getBulk_args other) {
+      if (!getClass().equals(other.getClass())) {
+        return getClass().getName().compareTo(other.getClass().getName());
+      }
+
+      int lastComparison = 0;
+      getBulk_args typedOther = (getBulk_args)other;
+
+      lastComparison = Boolean.valueOf(is_set_domain_id()).compareTo(typedOther.is_set_domain_id());
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+      if (is_set_domain_id()) {
+        lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.domain_id, typedOther.domain_id);
+        if (lastComparison != 0) {
+          return lastComparison;
+        }
+      }
+      lastComparison = Boolean.valueOf(is_set_keys()).compareTo(typedOther.is_set_keys());
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+      if (is_set_keys()) {
+        lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.keys, typedOther.keys);
+        if (lastComparison != 0) {
+          return lastComparison;
+        }
+      }
+      lastComparison = Boolean.valueOf(is_set_timeout_ms()).compareTo(typedOther.is_set_timeout_ms());
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+      if (is_set_timeout_ms()) {
+        lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.timeout_ms, typedOther.timeout_ms);
+        if (lastComparison != 0) {
+          return lastComparison;
+        }
+      }
+      return 0;
+    }
+
+    public _Fields fieldForId(int fieldId) {
+      return _Fields.findByThriftId(fieldId);
+    }
+
+    public void read(org.apache.thrift.protocol.TProtocol iprot) throws org.apache.thrift.TException {
+      org.apache.thrift.protocol.TField field;
+      iprot.readStructBegin();
+      while (true)
+      {
+        field = iprot.readFieldBegin();
+        if (field.type == org.apache.thrift.protocol.TType.STOP) { 
+          break;
+        }
+        switch (field.id) {
+          case 1: // DOMAIN_ID
+            if (field.type == org.apache.thrift.protocol.TType.I32) {
+              this.domain_id = iprot.readI32();
+              set_domain_id_isSet(true);
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, field.type);
+            }
+            break;
+          case 2: // KEYS
+            if (field.type == org.apache.thrift.protocol.TType.LIST) {
+              {
+                org.apache.thrift.protocol.TList _list3 = iprot.readListBegin();
+                this.keys = new ArrayList<ByteBuffer>(_list3.size);
+                for (int _i4 = 0; _i4 < _list3.size; ++_i4)
+                {
+                  ByteBuffer _elem5;
+                  _elem5 = iprot.readBinary();
+                  this.keys.add(_elem5);
+                }
+                iprot.readListEnd();
+              }
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, field.type);
+            }
+            break;
+          case 3: // TIMEOUT_MS
+            if (field.type == org.apache.thrift.protocol.TType.I64) {
+              this.timeout_ms = iprot.readI64();
+              set_timeout_ms_isSet(true);
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, field.type);
+            }
+            break;
+          default:
+            org.apache.thrift.protocol.TProtocolUtil.skip(iprot, field.type);
+        }
+        iprot.readFieldEnd();
+      }
+      iprot.readStructEnd();
+
+      // check for required fields of primitive type, which can't be checked in the validate method
+      validate();
+    }
+
+    public void write(org.apache.thrift.protocol.TProtocol oprot) throws org.apache.thrift.TException {
+      validate();
+
+      oprot.writeStructBegin(STRUCT_DESC);
+      oprot.writeFieldBegin(DOMAIN_ID_FIELD_DESC);
+      oprot.writeI32(this.domain_id);
+      oprot.writeFieldEnd();
+      if (this.keys != null) {
+        oprot.writeFieldBegin(KEYS_FIELD_DESC);
+        {
+          oprot.writeListBegin(new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.STRING, this.keys.size()));
+          for (ByteBuffer _iter7 : this.keys)
+          {
+            oprot.writeBinary(_iter7);
+          }
+          oprot.writeListEnd();
+        }
+        oprot.writeFieldEnd();
+      }
+      oprot.writeFieldBegin(TIMEOUT_MS_FIELD_DESC);
+      oprot.writeI64(this.timeout_ms);
+      oprot.writeFieldEnd();
+      oprot.writeFieldStop();
+      oprot.writeStructEnd();
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder("getBulk_args(");
+      boolean first = true;
+
+      sb.append("domain_id:");
+      sb.append(this.domain_id);
+      first = false;
+      if (!first) sb.append(", ");
+      sb.append("keys:");
+      if (this.keys == null) {
+        sb.append("null");
+      } else {
+        sb.append(this.keys);
+      }
+      first = false;
+      if (!first) sb.append(", ");
+      sb.append("timeout_ms:");
+      sb.append(this.timeout_ms);
+      first = false;
+      sb.append(")");
+      return sb.toString();
+    }
+
+    public void validate() throws org.apache.thrift.TException {
+      // check for required fields
+    }
+
+    private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
+      try {
+        write(new org.apache.thrift.protocol.TCompactProtocol(new org.apache.thrift.transport.TIOStreamTransport(out)));
+      } catch (org.apache.thrift.TException te) {
+        throw new java.io.IOException(te);
+      }
+    }
+
+    private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException {
+      try {
+        // it doesn't seem like you should have to do this, but java serialization is wacky, and doesn't call the default constructor.
+        __isset_bit_vector = new BitSet(2);
+        read(new org.apache.thrift.protocol.TCompactProtocol(new org.apache.thrift.transport.TIOStreamTransport(in)));
+      } catch (org.apache.thrift.TException te) {
+        throw new java.io.IOException(te);
+      }
+    }
+
+  }
+
+  public static class getBulk_result implements org.apache.thrift.TBase<getBulk_result, getBulk_result._Fields>, java.io.Serializable, Cloneable   {
+    private static final org.apache.thrift.protocol.TStruct STRUCT_DESC = new org.apache.thrift.protocol.TStruct("getBulk_result");
+
+    private static final org.apache.thrift.protocol.TField SUCCESS_FIELD_DESC = new org.apache.thrift.protocol.TField("success", org.apache.thrift.protocol.TType.LIST, (short)0);
+
+    public List<HankResponse> success;
+
+    /** The set of fields this struct contains, along with convenience methods for finding and manipulating them. */
+    public enum _Fields implements org.apache.thrift.TFieldIdEnum {
+      SUCCESS((short)0, "success");
+
+      private static final Map<String, _Fields> byName = new HashMap<String, _Fields>();
+
+      static {
+        for (_Fields field : EnumSet.allOf(_Fields.class)) {
+          byName.put(field.getFieldName(), field);
+        }
+      }
+
+      /**
+       * Find the _Fields constant that matches fieldId, or null if its not found.
+       */
+      public static _Fields findByThriftId(int fieldId) {
+        switch(fieldId) {
+          case 0: // SUCCESS
+            return SUCCESS;
+          default:
+            return null;
+        }
+      }
+
+      /**
+       * Find the _Fields constant that matches fieldId, throwing an exception
+       * if it is not found.
+       */
+      public static _Fields findByThriftIdOrThrow(int fieldId) {
+        _Fields fields = findByThriftId(fieldId);
+        if (fields == null) throw new IllegalArgumentException("Field " + fieldId + " doesn't exist!");
+        return fields;
+      }
+
+      /**
+       * Find the _Fields constant that matches name, or null if its not found.
+       */
+      public static _Fields findByName(String name) {
+        return byName.get(name);
+      }
+
+      private final short _thriftId;
+      private final String _fieldName;
+
+      _Fields(short thriftId, String fieldName) {
+        _thriftId = thriftId;
+        _fieldName = fieldName;
+      }
+
+      public short getThriftFieldId() {
+        return _thriftId;
+      }
+
+      public String getFieldName() {
+        return _fieldName;
+      }
+    }
+
+    // isset id assignments
+
+    public static final Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> metaDataMap;
+    static {
+      Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> tmpMap = new EnumMap<_Fields, org.apache.thrift.meta_data.FieldMetaData>(_Fields.class);
+      tmpMap.put(_Fields.SUCCESS, new org.apache.thrift.meta_data.FieldMetaData("success", org.apache.thrift.TFieldRequirementType.DEFAULT, 
+          new org.apache.thrift.meta_data.ListMetaData(org.apache.thrift.protocol.TType.LIST, 
+              new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, HankResponse.class))));
+      metaDataMap = Collections.unmodifiableMap(tmpMap);
+      org.apache.thrift.meta_data.FieldMetaData.addStructMetaDataMap(getBulk_result.class, metaDataMap);
+    }
+
+    public getBulk_result() {
+    }
+
+    public getBulk_result(
+      List<HankResponse> success)
+    {
+      this();
+      this.success = success;
+    }
+
+    /**
+     * Performs a deep copy on <i>other</i>.
+     */
+    public getBulk_result(getBulk_result other) {
+      if (other.is_set_success()) {
+        List<HankResponse> __this__success = new ArrayList<HankResponse>();
+        for (HankResponse other_element : other.success) {
+          __this__success.add(new HankResponse(other_element));
+        }
+        this.success = __this__success;
+      }
+    }
+
+    public getBulk_result deepCopy() {
+      return new getBulk_result(this);
+    }
+
+    @Override
+    public void clear() {
+      this.success = null;
+    }
+
+    public int get_success_size() {
+      return (this.success == null) ? 0 : this.success.size();
+    }
+
+    public java.util.Iterator<HankResponse> get_success_iterator() {
+      return (this.success == null) ? null : this.success.iterator();
+    }
+
+    public void add_to_success(HankResponse elem) {
+      if (this.success == null) {
+        this.success = new ArrayList<HankResponse>();
+      }
+      this.success.add(elem);
+    }
+
+    public List<HankResponse> get_success() {
+      return this.success;
+    }
+
+    public getBulk_result set_success(List<HankResponse> success) {
+      this.success = success;
+      return this;
+    }
+
+    public void unset_success() {
+      this.success = null;
+    }
+
+    /** Returns true if field success is set (has been assigned a value) and false otherwise */
+    public boolean is_set_success() {
+      return this.success != null;
+    }
+
+    public void set_success_isSet(boolean value) {
+      if (!value) {
+        this.success = null;
+      }
+    }
+
+    public void setFieldValue(_Fields field, Object value) {
+      switch (field) {
+      case SUCCESS:
+        if (value == null) {
+          unset_success();
+        } else {
+          set_success((List<HankResponse>)value);
+        }
+        break;
+
+      }
+    }
+
+    public Object getFieldValue(_Fields field) {
+      switch (field) {
+      case SUCCESS:
+        return get_success();
+
+      }
+      throw new IllegalStateException();
+    }
+
+    /** Returns true if field corresponding to fieldID is set (has been assigned a value) and false otherwise */
+    public boolean isSet(_Fields field) {
+      if (field == null) {
+        throw new IllegalArgumentException();
+      }
+
+      switch (field) {
+      case SUCCESS:
+        return is_set_success();
+      }
+      throw new IllegalStateException();
+    }
+
+    @Override
+    public boolean equals(Object that) {
+      if (that == null)
+        return false;
+      if (that instanceof getBulk_result)
+        return this.equals((getBulk_result)that);
+      return false;
+    }
+
+    public boolean equals(getBulk_result that) {
+      if (that == null)
+        return false;
+
+      boolean this_present_success = true && this.is_set_success();
+      boolean that_present_success = true && that.is_set_success();
+      if (this_present_success || that_present_success) {
+        if (!(this_present_success && that_present_success))
+          return false;
+        if (!this.success.equals(that.success))
+          return false;
+      }
+
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      HashCodeBuilder builder = new HashCodeBuilder();
+
+      boolean present_success = true && (is_set_success());
+      builder.append(present_success);
+      if (present_success)
+        builder.append(success);
+
+      return builder.toHashCode();
+    }
+
+    public int compareTo(getBulk_result other) {
+      if (!getClass().equals(other.getClass())) {
+        return getClass().getName().compareTo(other.getClass().getName());
+      }
+
+      int lastComparison = 0;
+      getBulk_result typedOther = (getBulk_result)other;
+
+      lastComparison = Boolean.valueOf(is_set_success()).compareTo(typedOther.is_set_success());
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+      if (is_set_success()) {
+        lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.success, typedOther.success);
+        if (lastComparison != 0) {
+          return lastComparison;
+        }
+      }
+      return 0;
+    }
+
+    public _Fields fieldForId(int fieldId) {
+      return _Fields.findByThriftId(fieldId);
+    }
+
+    public void read(org.apache.thrift.protocol.TProtocol iprot) throws org.apache.thrift.TException {
+      org.apache.thrift.protocol.TField field;
+      iprot.readStructBegin();
+      while (true)
+      {
+        field = iprot.readFieldBegin();
+        if (field.type == org.apache.thrift.protocol.TType.STOP) { 
+          break;
+        }
+        switch (field.id) {
+          case 0: // SUCCESS
+            if (field.type == org.apache.thrift.protocol.TType.LIST) {
+              {
+                org.apache.thrift.protocol.TList _list0 = iprot.readListBegin();
+                this.success = new ArrayList<HankResponse>(_list0.size);
+                for (int _i1 = 0; _i1 < _list0.size; ++_i1)
+                {
+                  HankResponse _elem2;
+                  _elem2 = new HankResponse();
+                  _elem2.read(iprot);
+                  this.success.add(_elem2);
+                }
+                iprot.readListEnd();
+              }
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, field.type);
+            }
+            break;
+          default:
+            org.apache.thrift.protocol.TProtocolUtil.skip(iprot, field.type);
+        }
+        iprot.readFieldEnd();
+      }
+      iprot.readStructEnd();
+
+      // check for required fields of primitive type, which can't be checked in the validate method
+      validate();
+    }
+
+    public void write(org.apache.thrift.protocol.TProtocol oprot) throws org.apache.thrift.TException {
+      oprot.writeStructBegin(STRUCT_DESC);
+
+      if (this.is_set_success()) {
+        oprot.writeFieldBegin(SUCCESS_FIELD_DESC);
+        {
+          oprot.writeListBegin(new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.STRUCT, this.success.size()));
+          for (HankResponse _iter3 : this.success)
+          {
+            _iter3.write(oprot);
+          }
+          oprot.writeListEnd();
+        }
+        oprot.writeFieldEnd();
+      }
+      oprot.writeFieldStop();
+      oprot.writeStructEnd();
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder("getBulk_result(");
+      boolean first = true;
+
+      sb.append("success:");
+      if (this.success == null) {
+        sb.append("null");
+      } else {
+        sb.append(this.success);
+      }
+      first = false;
+      sb.append(")");
+      return sb.toString();
+    }
+
+    public void validate() throws org.apache.thrift.TException {
+      // check for required fields
+    }
+
+    private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
+      try {
+        write(new org.apache.thrift.protocol.TCompactProtocol(new org.apache.thrift.transport.TIOStreamTransport(out)));
+      } catch (org.apache.thrift.TException te) {
+        throw new java.io.IOException(te);
+      }
+    }
+
+    private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException {
+      try {
+        read(new org.apache.thrift.protocol.TCompactProtocol(new org.apache.thrift.transport.TIOStreamTransport(in)));
+      } catch (org.apache.thrift.TException te) {
+        throw new java.io.IOException(te);
+      }
+    }
+
+  }
+
 }
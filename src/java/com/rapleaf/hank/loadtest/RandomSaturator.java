@@ -12,6 +12,7 @@ import org.apache.log4j.Logger;
 import org.apache.thrift.TException;
 
 import com.rapleaf.hank.client.HankSmartClient;
+import com.rapleaf.hank.client.HankSmartClientOptions;
 import com.rapleaf.hank.config.ClientConfigurator;
 import com.rapleaf.hank.config.yaml.YamlClientConfigurator;
 import com.rapleaf.hank.generated.HankResponse;
@@ -95,7 +96,8 @@ public class RandomSaturator {
     ReadWriteLock lock = new ReentrantReadWriteLock();
     lock.writeLock().lock();
 
-    final HankSmartClient client = new HankSmartClient(configurator.getCoordinator(), ringGroupName, numThreads*3);
+    final HankSmartClient client = new HankSmartClient(configurator.getCoordinator(), ringGroupName,
+        new HankSmartClientOptions().setNumConnectionsPerHost(numThreads*3).setRequestTimeoutMs(configurator.getRequestTimeoutMs()));
 
     // instantiate all the threads
     List<LoadThread> threads = new ArrayList();
@@ -0,0 +1,214 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.loadtest;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+
+import com.rapleaf.hank.generated.HankResponse;
+import com.rapleaf.hank.generated.PartDaemon;
+import com.rapleaf.hank.part_daemon.ServerEngine;
+
+/**
+ * Compares the throughput and latency of the Part Daemon's server engines by
+ * hammering each of them, on a local port, with requests for a fixed value.
+ * The simulated service time stands in for the cost of a lookup: 0 for data
+ * that's in memory, and a few hundred microseconds or more for data that has
+ * to come off the disk.
+ */
+public class ServerEngineBenchmark {
+  private static class FixedValueHandler implements PartDaemon.Iface {
+    private final HankResponse response;
+    private final long serviceTimeUs;
+
+    public FixedValueHandler(int valueSize, long serviceTimeUs) {
+      this.response = HankResponse.value(new byte[valueSize]);
+      this.serviceTimeUs = serviceTimeUs;
+    }
+
+    @Override
+    public HankResponse get(int domainId, ByteBuffer key, long timeoutMs) throws TException {
+      if (serviceTimeUs > 0) {
+        try {
+          Thread.sleep(serviceTimeUs / 1000, (int) (serviceTimeUs % 1000) * 1000);
+        } catch (InterruptedException e) {
+          throw new TException(e);
+        }
+      }
+      return response;
+    }
+
+    @Override
+    public List<HankResponse> getBulk(int domainId, List<ByteBuffer> keys, long timeoutMs) throws TException {
+      List<HankResponse> responses = new ArrayList<HankResponse>(keys.size());
+      for (ByteBuffer key : keys) {
+        responses.add(get(domainId, key, timeoutMs));
+      }
+      return responses;
+    }
+  }
+
+  private static class LoadThread extends Thread {
+    private final int port;
+    private final int numReqs;
+    private final CountDownLatch start;
+    private final long[] latenciesNs;
+    private int numCompleted = 0;
+    private int numErrors = 0;
+
+    public LoadThread(int threadNum, int port, int numReqs, CountDownLatch start) {
+      super("LoadThread #" + threadNum);
+      this.port = port;
+      this.numReqs = numReqs;
+      this.start = start;
+      this.latenciesNs = new long[numReqs];
+    }
+
+    @Override
+    public void run() {
+      TTransport transport = new TFramedTransport(new TSocket("localhost", port));
+      try {
+        transport.open();
+        PartDaemon.Client client = new PartDaemon.Client(new TCompactProtocol(transport));
+        ByteBuffer key = ByteBuffer.wrap(getName().getBytes());
+        start.await();
+        for (int i = 0; i < numReqs; i++) {
+          long startNs = System.nanoTime();
+          client.get(0, key, 0);
+          latenciesNs[numCompleted++] = System.nanoTime() - startNs;
+        }
+      } catch (Exception e) {
+        numErrors++;
+        System.err.println(getName() + " failed: " + e);
+      } finally {
+        transport.close();
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 5) {
+      System.err.println("Usage: java "
+          + ServerEngineBenchmark.class.getName()
+          + " <port> <num client threads> <requests per thread> <value size> <service time in us> [<num worker threads> <num selector threads> <engine>...]");
+      System.exit(1);
+    }
+
+    int port = Integer.parseInt(args[0]);
+    int numThreads = Integer.parseInt(args[1]);
+    int numReqs = Integer.parseInt(args[2]);
+    int valueSize = Integer.parseInt(args[3]);
+    long serviceTimeUs = Long.parseLong(args[4]);
+    int numWorkerThreads = args.length > 5 ? Integer.parseInt(args[5]) : 32;
+    int numSelectorThreads = args.length > 6 ? Integer.parseInt(args[6]) : Runtime.getRuntime().availableProcessors();
+    List<ServerEngine> engines = new ArrayList<ServerEngine>();
+    for (int i = 7; i < args.length; i++) {
+      engines.add(ServerEngine.parse(args[i]));
+    }
+    if (engines.isEmpty()) {
+      engines.addAll(Arrays.asList(ServerEngine.values()));
+    }
+
+    for (ServerEngine engine : engines) {
+      // each engine gets a port of its own, so that it doesn't have to wait for
+      // the last one's to be released
+      runEngine(engine, port++, numThreads, numReqs, valueSize, serviceTimeUs, numWorkerThreads, numSelectorThreads);
+    }
+  }
+
+  private static void runEngine(ServerEngine engine,
+      int port,
+      int numThreads,
+      int numReqs,
+      int valueSize,
+      long serviceTimeUs,
+      int numWorkerThreads,
+      int numSelectorThreads) throws Exception {
+    final TServer server = engine.createServer(new PartDaemon.Processor(new FixedValueHandler(valueSize, serviceTimeUs)),
+        port, numWorkerThreads, numSelectorThreads);
+    Thread serverThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        server.serve();
+      }
+    }, engine + " server");
+    serverThread.start();
+    while (!server.isServing()) {
+      Thread.sleep(10);
+    }
+
+    CountDownLatch start = new CountDownLatch(1);
+    List<LoadThread> threads = new ArrayList<LoadThread>();
+    for (int i = 0; i < numThreads; i++) {
+      LoadThread t = new LoadThread(i, port, numReqs, start);
+      threads.add(t);
+      t.start();
+    }
+    // give the threads a moment to connect
+    Thread.sleep(1000);
+
+    long runStart = System.nanoTime();
+    start.countDown();
+    for (LoadThread t : threads) {
+      t.join();
+    }
+    long runEnd = System.nanoTime();
+
+    server.stop();
+    serverThread.join();
+
+    // aggregate the results
+    int numCompleted = 0;
+    int numErrors = 0;
+    for (LoadThread t : threads) {
+      numCompleted += t.numCompleted;
+      numErrors += t.numErrors;
+    }
+    long[] latencies = new long[numCompleted];
+    int i = 0;
+    for (LoadThread t : threads) {
+      System.arraycopy(t.latenciesNs, 0, latencies, i, t.numCompleted);
+      i += t.numCompleted;
+    }
+    Arrays.sort(latencies);
+
+    System.out.println(String.format("%-13s %10.0f req/s  p50 %8.3f ms  p99 %8.3f ms  max %8.3f ms  %d errors",
+        engine,
+        numCompleted / ((runEnd - runStart) / 1e9),
+        percentileMs(latencies, 0.50),
+        percentileMs(latencies, 0.99),
+        percentileMs(latencies, 1.0),
+        numErrors));
+  }
+
+  private static double percentileMs(long[] sortedLatencies, double percentile) {
+    if (sortedLatencies.length == 0) {
+      return Double.NaN;
+    }
+    int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+    return sortedLatencies[Math.max(index, 0)] / 1e6;
+  }
+}
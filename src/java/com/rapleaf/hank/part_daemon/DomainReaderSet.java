@@ -17,35 +17,57 @@ package com.rapleaf.hank.part_daemon;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.apache.log4j.Logger;
 
+import com.rapleaf.hank.coordinator.HostDomainPartition;
 import com.rapleaf.hank.partitioner.Partitioner;
+import com.rapleaf.hank.storage.Reader;
 import com.rapleaf.hank.storage.Result;
+import com.rapleaf.hank.util.StripedCounter;
 
 /**
  * Class that manages serving on behalf of a particular Domain.
  */
 class DomainReaderSet {
   private static final Logger LOG = Logger.getLogger(DomainReaderSet.class);
+  static final int DEFAULT_COUNTER_UPDATE_PERIOD_MS = 60000;
+
   private final Partitioner partitioner;
   private final String name;
-  private final PartReaderAndCounters[] prc;
+  // partitions can be loaded and unloaded while serving
+  private final AtomicReferenceArray<PartReaderAndCounters> prc;
   private final int timeout;
+  // 0 means no limit
+  private final int maxConcurrentRequests;
+  // striped, since every request to the domain adds to it
+  private final StripedCounter numInFlight = new StripedCounter();
   private final UpdateCounts updater;
   private final Thread updateThread;
   private boolean keepUpdating;
 
   public DomainReaderSet(String name, PartReaderAndCounters[] prc,
       Partitioner partitioner) throws IOException {
-    this(name, prc, partitioner, 60000);
+    this(name, prc, partitioner, 0, DEFAULT_COUNTER_UPDATE_PERIOD_MS);
   }
 
   DomainReaderSet(String name, PartReaderAndCounters[] prc,
       Partitioner partitioner, int timeout) throws IOException {
+    this(name, prc, partitioner, 0, timeout);
+  }
+
+  /**
+   * @param maxConcurrentRequests how many requests may be served at once. 0
+   *          means no limit.
+   * @param timeout how often to update the counters, in milliseconds
+   */
+  DomainReaderSet(String name, PartReaderAndCounters[] prc,
+      Partitioner partitioner, int maxConcurrentRequests, int timeout) throws IOException {
     this.name = name;
-    this.prc = prc;
+    this.prc = new AtomicReferenceArray<PartReaderAndCounters>(prc);
     this.partitioner = partitioner;
+    this.maxConcurrentRequests = maxConcurrentRequests;
     this.timeout = timeout;
 
     updater = new UpdateCounts();
@@ -63,44 +85,109 @@ class DomainReaderSet {
    * @throws IOException
    */
   public boolean get(ByteBuffer key, Result result) throws IOException {
-    int partition = partitioner.partition(key, prc.length);
-    PartReaderAndCounters currentPRC = prc[partition];
+    int partition = partitioner.partition(key, prc.length());
+    PartReaderAndCounters currentPRC = prc.get(partition);
     if (currentPRC == null) {
       return false;
     }
-    // Increment requests counter
-    currentPRC.getRequests().incrementAndGet();
-    currentPRC.getReader().get(key, result);
-    if (result.isFound()) {
-      // Increment hits counter
-      currentPRC.getHits().incrementAndGet();
+    RefCountedReader reader = currentPRC.acquireReader();
+    if (reader == null) {
+      // the partition was unloaded since we looked it up
+      return false;
+    }
+    long startNs = System.nanoTime();
+    try {
+      reader.getReader().get(key, result);
+    } finally {
+      reader.release();
     }
+    currentPRC.recordRequest(result, System.nanoTime() - startNs);
     return true;
   }
 
+  /**
+   * Start serving a request, unless this domain is already serving as many as
+   * it's allowed to. Requests are turned away rather than queued, so that
+   * they don't hold on to worker threads other domains could use.
+   *
+   * The request is counted on its thread's stripe before the stripes are
+   * summed, so the limit is never exceeded. The sum isn't a snapshot though,
+   * so requests starting at the same time near the limit may all be turned
+   * away.
+   * @return false if the request should be turned away. Otherwise
+   *         {@link #finishRequest()} must be called once it's served.
+   */
+  public boolean tryStartRequest() {
+    if (maxConcurrentRequests <= 0) {
+      return true;
+    }
+    numInFlight.increment();
+    if (numInFlight.sum() > maxConcurrentRequests) {
+      numInFlight.add(-1);
+      return false;
+    }
+    return true;
+  }
+
+  public void finishRequest() {
+    if (maxConcurrentRequests > 0) {
+      numInFlight.add(-1);
+    }
+  }
+
+  /**
+   * Count a request for <i>key</i> that was turned away.
+   * @param key
+   */
+  public void recordShed(ByteBuffer key) {
+    PartReaderAndCounters currentPRC = prc.get(partitioner.partition(key, prc.length()));
+    if (currentPRC != null) {
+      currentPRC.recordShed();
+    }
+  }
+
+  /**
+   * @return how many requests are being served right now. Only tracked if
+   *         there's a limit.
+   */
+  public int getNumInFlight() {
+    return (int) numInFlight.sum();
+  }
+
+  public int getMaxConcurrentRequests() {
+    return maxConcurrentRequests;
+  }
+
   /**
    * This thread periodically updates the counters on the HostDomainPartition
-   * with the values in the cached counters
+   * with the values in the cached counters, along with how many requests the
+   * domain is serving and its limit. The counters start out at 0, so the
+   * first update waits a full period.
    */
   private class UpdateCounts implements Runnable {
     public void run() {
       while (keepUpdating) {
-        for (int i = 0; i < prc.length; i++) {
-          try {
-            prc[i].updateCounters();
-          } catch (IOException e) {
-            LOG.error("Failed to update counter", e);
-          }
+        try {
+          Thread.sleep(timeout);
+        } catch (InterruptedException e) {
+          LOG.debug("Interrupted while waiting to update counters");
         }
-        // in case we were interrupted while updating counters, avoid doing an
-        // unnecessary sleep 
+        // in case we were interrupted while sleeping, avoid doing an
+        // unnecessary update
         if (!keepUpdating) {
           break;
         }
-        try {
-          Thread.sleep(timeout);
-        } catch (InterruptedException e) {
-          LOG.error("Failed to sleep", e);
+        int inFlight = getNumInFlight();
+        for (int i = 0; i < prc.length(); i++) {
+          PartReaderAndCounters currentPRC = prc.get(i);
+          if (currentPRC == null) {
+            continue;
+          }
+          try {
+            currentPRC.updateCounters(inFlight, maxConcurrentRequests);
+          } catch (IOException e) {
+            LOG.error("Failed to update counter", e);
+          }
         }
       }
     }
@@ -110,9 +197,56 @@ class DomainReaderSet {
     return name;
   }
 
+  /**
+   * Start serving <i>part</i> from <i>reader</i>. If the partition is already
+   * being served, its old reader is closed once the requests still using it
+   * are done.
+   * @param part
+   * @param reader
+   * @param version the domain group version reader was opened at, if known
+   */
+  public synchronized void loadPartition(HostDomainPartition part, Reader reader, Integer version) {
+    PartReaderAndCounters currentPRC = prc.get(part.getPartNum());
+    if (currentPRC == null) {
+      prc.set(part.getPartNum(), new PartReaderAndCounters(part, reader, version));
+    } else {
+      currentPRC.swapReader(reader, version);
+    }
+  }
+
+  /**
+   * Stop serving partition <i>partNum</i>. Its reader is closed once the
+   * requests still using it are done.
+   * @param partNum
+   */
+  public synchronized void unloadPartition(int partNum) {
+    PartReaderAndCounters currentPRC = prc.getAndSet(partNum, null);
+    if (currentPRC != null) {
+      currentPRC.close();
+    }
+  }
+
+  /**
+   * @return the number of partitions in this domain
+   */
+  public int getNumParts() {
+    return prc.length();
+  }
+
+  PartReaderAndCounters getPartReaderAndCounters(int partNum) {
+    return prc.get(partNum);
+  }
+
+  /**
+   * Stop updating counters and unload all the partitions.
+   * @throws InterruptedException
+   */
   public void shutDown() throws InterruptedException {
     keepUpdating = false;
     updateThread.interrupt();
     updateThread.join();
+    for (int i = 0; i < prc.length(); i++) {
+      unloadPartition(i);
+    }
   }
 }
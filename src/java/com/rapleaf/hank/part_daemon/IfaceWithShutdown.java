@@ -1,9 +1,18 @@
 package com.rapleaf.hank.part_daemon;
 
+import java.io.IOException;
+
 import com.rapleaf.hank.generated.PartDaemon.Iface;
 
 public interface IfaceWithShutdown extends Iface {
 
   public void shutDown() throws InterruptedException;
 
+  /**
+   * Start serving the versions of the partitions that are currently on disk,
+   * without interrupting requests in flight.
+   * @throws IOException
+   */
+  public void reload() throws IOException;
+
 }
\ No newline at end of file
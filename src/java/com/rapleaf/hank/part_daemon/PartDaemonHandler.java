@@ -17,6 +17,8 @@ package com.rapleaf.hank.part_daemon;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -31,6 +33,7 @@ import com.rapleaf.hank.coordinator.PartDaemonAddress;
 import com.rapleaf.hank.coordinator.Ring;
 import com.rapleaf.hank.generated.HankExceptions;
 import com.rapleaf.hank.generated.HankResponse;
+import com.rapleaf.hank.storage.BlockCache;
 import com.rapleaf.hank.storage.Result;
 import com.rapleaf.hank.storage.StorageEngine;
 import com.rapleaf.hank.util.Bytes;
@@ -47,38 +50,60 @@ class PartDaemonHandler implements IfaceWithShutdown {
   private static final HankResponse NO_SUCH_DOMAIN = HankResponse
       .xception(HankExceptions.no_such_domain(true));
 
-  private final static Logger LOG = Logger.getLogger(PartDaemonHandler.class);
+  private static final HankResponse DEADLINE_EXCEEDED = HankResponse
+      .xception(HankExceptions.deadline_exceeded(true));
 
-  private final DomainReaderSet[] domains;
+  private static final HankResponse OVERLOADED = HankResponse
+      .xception(HankExceptions.overloaded(true));
 
-  public PartDaemonHandler(PartDaemonAddress hostAndPort,
-      PartservConfigurator config) throws IOException {
-    // find the ring config
-    Ring ringConfig = config.getCoordinator()
-        .getRingGroupConfig(config.getRingGroupName())
-        .getRingForHost(hostAndPort);
+  private final static Logger LOG = Logger.getLogger(PartDaemonHandler.class);
 
-    // get the domain group config for the ring
-    DomainGroup domainGroup = ringConfig.getRingGroup().getDomainGroup();
+  private final PartDaemonAddress hostAndPort;
+  private final PartservConfigurator config;
+  // shared by the readers of every domain, or null if disabled
+  private final BlockCache blockCache;
 
-    // determine the max domain id so we can bound the array
-    int maxDomainId = 0;
-    for (DomainGroupVersionDomainVersion dcv : domainGroup.getLatestVersion()
-        .getDomainVersions()) {
-      int domainId = domainGroup.getDomainId(dcv.getDomain().getName());
-      if (domainId > maxDomainId) {
-        maxDomainId = domainId;
-      }
+  // only replaced when a domain is added. the partitions of a domain are
+  // loaded and swapped in place, without interrupting requests.
+  private volatile DomainReaderSet[] domains = new DomainReaderSet[0];
+  private boolean isShutDown = false;
+
+  // each server worker thread reuses a single Result across requests. the
+  // buffer of a returned value is only valid until the same thread serves its
+  // next request, which is fine since the response is serialized first.
+  private final ThreadLocal<Result> results = new ThreadLocal<Result>() {
+    @Override
+    protected Result initialValue() {
+      return new Result();
     }
+  };
 
-    domains = new DomainReaderSet[maxDomainId + 1];
+  public PartDaemonHandler(PartDaemonAddress hostAndPort,
+      PartservConfigurator config) throws IOException {
+    this.hostAndPort = hostAndPort;
+    this.config = config;
+    this.blockCache = config.getBlockCacheCapacity() > 0
+        ? new BlockCache(config.getBlockCacheCapacity()) : null;
+    reload();
+  }
 
-    // loop over the domains and get set up
+  /**
+   * Bring all the domains and partitions in line with the latest domain group
+   * version and this host's assignments. Partitions whose current version has
+   * changed get new readers, newly assigned partitions are loaded, and ones no
+   * longer assigned are unloaded. Old readers are closed once the requests
+   * still using them are done.
+   * @throws IOException
+   */
+  public synchronized void reload() throws IOException {
+    if (isShutDown) {
+      return;
+    }
+    Ring ringConfig = getRingConfig();
+    DomainGroup domainGroup = ringConfig.getRingGroup().getDomainGroup();
     for (DomainGroupVersionDomainVersion dcv : domainGroup.getLatestVersion()
         .getDomainVersions()) {
       Domain domain = dcv.getDomain();
-      StorageEngine eng = domain.getStorageEngine();
-
       int domainId = domainGroup.getDomainId(domain.getName());
       Set<HostDomainPartition> partitions = ringConfig
           .getHostByAddress(hostAndPort).getDomainById(domainId)
@@ -86,34 +111,155 @@ class PartDaemonHandler implements IfaceWithShutdown {
       LOG.info(String.format("Assigned %d/%d partitions in domain %s",
           partitions.size(), domain.getNumParts(), domain.getName()));
 
-      // instantiate all the PartReaderAndCounters
-      PartReaderAndCounters[] rdc = new PartReaderAndCounters[domain
-          .getNumParts()];
+      DomainReaderSet domainReaderSet = getOrAddDomain(domain, domainId);
+      boolean[] assigned = new boolean[domain.getNumParts()];
       for (HostDomainPartition part : partitions) {
-        LOG.debug(String.format(
-            "Instantiating PartReaderAndCounters for part num %d",
-            part.getPartNum()));
-        rdc[part.getPartNum()] = new PartReaderAndCounters(part, eng.getReader(
-            config, part.getPartNum()));
+        assigned[part.getPartNum()] = true;
+        loadPartition(domain, domainReaderSet, part);
+      }
+      for (int partNum = 0; partNum < assigned.length; partNum++) {
+        if (!assigned[partNum]) {
+          domainReaderSet.unloadPartition(partNum);
+        }
+      }
+    }
+  }
+
+  private Ring getRingConfig() throws IOException {
+    return config.getCoordinator()
+        .getRingGroupConfig(config.getRingGroupName())
+        .getRingForHost(hostAndPort);
+  }
+
+  private DomainReaderSet getOrAddDomain(Domain domain, int domainId) throws IOException {
+    DomainReaderSet domainReaderSet = getDomain(domainId);
+    if (domainReaderSet == null) {
+      int maxConcurrentRequests = config.getMaxConcurrentRequests(domain.getName());
+      if (maxConcurrentRequests > 0) {
+        LOG.info(String.format("Serving at most %d requests at once for domain %s",
+            maxConcurrentRequests, domain.getName()));
       }
+      domainReaderSet = new DomainReaderSet(domain.getName(),
+          new PartReaderAndCounters[domain.getNumParts()],
+          domain.getPartitioner(), maxConcurrentRequests,
+          DomainReaderSet.DEFAULT_COUNTER_UPDATE_PERIOD_MS);
+      DomainReaderSet[] newDomains = new DomainReaderSet[Math.max(domains.length, domainId + 1)];
+      System.arraycopy(domains, 0, newDomains, 0, domains.length);
+      newDomains[domainId] = domainReaderSet;
+      domains = newDomains;
+    }
+    return domainReaderSet;
+  }
 
-      // configure and store the Domain wrapper
-      domains[domainId] = new DomainReaderSet(domain.getName(), rdc,
-          domain.getPartitioner());
+  private void loadPartition(Domain domain, DomainReaderSet domainReaderSet,
+      HostDomainPartition part) throws IOException {
+    Integer version = part.getCurrentDomainGroupVersion();
+    PartReaderAndCounters current = domainReaderSet.getPartReaderAndCounters(part.getPartNum());
+    if (current != null && version != null && version.equals(current.getVersion())) {
+      // keep the reader, and everything it has cached
+      return;
     }
+    LOG.debug(String.format("Loading %s part %d at version %d",
+        domain.getName(), part.getPartNum(), version));
+    StorageEngine eng = domain.getStorageEngine();
+    domainReaderSet.loadPartition(part, eng.getReader(config, part.getPartNum(), blockCache), version);
   }
 
-  public HankResponse get(int domainId, ByteBuffer key) throws TException {
-    Result result = new Result();
+  public HankResponse get(int domainId, ByteBuffer key, long timeoutMs) throws TException {
+    long deadlineMs = getDeadlineMs(timeoutMs);
     DomainReaderSet domain = getDomain(domainId & 0xff);
 
     if (domain == null) {
       return NO_SUCH_DOMAIN;
     }
+    // a request that waited in the queue for too long isn't worth serving,
+    // since the client has given up on it
+    if (isExpired(deadlineMs)) {
+      return DEADLINE_EXCEEDED;
+    }
+    // a domain that's already using its share of the workers sheds load, so
+    // that the client can try another replica
+    if (!domain.tryStartRequest()) {
+      domain.recordShed(key);
+      return OVERLOADED;
+    }
+
+    try {
+      return get(domain, domainId, key, results.get(), false);
+    } finally {
+      domain.finishRequest();
+    }
+  }
+
+  public List<HankResponse> getBulk(int domainId, List<ByteBuffer> keys, long timeoutMs) throws TException {
+    long deadlineMs = getDeadlineMs(timeoutMs);
+    DomainReaderSet domain = getDomain(domainId & 0xff);
+
+    List<HankResponse> responses = new ArrayList<HankResponse>(keys.size());
+    if (domain == null) {
+      for (int i = 0; i < keys.size(); i++) {
+        responses.add(NO_SUCH_DOMAIN);
+      }
+      return responses;
+    }
+
+    // a bulk get ties up a single worker, so it takes up a single slot
+    if (!domain.tryStartRequest()) {
+      for (ByteBuffer key : keys) {
+        domain.recordShed(key);
+        responses.add(OVERLOADED);
+      }
+      return responses;
+    }
+
+    try {
+      Result result = results.get();
+      for (ByteBuffer key : keys) {
+        if (isExpired(deadlineMs)) {
+          // the rest of the keys aren't looked up once the deadline passes
+          while (responses.size() < keys.size()) {
+            responses.add(DEADLINE_EXCEEDED);
+          }
+          break;
+        }
+        // every lookup reuses the result's buffer, so found values are copied
+        responses.add(get(domain, domainId, key, result, true));
+      }
+    } finally {
+      domain.finishRequest();
+    }
+    return responses;
+  }
+
+  /**
+   * Clients send how long they're willing to wait rather than a deadline,
+   * since their clocks may not agree with ours. The time starts when the
+   * request was read, so that time spent waiting for a worker counts.
+   * @return 0 if there's no timeout, or the deadline on our clock
+   */
+  private static long getDeadlineMs(long timeoutMs) {
+    if (timeoutMs <= 0) {
+      return 0;
+    }
+    long receivedMs = RequestReceivedTime.get();
+    return (receivedMs > 0 ? receivedMs : System.currentTimeMillis()) + timeoutMs;
+  }
+
+  private static boolean isExpired(long deadlineMs) {
+    return deadlineMs > 0 && System.currentTimeMillis() > deadlineMs;
+  }
+
+  private HankResponse get(DomainReaderSet domain, int domainId, ByteBuffer key, Result result, boolean copyValue) {
+    result.notFound();
 
     try {
       if (domain.get(key, result)) {
         if (result.isFound()) {
+          if (copyValue) {
+            byte[] value = new byte[result.getBuffer().remaining()];
+            result.getBuffer().duplicate().get(value);
+            return HankResponse.value(value);
+          }
           return HankResponse.value(result.getBuffer());
         } else {
           return NOT_FOUND;
@@ -132,15 +278,19 @@ class PartDaemonHandler implements IfaceWithShutdown {
   }
 
   private DomainReaderSet getDomain(int domainId) {
+    DomainReaderSet[] domains = this.domains;
     if (domains.length <= domainId) {
       return null;
     }
     return domains[domainId];
   }
 
-  public void shutDown() throws InterruptedException {
+  public synchronized void shutDown() throws InterruptedException {
+    isShutDown = true;
     for (DomainReaderSet currentDomain : domains) {
-      currentDomain.shutDown();
+      if (currentDomain != null) {
+        currentDomain.shutDown();
+      }
     }
   }
 }
@@ -19,11 +19,7 @@ import java.io.IOException;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
-import org.apache.thrift.protocol.TCompactProtocol;
-import org.apache.thrift.server.THsHaServer;
 import org.apache.thrift.server.TServer;
-import org.apache.thrift.server.THsHaServer.Args;
-import org.apache.thrift.transport.TNonblockingServerSocket;
 import org.apache.thrift.transport.TTransportException;
 
 import com.rapleaf.hank.config.PartservConfigurator;
@@ -50,6 +46,7 @@ public class PartDaemonServer implements HostCommandQueueChangeListener {
   private final Coordinator coord;
   private Thread serverThread;
   private TServer server;
+  private volatile IfaceWithShutdown handler;
   private boolean goingDown = false;
   private final PartDaemonAddress hostAddress;
   private final Host hostConfig;
@@ -112,11 +109,17 @@ public class PartDaemonServer implements HostCommandQueueChangeListener {
   }
 
   private synchronized void processCommands() {
+    // while an update runs in the background its EXECUTE_UPDATE is still the
+    // current command, so leave everything else queued. the update thread
+    // drains the queue once it is done.
+    if (updateThread != null) {
+      return;
+    }
     try {
       if (hostConfig.getCurrentCommand() != null) {
         processCurrentCommand(hostConfig, hostConfig.getCurrentCommand());
       }
-      while (!hostConfig.getCommandQueue().isEmpty()) {
+      while (updateThread == null && !hostConfig.getCommandQueue().isEmpty()) {
         HostCommand nextCommand = hostConfig.processNextCommand();
         processCurrentCommand(hostConfig, nextCommand);
       }
@@ -134,19 +137,19 @@ public class PartDaemonServer implements HostCommandQueueChangeListener {
    */
   private void startThriftServer() throws TTransportException, IOException, InterruptedException {
     // set up the service handler
-    IfaceWithShutdown handler = getHandler();
+    handler = getHandler();
 
     // launch the thrift server
-    TNonblockingServerSocket serverSocket = new TNonblockingServerSocket(configurator.getServicePort());
-    Args options = new Args(serverSocket);
-    options.processor(new PartDaemon.Processor(handler));
-    options.workerThreads(configurator.getNumThreads());
-    options.protocolFactory(new TCompactProtocol.Factory());
-    server = new THsHaServer(options);
-    LOG.debug("Launching Thrift server...");
+    ServerEngine engine = ServerEngine.parse(configurator.getServerEngine());
+    server = engine.createServer(new PartDaemon.Processor(handler),
+        configurator.getServicePort(),
+        configurator.getNumThreads(),
+        configurator.getNumSelectorThreads());
+    LOG.debug("Launching " + engine + " Thrift server...");
     server.serve();
     LOG.debug("Thrift server exited.");
     handler.shutDown();
+    handler = null;
     LOG.debug("Handler shutdown.");
   }
 
@@ -205,7 +208,13 @@ public class PartDaemonServer implements HostCommandQueueChangeListener {
     hostConfig.setState(state);
   }
 
-  private void update() {
+  /**
+   * Run the update in the background.
+   * @param serving if true, the server keeps serving the old versions while
+   *          the new ones are fetched and merged, and then swaps them in.
+   *          Otherwise the host goes back to IDLE once the update is done.
+   */
+  private void update(final boolean serving) {
     if (updateThread != null) {
       throw new IllegalStateException("update got called again unexpectedly!");
     }
@@ -215,13 +224,17 @@ public class PartDaemonServer implements HostCommandQueueChangeListener {
         try {
           IUpdateManager updateManager = getUpdateManager();
           updateManager.update();
-          LOG.info("Update is complete! recording state changes...");
-          setState(HostState.IDLE);
-          hostConfig.completeCommand();
-          updateThread = null;
+          if (serving) {
+            LOG.info("Update is complete! Swapping in the new versions...");
+            reloadHandler();
+          } else {
+            LOG.info("Update is complete! recording state changes...");
+          }
         } catch (Throwable e) {
           // TODO: should this take the server down?
           LOG.fatal("updater encountered a fatal error!", e);
+        } finally {
+          finishUpdate(serving);
         }
       }
     };
@@ -229,6 +242,36 @@ public class PartDaemonServer implements HostCommandQueueChangeListener {
     updateThread.start();
   }
 
+  /**
+   * Called from the update thread whether or not the update succeeded, so
+   * that the host never stays wedged on its EXECUTE_UPDATE. A failed update
+   * while serving keeps serving the old versions; a failed update while idle
+   * goes back to IDLE so that it can be retried.
+   */
+  private void finishUpdate(boolean serving) {
+    synchronized (this) {
+      updateThread = null;
+    }
+    try {
+      if (!serving) {
+        setState(HostState.IDLE);
+      }
+      hostConfig.completeCommand();
+    } catch (IOException e) {
+      LOG.error("Failed to record the completion of the update!", e);
+    }
+    processCommands();
+  }
+
+  private void reloadHandler() throws IOException {
+    // the server may have been stopped while we were updating, in which case
+    // the new versions will be picked up when it starts again
+    IfaceWithShutdown currentHandler = handler;
+    if (currentHandler != null) {
+      currentHandler.reload();
+    }
+  }
+
   private void processCurrentCommand(Host hostConfig, HostCommand nextCommand) throws IOException {
     HostState state = hostConfig.getState();
     switch (nextCommand) {
@@ -251,6 +294,10 @@ public class PartDaemonServer implements HostCommandQueueChangeListener {
       setState(HostState.SERVING);
       hostConfig.completeCommand();
       break;
+    case SERVING:
+      // we're already serving, possibly because we updated while serving
+      hostConfig.completeCommand();
+      break;
     default:
       LOG.debug("received command " + HostCommand.SERVE_DATA
           + " but not compatible with current state " + state
@@ -281,10 +328,14 @@ public class PartDaemonServer implements HostCommandQueueChangeListener {
     switch (state) {
     case IDLE:
       setState(HostState.UPDATING);
-      update();
+      update(false);
       break;
     case SERVING:
-      LOG.debug("Going directly from SERVING to UPDATING is not currently supported.");
+      // stay SERVING so clients keep using this host while the new versions
+      // are fetched and merged
+      LOG.info("Updating while serving.");
+      update(true);
+      break;
     default:
       LOG.debug("have command " + HostCommand.EXECUTE_UPDATE
           + " but not compatible with current state " + state
@@ -1,33 +1,61 @@
 package com.rapleaf.hank.part_daemon;
 
 import java.io.IOException;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
 
 import com.rapleaf.hank.coordinator.HostDomainPartition;
 import com.rapleaf.hank.storage.Reader;
+import com.rapleaf.hank.storage.Result;
+import com.rapleaf.hank.util.StripedCounter;
 
 /**
  * Wrapper class that stores: 1. HostDomainPartition 2. Reader: The Reader
- * associated with the HostDomainPartition 3. AtomicLong: Requests in last
- * minute counter 4. AtomicLong: Hits in last minute counter
+ * associated with the HostDomainPartition 3. Counters of the requests, hits,
+ * bytes served and time spent serving since the counts were last flushed to
+ * the HostDomainPartition
  */
 public class PartReaderAndCounters {
   private static final Logger LOG = Logger.getLogger(DomainReaderSet.class);
+
+  static final String REQUESTS_COUNTER = "Requests in last minute";
+  static final String HITS_COUNTER = "Hits in last minute";
+  static final String BYTES_SERVED_COUNTER = "Bytes served in last minute";
+  static final String MEAN_LATENCY_COUNTER = "Mean latency us in last minute";
+  static final String SHED_COUNTER = "Requests shed in last minute";
+  // shared by all the partitions of the domain
+  static final String DOMAIN_IN_FLIGHT_COUNTER = "Domain requests in flight";
+  static final String DOMAIN_MAX_CONCURRENT_REQUESTS_COUNTER = "Domain max concurrent requests";
+
   private final HostDomainPartition part;
-  private final Reader reader;
-  private final AtomicLong requests;
-  private final AtomicLong hits;
+  // null once the partition is no longer served
+  private final AtomicReference<RefCountedReader> reader;
+  // the domain group version the current reader was opened at, if known
+  private volatile Integer version;
+  // striped, since every request to the partition adds to them
+  private final StripedCounter requests = new StripedCounter();
+  private final StripedCounter hits = new StripedCounter();
+  private final StripedCounter bytesServed = new StripedCounter();
+  private final StripedCounter latencyNs = new StripedCounter();
+  private final StripedCounter shed = new StripedCounter();
 
   public PartReaderAndCounters(HostDomainPartition part, Reader reader) {
+    this(part, reader, null);
+  }
+
+  public PartReaderAndCounters(HostDomainPartition part, Reader reader, Integer version) {
     this.part = part;
-    this.reader = reader;
-    requests = new AtomicLong(0);
-    hits = new AtomicLong(0);
+    this.version = version;
+    this.reader = new AtomicReference<RefCountedReader>(new RefCountedReader(reader));
     try {
-      part.setCount("Requests in last minute", 0);
-      part.setCount("Hits in last minute", 0);
+      part.setCount(REQUESTS_COUNTER, 0);
+      part.setCount(HITS_COUNTER, 0);
+      part.setCount(BYTES_SERVED_COUNTER, 0);
+      part.setCount(MEAN_LATENCY_COUNTER, 0);
+      part.setCount(SHED_COUNTER, 0);
+      part.setCount(DOMAIN_IN_FLIGHT_COUNTER, 0);
+      part.setCount(DOMAIN_MAX_CONCURRENT_REQUESTS_COUNTER, 0);
     } catch (IOException e) {
       LOG.error("Counldn't set counter", e);
     }
@@ -37,27 +65,132 @@ public class PartReaderAndCounters {
     return part;
   }
 
+  /**
+   * @return the reader currently serving this partition, or null if it's no
+   *         longer served. Use {@link #acquireReader()} to actually read from
+   *         it.
+   */
   public Reader getReader() {
-    return reader;
+    RefCountedReader current = reader.get();
+    return current == null ? null : current.getReader();
+  }
+
+  /**
+   * Get the current reader, which won't be closed until the caller releases it.
+   * @return null if the partition is no longer served
+   */
+  RefCountedReader acquireReader() {
+    while (true) {
+      RefCountedReader current = reader.get();
+      if (current == null || current.retain()) {
+        return current;
+      }
+      // the reader was swapped out after we got it, so the next one must
+      // already be in place
+    }
+  }
+
+  /**
+   * Start serving from <i>newReader</i>. The old reader is closed as soon as
+   * the requests still using it are done.
+   * @param newReader
+   */
+  public void swapReader(Reader newReader) {
+    swapReader(newReader, null);
+  }
+
+  /**
+   * @param version the domain group version newReader was opened at
+   */
+  public void swapReader(Reader newReader, Integer version) {
+    this.version = version;
+    RefCountedReader old = reader.getAndSet(new RefCountedReader(newReader));
+    if (old != null) {
+      old.retire();
+    }
+  }
+
+  public Integer getVersion() {
+    return version;
   }
 
-  public AtomicLong getRequests() {
+  /**
+   * Stop serving this partition. The reader is closed as soon as the requests
+   * still using it are done.
+   */
+  public void close() {
+    RefCountedReader old = reader.getAndSet(null);
+    if (old != null) {
+      old.retire();
+    }
+  }
+
+  /**
+   * Count a request served by this partition.
+   * @param result what the request found
+   * @param elapsedNs how long the lookup took
+   */
+  public void recordRequest(Result result, long elapsedNs) {
+    requests.increment();
+    latencyNs.add(elapsedNs);
+    if (result.isFound()) {
+      hits.increment();
+      bytesServed.add(result.getBuffer().remaining());
+    }
+  }
+
+  /**
+   * Count a request for this partition that was turned away because its
+   * domain was overloaded.
+   */
+  public void recordShed() {
+    shed.increment();
+  }
+
+  public StripedCounter getRequests() {
     return requests;
   }
 
-  public AtomicLong getHits() {
+  public StripedCounter getHits() {
     return hits;
   }
 
+  public StripedCounter getBytesServed() {
+    return bytesServed;
+  }
+
+  public StripedCounter getLatencyNs() {
+    return latencyNs;
+  }
+
+  public StripedCounter getShed() {
+    return shed;
+  }
+
+  /**
+   * Flush the counts to the HostDomainPartition and start counting again.
+   * Called periodically off the request path.
+   * @throws IOException
+   */
   public void updateCounters() throws IOException {
-    updateCounter(requests, "Requests in last minute");
-    updateCounter(hits, "Hits in last minute");
+    long numRequests = requests.sumThenReset();
+    long totalLatencyNs = latencyNs.sumThenReset();
+    part.setCount(REQUESTS_COUNTER, numRequests);
+    part.setCount(HITS_COUNTER, hits.sumThenReset());
+    part.setCount(BYTES_SERVED_COUNTER, bytesServed.sumThenReset());
+    part.setCount(MEAN_LATENCY_COUNTER, numRequests == 0 ? 0 : totalLatencyNs / numRequests / 1000);
+    part.setCount(SHED_COUNTER, shed.sumThenReset());
   }
 
-  private void updateCounter(AtomicLong counter, String counterName)
-      throws IOException {
-    long count = counter.get();
-    part.setCount(counterName, count);
-    counter.addAndGet(-count);
+  /**
+   * Flush the counts, along with the domain's admission control state.
+   * @param domainInFlight how many requests the domain is serving right now
+   * @param domainMaxConcurrentRequests the domain's limit. 0 means no limit.
+   * @throws IOException
+   */
+  public void updateCounters(long domainInFlight, int domainMaxConcurrentRequests) throws IOException {
+    updateCounters();
+    part.setCount(DOMAIN_IN_FLIGHT_COUNTER, domainInFlight);
+    part.setCount(DOMAIN_MAX_CONCURRENT_REQUESTS_COUNTER, domainMaxConcurrentRequests);
   }
 }
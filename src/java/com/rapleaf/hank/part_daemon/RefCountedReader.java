@@ -0,0 +1,108 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.part_daemon;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+import com.rapleaf.hank.storage.Reader;
+import com.rapleaf.hank.util.StripedCounter;
+
+/**
+ * A Reader that is closed once it has been retired and the last request using
+ * it is done. Each request retains the reader for as long as it uses it.
+ *
+ * Every request to a partition goes through here, so the references are
+ * counted on a StripedCounter rather than a single shared count: a request
+ * only writes to its own thread's stripe, and the stripes are only summed
+ * once the reader has been retired.
+ */
+final class RefCountedReader {
+  private static final Logger LOG = Logger.getLogger(RefCountedReader.class);
+
+  private final Reader reader;
+  // requests may be released on a different stripe than they were retained
+  // on, so only the sum of the stripes means anything
+  private final StripedCounter inUse = new StripedCounter();
+  private volatile boolean retired = false;
+  private final AtomicBoolean closed = new AtomicBoolean(false);
+
+  RefCountedReader(Reader reader) {
+    this.reader = reader;
+  }
+
+  Reader getReader() {
+    return reader;
+  }
+
+  /**
+   * Take a reference to the reader.
+   * @return false if the reader has already been retired
+   */
+  boolean retain() {
+    inUse.increment();
+    // the increment happens before this read, and retire() sets the flag
+    // before summing, so either we see the flag or retire() sees our reference
+    if (retired) {
+      release();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Give up a reference to the reader, closing it if it has been retired and
+   * this was the last one.
+   */
+  void release() {
+    inUse.add(-1);
+    if (retired) {
+      closeIfUnused();
+    }
+  }
+
+  /**
+   * Stop handing out the reader. It's closed as soon as the requests still
+   * using it release it, which may be right away.
+   */
+  void retire() {
+    retired = true;
+    closeIfUnused();
+  }
+
+  private void closeIfUnused() {
+    if (inUse.sum() == 0 && closed.compareAndSet(false, true)) {
+      try {
+        reader.close();
+      } catch (IOException e) {
+        LOG.error("Failed to close reader", e);
+      }
+    }
+  }
+
+  /**
+   * @return how many requests are using the reader. Sums every stripe.
+   */
+  long getNumInUse() {
+    return inUse.sum();
+  }
+
+  boolean isClosed() {
+    return closed.get();
+  }
+}
@@ -0,0 +1,47 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.part_daemon;
+
+/**
+ * When the request being served on the current thread was read off its
+ * connection, so that handlers can count the time it spent queued for a
+ * worker. Set by the servers that track it around each call to the processor.
+ */
+final class RequestReceivedTime {
+  private static final ThreadLocal<long[]> receivedMs = new ThreadLocal<long[]>() {
+    @Override
+    protected long[] initialValue() {
+      return new long[1];
+    }
+  };
+
+  private RequestReceivedTime() {}
+
+  /**
+   * @return when the request being served on the calling thread was read, in
+   *         milliseconds since the epoch, or 0 if it isn't known
+   */
+  static long get() {
+    return receivedMs.get()[0];
+  }
+
+  /**
+   * @param ms 0 once the request has been served
+   */
+  static void set(long ms) {
+    receivedMs.get()[0] = ms;
+  }
+}
@@ -0,0 +1,438 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.part_daemon;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.apache.thrift.TByteArrayOutputStream;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TNonblockingServerTransport;
+import org.apache.thrift.transport.TNonblockingTransport;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * A nonblocking server for framed transports that spreads its connections over
+ * several selector threads, so that reading and writing isn't limited to a
+ * single core the way it is in THsHaServer. A dedicated thread accepts new
+ * connections and hands them out round robin.
+ *
+ * Requests are either served on a worker pool, or, if no pool is given, right
+ * on the selector thread that read them. The latter saves two thread handoffs
+ * per request, but a slow request holds up every other connection on the same
+ * selector, so it's only a win when lookups rarely block on disk.
+ *
+ * As in THsHaServer, each connection has at most one request being served at a
+ * time, so responses go out in the order the requests came in.
+ */
+public class SelectorPoolServer extends TServer {
+  private static final Logger LOG = Logger.getLogger(SelectorPoolServer.class);
+
+  public static class Args extends AbstractServerArgs<Args> {
+    private int numSelectorThreads = 2;
+    private ExecutorService invoker = null;
+    private int maxFrameSize = 16 * 1024 * 1024;
+
+    public Args(TNonblockingServerTransport transport) {
+      super(transport);
+      outputTransportFactory(new TFramedTransport.Factory());
+    }
+
+    public Args numSelectorThreads(int numSelectorThreads) {
+      this.numSelectorThreads = numSelectorThreads;
+      return this;
+    }
+
+    /**
+     * @param invoker the pool requests are served on, or null to serve them on
+     *          the selector threads. It's shut down along with the server.
+     */
+    public Args invoker(ExecutorService invoker) {
+      this.invoker = invoker;
+      return this;
+    }
+
+    public Args maxFrameSize(int maxFrameSize) {
+      this.maxFrameSize = maxFrameSize;
+      return this;
+    }
+  }
+
+  private final ExecutorService invoker;
+  private final int maxFrameSize;
+  private final List<SelectorThread> selectorThreads = new ArrayList<SelectorThread>();
+  private volatile AcceptThread acceptThread;
+  private volatile boolean stopped = false;
+
+  public SelectorPoolServer(Args args) {
+    super(args);
+    if (args.numSelectorThreads < 1) {
+      throw new IllegalArgumentException("Need at least one selector thread, not " + args.numSelectorThreads);
+    }
+    invoker = args.invoker;
+    maxFrameSize = args.maxFrameSize;
+    for (int i = 0; i < args.numSelectorThreads; i++) {
+      selectorThreads.add(new SelectorThread(i));
+    }
+  }
+
+  @Override
+  public void serve() {
+    try {
+      serverTransport_.listen();
+      acceptThread = new AcceptThread();
+    } catch (IOException e) {
+      LOG.error("Failed to start listening!", e);
+      return;
+    } catch (TTransportException e) {
+      LOG.error("Failed to start listening!", e);
+      return;
+    }
+
+    for (SelectorThread selectorThread : selectorThreads) {
+      selectorThread.start();
+    }
+    acceptThread.start();
+    setServing(true);
+
+    try {
+      acceptThread.join();
+      for (SelectorThread selectorThread : selectorThreads) {
+        selectorThread.join();
+      }
+    } catch (InterruptedException e) {
+      LOG.debug("Interrupted while waiting for the server threads to exit.");
+    }
+
+    serverTransport_.close();
+    if (invoker != null) {
+      invoker.shutdown();
+      try {
+        invoker.awaitTermination(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        LOG.debug("Interrupted while waiting for the invoker to shut down.");
+      }
+    }
+    setServing(false);
+  }
+
+  @Override
+  public void stop() {
+    stopped = true;
+    AcceptThread currentAcceptThread = acceptThread;
+    if (currentAcceptThread != null) {
+      currentAcceptThread.selector.wakeup();
+    }
+    for (SelectorThread selectorThread : selectorThreads) {
+      selectorThread.selector.wakeup();
+    }
+  }
+
+  private class AcceptThread extends Thread {
+    private final Selector selector;
+    private int nextSelectorThread = 0;
+
+    public AcceptThread() throws IOException {
+      super("SelectorPoolServer accept thread");
+      selector = Selector.open();
+      ((TNonblockingServerTransport) serverTransport_).registerSelector(selector);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!stopped) {
+          selector.select();
+          Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            if (key.isValid() && key.isAcceptable()) {
+              accept();
+            }
+          }
+        }
+      } catch (IOException e) {
+        LOG.error("Accept thread died!", e);
+      } finally {
+        try {
+          selector.close();
+        } catch (IOException e) {
+          LOG.warn("Failed to close the accept selector", e);
+        }
+      }
+    }
+
+    private void accept() {
+      try {
+        TNonblockingTransport client = (TNonblockingTransport) serverTransport_.accept();
+        selectorThreads.get(nextSelectorThread).addConnection(client);
+        nextSelectorThread = (nextSelectorThread + 1) % selectorThreads.size();
+      } catch (TTransportException e) {
+        LOG.warn("Failed to accept a connection", e);
+      }
+    }
+  }
+
+  private class SelectorThread extends Thread {
+    private final Selector selector;
+    private final Queue<TNonblockingTransport> newConnections = new ConcurrentLinkedQueue<TNonblockingTransport>();
+    // connections whose responses are ready to go out
+    private final Queue<Connection> responsesReady = new ConcurrentLinkedQueue<Connection>();
+
+    public SelectorThread(int num) {
+      super("SelectorPoolServer selector thread #" + num);
+      try {
+        selector = Selector.open();
+      } catch (IOException e) {
+        throw new RuntimeException("Failed to open a selector", e);
+      }
+    }
+
+    public void addConnection(TNonblockingTransport client) {
+      newConnections.add(client);
+      selector.wakeup();
+    }
+
+    public void responseReady(Connection connection) {
+      responsesReady.add(connection);
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!stopped) {
+          selector.select();
+          registerNewConnections();
+          writeReadyResponses();
+          Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            Connection connection = (Connection) key.attachment();
+            if (!key.isValid()) {
+              connection.close();
+            } else if (key.isReadable()) {
+              connection.read();
+            } else if (key.isWritable()) {
+              connection.write();
+            }
+          }
+        }
+      } catch (IOException e) {
+        LOG.error("Selector thread died!", e);
+      } finally {
+        for (SelectionKey key : selector.keys()) {
+          ((Connection) key.attachment()).close();
+        }
+        try {
+          selector.close();
+        } catch (IOException e) {
+          LOG.warn("Failed to close a selector", e);
+        }
+      }
+    }
+
+    private void registerNewConnections() {
+      TNonblockingTransport client;
+      while ((client = newConnections.poll()) != null) {
+        try {
+          SelectionKey key = client.registerSelector(selector, SelectionKey.OP_READ);
+          key.attach(new Connection(client, key, this));
+        } catch (IOException e) {
+          LOG.warn("Failed to register a new connection", e);
+          client.close();
+        }
+      }
+    }
+
+    private void writeReadyResponses() {
+      Connection connection;
+      while ((connection = responsesReady.poll()) != null) {
+        connection.startWriting();
+      }
+    }
+  }
+
+  private class Connection {
+    private static final int READING_FRAME_SIZE = 1;
+    private static final int READING_FRAME = 2;
+    private static final int SERVING = 3;
+    private static final int WRITING = 4;
+    private static final int CLOSED = 5;
+
+    private final TNonblockingTransport transport;
+    private final SelectionKey key;
+    private final SelectorThread selectorThread;
+    private final ByteBuffer frameSize = ByteBuffer.allocate(4);
+    // only touched by the selector thread, except while SERVING
+    private int state = READING_FRAME_SIZE;
+    private ByteBuffer buffer;
+    private long requestReceivedMs;
+
+    public Connection(TNonblockingTransport transport, SelectionKey key, SelectorThread selectorThread) {
+      this.transport = transport;
+      this.key = key;
+      this.selectorThread = selectorThread;
+    }
+
+    public void read() {
+      try {
+        if (state == READING_FRAME_SIZE) {
+          if (transport.read(frameSize) < 0) {
+            close();
+            return;
+          }
+          if (frameSize.hasRemaining()) {
+            return;
+          }
+          int size = frameSize.getInt(0);
+          if (size <= 0 || size > maxFrameSize) {
+            LOG.error("Read an invalid frame size of " + size + ". Closing the connection.");
+            close();
+            return;
+          }
+          buffer = ByteBuffer.allocate(size);
+          state = READING_FRAME;
+        }
+        if (state == READING_FRAME) {
+          // the frame has usually arrived along with its size
+          if (transport.read(buffer) < 0) {
+            close();
+            return;
+          }
+          if (!buffer.hasRemaining()) {
+            serve();
+          }
+        }
+      } catch (IOException e) {
+        LOG.debug("Failed to read from a connection", e);
+        close();
+      }
+    }
+
+    private void serve() {
+      state = SERVING;
+      requestReceivedMs = System.currentTimeMillis();
+      key.interestOps(0);
+      if (invoker == null) {
+        invoke();
+        startWriting();
+        return;
+      }
+      try {
+        invoker.execute(new Runnable() {
+          @Override
+          public void run() {
+            invoke();
+            selectorThread.responseReady(Connection.this);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        LOG.warn("Invoker rejected a request. Closing the connection.");
+        close();
+      }
+    }
+
+    /**
+     * Serve the request that's in the buffer, leaving the response there, or
+     * null if the connection has to be closed.
+     */
+    private void invoke() {
+      TTransport inTransport = new TMemoryInputTransport(buffer.array());
+      TByteArrayOutputStream response = new TByteArrayOutputStream();
+      TTransport outTransport = outputTransportFactory_.getTransport(new TIOStreamTransport(response));
+      TProtocol inProtocol = inputProtocolFactory_.getProtocol(inTransport);
+      TProtocol outProtocol = outputProtocolFactory_.getProtocol(outTransport);
+      RequestReceivedTime.set(requestReceivedMs);
+      try {
+        processorFactory_.getProcessor(inTransport).process(inProtocol, outProtocol);
+        buffer = ByteBuffer.wrap(response.get(), 0, response.len());
+        return;
+      } catch (TException e) {
+        LOG.warn("Exception while serving a request", e);
+      } catch (RuntimeException e) {
+        LOG.error("Unexpected exception while serving a request", e);
+      } finally {
+        RequestReceivedTime.set(0);
+      }
+      buffer = null;
+    }
+
+    public void startWriting() {
+      if (state == CLOSED) {
+        return;
+      }
+      if (buffer == null) {
+        close();
+        return;
+      }
+      state = WRITING;
+      // most responses fit in the socket's buffer, so try right away rather
+      // than waiting for the next select
+      write();
+      if (state == WRITING) {
+        key.interestOps(SelectionKey.OP_WRITE);
+      }
+    }
+
+    public void write() {
+      try {
+        if (transport.write(buffer) < 0) {
+          close();
+          return;
+        }
+      } catch (IOException e) {
+        LOG.warn("Failed to write to a connection", e);
+        close();
+        return;
+      }
+      if (!buffer.hasRemaining()) {
+        buffer = null;
+        frameSize.clear();
+        state = READING_FRAME_SIZE;
+        key.interestOps(SelectionKey.OP_READ);
+      }
+    }
+
+    public void close() {
+      if (state == CLOSED) {
+        return;
+      }
+      state = CLOSED;
+      key.cancel();
+      transport.close();
+    }
+  }
+}
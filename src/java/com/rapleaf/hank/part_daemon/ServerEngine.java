@@ -0,0 +1,112 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.part_daemon;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.server.THsHaServer;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * The Thrift servers the Part Daemon can serve its data with.
+ */
+public enum ServerEngine {
+  /**
+   * A single selector thread reads and writes all the connections, and a pool
+   * of worker threads serves the requests. Simple, but the selector thread
+   * saturates a core well before the workers are busy.
+   */
+  HSHA,
+  /**
+   * Several selector threads share the connections, and a pool of worker
+   * threads serves the requests.
+   */
+  SELECTOR_POOL,
+  /**
+   * Experimental. Several selector threads share the connections and serve
+   * their requests themselves. Only worth it when every lookup is served from
+   * memory: a single lookup that has to wait on the disk stalls all the
+   * connections of its selector. In ServerEngineBenchmark it serves about
+   * twice as many requests as HSHA with no service time, and a tenth as many
+   * with 500us of service time.
+   */
+  EVENT_LOOP;
+
+  /**
+   * @param name the engine's name, in any case
+   * @return
+   * @throws IllegalArgumentException if there's no such engine
+   */
+  public static ServerEngine parse(String name) {
+    return valueOf(name.toUpperCase());
+  }
+
+  /**
+   * Create a server for <i>processor</i> listening on <i>port</i>, using
+   * framed transports and the compact protocol.
+   * @param processor
+   * @param port
+   * @param numWorkerThreads ignored by EVENT_LOOP
+   * @param numSelectorThreads ignored by HSHA, which always has one
+   * @return
+   * @throws TTransportException if the port can't be bound
+   */
+  public TServer createServer(TProcessor processor,
+      int port,
+      int numWorkerThreads,
+      int numSelectorThreads) throws TTransportException {
+    TNonblockingServerSocket serverSocket = new TNonblockingServerSocket(port);
+    switch (this) {
+      case HSHA:
+        THsHaServer.Args hshaArgs = new THsHaServer.Args(serverSocket);
+        hshaArgs.processor(processor);
+        hshaArgs.workerThreads(numWorkerThreads);
+        hshaArgs.protocolFactory(new TCompactProtocol.Factory());
+        return new TimedHsHaServer(hshaArgs);
+      case SELECTOR_POOL:
+      case EVENT_LOOP:
+        SelectorPoolServer.Args args = new SelectorPoolServer.Args(serverSocket);
+        args.processor(processor);
+        args.protocolFactory(new TCompactProtocol.Factory());
+        args.numSelectorThreads(numSelectorThreads);
+        if (this == SELECTOR_POOL) {
+          args.invoker(createWorkerPool(numWorkerThreads));
+        }
+        return new SelectorPoolServer(args);
+      default:
+        throw new IllegalStateException("Unknown server engine " + this);
+    }
+  }
+
+  private static ExecutorService createWorkerPool(int numWorkerThreads) {
+    return Executors.newFixedThreadPool(numWorkerThreads, new ThreadFactory() {
+      // workers are started from all the selector threads
+      private final AtomicInteger x = new AtomicInteger(0);
+
+      @Override
+      public Thread newThread(Runnable r) {
+        return new Thread(r, "PartDaemon worker thread #" + x.incrementAndGet());
+      }
+    });
+  }
+}
@@ -0,0 +1,46 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.part_daemon;
+
+import org.apache.thrift.server.THsHaServer;
+
+/**
+ * A THsHaServer that records when each request was read, on the selector
+ * thread, so that the worker that serves it can tell how long it was queued.
+ * See {@link RequestReceivedTime}.
+ */
+class TimedHsHaServer extends THsHaServer {
+  public TimedHsHaServer(Args args) {
+    super(args);
+  }
+
+  @Override
+  protected Runnable getRunnable(FrameBuffer frameBuffer) {
+    final long receivedMs = System.currentTimeMillis();
+    final Runnable invocation = super.getRunnable(frameBuffer);
+    return new Runnable() {
+      @Override
+      public void run() {
+        RequestReceivedTime.set(receivedMs);
+        try {
+          invocation.run();
+        } finally {
+          RequestReceivedTime.set(0);
+        }
+      }
+    };
+  }
+}
@@ -0,0 +1,215 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rapleaf.hank.config.PartservConfigurator;
+
+/**
+ * A bounded cache of decompressed blocks. The part daemon creates a single
+ * one and hands it to every reader it opens, see
+ * {@link StorageEngine#getReader(PartservConfigurator, int, BlockCache)}. Blocks are keyed by the id of the file they came from and their
+ * offset within that file. The cache is split into independently locked
+ * segments, each of which evicts its least recently used blocks once it grows
+ * past its share of the capacity.
+ */
+public final class BlockCache {
+  private static final int NUM_SEGMENTS = 16;
+  // rough per-entry cost of the key, map entry and array header
+  private static final int ENTRY_OVERHEAD = 96;
+
+  private static final AtomicLong nextFileId = new AtomicLong(0);
+
+  // keys stored in the map are never modified. lookups go through a
+  // per-thread probe key instead so that a cache hit doesn't allocate.
+  private static final class Key {
+    private long fileId;
+    private long offset;
+
+    public Key(long fileId, long offset) {
+      set(fileId, offset);
+    }
+
+    public Key set(long fileId, long offset) {
+      this.fileId = fileId;
+      this.offset = offset;
+      return this;
+    }
+
+    @Override
+    public int hashCode() {
+      long h = fileId * 31 + offset;
+      return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return fileId == other.fileId && offset == other.offset;
+    }
+  }
+
+  private static final class Segment {
+    private final LinkedHashMap<Key, byte[]> blocks = new LinkedHashMap<Key, byte[]>(16, 0.75f, true);
+    private final long capacity;
+    private long size = 0;
+
+    public Segment(long capacity) {
+      this.capacity = capacity;
+    }
+
+    public synchronized byte[] get(Key key) {
+      return blocks.get(key);
+    }
+
+    public synchronized long put(Key key, byte[] block) {
+      long evictions = 0;
+      byte[] previous = blocks.put(key, block);
+      if (previous != null) {
+        size -= previous.length + ENTRY_OVERHEAD;
+      }
+      size += block.length + ENTRY_OVERHEAD;
+
+      Iterator<Map.Entry<Key, byte[]>> iter = blocks.entrySet().iterator();
+      while (size > capacity && iter.hasNext()) {
+        Map.Entry<Key, byte[]> eldest = iter.next();
+        size -= eldest.getValue().length + ENTRY_OVERHEAD;
+        iter.remove();
+        evictions++;
+      }
+      return evictions;
+    }
+
+    public synchronized long getSize() {
+      return size;
+    }
+  }
+
+  private final Segment[] segments = new Segment[NUM_SEGMENTS];
+  private final ThreadLocal<Key> probes = new ThreadLocal<Key>() {
+    @Override
+    protected Key initialValue() {
+      return new Key(0, 0);
+    }
+  };
+  private final long capacity;
+
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+  private final AtomicLong evictions = new AtomicLong(0);
+
+  /**
+   * @param capacity the approximate maximum number of bytes to hold
+   */
+  public BlockCache(long capacity) {
+    this.capacity = capacity;
+    for (int i = 0; i < NUM_SEGMENTS; i++) {
+      segments[i] = new Segment(capacity / NUM_SEGMENTS);
+    }
+  }
+
+  /**
+   * Get a process-unique id that a reader can use to identify its file in the
+   * cache. Since each new version of a partition is opened by a new reader,
+   * blocks from replaced files are never served and simply age out.
+   * @return
+   */
+  public static long getNextFileId() {
+    return nextFileId.getAndIncrement();
+  }
+
+  /**
+   * Get the cached block, or null if it is not present. The returned array
+   * must not be modified.
+   * @param fileId
+   * @param offset
+   * @return
+   */
+  public byte[] get(long fileId, long offset) {
+    Key key = probes.get().set(fileId, offset);
+    byte[] block = segmentFor(key).get(key);
+    if (block == null) {
+      misses.incrementAndGet();
+    } else {
+      hits.incrementAndGet();
+    }
+    return block;
+  }
+
+  /**
+   * Cache a copy of the <i>length</i> bytes of <i>block</i> starting at
+   * <i>off</i>.
+   * @param fileId
+   * @param offset
+   * @param block
+   * @param off
+   * @param length
+   */
+  public void put(long fileId, long offset, byte[] block, int off, int length) {
+    if (length + ENTRY_OVERHEAD > capacity / NUM_SEGMENTS) {
+      // would just evict everything else in the segment
+      return;
+    }
+    byte[] copy = new byte[length];
+    System.arraycopy(block, off, copy, 0, length);
+    Key key = new Key(fileId, offset);
+    evictions.addAndGet(segmentFor(key).put(key, copy));
+  }
+
+  private Segment segmentFor(Key key) {
+    int h = key.hashCode();
+    h ^= (h >>> 16);
+    return segments[(h & 0x7fffffff) % NUM_SEGMENTS];
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  public long getSize() {
+    long size = 0;
+    for (Segment segment : segments) {
+      size += segment.getSize();
+    }
+    return size;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  @Override
+  public String toString() {
+    return "BlockCache [capacity=" + capacity + ", size=" + getSize()
+        + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions="
+        + getEvictions() + "]";
+  }
+}
@@ -23,4 +23,11 @@ import java.nio.ByteBuffer;
  */
 public interface Reader {
   public void get(ByteBuffer key, Result result) throws IOException;
+
+  /**
+   * Release any files held open by this reader. Only called once no more
+   * requests are being served by it.
+   * @throws IOException
+   */
+  public void close() throws IOException;
 }
@@ -19,6 +19,11 @@ import java.nio.ByteBuffer;
 
 import com.rapleaf.hank.util.Bytes;
 
+/**
+ * Holds the outcome of a single Reader lookup. A Result may be reused for many
+ * lookups by the same thread, so readers must always set found or not found and
+ * leave the buffer's position and limit around the value.
+ */
 public class Result {
   private boolean isFound = false;
 
@@ -24,7 +24,12 @@ import com.rapleaf.hank.config.PartservConfigurator;
  * Defines how to read, write, delete, and update the data stored for a given partition.
  */
 public interface StorageEngine {
-  public Reader getReader(PartservConfigurator configurator, int partNum) throws IOException;
+  /**
+   * @param blockCache cache of decompressed blocks shared by all the readers
+   *          of the part daemon, or null if caching is disabled. Engines that
+   *          don't compress their data can ignore it.
+   */
+  public Reader getReader(PartservConfigurator configurator, int partNum, BlockCache blockCache) throws IOException;
 
   public Writer getWriter(OutputStreamFactory streamFactory, int partNum, int versionNumber, boolean base) throws IOException;
 
@@ -0,0 +1,178 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.storage.cueball;
+
+import java.io.IOException;
+
+import com.rapleaf.hank.compress.CompressionCodec;
+import com.rapleaf.hank.compress.NoCompressionCodec;
+import com.rapleaf.hank.util.Bytes;
+import com.rapleaf.hank.util.EncodingHelper;
+
+/**
+ * Layout of compressed blocks that are split into independently compressed
+ * sub-blocks, so that a lookup only has to decompress the one sub-block that
+ * could contain its key. Such a block starts with a sub-index:
+ *
+ * <pre>
+ * numSubBlocks (4 bytes)
+ * numSubBlocks * (first key hash (keyHashSize bytes), end offset (4 bytes))
+ * compressed sub-blocks
+ * </pre>
+ *
+ * End offsets are relative to the end of the sub-index.
+ */
+final class BlockSubIndex {
+  private BlockSubIndex() {}
+
+  /**
+   * Sub-blocks only pay off when there's decompression work to skip.
+   */
+  public static boolean isEnabled(int subBlockEntries, CompressionCodec compressionCodec) {
+    return subBlockEntries > 0 && !(compressionCodec instanceof NoCompressionCodec);
+  }
+
+  public static int getIndexLength(int numSubBlocks, int keyHashSize) {
+    return 4 + numSubBlocks * (keyHashSize + 4);
+  }
+
+  public static int getMaxBlockSize(CompressionCodec compressionCodec,
+      int keyHashSize,
+      int fullRecordSize,
+      int maxEntries,
+      int subBlockEntries)
+  {
+    int numSubBlocks = (maxEntries + subBlockEntries - 1) / subBlockEntries;
+    return getIndexLength(numSubBlocks, keyHashSize) + numSubBlocks
+        * compressionCodec.getMaxCompressBufferSize(subBlockEntries * fullRecordSize);
+  }
+
+  /**
+   * Compress the records in <i>src</i> into <i>dst</i> as a sub-indexed block.
+   * @return the number of bytes written to <i>dst</i>
+   */
+  public static int compress(CompressionCodec compressionCodec,
+      byte[] src,
+      int srcLength,
+      byte[] dst,
+      int keyHashSize,
+      int fullRecordSize,
+      int subBlockEntries)
+  {
+    if (srcLength == 0) {
+      return 0;
+    }
+    final int subBlockLength = subBlockEntries * fullRecordSize;
+    final int numSubBlocks = (srcLength + subBlockLength - 1) / subBlockLength;
+    final int dataStart = getIndexLength(numSubBlocks, keyHashSize);
+
+    EncodingHelper.encodeLittleEndianFixedWidthLong(numSubBlocks, dst, 0, 4);
+    int dataOffset = 0;
+    for (int i = 0; i < numSubBlocks; i++) {
+      final int srcOffset = i * subBlockLength;
+      dataOffset += compressionCodec.compress(src,
+          srcOffset,
+          Math.min(subBlockLength, srcLength - srcOffset),
+          dst,
+          dataStart + dataOffset);
+
+      final int entryOffset = 4 + i * (keyHashSize + 4);
+      System.arraycopy(src, srcOffset, dst, entryOffset, keyHashSize);
+      EncodingHelper.encodeLittleEndianFixedWidthLong(dataOffset, dst, entryOffset + keyHashSize, 4);
+    }
+    return dataStart + dataOffset;
+  }
+
+  /**
+   * Decompress every sub-block of the block in <i>src</i> into <i>dst</i>.
+   * @return the number of bytes written to <i>dst</i>
+   * @throws IOException
+   */
+  public static int decompress(CompressionCodec compressionCodec,
+      byte[] src,
+      int srcOffset,
+      byte[] dst,
+      int dstOffset,
+      int keyHashSize) throws IOException
+  {
+    final int numSubBlocks = getNumSubBlocks(src, srcOffset);
+    int decompressed = 0;
+    for (int i = 0; i < numSubBlocks; i++) {
+      final int start = getSubBlockStart(src, srcOffset, keyHashSize, i);
+      final int end = getSubBlockEnd(src, srcOffset, keyHashSize, i);
+      decompressed += compressionCodec.decompress(src, start, end - start, dst, dstOffset + decompressed);
+    }
+    return decompressed;
+  }
+
+  public static int getNumSubBlocks(byte[] block, int off) throws IOException {
+    int numSubBlocks = (int) EncodingHelper.decodeLittleEndianFixedWidthLong(block, off, 4);
+    if (numSubBlocks < 0) {
+      throw new IOException("Read an invalid number of sub-blocks: " + numSubBlocks);
+    }
+    return numSubBlocks;
+  }
+
+  /**
+   * Find the only sub-block that could contain <i>keyHash</i>, which is the
+   * last one whose first key hash isn't greater than it.
+   * @return the sub-block's index, or -1 if <i>keyHash</i> sorts before every
+   *         key in the block
+   * @throws IOException
+   */
+  public static int find(byte[] block, int off, int keyHashSize, byte[] keyHash) throws IOException {
+    int low = 0;
+    int high = getNumSubBlocks(block, off) - 1;
+    int found = -1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int comparison = Bytes.compareBytesUnsigned(block,
+          off + 4 + mid * (keyHashSize + 4),
+          keyHash,
+          0,
+          keyHashSize);
+      if (comparison <= 0) {
+        found = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * @return the offset of the start of the sub-block within <i>block</i>
+   * @throws IOException
+   */
+  public static int getSubBlockStart(byte[] block, int off, int keyHashSize, int subBlock) throws IOException {
+    if (subBlock == 0) {
+      return off + getIndexLength(getNumSubBlocks(block, off), keyHashSize);
+    }
+    return getSubBlockEnd(block, off, keyHashSize, subBlock - 1);
+  }
+
+  /**
+   * @return the offset of the end of the sub-block within <i>block</i>
+   * @throws IOException
+   */
+  public static int getSubBlockEnd(byte[] block, int off, int keyHashSize, int subBlock) throws IOException {
+    final int dataStart = off + getIndexLength(getNumSubBlocks(block, off), keyHashSize);
+    return dataStart + (int) EncodingHelper.decodeLittleEndianFixedWidthLong(block,
+        off + 4 + subBlock * (keyHashSize + 4) + keyHashSize,
+        4);
+  }
+}
@@ -0,0 +1,218 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.storage.cueball;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import com.rapleaf.hank.util.EncodingHelper;
+
+/**
+ * A Bloom filter over key hashes, used to answer most lookups of absent keys
+ * without touching the data file. When enabled, it's stored between the end of
+ * the data and the footer as:
+ *
+ * <pre>
+ * bits (numBits / 8 bytes, little-endian longs)
+ * numBits (8 bytes)
+ * numHashFunctions (4 bytes)
+ * </pre>
+ */
+public final class BloomFilter {
+  static final int TRAILER_LENGTH = 12;
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  private final long[] bits;
+  private final long numBits;
+  private final int numHashFunctions;
+
+  /**
+   * Size a filter to hold <i>expectedEntries</i> key hashes at the given false
+   * positive rate.
+   * @param expectedEntries
+   * @param falsePositiveRate
+   */
+  public BloomFilter(long expectedEntries, double falsePositiveRate) {
+    if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+      throw new IllegalArgumentException("Invalid false positive rate: " + falsePositiveRate);
+    }
+    final long n = Math.max(1, expectedEntries);
+    final long optimalBits = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+    numBits = Math.max(64, (optimalBits + 63) / 64 * 64);
+    numHashFunctions = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+    bits = new long[(int) (numBits / 64)];
+  }
+
+  private BloomFilter(long[] bits, int numHashFunctions) {
+    this.bits = bits;
+    this.numBits = bits.length * 64L;
+    this.numHashFunctions = numHashFunctions;
+  }
+
+  /**
+   * Reduce a key hash to the 64 bits the filter works with.
+   */
+  public static long fingerprint(byte[] keyHash, int off, int len) {
+    long h = len;
+    for (int i = off; i < off + len; i++) {
+      h = (h ^ (keyHash[i] & 0xff)) * 0x100000001b3L;
+    }
+    // the murmur3 finalizer, so that every output bit depends on every input bit
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  public void add(long fingerprint) {
+    long state = fingerprint;
+    for (int i = 0; i < numHashFunctions; i++) {
+      state += GOLDEN_GAMMA;
+      final long bit = getBit(state);
+      bits[(int) (bit >>> 6)] |= 1L << bit;
+    }
+  }
+
+  public boolean mightContain(long fingerprint) {
+    long state = fingerprint;
+    for (int i = 0; i < numHashFunctions; i++) {
+      state += GOLDEN_GAMMA;
+      final long bit = getBit(state);
+      if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Probe positions come from a SplitMix64 sequence seeded with the
+   * fingerprint. Plain double hashing (h1 + i * h2) tends to pile probes onto
+   * the same few bits when numBits is a multiple of a large power of two.
+   */
+  private long getBit(long state) {
+    long z = state;
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    z ^= z >>> 31;
+    return (z >>> 1) % numBits;
+  }
+
+  public long getNumBits() {
+    return numBits;
+  }
+
+  public int getNumHashFunctions() {
+    return numHashFunctions;
+  }
+
+  /**
+   * @return the number of bytes written by {@link #write(OutputStream)}
+   */
+  public long getSerializedLength() {
+    return numBits / 8 + TRAILER_LENGTH;
+  }
+
+  public void write(OutputStream out) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate((int) getSerializedLength()).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.asLongBuffer().put(bits);
+    EncodingHelper.encodeLittleEndianFixedWidthLong(numBits, buffer.array(), bits.length * 8, 8);
+    EncodingHelper.encodeLittleEndianFixedWidthLong(numHashFunctions, buffer.array(), bits.length * 8 + 8, 4);
+    out.write(buffer.array());
+  }
+
+  /**
+   * Get the length of the serialized filter that ends at <i>end</i>.
+   * @param channel
+   * @param end
+   * @return
+   * @throws IOException
+   */
+  public static long getSerializedLength(FileChannel channel, long end) throws IOException {
+    return readNumBits(readTrailer(channel, end)) / 8 + TRAILER_LENGTH;
+  }
+
+  /**
+   * Get the length of the serialized filter whose trailer is at <i>off</i> in
+   * <i>buf</i>.
+   * @param buf
+   * @param off
+   * @return
+   * @throws IOException
+   */
+  static long getSerializedLength(byte[] buf, int off) throws IOException {
+    return readNumBits(buf, off) / 8 + TRAILER_LENGTH;
+  }
+
+  /**
+   * Read the serialized filter that ends at <i>end</i>.
+   * @param channel
+   * @param end
+   * @return
+   * @throws IOException
+   */
+  public static BloomFilter read(FileChannel channel, long end) throws IOException {
+    byte[] trailer = readTrailer(channel, end);
+    final long numBits = readNumBits(trailer);
+    final int numHashFunctions = (int) EncodingHelper.decodeLittleEndianFixedWidthLong(trailer, 8, 4);
+    if (numHashFunctions <= 0) {
+      throw new IOException("Read an invalid number of Bloom filter hash functions: " + numHashFunctions);
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate((int) (numBits / 8));
+    final long start = end - TRAILER_LENGTH - buffer.capacity();
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, start + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of file while reading Bloom filter!");
+      }
+    }
+    buffer.flip();
+    long[] bits = new long[(int) (numBits / 64)];
+    buffer.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(bits);
+    return new BloomFilter(bits, numHashFunctions);
+  }
+
+  private static byte[] readTrailer(FileChannel channel, long end) throws IOException {
+    byte[] trailer = new byte[TRAILER_LENGTH];
+    int read = channel.read(ByteBuffer.wrap(trailer), end - TRAILER_LENGTH);
+    if (read != TRAILER_LENGTH) {
+      throw new IOException("Tried to read " + TRAILER_LENGTH + " bytes of Bloom filter trailer, but only got " + read + " bytes!");
+    }
+    return trailer;
+  }
+
+  private static long readNumBits(byte[] trailer) throws IOException {
+    return readNumBits(trailer, 0);
+  }
+
+  private static long readNumBits(byte[] buf, int off) throws IOException {
+    final long numBits = EncodingHelper.decodeLittleEndianFixedWidthLong(buf, off, 8);
+    if (numBits <= 0 || numBits % 64 != 0 || numBits / 8 > Integer.MAX_VALUE) {
+      throw new IOException("Read an invalid Bloom filter size of " + numBits + " bits!");
+    }
+    return numBits;
+  }
+
+  @Override
+  public String toString() {
+    return "BloomFilter [numBits=" + numBits + ", numHashFunctions=" + numHashFunctions + "]";
+  }
+}
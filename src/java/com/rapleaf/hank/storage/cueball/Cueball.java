@@ -34,6 +34,7 @@ import com.rapleaf.hank.compress.NoCompressionCodec;
 import com.rapleaf.hank.config.PartservConfigurator;
 import com.rapleaf.hank.hasher.Hasher;
 import com.rapleaf.hank.hasher.Murmur64Hasher;
+import com.rapleaf.hank.storage.BlockCache;
 import com.rapleaf.hank.storage.Deleter;
 import com.rapleaf.hank.storage.OutputStreamFactory;
 import com.rapleaf.hank.storage.Reader;
@@ -51,7 +52,7 @@ public class Cueball implements StorageEngine {
 
   private static final Pattern BASE_OR_DELTA_PATTERN = Pattern.compile(".*(\\d{5})\\.((base)|(delta))\\.cueball");
   static final String BASE_REGEX = ".*\\d{5}\\.base\\.cueball";
-  static final String DELTA_REGEX = ".*\\d{5}\\.delta\\.cueball";
+  public static final String DELTA_REGEX = ".*\\d{5}\\.delta\\.cueball";
 
   public static class Factory implements StorageEngineFactory {
     public static final String REMOTE_DOMAIN_ROOT_KEY = "remote_domain_root";
@@ -61,6 +62,10 @@ public class Cueball implements StorageEngine {
     public static final String FILE_OPS_FACTORY_KEY = "file_ops_factory";
     public static final String HASHER_KEY = "hasher";
     public static final String COMPRESSION_CODEC = "compression_codec";
+    public static final String MMAP_READS_KEY = "mmap_reads";
+    public static final String COMPRESSED_SUB_BLOCK_ENTRIES_KEY = "compressed_sub_block_entries";
+    public static final String BLOOM_FILTER_FALSE_POSITIVE_RATE_KEY = "bloom_filter_false_positive_rate";
+    public static final String COMPRESSION_THREADS_KEY = "compression_threads";
 
     private static final Set<String> REQUIRED_KEYS = new HashSet<String>(Arrays.asList(REMOTE_DOMAIN_ROOT_KEY, HASH_INDEX_BITS_KEY, HASHER_KEY, VALUE_SIZE_KEY, KEY_HASH_SIZE_KEY, FILE_OPS_FACTORY_KEY));
 
@@ -93,7 +98,13 @@ public class Cueball implements StorageEngine {
         }
       }
 
-      return new Cueball((Integer) options.get(KEY_HASH_SIZE_KEY), hasher, (Integer) options.get(VALUE_SIZE_KEY), (Integer) options.get(HASH_INDEX_BITS_KEY), (String) options.get(REMOTE_DOMAIN_ROOT_KEY), fileOpsFactory, compressionCodecClass, domainName);
+      boolean mmapReads = options.get(MMAP_READS_KEY) != null && (Boolean) options.get(MMAP_READS_KEY);
+      int subBlockEntries = options.get(COMPRESSED_SUB_BLOCK_ENTRIES_KEY) == null ? 0 : (Integer) options.get(COMPRESSED_SUB_BLOCK_ENTRIES_KEY);
+      double bloomFilterFalsePositiveRate = options.get(BLOOM_FILTER_FALSE_POSITIVE_RATE_KEY) == null ? 0
+          : ((Number) options.get(BLOOM_FILTER_FALSE_POSITIVE_RATE_KEY)).doubleValue();
+      int compressionThreads = options.get(COMPRESSION_THREADS_KEY) == null ? 0 : (Integer) options.get(COMPRESSION_THREADS_KEY);
+
+      return new Cueball((Integer) options.get(KEY_HASH_SIZE_KEY), hasher, (Integer) options.get(VALUE_SIZE_KEY), (Integer) options.get(HASH_INDEX_BITS_KEY), (String) options.get(REMOTE_DOMAIN_ROOT_KEY), fileOpsFactory, compressionCodecClass, domainName, mmapReads, subBlockEntries, bloomFilterFalsePositiveRate, compressionThreads);
     }
 
     @Override
@@ -113,6 +124,20 @@ public class Cueball implements StorageEngine {
       pw.println("hash_index_bits: 15");
       pw.println("remote_domain_root: #fill this in!");
       pw.println("file_ops_factory: " + LocalFileOps.Factory.class.getName());
+      pw.println("# Memory map bases instead of reading each block through the file channel.");
+      pw.println("# Best for partitions that mostly stay resident in the page cache.");
+      pw.println("mmap_reads: false");
+      pw.println("# If positive, compressed blocks are split into independently compressed");
+      pw.println("# sub-blocks of this many entries, so lookups only decompress one of them.");
+      pw.println("# Changes only apply to bases written afterwards. Each base records its own layout.");
+      pw.println("compressed_sub_block_entries: 0");
+      pw.println("# If positive, each base carries a Bloom filter with this false positive rate,");
+      pw.println("# which lets most lookups of absent keys skip the data file. Costs about");
+      pw.println("# 10 bits per key of memory at 0.01. Changes only apply to bases written afterwards.");
+      pw.println("bloom_filter_false_positive_rate: 0");
+      pw.println("# If positive, blocks are compressed on this many threads when building");
+      pw.println("# and merging versions. Only worth it for slow codecs like gzip.");
+      pw.println("compression_threads: 0");
 
       return sw.toString();
     }
@@ -129,6 +154,10 @@ public class Cueball implements StorageEngine {
   private final ByteBuffer keyHashBuffer;
 
   private final Class<? extends CompressionCodec> compressionCodecClass;
+  private final boolean mmapReads;
+  private final int subBlockEntries;
+  private final double bloomFilterFalsePositiveRate;
+  private final int compressionThreads;
 
   public Cueball(int keyHashSize,
       Hasher hasher,
@@ -138,6 +167,39 @@ public class Cueball implements StorageEngine {
       IFileOpsFactory fileOpsFactory,
       Class<? extends CompressionCodec> compressionCodecClass,
       String domainName) {
+    this(keyHashSize, hasher, valueSize, hashIndexBits, remoteDomainRoot, fileOpsFactory, compressionCodecClass, domainName, false, 0, 0);
+  }
+
+  public Cueball(int keyHashSize,
+      Hasher hasher,
+      int valueSize,
+      int hashIndexBits,
+      String remoteDomainRoot,
+      IFileOpsFactory fileOpsFactory,
+      Class<? extends CompressionCodec> compressionCodecClass,
+      String domainName,
+      boolean mmapReads,
+      int subBlockEntries,
+      double bloomFilterFalsePositiveRate) {
+    this(keyHashSize, hasher, valueSize, hashIndexBits, remoteDomainRoot, fileOpsFactory, compressionCodecClass, domainName, mmapReads, subBlockEntries, bloomFilterFalsePositiveRate, 0);
+  }
+
+  /**
+   * @param compressionThreads if positive, writers and updaters compress blocks
+   *          on this many threads. See {@link CueballWriter}.
+   */
+  public Cueball(int keyHashSize,
+      Hasher hasher,
+      int valueSize,
+      int hashIndexBits,
+      String remoteDomainRoot,
+      IFileOpsFactory fileOpsFactory,
+      Class<? extends CompressionCodec> compressionCodecClass,
+      String domainName,
+      boolean mmapReads,
+      int subBlockEntries,
+      double bloomFilterFalsePositiveRate,
+      int compressionThreads) {
     this.keyHashSize = keyHashSize;
     this.hasher = hasher;
     this.valueSize = valueSize;
@@ -147,11 +209,15 @@ public class Cueball implements StorageEngine {
     this.keyHashBuffer = ByteBuffer.allocate(keyHashSize);
     this.compressionCodecClass = compressionCodecClass;
     this.domainName = domainName;
+    this.mmapReads = mmapReads;
+    this.subBlockEntries = subBlockEntries;
+    this.bloomFilterFalsePositiveRate = bloomFilterFalsePositiveRate;
+    this.compressionThreads = compressionThreads;
   }
 
   @Override
-  public Reader getReader(PartservConfigurator configurator, int partNum) throws IOException {
-    return new CueballReader(getLocalDir(configurator, partNum), keyHashSize, hasher, valueSize, hashIndexBits, getCompressionCodec());
+  public Reader getReader(PartservConfigurator configurator, int partNum, BlockCache blockCache) throws IOException {
+    return new CueballReader(getLocalDir(configurator, partNum), keyHashSize, hasher, valueSize, hashIndexBits, getCompressionCodec(), mmapReads, blockCache);
   }
 
   private CompressionCodec getCompressionCodec() throws IOException {
@@ -164,14 +230,18 @@ public class Cueball implements StorageEngine {
 
   @Override
   public Writer getWriter(OutputStreamFactory outputStream, int partNum, int versionNumber, boolean base) throws IOException {
-    return new CueballWriter(outputStream.getOutputStream(partNum, getName(versionNumber, base)), keyHashSize, hasher, valueSize, getCompressionCodec(), hashIndexBits);
+    return new CueballWriter(outputStream.getOutputStream(partNum, getName(versionNumber, base)), keyHashSize, hasher, valueSize, getCompressionCodec(), hashIndexBits,
+        new CueballWriter.Options().setSubBlockEntries(subBlockEntries)
+            .setBloomFilterFalsePositiveRate(bloomFilterFalsePositiveRate)
+            .setCompressionThreads(compressionThreads));
   }
 
   @Override
   public Updater getUpdater(PartservConfigurator configurator, int partNum) throws IOException {
     String localDir = getLocalDir(configurator, partNum);
     return new CueballUpdater(localDir, keyHashSize, valueSize, fileOpsFactory.getFileOps(localDir, remoteDomainRoot
-        + "/" + partNum), cueballFileSelector, getCompressionCodec(), hashIndexBits);
+        + "/" + partNum), cueballFileSelector, getCompressionCodec(), hashIndexBits, subBlockEntries, bloomFilterFalsePositiveRate,
+        configurator.getMergeReadAheadBlocks(), compressionThreads, configurator.getStreamRemoteDeltas());
   }
 
   @Override
@@ -226,10 +296,12 @@ public class Cueball implements StorageEngine {
 
   @Override
   public String toString() {
-    return "Cueball [compressionCodecClass=" + compressionCodecClass
+    return "Cueball [bloomFilterFalsePositiveRate=" + bloomFilterFalsePositiveRate
+        + ", compressionCodecClass=" + compressionCodecClass
         + ", domainName=" + domainName + ", fileOpsFactory=" + fileOpsFactory
         + ", hashIndexBits=" + hashIndexBits + ", hasher=" + hasher
-        + ", keyHashSize=" + keyHashSize + ", remoteDomainRoot="
-        + remoteDomainRoot + ", valueSize=" + valueSize + "]";
+        + ", keyHashSize=" + keyHashSize + ", mmapReads=" + mmapReads
+        + ", remoteDomainRoot=" + remoteDomainRoot + ", subBlockEntries="
+        + subBlockEntries + ", valueSize=" + valueSize + "]";
   }
 }
@@ -25,6 +25,34 @@ import com.rapleaf.hank.compress.CompressionCodec;
 
 
 public final class CueballMerger implements ICueballMerger {
+  private final int readAheadBlocks;
+  private final int compressionThreads;
+  private final IFileOps deltaFileOps;
+
+  public CueballMerger() {
+    this(0, 0);
+  }
+
+  public CueballMerger(int readAheadBlocks, int compressionThreads) {
+    this(readAheadBlocks, compressionThreads, null);
+  }
+
+  /**
+   * @param readAheadBlocks how many blocks of each file to read and decompress
+   *          ahead of the merge, on a background thread per file. 0 reads them
+   *          on the merging thread as they're needed.
+   * @param compressionThreads how many threads compress the new base's blocks.
+   *          See {@link CueballWriter}. 0 compresses them on the merging
+   *          thread.
+   * @param deltaFileOps if not null, the deltas are remote files, and are
+   *          streamed through this instead of being read from local disk
+   */
+  public CueballMerger(int readAheadBlocks, int compressionThreads, IFileOps deltaFileOps) {
+    this.readAheadBlocks = readAheadBlocks;
+    this.compressionThreads = compressionThreads;
+    this.deltaFileOps = deltaFileOps;
+  }
+
   public void merge(final String latestBase,
       final SortedSet<String> deltas,
       final String newBasePath,
@@ -32,67 +60,90 @@ public final class CueballMerger implements ICueballMerger {
       final int valueSize,
       ValueTransformer transformer,
       int hashIndexBits,
-      CompressionCodec compressionCodec)
+      CompressionCodec compressionCodec,
+      int subBlockEntries,
+      double bloomFilterFalsePositiveRate)
   throws IOException {
     StreamBuffer[] sbs = new StreamBuffer[deltas.size() + 1];
+    CueballWriter writer = null;
 
-    // open the current base
-    StreamBuffer base = new StreamBuffer(latestBase, 0,
-        keyHashSize, valueSize, hashIndexBits, compressionCodec);
-    sbs[0] = base;
-
-    // open all the deltas
-    int i = 1;
-    for (String deltaPath : deltas) {
-      StreamBuffer db = new StreamBuffer(deltaPath, i,
-          keyHashSize, valueSize, hashIndexBits, compressionCodec);
-      sbs[i++] = db;
-    }
+    try {
+      // open the current base
+      StreamBuffer base = new StreamBuffer(latestBase, 0,
+          keyHashSize, valueSize, hashIndexBits, compressionCodec, readAheadBlocks);
+      sbs[0] = base;
 
-    // output stream for the new base to be written. intentionally unbuffered -
-    // the writer below will do that on its own.
-    OutputStream newBaseStream = new FileOutputStream(newBasePath);
-
-    // note that we intentionally omit the hasher here, since it will *not* be
-    // used
-    CueballWriter writer = new CueballWriter(newBaseStream, keyHashSize, null, valueSize, compressionCodec, hashIndexBits);
-
-    while (true) {
-      StreamBuffer least = null;
-      for (i = 0; i < sbs.length; i++) {
-        boolean remaining = sbs[i].anyRemaining();
-        if (remaining) {
-          if (least == null) {
-            least = sbs[i];
-          } else {
-            int comparison = least.compareTo(sbs[i]);
-            if (comparison == 0) {
-              least.consume();
-              least = sbs[i];
-            } else if (comparison == 1) {
-              least = sbs[i];
-            }
-          }
+      // open all the deltas
+      int i = 1;
+      for (String deltaPath : deltas) {
+        StreamBuffer db;
+        if (deltaFileOps == null) {
+          db = new StreamBuffer(deltaPath, i,
+              keyHashSize, valueSize, hashIndexBits, compressionCodec, readAheadBlocks);
+        } else {
+          db = new StreamBuffer(deltaFileOps, deltaPath, i,
+              keyHashSize, valueSize, hashIndexBits, compressionCodec, readAheadBlocks);
         }
+        sbs[i++] = db;
       }
 
-      if (least == null) {
-        break;
-      }
+      // output stream for the new base to be written. intentionally unbuffered -
+      // the writer below will do that on its own.
+      OutputStream newBaseStream = new FileOutputStream(newBasePath);
+
+      // note that we intentionally omit the hasher here, since it will *not* be
+      // used
+      writer = new CueballWriter(newBaseStream, keyHashSize, null, valueSize, compressionCodec, hashIndexBits,
+          new CueballWriter.Options().setSubBlockEntries(subBlockEntries)
+              .setBloomFilterFalsePositiveRate(bloomFilterFalsePositiveRate)
+              .setCompressionThreads(compressionThreads));
 
-      if (transformer != null) {
-        transformer.transform(least.getBuffer(), least.getCurrentOffset() + keyHashSize, least.getIndex());
+      // the stream with the least key comes out on top, so each record costs
+      // O(log(streams)) comparisons rather than a scan of every stream
+      StreamBufferHeap heap = new StreamBufferHeap(sbs.length);
+      for (StreamBuffer sb : sbs) {
+        if (sb.anyRemaining()) {
+          heap.add(sb);
+        }
       }
-      final ByteBuffer keyHash = ByteBuffer.wrap(least.getBuffer(), least.getCurrentOffset(), keyHashSize);
-      final ByteBuffer valueBytes = ByteBuffer.wrap(least.getBuffer(), least.getCurrentOffset() + keyHashSize, valueSize);
-      writer.writeHash(keyHash, valueBytes);
-      least.consume();
-    }
 
-    for (StreamBuffer sb : sbs) {
-      sb.close();
-    }
+      while (!heap.isEmpty()) {
+        StreamBuffer least = heap.poll();
+
+        // older versions of the same key come out right after it, and are
+        // superseded by it
+        while (!heap.isEmpty() && heap.peek().compareTo(least) == 0) {
+          StreamBuffer older = heap.poll();
+          older.consume();
+          if (older.anyRemaining()) {
+            heap.add(older);
+          }
+        }
 
-    writer.close();
+        if (transformer != null) {
+          transformer.transform(least.getBuffer(), least.getCurrentOffset() + keyHashSize, least.getIndex());
+        }
+        final ByteBuffer keyHash = ByteBuffer.wrap(least.getBuffer(), least.getCurrentOffset(), keyHashSize);
+        final ByteBuffer valueBytes = ByteBuffer.wrap(least.getBuffer(), least.getCurrentOffset() + keyHashSize, valueSize);
+        writer.writeHash(keyHash, valueBytes);
+        least.consume();
+        if (least.anyRemaining()) {
+          heap.add(least);
+        }
+      }
+      writer.close();
+    } finally {
+      // if the merge failed, stop the writer's compression threads. once it's
+      // closed, this does nothing.
+      if (writer != null) {
+        writer.abort();
+      }
+      // stops their read-ahead threads, even if the merge failed
+      for (StreamBuffer sb : sbs) {
+        if (sb != null) {
+          sb.close();
+        }
+      }
+    }
   }
 }
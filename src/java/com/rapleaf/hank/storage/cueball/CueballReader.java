@@ -21,23 +21,40 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
 import com.rapleaf.hank.compress.CompressionCodec;
+import com.rapleaf.hank.compress.NoCompressionCodec;
 import com.rapleaf.hank.hasher.Hasher;
+import com.rapleaf.hank.storage.BlockCache;
 import com.rapleaf.hank.storage.Reader;
 import com.rapleaf.hank.storage.Result;
 import com.rapleaf.hank.util.Bytes;
+import com.rapleaf.hank.util.MemoryMappedFile;
 
 public class CueballReader implements Reader {
 
   private final Hasher hasher;
   private final int valueSize;
-  private final long[] hashIndex;
+  private final HashIndex hashIndex;
   private final FileChannel channel;
+  private final MemoryMappedFile mappedData;
+  private final long dataLength;
   private final int keyHashSize;
   private final int fullRecordSize;
   private final CompressionCodec compressionCodec;
   private int maxUncompressedBufferSize;
   private int maxCompressedBufferSize;
   private final HashPrefixCalculator prefixer;
+  private final BlockCache blockCache;
+  private final long fileId;
+  private final boolean subIndexed;
+  private final BloomFilter bloomFilter;
+  // readers are shared by all the server's worker threads, so each thread
+  // hashes keys into its own buffer
+  private final ThreadLocal<byte[]> keyHashes = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[keyHashSize];
+    }
+  };
 
   public CueballReader(String partitionRoot,
       int keyHashSize,
@@ -45,6 +62,25 @@ public class CueballReader implements Reader {
       int valueSize,
       int hashIndexBits,
       CompressionCodec compressionCodec)
+  throws IOException {
+    this(partitionRoot, keyHashSize, hasher, valueSize, hashIndexBits, compressionCodec, false, null);
+  }
+
+  /**
+   * @param mmapReads if true, the base's data section is memory mapped and
+   *          blocks are decoded straight from the mapping rather than read
+   *          through the FileChannel on every request.
+   * @param blockCache if not null, decompressed blocks are cached here. Only
+   *          used when the domain is actually compressed.
+   */
+  public CueballReader(String partitionRoot,
+      int keyHashSize,
+      Hasher hasher,
+      int valueSize,
+      int hashIndexBits,
+      CompressionCodec compressionCodec,
+      boolean mmapReads,
+      BlockCache blockCache)
   throws IOException {
     this.keyHashSize = keyHashSize;
     this.hasher = hasher;
@@ -52,52 +88,128 @@ public class CueballReader implements Reader {
     this.compressionCodec = compressionCodec;
     this.fullRecordSize = valueSize + keyHashSize;
     this.prefixer = new HashPrefixCalculator(hashIndexBits);
+    // there's no decompression work to save on uncompressed domains
+    this.blockCache = compressionCodec instanceof NoCompressionCodec ? null : blockCache;
+    this.fileId = BlockCache.getNextFileId();
 
-    channel = new FileInputStream(Cueball.getBases(partitionRoot).last()).getChannel();
+    FileChannel baseChannel = new FileInputStream(Cueball.getBases(partitionRoot).last()).getChannel();
 
-    Footer footer = new Footer(channel, hashIndexBits);
+    Footer footer = new Footer(baseChannel, hashIndexBits);
+    // whether the blocks have a sub-index or there's a Bloom filter is up to
+    // the base, not the options the domain has now
+    subIndexed = footer.isSubIndexed();
 
-    hashIndex = footer.getHashIndex();
+    // the footer's long[] is only needed until we've built the compact copy
+    hashIndex = new HashIndex(footer.getHashIndex(), footer.getDataLength());
     maxUncompressedBufferSize = footer.getMaxUncompressedBufferSize();
     maxCompressedBufferSize = footer.getMaxCompressedBufferSize();
+    dataLength = footer.getDataLength();
+    if (footer.hasBloomFilter()) {
+      // kept in memory, and used to skip reading blocks for most absent keys
+      bloomFilter = BloomFilter.read(baseChannel, footer.getBloomFilterEnd());
+    } else {
+      bloomFilter = null;
+    }
+
+    if (mmapReads) {
+      mappedData = new MemoryMappedFile(baseChannel, dataLength);
+      // the mapping stays valid after the channel is closed
+      baseChannel.close();
+      channel = null;
+    } else {
+      mappedData = null;
+      channel = baseChannel;
+    }
   }
 
   @Override
   public void get(ByteBuffer key, Result result) throws IOException {
     result.requiresBufferSize(maxCompressedBufferSize + maxUncompressedBufferSize);
 
-    // TODO: want to reuse this.
-    byte[] keyHash = new byte[keyHashSize];
+    byte[] keyHash = keyHashes.get();
     hasher.hash(key, keyHash);
 
+    if (bloomFilter != null
+        && !bloomFilter.mightContain(BloomFilter.fingerprint(keyHash, 0, keyHashSize))) {
+      result.notFound();
+      return;
+    }
+
     int hashPrefix = prefixer.getHashPrefix(keyHash, 0);
-    long baseOffset = hashIndex[hashPrefix];
+    long baseOffset = hashIndex.getBlockStart(hashPrefix);
 
     // by default, we didn't find what we were looking for
     result.notFound();
 
     // baseOffset of -1 means that our hashPrefix doesn't map to any blocks
     if (baseOffset >= 0) {
+      final int blockLength = (int) (hashIndex.getBlockEnd(hashPrefix) - baseOffset);
+
+      if (mappedData != null && compressionCodec instanceof NoCompressionCodec) {
+        getFromMappedUncompressedBlock(baseOffset, blockLength, keyHash, result);
+        return;
+      }
+
+      // sub-indexed blocks are cached one sub-block at a time, below
+      if (blockCache != null && !subIndexed) {
+        byte[] block = blockCache.get(fileId, baseOffset);
+        if (block != null) {
+          copyValue(block, getValueOffset(block, 0, block.length, keyHash), result);
+          return;
+        }
+      }
+
       // set up to read a chunk from the datafile
       ByteBuffer buffer = result.getBuffer();
       buffer.rewind();
-      buffer.limit(maxCompressedBufferSize);
-      int bytesRead = channel.read(buffer, baseOffset);
+      buffer.limit(blockLength);
+      int bytesRead;
+      if (mappedData != null) {
+        bytesRead = blockLength;
+        mappedData.get(baseOffset, buffer.array(), 0, bytesRead);
+      } else {
+        bytesRead = channel.read(buffer, baseOffset);
+      }
+
+      int compressedStart = 0;
+      int compressedLength = bytesRead;
+      if (subIndexed) {
+        // only the one sub-block that could hold our key needs decompressing
+        int subBlock = BlockSubIndex.find(buffer.array(), 0, keyHashSize, keyHash);
+        if (subBlock < 0) {
+          return;
+        }
+        compressedStart = BlockSubIndex.getSubBlockStart(buffer.array(), 0, keyHashSize, subBlock);
+        compressedLength = BlockSubIndex.getSubBlockEnd(buffer.array(), 0, keyHashSize, subBlock) - compressedStart;
+
+        if (blockCache != null) {
+          byte[] block = blockCache.get(fileId, baseOffset + compressedStart);
+          if (block != null) {
+            copyValue(block, getValueOffset(block, 0, block.length, keyHash), result);
+            return;
+          }
+        }
+      }
 
       // decompress from the beginning of the buffer into the unoccupied end of
       // the buffer
       final int uncompressedStart = bytesRead;
       int decompressedLength = compressionCodec.decompress(buffer.array(),
-          0,
-          bytesRead, buffer.array(),
+          compressedStart,
+          compressedLength,
+          buffer.array(),
           uncompressedStart);
 
-      // scan the chunk we read to find a matching key, if there is one,
+      if (blockCache != null) {
+        blockCache.put(fileId, baseOffset + compressedStart, buffer.array(), uncompressedStart, decompressedLength);
+      }
+
+      // search the chunk we read to find a matching key, if there is one,
       // returning the recordfile offset
       int bufferOffset = getValueOffset(buffer.array(),
           uncompressedStart,
           uncompressedStart + decompressedLength,
-          ByteBuffer.wrap(keyHash));
+          keyHash);
 
       // -1 means that we didn't find the key
       if (bufferOffset > -1) {
@@ -108,23 +220,90 @@ public class CueballReader implements Reader {
     }
   }
 
-  private int getValueOffset(byte[] keyfileBufferChunk, int off, int limit, ByteBuffer key) {
-    for (; off < limit; off += fullRecordSize) {
-      int comparison = Bytes.compareBytesUnsigned(keyfileBufferChunk, off, 
-          key.array(), key.arrayOffset() + key.position(),
-          keyHashSize);
-      // found match
+  private void copyValue(byte[] block, int valueOffset, Result result) {
+    if (valueOffset > -1) {
+      ByteBuffer buffer = result.getBuffer();
+      System.arraycopy(block, valueOffset, buffer.array(), 0, valueSize);
+      buffer.position(0);
+      buffer.limit(valueSize);
+      result.found();
+    }
+  }
+
+  /**
+   * Uncompressed blocks can be searched in place, so only the value itself has
+   * to be copied out of the mapping.
+   */
+  private void getFromMappedUncompressedBlock(long baseOffset, int blockLength, byte[] keyHash, Result result) {
+    int low = 0;
+    int high = blockLength / fullRecordSize - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final long off = baseOffset + (long) mid * fullRecordSize;
+      final int comparison = compareMapped(off, keyHash);
       if (comparison == 0) {
-        return off+keyHashSize;
+        ByteBuffer buffer = result.getBuffer();
+        mappedData.get(off + keyHashSize, buffer.array(), 0, valueSize);
+        buffer.position(0);
+        buffer.limit(valueSize);
+        result.found();
+        return;
+      } else if (comparison < 0) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+  }
+
+  private int compareMapped(long off, byte[] keyHash) {
+    for (int i = 0; i < keyHashSize; i++) {
+      final int ab = mappedData.get(off + i) & 0xff;
+      final int bb = keyHash[i] & 0xff;
+      if (ab > bb) {
+        return 1;
+      } else if (ab < bb) {
+        return -1;
       }
+    }
+    return 0;
+  }
 
-      // passed the spot where our key could have been found, so not going to
-      // find it 
-      if (comparison == 1) {
-        break;
+  /**
+   * Records within a block are fixed-width and sorted by key hash, so we can
+   * binary search them.
+   */
+  private int getValueOffset(byte[] keyfileBufferChunk, int off, int limit, byte[] keyHash) {
+    int low = 0;
+    int high = (limit - off) / fullRecordSize - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int recordOffset = off + mid * fullRecordSize;
+      final int comparison = Bytes.compareBytesUnsigned(keyfileBufferChunk, recordOffset,
+          keyHash, 0, keyHashSize);
+      // found match
+      if (comparison == 0) {
+        return recordOffset + keyHashSize;
+      } else if (comparison < 0) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
       }
     }
     // looked everywhere, didn't find it!
     return -1;
   }
+
+  @Override
+  public void close() throws IOException {
+    // unmapped right away, rather than holding on to the address space and
+    // page cache until the reader is collected. the part daemon only closes
+    // readers that no request is using anymore.
+    if (mappedData != null) {
+      mappedData.close();
+    }
+    if (channel != null) {
+      channel.close();
+    }
+  }
 }
@@ -19,6 +19,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.TreeSet;
 
 import com.rapleaf.hank.compress.CompressionCodec;
 import com.rapleaf.hank.storage.Updater;
@@ -32,6 +33,9 @@ public class CueballUpdater implements Updater {
   private final ICueballMerger merger;
   private final CompressionCodec compressionCodec;
   private final int hashIndexBits;
+  private final int subBlockEntries;
+  private final double bloomFilterFalsePositiveRate;
+  private final boolean streamRemoteDeltas;
 
   CueballUpdater(String localPartitionRoot,
       int keyHashSize,
@@ -39,7 +43,27 @@ public class CueballUpdater implements Updater {
       IFetcher fetcher,
       ICueballMerger merger,
       CompressionCodec compressionCodec,
-      int hashIndexBits)
+      int hashIndexBits,
+      int subBlockEntries,
+      double bloomFilterFalsePositiveRate)
+  {
+    this(localPartitionRoot, keyHashSize, valueSize, fetcher, merger, compressionCodec, hashIndexBits, subBlockEntries, bloomFilterFalsePositiveRate, false);
+  }
+
+  /**
+   * @param streamRemoteDeltas if true, the deltas are left remote, and
+   *          <i>merger</i> has to read them from there
+   */
+  CueballUpdater(String localPartitionRoot,
+      int keyHashSize,
+      int valueSize,
+      IFetcher fetcher,
+      ICueballMerger merger,
+      CompressionCodec compressionCodec,
+      int hashIndexBits,
+      int subBlockEntries,
+      double bloomFilterFalsePositiveRate,
+      boolean streamRemoteDeltas)
   {
     this.localPartitionRoot = localPartitionRoot;
     this.keyHashSize = keyHashSize;
@@ -48,6 +72,9 @@ public class CueballUpdater implements Updater {
     this.merger = merger;
     this.compressionCodec = compressionCodec;
     this.hashIndexBits = hashIndexBits;
+    this.subBlockEntries = subBlockEntries;
+    this.bloomFilterFalsePositiveRate = bloomFilterFalsePositiveRate;
+    this.streamRemoteDeltas = streamRemoteDeltas;
   }
 
   public CueballUpdater(String localPartitionRoot,
@@ -56,24 +83,73 @@ public class CueballUpdater implements Updater {
       IFileOps fileOps,
       IFileSelector fileSelector,
       CompressionCodec compressionCodec,
-      int hashIndexBits)
+      int hashIndexBits,
+      int subBlockEntries,
+      double bloomFilterFalsePositiveRate)
+  {
+    this(localPartitionRoot,
+        keyHashSize,
+        valueSize,
+        fileOps,
+        fileSelector,
+        compressionCodec,
+        hashIndexBits,
+        subBlockEntries,
+        bloomFilterFalsePositiveRate,
+        0,
+        0,
+        false);
+  }
+
+  /**
+   * @param mergeReadAheadBlocks how many blocks of each base and delta to read
+   *          ahead of the merge
+   * @param compressionThreads how many threads compress the merged base
+   * @param streamRemoteDeltas if true, deltas are merged straight from their
+   *          remote copies instead of being copied to local first
+   * @see CueballMerger#CueballMerger(int, int, IFileOps)
+   */
+  public CueballUpdater(String localPartitionRoot,
+      int keyHashSize,
+      int valueSize,
+      IFileOps fileOps,
+      IFileSelector fileSelector,
+      CompressionCodec compressionCodec,
+      int hashIndexBits,
+      int subBlockEntries,
+      double bloomFilterFalsePositiveRate,
+      int mergeReadAheadBlocks,
+      int compressionThreads,
+      boolean streamRemoteDeltas)
   {
     this(localPartitionRoot,
         keyHashSize,
         valueSize,
         new Fetcher(fileOps, fileSelector),
-        new CueballMerger(),
+        new CueballMerger(mergeReadAheadBlocks, compressionThreads, streamRemoteDeltas ? fileOps : null),
         compressionCodec,
-        hashIndexBits);
+        hashIndexBits,
+        subBlockEntries,
+        bloomFilterFalsePositiveRate,
+        streamRemoteDeltas);
   }
 
   @Override
   public void update(int toVersion, Set<Integer> excludeVersions) throws IOException {
-    fetcher.fetch(getLocalVersionNumber(), toVersion, excludeVersions);
-    resolveLocalDir();
+    if (streamRemoteDeltas) {
+      SortedSet<String> remoteDeltas = fetcher.fetch(getLocalVersionNumber(), toVersion, excludeVersions, Cueball.DELTA_REGEX);
+      resolveLocalDir(remoteDeltas);
+    } else {
+      fetcher.fetch(getLocalVersionNumber(), toVersion, excludeVersions);
+      resolveLocalDir(null);
+    }
   }
 
-  private void resolveLocalDir() throws IOException {
+  /**
+   * @param remoteDeltas the deltas that were left remote, or null if they
+   *          were all copied to local
+   */
+  private void resolveLocalDir(SortedSet<String> remoteDeltas) throws IOException {
     SortedSet<String> bases = Cueball.getBases(localPartitionRoot);
     SortedSet<String> deltas = Cueball.getDeltas(localPartitionRoot);
 
@@ -83,7 +159,19 @@ public class CueballUpdater implements Updater {
           + localPartitionRoot + " after the fetcher ran!");
     }
     String latestBase = bases.last();
-    SortedSet<String> relevantDeltas = deltas.tailSet(latestBase);
+    SortedSet<String> relevantDeltas;
+    if (remoteDeltas == null) {
+      relevantDeltas = deltas.tailSet(latestBase);
+    } else {
+      // the remote deltas are in another directory, so they can't be compared
+      // with the base by path
+      relevantDeltas = new TreeSet<String>();
+      for (String remoteDelta : remoteDeltas) {
+        if (Cueball.parseVersionNumber(remoteDelta) >= Cueball.parseVersionNumber(latestBase)) {
+          relevantDeltas.add(remoteDelta);
+        }
+      }
+    }
 
     String newBasePath = localPartitionRoot + "/"
         + Cueball.padVersion(Cueball.parseVersionNumber(relevantDeltas.last()))
@@ -95,7 +183,9 @@ public class CueballUpdater implements Updater {
         valueSize,
         null,
         hashIndexBits,
-        compressionCodec);
+        compressionCodec,
+        subBlockEntries,
+        bloomFilterFalsePositiveRate);
 
     // delete all the old bases
     for (String oldBase : bases) {
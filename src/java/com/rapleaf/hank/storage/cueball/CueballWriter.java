@@ -19,6 +19,13 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import com.rapleaf.hank.compress.CompressionCodec;
 import com.rapleaf.hank.hasher.Hasher;
@@ -29,6 +36,10 @@ import com.rapleaf.hank.util.EncodingHelper;
 /**
  * Note that the current implementation does not support writing partitions with
  * more than 20000 entries per block.
+ * 
+ * Blocks can optionally be compressed on a small pool of threads while the
+ * next ones are filled. They're still written to the stream in order, so the
+ * file is the same either way.
  */
 public class CueballWriter implements Writer {
   private static final int DEFAULT_NUMBER_OF_ENTRIES = 20000;
@@ -37,8 +48,11 @@ public class CueballWriter implements Writer {
   private final Hasher hasher;
   private final int valueSize;
   private final CompressionCodec compressionCodec;
+  private final int subBlockEntries;
+  private final double bloomFilterFalsePositiveRate;
 
-  private final byte[] uncompressedBuffer;
+  // the block being filled
+  private byte[] uncompressedBuffer;
   private final byte[] compressedBuffer;
   private final byte[] keyHashBytes;
   private final byte[] previousKeyHashBytes;
@@ -56,21 +70,117 @@ public class CueballWriter implements Writer {
   private long maxUncompressedBlockSize;
   private long maxCompressedBlockSize;
 
+  // fingerprints of every key hash written, when we need a Bloom filter
+  private long[] fingerprints;
+  private int numFingerprints = 0;
+
+  // only used with parallel compression: the blocks being compressed, oldest
+  // first, and the ones that have been written out and can be filled again
+  private final ExecutorService compressionExecutor;
+  private final int maxPendingBlocks;
+  private final LinkedList<Future<Block>> pendingBlocks = new LinkedList<Future<Block>>();
+  private final LinkedList<Block> freeBlocks = new LinkedList<Block>();
+  private Block currentBlock;
+
+  private boolean finished = false;
+
+  /**
+   * The optional features of a cueball file. Readers find out which ones a
+   * file has from its footer, so they can change from one version to the
+   * next.
+   */
+  public static final class Options {
+    private int subBlockEntries = 0;
+    private double bloomFilterFalsePositiveRate = 0;
+    private int compressionThreads = 0;
+
+    /**
+     * @param subBlockEntries if positive and the domain is compressed, each
+     *          block is compressed as a series of sub-blocks of this many
+     *          entries behind a sub-index. See {@link BlockSubIndex}.
+     */
+    public Options setSubBlockEntries(int subBlockEntries) {
+      this.subBlockEntries = subBlockEntries;
+      return this;
+    }
+
+    /**
+     * @param bloomFilterFalsePositiveRate if positive, a {@link BloomFilter}
+     *          of all the key hashes written is stored before the footer.
+     *          Building it holds 8 bytes per entry in memory until the writer
+     *          is closed.
+     */
+    public Options setBloomFilterFalsePositiveRate(double bloomFilterFalsePositiveRate) {
+      this.bloomFilterFalsePositiveRate = bloomFilterFalsePositiveRate;
+      return this;
+    }
+
+    /**
+     * @param compressionThreads if positive, completed blocks are compressed
+     *          on this many threads while the writer moves on to the next
+     *          ones. About twice that many blocks are held in memory at once.
+     *          The compression codec must be safe to share between threads.
+     */
+    public Options setCompressionThreads(int compressionThreads) {
+      this.compressionThreads = compressionThreads;
+      return this;
+    }
+  }
+
   public CueballWriter(OutputStream outputStream,
       int keyHashSize,
       Hasher hasher,
       int valueSize,
       CompressionCodec compressionCodec,
       int hashIndexBits) {
+    this(outputStream, keyHashSize, hasher, valueSize, compressionCodec, hashIndexBits, new Options());
+  }
+
+  public CueballWriter(OutputStream outputStream,
+      int keyHashSize,
+      Hasher hasher,
+      int valueSize,
+      CompressionCodec compressionCodec,
+      int hashIndexBits,
+      Options options) {
+    final int subBlockEntries = options.subBlockEntries;
+    final double bloomFilterFalsePositiveRate = options.bloomFilterFalsePositiveRate;
+    final int compressionThreads = options.compressionThreads;
     this.stream = outputStream;
     this.keyHashSize = keyHashSize;
     this.hasher = hasher;
     this.valueSize = valueSize;
     this.compressionCodec = compressionCodec;
+    this.subBlockEntries = BlockSubIndex.isEnabled(subBlockEntries, compressionCodec) ? subBlockEntries : 0;
+    this.bloomFilterFalsePositiveRate = bloomFilterFalsePositiveRate;
+    if (bloomFilterFalsePositiveRate > 0) {
+      fingerprints = new long[1024];
+    }
 
-    uncompressedBuffer = new byte[(keyHashSize + valueSize)
-        * DEFAULT_NUMBER_OF_ENTRIES];
-    compressedBuffer = new byte[compressionCodec.getMaxCompressBufferSize(uncompressedBuffer.length)];
+    if (compressionThreads > 0) {
+      compressionExecutor = Executors.newFixedThreadPool(compressionThreads, new ThreadFactory() {
+        private int threadNum = 0;
+
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "CueballWriter compressor #" + threadNum++);
+          // a writer that's abandoned without being closed shouldn't keep the
+          // JVM alive
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      maxPendingBlocks = 2 * compressionThreads;
+      // each block compresses into its own buffer
+      compressedBuffer = null;
+      currentBlock = new Block();
+      uncompressedBuffer = currentBlock.uncompressed;
+    } else {
+      compressionExecutor = null;
+      maxPendingBlocks = 0;
+      uncompressedBuffer = new byte[getMaxUncompressedBlockSize()];
+      compressedBuffer = new byte[getMaxCompressedBlockSize()];
+    }
     keyHashBytes = new byte[keyHashSize];
     previousKeyHashBytes = new byte[keyHashSize];
     Arrays.fill(previousKeyHashBytes, (byte) 0);
@@ -128,12 +238,11 @@ public class CueballWriter implements Writer {
     // buffer.
     if (lastHashPrefix == -1 || thisPrefix != lastHashPrefix) {
       // clear the uncompressed buffer and start over
-      clearUncompressed();
+      if (uncompressedOffset > 0) {
+        clearUncompressed();
+      }
 
       lastHashPrefix = thisPrefix;
-
-      // record the start index of the next block
-      hashIndex[thisPrefix] = bytesWritten;
     }
 
     // at this point, we're guaranteed to be ready to write to the buffer.
@@ -166,45 +275,185 @@ public class CueballWriter implements Writer {
         + keyHashSize, valueSize);
     uncompressedOffset += keyHashSize + valueSize;
     ++numEntriesInBlock;
+
+    if (fingerprints != null) {
+      if (numFingerprints == fingerprints.length) {
+        fingerprints = Arrays.copyOf(fingerprints, fingerprints.length * 2);
+      }
+      fingerprints[numFingerprints++] = BloomFilter.fingerprint(hashedKey.array(), hashedKey.arrayOffset()
+          + hashedKey.position(), keyHashSize);
+    }
   }
 
   private void clearUncompressed() throws IOException {
-    // compress the block
-    int compressedSize = compressionCodec.compress(uncompressedBuffer, 0, uncompressedOffset, compressedBuffer, 0);
+    if (compressionExecutor == null) {
+      int compressedSize = compress(uncompressedBuffer, uncompressedOffset, compressedBuffer);
+      writeBlock(lastHashPrefix, uncompressedOffset, compressedBuffer, compressedSize);
+    } else {
+      currentBlock.hashPrefix = lastHashPrefix;
+      currentBlock.uncompressedSize = uncompressedOffset;
+      pendingBlocks.add(compressionExecutor.submit(currentBlock));
+      // once enough blocks are being compressed, wait for the oldest one. that
+      // keeps the memory bounded, and frees up a block to fill next.
+      if (pendingBlocks.size() >= maxPendingBlocks) {
+        freeBlocks.add(writeOldestPendingBlock());
+      }
+      currentBlock = freeBlocks.isEmpty() ? new Block() : freeBlocks.removeFirst();
+      uncompressedBuffer = currentBlock.uncompressed;
+    }
+    // Reset offset and counter
+    uncompressedOffset = 0;
+    numEntriesInBlock = 0;
+  }
+
+  private int compress(byte[] uncompressed, int uncompressedSize, byte[] compressed) {
+    if (subBlockEntries > 0) {
+      return BlockSubIndex.compress(compressionCodec,
+          uncompressed,
+          uncompressedSize,
+          compressed,
+          keyHashSize,
+          keyHashSize + valueSize,
+          subBlockEntries);
+    } else {
+      return compressionCodec.compress(uncompressed, 0, uncompressedSize, compressed, 0);
+    }
+  }
+
+  private void writeBlock(int hashPrefix, int uncompressedSize, byte[] compressed, int compressedSize) throws IOException {
+    // record the start index of the block
+    hashIndex[hashPrefix] = bytesWritten;
+
     // write the compressed block to the data stream
-    stream.write(compressedBuffer, 0, compressedSize);
+    stream.write(compressed, 0, compressedSize);
     bytesWritten += compressedSize;
 
     // keep track of the max block sizes
-    if (uncompressedOffset > maxUncompressedBlockSize) {
-      maxUncompressedBlockSize = uncompressedOffset;
+    if (uncompressedSize > maxUncompressedBlockSize) {
+      maxUncompressedBlockSize = uncompressedSize;
     }
 
     if (compressedSize > maxCompressedBlockSize) {
       maxCompressedBlockSize = compressedSize;
     }
-    // Reset offset and counter
-    uncompressedOffset = 0;
-    numEntriesInBlock = 0;
+  }
+
+  private Block writeOldestPendingBlock() throws IOException {
+    Block block;
+    try {
+      block = pendingBlocks.removeFirst().get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for a block to be compressed", e);
+    } catch (ExecutionException e) {
+      // the file can't be finished without this block
+      abort();
+      throw new IOException("Failed to compress a block", e.getCause());
+    }
+    writeBlock(block.hashPrefix, block.uncompressedSize, block.compressed, block.compressedSize);
+    return block;
+  }
+
+  private int getMaxUncompressedBlockSize() {
+    return (keyHashSize + valueSize) * DEFAULT_NUMBER_OF_ENTRIES;
+  }
+
+  private int getMaxCompressedBlockSize() {
+    if (subBlockEntries > 0) {
+      return BlockSubIndex.getMaxBlockSize(compressionCodec,
+          keyHashSize,
+          keyHashSize + valueSize,
+          DEFAULT_NUMBER_OF_ENTRIES,
+          subBlockEntries);
+    } else {
+      return compressionCodec.getMaxCompressBufferSize(getMaxUncompressedBlockSize());
+    }
   }
 
   @Override
   public void close() throws IOException {
+    if (finished) {
+      return;
+    }
+    boolean written = false;
+    try {
+      writeRemainder();
+      written = true;
+    } finally {
+      if (!written) {
+        abort();
+      }
+    }
+    finished = true;
+    if (compressionExecutor != null) {
+      compressionExecutor.shutdownNow();
+    }
+  }
+
+  /**
+   * Give up on the file after a failed write: stop the compression threads,
+   * drop the blocks waiting on them and close the stream. The partially
+   * written file is left as it is. Does nothing once the writer has been
+   * closed or aborted.
+   */
+  public void abort() {
+    if (finished) {
+      return;
+    }
+    finished = true;
+    if (compressionExecutor != null) {
+      compressionExecutor.shutdownNow();
+      pendingBlocks.clear();
+      freeBlocks.clear();
+      currentBlock = null;
+    }
+    fingerprints = null;
+    try {
+      stream.close();
+    } catch (IOException e) {
+      // we're already giving up on it
+    }
+  }
+
+  private void writeRemainder() throws IOException {
     // clear the last block, if there is one
     if (uncompressedOffset > 0) {
       clearUncompressed();
     }
+    while (!pendingBlocks.isEmpty()) {
+      writeOldestPendingBlock();
+    }
 
-    // serialize the footer
-    byte[] footer = new byte[8 * hashIndex.length + 4 + 4];
+    if (fingerprints != null) {
+      BloomFilter bloomFilter = new BloomFilter(numFingerprints, bloomFilterFalsePositiveRate);
+      for (int i = 0; i < numFingerprints; i++) {
+        bloomFilter.add(fingerprints[i]);
+      }
+      fingerprints = null;
+      bloomFilter.write(stream);
+      bytesWritten += bloomFilter.getSerializedLength();
+    }
+
+    // serialize the footer. files that need a different layout to be read
+    // say so in a format trailer at the very end. see Footer.
+    final int flags = bloomFilterFalsePositiveRate > 0 ? Footer.FLAG_BLOOM_FILTER : 0;
+    final int formatTrailerLength = subBlockEntries > 0 || flags != 0 ? Footer.FORMAT_TRAILER_LENGTH : 0;
+    byte[] footer = new byte[8 * hashIndex.length + 4 + 4 + formatTrailerLength];
 
     for (int i = 0; i < hashIndex.length; i++) {
       EncodingHelper.encodeLittleEndianFixedWidthLong(hashIndex[i], footer, i * 8, 8);
     }
 
     // write the buffer size hints
-    EncodingHelper.encodeLittleEndianFixedWidthLong(maxUncompressedBlockSize, footer, footer.length - 8, 4);
-    EncodingHelper.encodeLittleEndianFixedWidthLong(maxCompressedBlockSize, footer, footer.length - 4, 4);
+    final int bufferSizesOffset = 8 * hashIndex.length;
+    EncodingHelper.encodeLittleEndianFixedWidthLong(maxUncompressedBlockSize, footer, bufferSizesOffset, 4);
+    EncodingHelper.encodeLittleEndianFixedWidthLong(maxCompressedBlockSize, footer, bufferSizesOffset + 4, 4);
+
+    if (formatTrailerLength > 0) {
+      EncodingHelper.encodeLittleEndianFixedWidthLong(subBlockEntries, footer, footer.length - 12, 4);
+      EncodingHelper.encodeLittleEndianFixedWidthLong(flags, footer, footer.length - 8, 4);
+      EncodingHelper.encodeLittleEndianFixedWidthLong(Footer.FORMAT_MAGIC & 0xffffffffL, footer, footer.length - 4, 4);
+    }
 
     stream.write(footer);
 
@@ -215,6 +464,23 @@ public class CueballWriter implements Writer {
     stream.close();
   }
 
+  /**
+   * A block to fill and then compress on one of the compression threads.
+   */
+  private final class Block implements Callable<Block> {
+    private final byte[] uncompressed = new byte[getMaxUncompressedBlockSize()];
+    private final byte[] compressed = new byte[getMaxCompressedBlockSize()];
+    private int hashPrefix;
+    private int uncompressedSize;
+    private int compressedSize;
+
+    @Override
+    public Block call() {
+      compressedSize = compress(uncompressed, uncompressedSize, compressed);
+      return this;
+    }
+  }
+
   @Override
   public long getNumBytesWritten() {
     return bytesWritten;
@@ -19,6 +19,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 import org.apache.log4j.Logger;
 
@@ -35,6 +37,11 @@ public final class Fetcher implements IFetcher {
 
   @Override
   public void fetch(int fromVersion, int toVersion, Set<Integer> excludeVersions) throws IOException {
+    fetch(fromVersion, toVersion, excludeVersions, null);
+  }
+
+  @Override
+  public SortedSet<String> fetch(int fromVersion, int toVersion, Set<Integer> excludeVersions, String remoteRegex) throws IOException {
     List<String> remoteFiles = fileOps.listFiles();
     LOG.debug("Remote files: " + remoteFiles);
 
@@ -48,9 +55,16 @@ public final class Fetcher implements IFetcher {
 
     List<String> filesToCopy = fileSelector.selectFilesToCopy(relevantFiles, fromVersion, toVersion, excludeVersions);
 
+    SortedSet<String> filesLeftRemote = new TreeSet<String>();
     for (String fileName : filesToCopy) {
-      LOG.debug("Copying " + fileName + " to local");
-      fileOps.copyToLocal(fileName);
+      if (remoteRegex != null && fileName.matches(remoteRegex)) {
+        LOG.debug("Leaving " + fileName + " to be read remotely");
+        filesLeftRemote.add(fileName);
+      } else {
+        LOG.debug("Copying " + fileName + " to local");
+        fileOps.copyToLocal(fileName);
+      }
     }
+    return filesLeftRemote;
   }
 }
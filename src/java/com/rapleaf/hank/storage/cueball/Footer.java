@@ -1,33 +1,94 @@
 package com.rapleaf.hank.storage.cueball;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
 import com.rapleaf.hank.util.EncodingHelper;
 
+/**
+ * The end of a cueball file:
+ *
+ * <pre>
+ * Bloom filter, if FLAG_BLOOM_FILTER is set (see BloomFilter)
+ * hash index (8 bytes per block, -1 if the block is empty)
+ * max uncompressed block size (4 bytes)
+ * max compressed block size (4 bytes)
+ * format trailer, only on files with sub-indexed blocks or a Bloom filter:
+ *   sub-block entries (4 bytes)
+ *   flags (4 bytes)
+ *   FORMAT_MAGIC (4 bytes)
+ * </pre>
+ *
+ * A file says for itself how it's laid out, so a base keeps being read
+ * correctly after its domain's options change. Files without a format
+ * trailer end in a block size, which is never negative, so they can't be
+ * mistaken for ones that have it.
+ */
 final class Footer {
+  static final int FORMAT_MAGIC = 0xcba11f00;
+  static final int FORMAT_TRAILER_LENGTH = 12;
+  static final int FLAG_BLOOM_FILTER = 1;
+
   private final long[] hashIndex;
   private final int maxUncompressedBufferSize;
   private final int maxCompressedBufferSize;
   private final long fileSize;
   private final int footerLength;
+  private final int subBlockEntries;
+  private final int flags;
+  private final long bloomFilterLength;
 
   public Footer(FileChannel channel, int hashIndexBits) throws IOException {
-    fileSize = channel.size();
+    this(readTail(channel, getMaxTailLength(channel.size(), hashIndexBits)), channel.size(), hashIndexBits);
+  }
 
-    final int hashIndexSize = 1 << hashIndexBits;
-    footerLength = hashIndexSize * 8 + 8;
+  /**
+   * Read the footer of a remote file, without copying the rest of it.
+   */
+  public Footer(IFileOps fileOps, String fileName, int hashIndexBits) throws IOException {
+    this(fileOps, fileName, fileOps.getFileLength(fileName), hashIndexBits);
+  }
+
+  private Footer(IFileOps fileOps, String fileName, long fileSize, int hashIndexBits) throws IOException {
+    this(readTail(fileOps, fileName, fileSize, getMaxTailLength(fileSize, hashIndexBits)), fileSize, hashIndexBits);
+  }
+
+  /**
+   * @param tail the last bytes of the file: at least the footer, preceded by
+   *          the Bloom filter's trailer if there is one
+   */
+  private Footer(byte[] tail, long fileSize, int hashIndexBits) throws IOException {
+    this.fileSize = fileSize;
+
+    final int formatTrailerLength;
+    if (tail.length >= 4 && (int) EncodingHelper.decodeLittleEndianFixedWidthLong(tail, tail.length - 4, 4) == FORMAT_MAGIC) {
+      formatTrailerLength = FORMAT_TRAILER_LENGTH;
+      subBlockEntries = (int) EncodingHelper.decodeLittleEndianFixedWidthLong(tail, tail.length - 12, 4);
+      if (subBlockEntries < 0) {
+        throw new IOException(String.format("Read an invalid number of sub-block entries of %d!", subBlockEntries));
+      }
+      flags = (int) EncodingHelper.decodeLittleEndianFixedWidthLong(tail, tail.length - 8, 4);
+      if ((flags & ~FLAG_BLOOM_FILTER) != 0) {
+        throw new IOException(String.format("Read unknown format flags %x!", flags));
+      }
+    } else {
+      formatTrailerLength = 0;
+      subBlockEntries = 0;
+      flags = 0;
+    }
 
-    byte[] footer = new byte[getFooterLength()];
-    int read = channel.read(ByteBuffer.wrap(footer), getFileSize() - getFooterLength());
-    if (read != getFooterLength()) {
-      throw new IOException("Tried to read " + getFooterLength() + " bytes of footer, but only got " + read + " bytes!");
+    final int hashIndexSize = 1 << hashIndexBits;
+    footerLength = hashIndexSize * 8 + 8 + formatTrailerLength;
+    final int footerOffset = tail.length - footerLength;
+    if (footerOffset < 0) {
+      throw new IOException("Tried to read " + footerLength + " bytes of footer, but the file only has " + tail.length + " bytes!");
     }
 
     hashIndex = new long[hashIndexSize];
     for (int i = 0; i < getHashIndex().length; i++) {
-      final long offset = EncodingHelper.decodeLittleEndianFixedWidthLong(footer, i * 8, 8);
+      final long offset = EncodingHelper.decodeLittleEndianFixedWidthLong(tail, footerOffset + i * 8, 8);
       if (offset < -1) {
         throw new IOException(String.format("Read an unexpectedly negative block offset (%d) at block position %d!", offset, i));
       }
@@ -37,14 +98,60 @@ final class Footer {
       getHashIndex()[i] = offset;
     }
 
-    maxUncompressedBufferSize = (int) EncodingHelper.decodeLittleEndianFixedWidthLong(footer, footer.length - 8, 4);
+    final int bufferSizesOffset = footerOffset + hashIndexSize * 8;
+    maxUncompressedBufferSize = (int) EncodingHelper.decodeLittleEndianFixedWidthLong(tail, bufferSizesOffset, 4);
     if (maxUncompressedBufferSize < 0) {
       throw new IOException(String.format("Read an invalid max uncompressed buffer size of %d!", maxUncompressedBufferSize));
     }
-    maxCompressedBufferSize = (int) EncodingHelper.decodeLittleEndianFixedWidthLong(footer, footer.length - 4, 4);
+    maxCompressedBufferSize = (int) EncodingHelper.decodeLittleEndianFixedWidthLong(tail, bufferSizesOffset + 4, 4);
     if (maxCompressedBufferSize < 0) {
       throw new IOException(String.format("Read an invalid max uncompressed buffer size of %d!", maxCompressedBufferSize));
     }
+
+    if (hasBloomFilter()) {
+      if (footerOffset < BloomFilter.TRAILER_LENGTH) {
+        throw new IOException("The file is too short to have a Bloom filter!");
+      }
+      bloomFilterLength = BloomFilter.getSerializedLength(tail, footerOffset - BloomFilter.TRAILER_LENGTH);
+    } else {
+      bloomFilterLength = 0;
+    }
+  }
+
+  /**
+   * @return how many bytes from the end of the file might be footer, format
+   *         trailer or Bloom filter trailer
+   */
+  private static int getMaxTailLength(long fileSize, int hashIndexBits) {
+    long maxTailLength = (1 << hashIndexBits) * 8 + 8 + FORMAT_TRAILER_LENGTH + BloomFilter.TRAILER_LENGTH;
+    return (int) Math.min(fileSize, maxTailLength);
+  }
+
+  private static byte[] readTail(FileChannel channel, int tailLength) throws IOException {
+    byte[] tail = new byte[tailLength];
+    int read = channel.read(ByteBuffer.wrap(tail), channel.size() - tailLength);
+    if (read != tailLength) {
+      throw new IOException("Tried to read " + tailLength + " bytes of footer, but only got " + read + " bytes!");
+    }
+    return tail;
+  }
+
+  private static byte[] readTail(IFileOps fileOps, String fileName, long fileSize, int tailLength) throws IOException {
+    byte[] tail = new byte[tailLength];
+    InputStream in = fileOps.getInputStream(fileName, fileSize - tailLength);
+    try {
+      int read = 0;
+      while (read < tailLength) {
+        int amountRead = in.read(tail, read, tailLength - read);
+        if (amountRead == -1) {
+          throw new IOException("Tried to read " + tailLength + " bytes of footer, but only got " + read + " bytes!");
+        }
+        read += amountRead;
+      }
+    } finally {
+      in.close();
+    }
+    return tail;
   }
 
   public long[] getHashIndex() {
@@ -66,8 +173,35 @@ final class Footer {
   public int getFooterLength() {
     return footerLength;
   }
+
+  /**
+   * @return the number of records in each of the file's sub-blocks, or 0 if
+   *         its blocks don't have a sub-index. See {@link BlockSubIndex}.
+   */
+  public int getSubBlockEntries() {
+    return subBlockEntries;
+  }
+
+  public boolean isSubIndexed() {
+    return subBlockEntries > 0;
+  }
+
+  /**
+   * @return whether a {@link BloomFilter} sits between the data and the
+   *         footer
+   */
+  public boolean hasBloomFilter() {
+    return (flags & FLAG_BLOOM_FILTER) != 0;
+  }
   
   public long getDataLength() {
+    return getFileSize() - getFooterLength() - bloomFilterLength;
+  }
+
+  /**
+   * @return the offset just past the end of the Bloom filter, if there is one
+   */
+  public long getBloomFilterEnd() {
     return getFileSize() - getFooterLength();
   }
 }
@@ -0,0 +1,118 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.storage.cueball;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A compact, off-heap copy of a base's hash index, for readers that keep it
+ * around for their whole lifetime.
+ *
+ * Rather than offsets with -1 for empty blocks, we store for each hash prefix
+ * the offset of the first block at or after it, plus a final entry holding the
+ * data length. That sequence never decreases, so a prefix's block spans from
+ * its entry to the next one and is empty when they're equal. Entries are stored
+ * in groups of {@link #GROUP_SIZE}, each as a fixed-width delta from an 8-byte
+ * group base, using as few bytes per delta as the largest group needs.
+ */
+final class HashIndex {
+  static final int GROUP_SIZE = 64;
+
+  private final ByteBuffer buffer;
+  private final int numEntries;
+  private final int deltasOffset;
+  private final int deltaWidth;
+
+  public HashIndex(long[] hashIndex, long dataLength) {
+    numEntries = hashIndex.length + 1;
+    long[] starts = new long[numEntries];
+    long next = dataLength;
+    starts[hashIndex.length] = next;
+    for (int i = hashIndex.length - 1; i >= 0; i--) {
+      if (hashIndex[i] >= 0) {
+        next = hashIndex[i];
+      }
+      starts[i] = next;
+    }
+
+    final int numGroups = (numEntries + GROUP_SIZE - 1) / GROUP_SIZE;
+    long maxDelta = 0;
+    for (int group = 0; group < numGroups; group++) {
+      final int last = Math.min(numEntries, (group + 1) * GROUP_SIZE) - 1;
+      maxDelta = Math.max(maxDelta, starts[last] - starts[group * GROUP_SIZE]);
+    }
+    deltaWidth = Math.max(1, (64 - Long.numberOfLeadingZeros(maxDelta) + 7) / 8);
+    deltasOffset = numGroups * 8;
+
+    buffer = ByteBuffer.allocateDirect(deltasOffset + numEntries * deltaWidth).order(ByteOrder.LITTLE_ENDIAN);
+    for (int group = 0; group < numGroups; group++) {
+      buffer.putLong(group * 8, starts[group * GROUP_SIZE]);
+    }
+    for (int i = 0; i < numEntries; i++) {
+      long delta = starts[i] - starts[i / GROUP_SIZE * GROUP_SIZE];
+      final int off = deltasOffset + i * deltaWidth;
+      for (int b = 0; b < deltaWidth; b++) {
+        buffer.put(off + b, (byte) (delta & 0xff));
+        delta >>>= 8;
+      }
+    }
+  }
+
+  /**
+   * @return the offset of the block for <i>hashPrefix</i>, or -1 if there is
+   *         no such block
+   */
+  public long getBlockStart(int hashPrefix) {
+    final long start = getEntry(hashPrefix);
+    return start == getEntry(hashPrefix + 1) ? -1 : start;
+  }
+
+  /**
+   * The end of a block is the start of the next non-empty block, or the end of
+   * the data if there isn't one.
+   */
+  public long getBlockEnd(int hashPrefix) {
+    return getEntry(hashPrefix + 1);
+  }
+
+  /**
+   * @return the number of hash prefixes
+   */
+  public int size() {
+    return numEntries - 1;
+  }
+
+  public int getDeltaWidth() {
+    return deltaWidth;
+  }
+
+  /**
+   * @return the number of off-heap bytes used
+   */
+  public int getSizeInBytes() {
+    return buffer.capacity();
+  }
+
+  private long getEntry(int i) {
+    long delta = 0;
+    final int off = deltasOffset + i * deltaWidth;
+    for (int b = deltaWidth - 1; b >= 0; b--) {
+      delta = (delta << 8) | (buffer.get(off + b) & 0xff);
+    }
+    return buffer.getLong(i / GROUP_SIZE * 8) + delta;
+  }
+}
@@ -1,10 +1,12 @@
 package com.rapleaf.hank.storage.cueball;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -41,6 +43,18 @@ public class HdfsFileOps implements IFileOps {
     fs.copyToLocalFile(remote, new Path(localRoot, remote.getName()));
   }
 
+  @Override
+  public InputStream getInputStream(String fileName, long offset) throws IOException {
+    FSDataInputStream in = fs.open(new Path(fileName));
+    in.seek(offset);
+    return in;
+  }
+
+  @Override
+  public long getFileLength(String fileName) throws IOException {
+    return fs.getFileStatus(new Path(fileName)).getLen();
+  }
+
   @Override
   public List<String> listFiles() throws IOException {
     FileStatus[] l = fs.listStatus(new Path(remoteRoot));
@@ -28,6 +28,8 @@ public interface ICueballMerger {
       final int valueSize,
       ValueTransformer transformer,
       int hashIndexBits,
-      CompressionCodec compressionCodec)
+      CompressionCodec compressionCodec,
+      int subBlockEntries,
+      double bloomFilterFalsePositiveRate)
   throws IOException;
 }
@@ -17,7 +17,15 @@ package com.rapleaf.hank.storage.cueball;
 
 import java.io.IOException;
 import java.util.Set;
+import java.util.SortedSet;
 
 public interface IFetcher {
   public void fetch(int fromVersion, int toVersion, Set<Integer> excludeVersions) throws IOException;
+
+  /**
+   * Like {@link #fetch(int, int, Set)}, but leave the files whose paths match
+   * <i>remoteRegex</i> where they are, so that they can be read in place.
+   * @return the remote paths of the files that weren't copied
+   */
+  public SortedSet<String> fetch(int fromVersion, int toVersion, Set<Integer> excludeVersions, String remoteRegex) throws IOException;
 }
@@ -16,6 +16,7 @@
 package com.rapleaf.hank.storage.cueball;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 /**
@@ -36,4 +37,22 @@ public interface IFileOps {
    * @throws IOException
    */
   public void copyToLocal(String fileName) throws IOException;
+
+  /**
+   * Open the specified file for reading in place, instead of copying it to
+   * local.
+   * @param fileName
+   * @param offset where to start reading from
+   * @return
+   * @throws IOException
+   */
+  public InputStream getInputStream(String fileName, long offset) throws IOException;
+
+  /**
+   * Get the length of the specified file in bytes.
+   * @param fileName
+   * @return
+   * @throws IOException
+   */
+  public long getFileLength(String fileName) throws IOException;
 }
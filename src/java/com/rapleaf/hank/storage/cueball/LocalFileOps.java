@@ -17,6 +17,7 @@ package com.rapleaf.hank.storage.cueball;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -60,6 +61,22 @@ public class LocalFileOps implements IFileOps {
     out.close();
   }
 
+  @Override
+  public InputStream getInputStream(String fileName, long offset) throws IOException {
+    FileInputStream in = new FileInputStream(fileName);
+    in.getChannel().position(offset);
+    return in;
+  }
+
+  @Override
+  public long getFileLength(String fileName) throws IOException {
+    File file = new File(fileName);
+    if (!file.isFile()) {
+      throw new FileNotFoundException(fileName);
+    }
+    return file.length();
+  }
+
   @Override
   public List<String> listFiles() throws IOException {
     File remoteFiles = new File(remoteRoot);
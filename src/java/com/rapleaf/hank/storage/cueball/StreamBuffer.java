@@ -21,29 +21,50 @@ package com.rapleaf.hank.storage.cueball;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import com.rapleaf.hank.compress.CompressionCodec;
 import com.rapleaf.hank.util.Bytes;
 
+/**
+ * Streams the records of a cueball file in order, a block at a time. With
+ * read-ahead, a background thread reads and decompresses the next few blocks
+ * while the current one is being consumed, so that a merge doesn't alternate
+ * between waiting on the disk and using the CPU.
+ */
 public final class StreamBuffer {
   private final int relativeIndex;
   private final int keyHashSize;
   private int currentOffset = 0;
   private int currentLimit = 0;
+  // the first (up to) 8 bytes of the current key as a big endian long, with
+  // the sign bit flipped, so that comparing prefixes as signed longs orders
+  // keys the same way comparing their bytes unsigned does
+  private long currentKeyPrefix;
   private final int fullRecordSize;
 
   private boolean complete;
-  private final FileChannel channel;
+  private final ReadableByteChannel channel;
 
   private final long[] hashIndex;
-  private final byte[] uncompressedBuffer;
+  // the block being consumed
+  private byte[] uncompressedBuffer;
   private final byte[] compressedBuffer;
 
   private int currentHashIndexIdx = -1;
   private final CompressionCodec compressionCodec;
+  private final boolean subIndexed;
   private final long dataLength;
 
+  // only used with read-ahead
+  private final ReadAheadThread readAheadThread;
+  private final BlockingQueue<Block> readBlocks;
+  private final BlockingQueue<byte[]> freeBuffers;
+
   public StreamBuffer(String filePath,
       int relativeIndex,
       int keyHashSize,
@@ -51,18 +72,97 @@ public final class StreamBuffer {
       int hashIndexBits,
       CompressionCodec compressionCodec)
   throws IOException {
+    this(filePath, relativeIndex, keyHashSize, valueSize, hashIndexBits, compressionCodec, 0);
+  }
+
+  /**
+   * @param readAheadBlocks how many blocks to read and decompress ahead of the
+   *          one being consumed, on a background thread. 0 reads each block
+   *          when it's needed, on the calling thread.
+   */
+  public StreamBuffer(String filePath,
+      int relativeIndex,
+      int keyHashSize,
+      int valueSize,
+      int hashIndexBits,
+      CompressionCodec compressionCodec,
+      int readAheadBlocks)
+  throws IOException {
+    this(new FileInputStream(filePath).getChannel(), filePath, relativeIndex, keyHashSize, valueSize, hashIndexBits, compressionCodec, readAheadBlocks);
+  }
+
+  /**
+   * Stream a remote file in place, instead of copying it to local first.
+   * @param readAheadBlocks how many blocks to read and decompress ahead of the
+   *          one being consumed, on a background thread. 0 reads each block
+   *          when it's needed, on the calling thread.
+   */
+  public StreamBuffer(IFileOps fileOps,
+      String fileName,
+      int relativeIndex,
+      int keyHashSize,
+      int valueSize,
+      int hashIndexBits,
+      CompressionCodec compressionCodec,
+      int readAheadBlocks)
+  throws IOException {
+    // the footer comes first, so there's no stream left open if it's bad
+    this(new Footer(fileOps, fileName, hashIndexBits),
+        Channels.newChannel(fileOps.getInputStream(fileName, 0)),
+        fileName, relativeIndex, keyHashSize, valueSize, compressionCodec, readAheadBlocks);
+  }
+
+  private StreamBuffer(FileChannel channel,
+      String filePath,
+      int relativeIndex,
+      int keyHashSize,
+      int valueSize,
+      int hashIndexBits,
+      CompressionCodec compressionCodec,
+      int readAheadBlocks)
+  throws IOException {
+    this(new Footer(channel, hashIndexBits), channel, filePath, relativeIndex, keyHashSize, valueSize, compressionCodec, readAheadBlocks);
+  }
+
+  /**
+   * @param channel positioned at the start of the file
+   */
+  private StreamBuffer(Footer footer,
+      ReadableByteChannel channel,
+      String fileName,
+      int relativeIndex,
+      int keyHashSize,
+      int valueSize,
+      CompressionCodec compressionCodec,
+      int readAheadBlocks) {
     this.relativeIndex = relativeIndex;
     this.compressionCodec = compressionCodec;
-    this.channel = new FileInputStream(filePath).getChannel();
+    this.subIndexed = footer.isSubIndexed();
+    this.channel = channel;
 
     this.keyHashSize = keyHashSize;
     this.fullRecordSize = valueSize + keyHashSize;
 
-    Footer footer = new Footer(channel, hashIndexBits);
     dataLength = footer.getDataLength();
     hashIndex = footer.getHashIndex();
-    uncompressedBuffer = new byte[footer.getMaxUncompressedBufferSize()];
     compressedBuffer = new byte[footer.getMaxCompressedBufferSize()];
+    uncompressedBuffer = new byte[footer.getMaxUncompressedBufferSize()];
+
+    if (readAheadBlocks > 0) {
+      readBlocks = new ArrayBlockingQueue<Block>(readAheadBlocks);
+      // one buffer per block that can be read ahead. the buffer of the block
+      // being consumed goes back to the pool once it's done.
+      freeBuffers = new ArrayBlockingQueue<byte[]>(readAheadBlocks);
+      for (int i = 0; i < readAheadBlocks; i++) {
+        freeBuffers.add(new byte[footer.getMaxUncompressedBufferSize()]);
+      }
+      readAheadThread = new ReadAheadThread(fileName);
+      readAheadThread.start();
+    } else {
+      readBlocks = null;
+      freeBuffers = null;
+      readAheadThread = null;
+    }
   }
 
   public boolean anyRemaining() throws IOException {
@@ -74,7 +174,31 @@ public final class StreamBuffer {
     }
 
     // refill the buffer
+    int decompressedSize;
+    if (readAheadThread == null) {
+      decompressedSize = readNextBlock(uncompressedBuffer);
+    } else {
+      decompressedSize = takeNextBlock();
+    }
+    if (decompressedSize < 0) {
+      // there are no more blocks. we're all done
+      complete = true;
+      return false;
+    }
 
+    // adjust the pointers 
+    currentOffset = 0;
+    currentLimit = decompressedSize;
+    loadKeyPrefix();
+    return true;
+  }
+
+  /**
+   * Read and decompress the next non-empty block into <i>buffer</i>.
+   * @return the decompressed size, or -1 if there are no more blocks
+   * @throws IOException
+   */
+  private int readNextBlock(byte[] buffer) throws IOException {
     // advance to the next non-empty block
     currentHashIndexIdx++;
     while (currentHashIndexIdx < hashIndex.length) {
@@ -85,9 +209,7 @@ public final class StreamBuffer {
     }
 
     if (currentHashIndexIdx >= hashIndex.length) {
-      // there are no more blocks. we're all done
-      complete = true;
-      return false;
+      return -1;
     }
 
     // there's at least one block left.
@@ -124,30 +246,81 @@ public final class StreamBuffer {
     // read the compressed block from disk into the compressed buffer
     final int compressedBytesRead = readFully(channel, compressedBuffer, blockLength);
     // decompress the compressed block into the uncompressed buffer
-    final int decompressedSize = compressionCodec.decompress(compressedBuffer, 0, compressedBytesRead, uncompressedBuffer, 0);
+    if (subIndexed) {
+      return BlockSubIndex.decompress(compressionCodec, compressedBuffer, 0, buffer, 0, keyHashSize);
+    } else {
+      return compressionCodec.decompress(compressedBuffer, 0, compressedBytesRead, buffer, 0);
+    }
+  }
 
-    // adjust the pointers 
-    currentOffset = 0;
-    currentLimit = decompressedSize;
-    return true;
+  /**
+   * Swap the consumed block for the next one the read-ahead thread has ready.
+   * @return the decompressed size, or -1 if there are no more blocks
+   */
+  private int takeNextBlock() throws IOException {
+    Block block;
+    try {
+      block = readBlocks.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the next block", e);
+    }
+    if (block.error != null) {
+      throw new IOException("Failed to read ahead", block.error);
+    }
+    if (block.size < 0) {
+      return -1;
+    }
+    freeBuffers.add(uncompressedBuffer);
+    uncompressedBuffer = block.buffer;
+    return block.size;
   }
 
+  /**
+   * @param other
+   * @return -1, 0 or 1, comparing the current keys as unsigned bytes
+   */
   public int compareTo(StreamBuffer other) {
+    if (currentKeyPrefix != other.currentKeyPrefix) {
+      return currentKeyPrefix < other.currentKeyPrefix ? -1 : 1;
+    }
+    if (keyHashSize <= 8) {
+      return 0;
+    }
     return Bytes.compareBytesUnsigned(uncompressedBuffer,
-        currentOffset,
+        currentOffset + 8,
         other.uncompressedBuffer,
-        other.getCurrentOffset(),
-        keyHashSize);
+        other.getCurrentOffset() + 8,
+        keyHashSize - 8);
   }
 
   public void consume() {
     currentOffset += fullRecordSize;
+    loadKeyPrefix();
+  }
+
+  private void loadKeyPrefix() {
+    if (currentOffset >= currentLimit) {
+      return;
+    }
+    int prefixLength = Math.min(8, keyHashSize);
+    long prefix = 0;
+    for (int i = 0; i < prefixLength; i++) {
+      prefix = (prefix << 8) | (uncompressedBuffer[currentOffset + i] & 0xff);
+    }
+    // shorter keys are padded with zeros, which doesn't change their order
+    prefix <<= 8 * (8 - prefixLength);
+    currentKeyPrefix = prefix ^ Long.MIN_VALUE;
   }
 
   public int getIndex() {
     return relativeIndex;
   }
 
+  /**
+   * @return the buffer holding the current block. With read-ahead, this
+   *         changes from one block to the next.
+   */
   public byte[] getBuffer() {
     return uncompressedBuffer;
   }
@@ -156,11 +329,78 @@ public final class StreamBuffer {
     return currentOffset;
   }
 
-  private static int readFully(FileChannel channel, byte[] buf, int readLength) throws IOException {
-    return channel.read(ByteBuffer.wrap(buf, 0, readLength));
+  private static int readFully(ReadableByteChannel channel, byte[] buf, int readLength) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(buf, 0, readLength);
+    // a remote stream may hand the block over in pieces
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new IOException("Unexpected end of file while reading a block!");
+      }
+    }
+    return readLength;
   }
 
   public void close() throws IOException {
+    if (readAheadThread != null) {
+      readAheadThread.interrupt();
+      try {
+        readAheadThread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
     channel.close();
   }
-}
\ No newline at end of file
+
+  /**
+   * A decompressed block, or the end of the file (a negative size), or the
+   * error that kept the next block from being read.
+   */
+  private static final class Block {
+    private final byte[] buffer;
+    private final int size;
+    private final Throwable error;
+
+    public Block(byte[] buffer, int size, Throwable error) {
+      this.buffer = buffer;
+      this.size = size;
+      this.error = error;
+    }
+  }
+
+  private final class ReadAheadThread extends Thread {
+    public ReadAheadThread(String fileName) {
+      super("StreamBuffer read ahead of " + fileName);
+      // a StreamBuffer that's never closed shouldn't keep the JVM alive
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          byte[] buffer = freeBuffers.take();
+          int size;
+          try {
+            size = readNextBlock(buffer);
+          } catch (Throwable t) {
+            // anything at all has to be handed over, or the merging thread
+            // would wait for this block forever. codecs report bad data with
+            // RuntimeExceptions, and a corrupt sub-index can index out of
+            // bounds.
+            if (!isInterrupted()) {
+              readBlocks.put(new Block(null, -1, t));
+            }
+            return;
+          }
+          readBlocks.put(new Block(buffer, size, null));
+          if (size < 0) {
+            return;
+          }
+        }
+      } catch (InterruptedException e) {
+        // closed
+      }
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.storage.cueball;
+
+/**
+ * A binary min-heap of StreamBuffers, ordered by their current keys. Between
+ * StreamBuffers on the same key, the one with the highest index (the newest
+ * delta) comes first. A StreamBuffer's key must not change while it's in the
+ * heap, so take it out before consuming from it.
+ */
+final class StreamBufferHeap {
+  private final StreamBuffer[] heap;
+  private int size = 0;
+
+  public StreamBufferHeap(int capacity) {
+    heap = new StreamBuffer[capacity];
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void add(StreamBuffer sb) {
+    int idx = size++;
+    // move parents down until sb's spot is found
+    while (idx > 0) {
+      int parent = (idx - 1) >>> 1;
+      if (!precedes(sb, heap[parent])) {
+        break;
+      }
+      heap[idx] = heap[parent];
+      idx = parent;
+    }
+    heap[idx] = sb;
+  }
+
+  /**
+   * @return the StreamBuffer with the least key, or null if the heap is empty
+   */
+  public StreamBuffer peek() {
+    return size == 0 ? null : heap[0];
+  }
+
+  /**
+   * Remove and return the StreamBuffer with the least key.
+   * @return null if the heap is empty
+   */
+  public StreamBuffer poll() {
+    if (size == 0) {
+      return null;
+    }
+    StreamBuffer least = heap[0];
+    StreamBuffer last = heap[--size];
+    heap[size] = null;
+    if (size > 0) {
+      siftDown(last);
+    }
+    return least;
+  }
+
+  // put sb in the root's place, and move it down to where it belongs
+  private void siftDown(StreamBuffer sb) {
+    int idx = 0;
+    while (true) {
+      int child = 2 * idx + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && precedes(heap[child + 1], heap[child])) {
+        child++;
+      }
+      if (!precedes(heap[child], sb)) {
+        break;
+      }
+      heap[idx] = heap[child];
+      idx = child;
+    }
+    heap[idx] = sb;
+  }
+
+  private static boolean precedes(StreamBuffer a, StreamBuffer b) {
+    int comparison = a.compareTo(b);
+    return comparison < 0 || (comparison == 0 && a.getIndex() > b.getIndex());
+  }
+}
@@ -36,6 +36,7 @@ import com.rapleaf.hank.compress.NoCompressionCodec;
 import com.rapleaf.hank.config.PartservConfigurator;
 import com.rapleaf.hank.hasher.Hasher;
 import com.rapleaf.hank.hasher.Murmur64Hasher;
+import com.rapleaf.hank.storage.BlockCache;
 import com.rapleaf.hank.storage.Deleter;
 import com.rapleaf.hank.storage.OutputStreamFactory;
 import com.rapleaf.hank.storage.Reader;
@@ -54,9 +55,11 @@ import com.rapleaf.hank.util.FsUtils;
  * Cueball under the hood.
  */
 public class Curly implements StorageEngine {
-  private static final Pattern BASE_OR_REGEX_PATTERN = Pattern.compile(".*(\\d{5})\\.((base)|(delta))\\.curly");
+  private static final Pattern BASE_OR_REGEX_PATTERN = Pattern.compile(".*(\\d{5})\\.((base)|(delta))\\.curly(stats)?");
   static final String BASE_REGEX = ".*\\d{5}\\.base\\.curly";
   static final String DELTA_REGEX = ".*\\d{5}\\.delta\\.curly";
+  static final String STATS_REGEX = ".*\\d{5}\\.((base)|(delta))\\.curlystats";
+  static final String STATS_SUFFIX = "stats";
 
   public static class Factory implements StorageEngineFactory {
     public static final String REMOTE_DOMAIN_ROOT_KEY = "remote_domain_root";
@@ -67,6 +70,9 @@ public class Curly implements StorageEngine {
     public static final String FILE_OPS_FACTORY_KEY = "file_ops_factory";
     public static final String HASHER_KEY = "hasher";
     private static final String COMPRESSION_CODEC = "compression_codec";
+    public static final String BLOOM_FILTER_FALSE_POSITIVE_RATE_KEY = "bloom_filter_false_positive_rate";
+    public static final String MMAP_READS_KEY = "mmap_reads";
+    public static final String COMPRESSION_THREADS_KEY = "compression_threads";
 
     private static final Set<String> REQUIRED_KEYS = new HashSet<String>(Arrays.asList(REMOTE_DOMAIN_ROOT_KEY, RECORD_FILE_READ_BUFFER_BYTES_KEY, HASH_INDEX_BITS_KEY, MAX_ALLOWED_PART_SIZE_KEY, KEY_HASH_SIZE_KEY, FILE_OPS_FACTORY_KEY, HASHER_KEY));
 
@@ -97,7 +103,11 @@ public class Curly implements StorageEngine {
       }
       final long maxAllowedPartSize = options.get(MAX_ALLOWED_PART_SIZE_KEY) instanceof Long ? (Long) options.get(MAX_ALLOWED_PART_SIZE_KEY)
           : ((Integer) options.get(MAX_ALLOWED_PART_SIZE_KEY)).longValue();
-      return new Curly((Integer) options.get(KEY_HASH_SIZE_KEY), hasher, maxAllowedPartSize, (Integer) options.get(HASH_INDEX_BITS_KEY), (Integer) options.get(RECORD_FILE_READ_BUFFER_BYTES_KEY), (String) options.get(REMOTE_DOMAIN_ROOT_KEY), fileOpsFactory, compressionCodecClass, domainName);
+      final double bloomFilterFalsePositiveRate = options.get(BLOOM_FILTER_FALSE_POSITIVE_RATE_KEY) == null ? 0
+          : ((Number) options.get(BLOOM_FILTER_FALSE_POSITIVE_RATE_KEY)).doubleValue();
+      final boolean mmapReads = options.get(MMAP_READS_KEY) != null && (Boolean) options.get(MMAP_READS_KEY);
+      final int compressionThreads = options.get(COMPRESSION_THREADS_KEY) == null ? 0 : (Integer) options.get(COMPRESSION_THREADS_KEY);
+      return new Curly((Integer) options.get(KEY_HASH_SIZE_KEY), hasher, maxAllowedPartSize, (Integer) options.get(HASH_INDEX_BITS_KEY), (Integer) options.get(RECORD_FILE_READ_BUFFER_BYTES_KEY), (String) options.get(REMOTE_DOMAIN_ROOT_KEY), fileOpsFactory, compressionCodecClass, domainName, mmapReads, bloomFilterFalsePositiveRate, compressionThreads);
     }
 
     @Override
@@ -141,9 +151,10 @@ public class Curly implements StorageEngine {
       pw.println("# Adjust with caution.");
       pw.println(HASH_INDEX_BITS_KEY + ": 15");
       pw.println();
-      pw.println("# This value should be set to a number around the size of your");
-      pw.println("# average value, but not much smaller than 32KB. You can safely");
-      pw.println("# ignore it in most cases.");
+      pw.println("# Only used for bases written without record size statistics. Newer bases");
+      pw.println("# record their value sizes, and readers size their first read to cover");
+      pw.println("# 95% of them. Otherwise, this should be set to a number around the size");
+      pw.println("# of your average value, but not much smaller than 32KB.");
       pw.println(RECORD_FILE_READ_BUFFER_BYTES_KEY + ": " + (32 * 1024));
       pw.println();
       pw.println("# Optional: compression codec. If no codec is specified,");
@@ -151,6 +162,21 @@ public class Curly implements StorageEngine {
       pw.println("# actually helps you! If you are just using arbitrary hashed keys,");
       pw.println("# it will probably make things worse!");
       pw.println("#" + COMPRESSION_CODEC + ": " + NoCompressionCodec.class.getName());
+      pw.println();
+      pw.println("# Optional: if positive, each keyfile base carries a Bloom filter with this");
+      pw.println("# false positive rate, so most lookups of absent keys touch neither the");
+      pw.println("# keyfile nor the record file. Costs about 10 bits per key of memory at 0.01.");
+      pw.println("# Changes only apply to bases written afterwards.");
+      pw.println("#" + BLOOM_FILTER_FALSE_POSITIVE_RATE_KEY + ": 0.01");
+      pw.println();
+      pw.println("# Optional: memory map the keyfile and record file, so that each lookup only");
+      pw.println("# copies out its own value instead of reading " + RECORD_FILE_READ_BUFFER_BYTES_KEY + ".");
+      pw.println("# Best for partitions that mostly stay resident in the page cache.");
+      pw.println("#" + MMAP_READS_KEY + ": false");
+      pw.println();
+      pw.println("# Optional: if positive, keyfile blocks are compressed on this many threads");
+      pw.println("# when building and merging versions. Only worth it for slow codecs like gzip.");
+      pw.println("#" + COMPRESSION_THREADS_KEY + ": 0");
 
       return sw.toString();
     }
@@ -167,6 +193,9 @@ public class Curly implements StorageEngine {
   private final IFileOpsFactory fileOpsFactory;
   private final int hashIndexBits;
   private final Class<? extends CompressionCodec> compressionCodecClass;
+  private final boolean mmapReads;
+  private final double bloomFilterFalsePositiveRate;
+  private final int compressionThreads;
 
   public Curly(int keyHashSize,
       Hasher hasher,
@@ -177,6 +206,40 @@ public class Curly implements StorageEngine {
       IFileOpsFactory fileOpsFactory,
       Class<? extends CompressionCodec> compressionCodecClass,
       String domainName) {
+    this(keyHashSize, hasher, maxAllowedPartSize, hashIndexBits, recordFileReadBufferBytes, remoteDomainRoot, fileOpsFactory, compressionCodecClass, domainName, false, 0);
+  }
+
+  public Curly(int keyHashSize,
+      Hasher hasher,
+      long maxAllowedPartSize,
+      int hashIndexBits,
+      int recordFileReadBufferBytes,
+      String remoteDomainRoot,
+      IFileOpsFactory fileOpsFactory,
+      Class<? extends CompressionCodec> compressionCodecClass,
+      String domainName,
+      boolean mmapReads,
+      double bloomFilterFalsePositiveRate) {
+    this(keyHashSize, hasher, maxAllowedPartSize, hashIndexBits, recordFileReadBufferBytes, remoteDomainRoot, fileOpsFactory, compressionCodecClass, domainName, mmapReads, bloomFilterFalsePositiveRate, 0);
+  }
+
+  /**
+   * @param compressionThreads if positive, keyfile writers and updaters
+   *          compress blocks on this many threads. See
+   *          {@link com.rapleaf.hank.storage.cueball.CueballWriter}.
+   */
+  public Curly(int keyHashSize,
+      Hasher hasher,
+      long maxAllowedPartSize,
+      int hashIndexBits,
+      int recordFileReadBufferBytes,
+      String remoteDomainRoot,
+      IFileOpsFactory fileOpsFactory,
+      Class<? extends CompressionCodec> compressionCodecClass,
+      String domainName,
+      boolean mmapReads,
+      double bloomFilterFalsePositiveRate,
+      int compressionThreads) {
     this.keyHashSize = keyHashSize;
     this.hashIndexBits = hashIndexBits;
     this.recordFileReadBufferBytes = recordFileReadBufferBytes;
@@ -184,21 +247,25 @@ public class Curly implements StorageEngine {
     this.fileOpsFactory = fileOpsFactory;
     this.compressionCodecClass = compressionCodecClass;
     this.domainName = domainName;
+    this.mmapReads = mmapReads;
+    this.bloomFilterFalsePositiveRate = bloomFilterFalsePositiveRate;
+    this.compressionThreads = compressionThreads;
     this.offsetSize = (int) (Math.ceil(Math.ceil(Math.log(maxAllowedPartSize)
         / Math.log(2)) / 8.0));
-    this.cueballStorageEngine = new Cueball(keyHashSize, hasher, offsetSize, hashIndexBits, remoteDomainRoot, fileOpsFactory, compressionCodecClass, domainName);
+    this.cueballStorageEngine = new Cueball(keyHashSize, hasher, offsetSize, hashIndexBits, remoteDomainRoot, fileOpsFactory, compressionCodecClass, domainName, mmapReads, 0, bloomFilterFalsePositiveRate, compressionThreads);
   }
 
   @Override
-  public Reader getReader(PartservConfigurator configurator, int partNum) throws IOException {
-    return new CurlyReader(getLocalDir(configurator, partNum), recordFileReadBufferBytes, cueballStorageEngine.getReader(configurator, partNum));
+  public Reader getReader(PartservConfigurator configurator, int partNum, BlockCache blockCache) throws IOException {
+    return new CurlyReader(getLocalDir(configurator, partNum), recordFileReadBufferBytes, cueballStorageEngine.getReader(configurator, partNum, blockCache), mmapReads);
   }
 
   @Override
   public Writer getWriter(OutputStreamFactory streamFactory, int partNum, int versionNumber, boolean base) throws IOException {
     OutputStream outputStream = streamFactory.getOutputStream(partNum, getName(versionNumber, base));
     Writer cueballWriter = cueballStorageEngine.getWriter(streamFactory, partNum, versionNumber, base);
-    return new CurlyWriter(outputStream, cueballWriter, offsetSize);
+    OutputStream statsStream = streamFactory.getOutputStream(partNum, getStatsPath(getName(versionNumber, base)));
+    return new CurlyWriter(outputStream, cueballWriter, offsetSize, statsStream);
   }
 
   private String padVersion(int versionNumber) {
@@ -210,7 +277,7 @@ public class Curly implements StorageEngine {
     String localDir = getLocalDir(configurator, partNum);
     new File(localDir).mkdirs();
     String remotePartRoot = remoteDomainRoot + "/" + partNum;
-    return new CurlyUpdater(localDir, remotePartRoot, keyHashSize, offsetSize, fileOpsFactory.getFileOps(localDir, remotePartRoot), getCompressionCodec(), hashIndexBits);
+    return new CurlyUpdater(localDir, remotePartRoot, keyHashSize, offsetSize, fileOpsFactory.getFileOps(localDir, remotePartRoot), getCompressionCodec(), hashIndexBits, bloomFilterFalsePositiveRate, configurator.getMergeReadAheadBlocks(), compressionThreads, configurator.getStreamRemoteDeltas());
   }
 
   private CompressionCodec getCompressionCodec() throws IOException {
@@ -257,6 +324,14 @@ public class Curly implements StorageEngine {
     return FsUtils.getMatchingPaths(localPartitionRoot, DELTA_REGEX);
   }
 
+  /**
+   * Get the path of the record size statistics that go with a record file.
+   * Older versions may not have them.
+   */
+  public static String getStatsPath(String recordFilePath) {
+    return recordFilePath + STATS_SUFFIX;
+  }
+
   private String getName(int versionNumber, boolean base) {
     String s = padVersion(versionNumber) + ".";
     if (base) {
@@ -273,7 +348,7 @@ public class Curly implements StorageEngine {
         + ", cueballStorageEngine=" + cueballStorageEngine + ", domainName="
         + domainName + ", fileOpsFactory=" + fileOpsFactory
         + ", hashIndexBits=" + hashIndexBits + ", keyHashSize=" + keyHashSize
-        + ", offsetSize=" + offsetSize + ", recordFileReadBufferBytes="
+        + ", mmapReads=" + mmapReads + ", offsetSize=" + offsetSize + ", recordFileReadBufferBytes="
         + recordFileReadBufferBytes + ", remoteDomainRoot=" + remoteDomainRoot
         + "]";
   }
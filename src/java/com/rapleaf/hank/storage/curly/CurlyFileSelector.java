@@ -30,7 +30,7 @@ public class CurlyFileSelector extends CueballFileSelector {
       Integer fromVersion,
       int toVersion, Set<Integer> excludeVersions)
   {
-    if (fileName.matches(Curly.BASE_REGEX) || fileName.matches(Curly.DELTA_REGEX)) {
+    if (fileName.matches(Curly.BASE_REGEX) || fileName.matches(Curly.DELTA_REGEX) || fileName.matches(Curly.STATS_REGEX)) {
       int ver = Curly.parseVersionNumber(fileName);
       if ((fromVersion == null || ver > fromVersion) && ver <= toVersion) {
         return true;
@@ -60,7 +60,7 @@ public class CurlyFileSelector extends CueballFileSelector {
 
   @Override
   protected int parseVersion(String path) {
-    if (path.matches(Curly.BASE_REGEX) || path.matches(Curly.DELTA_REGEX)) {
+    if (path.matches(Curly.BASE_REGEX) || path.matches(Curly.DELTA_REGEX) || path.matches(Curly.STATS_REGEX)) {
       return Curly.parseVersionNumber(path);
     }
     return super.parseVersion(path);
@@ -15,15 +15,37 @@
  */
 package com.rapleaf.hank.storage.curly;
 
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.util.SortedSet;
 
+import com.rapleaf.hank.storage.cueball.IFileOps;
+
 public class CurlyMerger implements ICurlyMerger {
   private static final long TRANSFER_SIZE = 32 * 1024;
 
+  private final IFileOps deltaFileOps;
+
+  public CurlyMerger() {
+    this(null);
+  }
+
+  /**
+   * @param deltaFileOps if not null, the deltas are remote files, and are
+   *          appended to the base straight from their remote copies. Their
+   *          record size statistics are still read from next to the base.
+   */
+  public CurlyMerger(IFileOps deltaFileOps) {
+    this.deltaFileOps = deltaFileOps;
+  }
+
   public long[] merge(final String latestBase,
       final SortedSet<String> deltas)
   throws IOException {
@@ -39,21 +61,83 @@ public class CurlyMerger implements ICurlyMerger {
     for (String delta : deltas) {
       offsetAdjustments[i] = totalOffset;
 
-      FileChannel deltaChannel = new FileInputStream(delta).getChannel();
-      long bytesToRead = deltaChannel.size();
-      totalOffset += bytesToRead;
+      if (deltaFileOps == null) {
+        FileChannel deltaChannel = new FileInputStream(delta).getChannel();
+        long bytesToRead = deltaChannel.size();
+        totalOffset += bytesToRead;
 
-      long total = 0;
-      while (total < bytesToRead) {
-        total += deltaChannel.transferTo(total, TRANSFER_SIZE, baseChannel);
-      }
+        long total = 0;
+        while (total < bytesToRead) {
+          total += deltaChannel.transferTo(total, TRANSFER_SIZE, baseChannel);
+        }
 
-      deltaChannel.close();
+        deltaChannel.close();
+      } else {
+        long bytesToRead = deltaFileOps.getFileLength(delta);
+        ReadableByteChannel deltaChannel = Channels.newChannel(deltaFileOps.getInputStream(delta, 0));
+        try {
+          long total = 0;
+          while (total < bytesToRead) {
+            long transferred = baseChannel.transferFrom(deltaChannel, totalOffset + total, Math.min(TRANSFER_SIZE, bytesToRead - total));
+            if (transferred == 0) {
+              throw new IOException("Unexpected end of " + delta + " after " + total + " of " + bytesToRead + " bytes!");
+            }
+            total += transferred;
+          }
+        } finally {
+          deltaChannel.close();
+        }
+        totalOffset += bytesToRead;
+        baseChannel.position(totalOffset);
+      }
 
       i++;
     }
     baseChannel.close();
 
+    mergeStats(latestBase, deltas);
+
     return offsetAdjustments;
   }
+
+  /**
+   * Fold the deltas' record size statistics into the base's. If any of them
+   * are missing, the base's would no longer be accurate, so they're dropped
+   * instead.
+   */
+  private static void mergeStats(String latestBase, SortedSet<String> deltas) throws IOException {
+    if (deltas.isEmpty()) {
+      return;
+    }
+    File baseStats = new File(Curly.getStatsPath(latestBase));
+    boolean complete = baseStats.exists();
+    for (String delta : deltas) {
+      complete &= getLocalStats(latestBase, delta).exists();
+    }
+    if (!complete) {
+      if (baseStats.exists() && !baseStats.delete()) {
+        throw new IOException("Failed to delete stale record size statistics " + baseStats);
+      }
+      return;
+    }
+
+    RecordSizeHistogram recordSizes = RecordSizeHistogram.read(baseStats.getPath());
+    for (String delta : deltas) {
+      recordSizes.add(RecordSizeHistogram.read(getLocalStats(latestBase, delta).getPath()));
+    }
+    OutputStream out = new FileOutputStream(baseStats);
+    try {
+      recordSizes.write(out);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * The deltas' statistics are always fetched into the same directory as the
+   * base, even when the deltas themselves are read remotely.
+   */
+  private static File getLocalStats(String latestBase, String delta) {
+    return new File(new File(latestBase).getParentFile(), new File(Curly.getStatsPath(delta)).getName());
+  }
 }
@@ -15,30 +15,87 @@
  */
 package com.rapleaf.hank.storage.curly;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
+import org.apache.log4j.Logger;
+
 import com.rapleaf.hank.storage.Reader;
 import com.rapleaf.hank.storage.Result;
 import com.rapleaf.hank.util.EncodingHelper;
+import com.rapleaf.hank.util.MemoryMappedFile;
 
 public class CurlyReader implements Reader {
+  private static final Logger LOG = Logger.getLogger(CurlyReader.class);
+  private static final double INITIAL_READ_PERCENTILE = 0.95;
+
   private final Reader keyfile;
   private final int readBufferSize;
   private final FileChannel recordFile;
+  private final MemoryMappedFile mappedRecordFile;
 
   public CurlyReader(String partitionRoot,
       int recordFileReadBufferBytes, Reader keyfileReader) throws IOException
   {
-    this.recordFile = new FileInputStream(Curly.getBases(partitionRoot).last()).getChannel();
+    this(partitionRoot, recordFileReadBufferBytes, keyfileReader, false);
+  }
+
+  /**
+   * @param mmapReads if true, the record file is memory mapped, and each
+   *          lookup copies out exactly the bytes of its value instead of
+   *          reading recordFileReadBufferBytes through the FileChannel.
+   */
+  public CurlyReader(String partitionRoot,
+      int recordFileReadBufferBytes, Reader keyfileReader, boolean mmapReads) throws IOException
+  {
+    String latestBase = Curly.getBases(partitionRoot).last();
+    FileChannel channel = new FileInputStream(latestBase).getChannel();
+    if (mmapReads) {
+      mappedRecordFile = new MemoryMappedFile(channel, channel.size());
+      // the mapping stays valid after the channel is closed
+      channel.close();
+      recordFile = null;
+    } else {
+      mappedRecordFile = null;
+      recordFile = channel;
+    }
     this.keyfile = keyfileReader;
-    this.readBufferSize = recordFileReadBufferBytes;
+    this.readBufferSize = getReadBufferSize(latestBase, recordFileReadBufferBytes);
+  }
+
+  /**
+   * Size the first read of each lookup so that most records fit in it, based
+   * on the record sizes in the base's statistics. Bases written before those
+   * existed use the configured size.
+   */
+  private static int getReadBufferSize(String latestBase, int recordFileReadBufferBytes) throws IOException {
+    String statsPath = Curly.getStatsPath(latestBase);
+    if (!new File(statsPath).exists()) {
+      return recordFileReadBufferBytes;
+    }
+    RecordSizeHistogram recordSizes = RecordSizeHistogram.read(statsPath);
+    if (recordSizes.getCount() == 0) {
+      return recordFileReadBufferBytes;
+    }
+    LOG.debug("Record sizes in " + latestBase + ": " + recordSizes);
+    // the length varint has to fit even when the value doesn't
+    return Math.max(EncodingHelper.MAX_VARINT_SIZE, recordSizes.getPercentile(INITIAL_READ_PERCENTILE));
+  }
+
+  int getReadBufferSize() {
+    return readBufferSize;
   }
 
   @Override
   public void get(ByteBuffer key, Result result) throws IOException {
+    if (mappedRecordFile != null) {
+      getFromMappedRecordFile(key, result);
+      return;
+    }
+
     result.requiresBufferSize(readBufferSize);
 
     keyfile.get(key, result);
@@ -50,16 +107,66 @@ public class CurlyReader implements Reader {
       buffer.rewind();
       buffer.limit(readBufferSize);
       recordFile.read(buffer, recordFileOffset);
-      buffer.rewind();
+      buffer.flip();
       int recordSize = EncodingHelper.decodeLittleEndianVarInt(buffer);
       int bytesInRecordSize = buffer.position();
       if (buffer.remaining() < recordSize) {
-        int newSize = recordSize + EncodingHelper.MAX_VARINT_SIZE;
-        result.requiresBufferSize(newSize);
-        recordFile.read(buffer, recordFileOffset + bytesInRecordSize);
+        // the record is bigger than the first read. read the whole value again
+        result.requiresBufferSize(recordSize);
+        buffer = result.getBuffer();
+        buffer.clear();
+        buffer.limit(recordSize);
+        while (buffer.hasRemaining()) {
+          if (recordFile.read(buffer, recordFileOffset + bytesInRecordSize + buffer.position()) < 0) {
+            throw new IOException("Unexpected end of record file while reading record at offset " + recordFileOffset);
+          }
+        }
         buffer.position(0);
       }
       buffer.limit(recordSize + buffer.position());
     }
   }
+
+  private void getFromMappedRecordFile(ByteBuffer key, Result result) throws IOException {
+    keyfile.get(key, result);
+
+    if (result.isFound()) {
+      long recordFileOffset = EncodingHelper.decodeLittleEndianFixedWidthLong(result.getBuffer());
+
+      // decode the varint record size straight from the mapping
+      int recordSize = 0;
+      int shift = 0;
+      long position = recordFileOffset;
+      while (true) {
+        if (shift >= 7 * EncodingHelper.MAX_VARINT_SIZE) {
+          throw new IOException("Invalid record size varint at offset " + recordFileOffset);
+        }
+        byte b = mappedRecordFile.get(position++);
+        recordSize |= (b & 0x7f) << shift;
+        if ((b & 0x80) == 0) {
+          break;
+        }
+        shift += 7;
+      }
+
+      // responses are serialized from heap arrays, so the value gets copied
+      // once, but only the value
+      result.requiresBufferSize(recordSize);
+      ByteBuffer buffer = result.getBuffer();
+      mappedRecordFile.get(position, buffer.array(), 0, recordSize);
+      buffer.position(0);
+      buffer.limit(recordSize);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (mappedRecordFile != null) {
+      mappedRecordFile.close();
+    }
+    if (recordFile != null) {
+      recordFile.close();
+    }
+    keyfile.close();
+  }
 }
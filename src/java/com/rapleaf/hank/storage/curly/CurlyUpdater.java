@@ -31,6 +31,7 @@ import com.rapleaf.hank.storage.cueball.IFetcher;
 import com.rapleaf.hank.storage.cueball.IFileOps;
 import com.rapleaf.hank.storage.cueball.ValueTransformer;
 import com.rapleaf.hank.util.EncodingHelper;
+import com.rapleaf.hank.util.FsUtils;
 
 public class CurlyUpdater implements Updater {
   public static final class OffsetTransformer implements ValueTransformer {
@@ -53,6 +54,10 @@ public class CurlyUpdater implements Updater {
     }
   }
 
+  // the record files and keyfiles of deltas, which are all that's left remote
+  // when streaming
+  private static final String REMOTE_DELTA_REGEX = Curly.DELTA_REGEX + "|" + Cueball.DELTA_REGEX;
+
   private final String localPartitionRoot;
   private final int keyHashSize;
   private final int offsetSize;
@@ -61,16 +66,32 @@ public class CurlyUpdater implements Updater {
   private final ICueballMerger cueballMerger;
   private final int hashIndexBits;
   private final CompressionCodec compressionCodec;
+  private final double bloomFilterFalsePositiveRate;
+  private final boolean streamRemoteDeltas;
+
+  public CurlyUpdater(String localPartitionRoot, String remotePartitionRoot, int keyHashSize, int offsetSize, IFileOps fileOps, CompressionCodec compressionCodec, int hashIndexBits, double bloomFilterFalsePositiveRate) {
+    this(localPartitionRoot, remotePartitionRoot, keyHashSize, offsetSize, fileOps, compressionCodec, hashIndexBits, bloomFilterFalsePositiveRate, 0, 0, false);
+  }
 
-  public CurlyUpdater(String localPartitionRoot, String remotePartitionRoot, int keyHashSize, int offsetSize, IFileOps fileOps, CompressionCodec compressionCodec, int hashIndexBits) {
+  /**
+   * @param mergeReadAheadBlocks how many blocks of each index base and delta
+   *          to read ahead of the merge
+   * @param compressionThreads how many threads compress the merged index
+   * @param streamRemoteDeltas if true, deltas are merged straight from their
+   *          remote copies instead of being copied to local first
+   * @see CueballMerger#CueballMerger(int, int, IFileOps)
+   */
+  public CurlyUpdater(String localPartitionRoot, String remotePartitionRoot, int keyHashSize, int offsetSize, IFileOps fileOps, CompressionCodec compressionCodec, int hashIndexBits, double bloomFilterFalsePositiveRate, int mergeReadAheadBlocks, int compressionThreads, boolean streamRemoteDeltas) {
     this(localPartitionRoot,
         keyHashSize,
         offsetSize,
         new Fetcher(fileOps, new CurlyFileSelector()),
-        new CurlyMerger(),
-        new CueballMerger(),
+        new CurlyMerger(streamRemoteDeltas ? fileOps : null),
+        new CueballMerger(mergeReadAheadBlocks, compressionThreads, streamRemoteDeltas ? fileOps : null),
         compressionCodec,
-        hashIndexBits);
+        hashIndexBits,
+        bloomFilterFalsePositiveRate,
+        streamRemoteDeltas);
   }
 
   CurlyUpdater(String localPartitionRoot,
@@ -80,7 +101,26 @@ public class CurlyUpdater implements Updater {
       ICurlyMerger curlyMerger,
       ICueballMerger cueballMerger,
       CompressionCodec compressonCodec,
-      int hashIndexBits)
+      int hashIndexBits,
+      double bloomFilterFalsePositiveRate)
+  {
+    this(localPartitionRoot, keyHashSize, offsetSize, fetcher, curlyMerger, cueballMerger, compressonCodec, hashIndexBits, bloomFilterFalsePositiveRate, false);
+  }
+
+  /**
+   * @param streamRemoteDeltas if true, the deltas are left remote, and the
+   *          mergers have to read them from there
+   */
+  CurlyUpdater(String localPartitionRoot,
+      int keyHashSize,
+      int offsetSize,
+      IFetcher fetcher,
+      ICurlyMerger curlyMerger,
+      ICueballMerger cueballMerger,
+      CompressionCodec compressonCodec,
+      int hashIndexBits,
+      double bloomFilterFalsePositiveRate,
+      boolean streamRemoteDeltas)
   {
     this.localPartitionRoot = localPartitionRoot;
     this.keyHashSize = keyHashSize;
@@ -90,12 +130,19 @@ public class CurlyUpdater implements Updater {
     this.cueballMerger = cueballMerger;
     this.compressionCodec = compressonCodec;
     this.hashIndexBits = hashIndexBits;
+    this.bloomFilterFalsePositiveRate = bloomFilterFalsePositiveRate;
+    this.streamRemoteDeltas = streamRemoteDeltas;
   }
 
   @Override
   public void update(int toVersion, Set<Integer> excludeVersions) throws IOException {
     // fetch all the curly and cueball files
-    fetcher.fetch(getLocalVersionNumber(), toVersion, excludeVersions);
+    SortedSet<String> remoteDeltas = null;
+    if (streamRemoteDeltas) {
+      remoteDeltas = fetcher.fetch(getLocalVersionNumber(), toVersion, excludeVersions, REMOTE_DELTA_REGEX);
+    } else {
+      fetcher.fetch(getLocalVersionNumber(), toVersion, excludeVersions);
+    }
 
     // figure out which curly files we want to merge
     SortedSet<String> curlyBases = new TreeSet<String>();
@@ -108,7 +155,12 @@ public class CurlyUpdater implements Updater {
           + localPartitionRoot + " after the fetcher ran!");
     }
     String latestCurlyBase = curlyBases.last();
-    SortedSet<String> relevantCurlyDeltas = curlyDeltas.tailSet(latestCurlyBase);
+    SortedSet<String> relevantCurlyDeltas;
+    if (remoteDeltas == null) {
+      relevantCurlyDeltas = curlyDeltas.tailSet(latestCurlyBase);
+    } else {
+      relevantCurlyDeltas = getRemoteDeltasSince(remoteDeltas, Curly.DELTA_REGEX, latestCurlyBase);
+    }
 
     // merge the curly files
     long[] offsetAdjustments = curlyMerger.merge(latestCurlyBase, relevantCurlyDeltas);
@@ -121,8 +173,14 @@ public class CurlyUpdater implements Updater {
           + localPartitionRoot + " after the fetcher ran!");
     }
     String latestCueballBase = cueballBases.last();
-    SortedSet<String> relevantCueballDeltas = cueballDeltas.tailSet(latestCurlyBase);
+    SortedSet<String> relevantCueballDeltas;
+    if (remoteDeltas == null) {
+      relevantCueballDeltas = cueballDeltas.tailSet(latestCurlyBase);
+    } else {
+      relevantCueballDeltas = getRemoteDeltasSince(remoteDeltas, Cueball.DELTA_REGEX, latestCurlyBase);
+    }
 
+    String currentCurlyBase = latestCurlyBase;
     if (relevantCueballDeltas.isEmpty()) {
       // no need to merge! in fact, we're done.
     } else {
@@ -137,7 +195,9 @@ public class CurlyUpdater implements Updater {
           offsetSize,
           new OffsetTransformer(offsetSize, offsetAdjustments),
           hashIndexBits,
-          compressionCodec);
+          compressionCodec,
+          0,
+          bloomFilterFalsePositiveRate);
   
       // rename the modified base to the current version
       String newCurlyBasePath = localPartitionRoot + "/"
@@ -145,10 +205,40 @@ public class CurlyUpdater implements Updater {
         + ".base.curly";
       // TODO: this can fail. watch it.
       new File(latestCurlyBase).renameTo(new File(newCurlyBasePath));
+      new File(Curly.getStatsPath(latestCurlyBase)).renameTo(new File(Curly.getStatsPath(newCurlyBasePath)));
+      currentCurlyBase = newCurlyBasePath;
     }
 
     // delete all the old curly bases
-    deleteFiles(curlyBases.headSet(latestCurlyBase), cueballBases.headSet(latestCueballBase), curlyDeltas, cueballDeltas);
+    deleteFiles(curlyBases.headSet(latestCurlyBase), cueballBases.headSet(latestCueballBase), curlyDeltas, cueballDeltas, getStaleStats(currentCurlyBase));
+  }
+
+  /**
+   * The remote deltas are in another directory, so they can't be compared with
+   * the local base by path.
+   */
+  private static SortedSet<String> getRemoteDeltasSince(SortedSet<String> remoteDeltas, String deltaRegex, String latestCurlyBase) {
+    SortedSet<String> deltas = new TreeSet<String>();
+    for (String remoteDelta : remoteDeltas) {
+      if (!remoteDelta.matches(deltaRegex)) {
+        continue;
+      }
+      int version = remoteDelta.matches(Curly.DELTA_REGEX) ? Curly.parseVersionNumber(remoteDelta) : Cueball.parseVersionNumber(remoteDelta);
+      if (version >= Curly.parseVersionNumber(latestCurlyBase)) {
+        deltas.add(remoteDelta);
+      }
+    }
+    return deltas;
+  }
+
+  /**
+   * Every record size statistics file except the latest base's is either
+   * merged into it or belongs to a file that's about to be deleted.
+   */
+  private Set<String> getStaleStats(String currentCurlyBase) {
+    SortedSet<String> stats = FsUtils.getMatchingPaths(localPartitionRoot, Curly.STATS_REGEX);
+    stats.remove(Curly.getStatsPath(currentCurlyBase));
+    return stats;
   }
 
   private int getLocalVersionNumber() {
@@ -31,12 +31,27 @@ public class CurlyWriter implements Writer {
   private final long maxOffset;
   private final ByteBuffer offsetBuffer;
   private final byte[] lengthBuffer = new byte[5];;
+  private final OutputStream statsStream;
+  private final RecordSizeHistogram recordSizes = new RecordSizeHistogram();
 
   public CurlyWriter(OutputStream recordfileStream,
       Writer keyfileWriter,
       int offsetSize)
+  {
+    this(recordfileStream, keyfileWriter, offsetSize, null);
+  }
+
+  /**
+   * @param statsStream if not null, a {@link RecordSizeHistogram} of the
+   *          records written is written to it on close
+   */
+  public CurlyWriter(OutputStream recordfileStream,
+      Writer keyfileWriter,
+      int offsetSize,
+      OutputStream statsStream)
   {
     this.recordFileStream = recordfileStream;
+    this.statsStream = statsStream;
     this.keyfileWriter = keyfileWriter;
     this.maxOffset = 1L << (offsetSize * 8);
     this.currentRecordOffset = 0;
@@ -49,6 +64,11 @@ public class CurlyWriter implements Writer {
     recordFileStream.flush();
     recordFileStream.close();
     keyfileWriter.close();
+    if (statsStream != null) {
+      recordSizes.write(statsStream);
+      statsStream.flush();
+      statsStream.close();
+    }
   }
 
   @Override
@@ -68,6 +88,7 @@ public class CurlyWriter implements Writer {
     recordFileStream.write(value.array(), value.arrayOffset() + value.position(), valueLen);
 
     currentRecordOffset += numBytes + valueLen;
+    recordSizes.add(numBytes + valueLen);
   }
 
   @Override
@@ -0,0 +1,168 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.storage.curly;
+
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.rapleaf.hank.util.EncodingHelper;
+
+/**
+ * A histogram of the sizes of the records (length varint plus value) in a
+ * Curly record file, used by readers to pick how much to read per lookup.
+ *
+ * Sizes below 16 bytes get a bucket each. Above that, every power of two is
+ * split into 8 buckets, so a bucket's upper bound overstates any size in it by
+ * less than 12.5%. Histograms of different files can simply be added together,
+ * which is how they're kept current across merges. The serialized form is:
+ *
+ * <pre>
+ * numBuckets (4 bytes)
+ * numBuckets * count (8 bytes)
+ * </pre>
+ */
+public final class RecordSizeHistogram {
+  private static final int NUM_LINEAR_BUCKETS = 16;
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int NUM_SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // enough for any int size
+  static final int NUM_BUCKETS = NUM_LINEAR_BUCKETS + (31 - 4) * NUM_SUB_BUCKETS;
+
+  private final long[] counts;
+  private long totalCount = 0;
+
+  public RecordSizeHistogram() {
+    this(new long[NUM_BUCKETS]);
+  }
+
+  private RecordSizeHistogram(long[] counts) {
+    this.counts = counts;
+    for (long count : counts) {
+      totalCount += count;
+    }
+  }
+
+  public void add(int recordSize) {
+    counts[getBucket(recordSize)]++;
+    totalCount++;
+  }
+
+  /**
+   * Add all of <i>other</i>'s records to this histogram.
+   */
+  public void add(RecordSizeHistogram other) {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      counts[i] += other.counts[i];
+    }
+    totalCount += other.totalCount;
+  }
+
+  public long getCount() {
+    return totalCount;
+  }
+
+  /**
+   * @param fraction between 0 and 1
+   * @return a size that at least <i>fraction</i> of the records fit in, or 0
+   *         if the histogram is empty
+   */
+  public int getPercentile(double fraction) {
+    if (totalCount == 0) {
+      return 0;
+    }
+    final long target = Math.max(1, (long) Math.ceil(fraction * totalCount));
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= target) {
+        return getBucketUpperBound(i);
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * @return a size that every record fits in, or 0 if the histogram is empty
+   */
+  public int getMax() {
+    for (int i = NUM_BUCKETS - 1; i >= 0; i--) {
+      if (counts[i] != 0) {
+        return getBucketUpperBound(i);
+      }
+    }
+    return 0;
+  }
+
+  static int getBucket(int size) {
+    if (size < 0) {
+      throw new IllegalArgumentException("Invalid record size: " + size);
+    }
+    if (size < NUM_LINEAR_BUCKETS) {
+      return size;
+    }
+    final int exponent = 31 - Integer.numberOfLeadingZeros(size);
+    final int subBucket = (size >>> (exponent - SUB_BUCKET_BITS)) & (NUM_SUB_BUCKETS - 1);
+    return NUM_LINEAR_BUCKETS + (exponent - 4) * NUM_SUB_BUCKETS + subBucket;
+  }
+
+  static int getBucketUpperBound(int bucket) {
+    if (bucket < NUM_LINEAR_BUCKETS) {
+      return bucket;
+    }
+    final int exponent = (bucket - NUM_LINEAR_BUCKETS) / NUM_SUB_BUCKETS + 4;
+    final int subBucket = (bucket - NUM_LINEAR_BUCKETS) % NUM_SUB_BUCKETS;
+    final long upperBound = ((long) (NUM_SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    return (int) Math.min(Integer.MAX_VALUE, upperBound);
+  }
+
+  public void write(OutputStream out) throws IOException {
+    byte[] bytes = new byte[4 + NUM_BUCKETS * 8];
+    EncodingHelper.encodeLittleEndianFixedWidthLong(NUM_BUCKETS, bytes, 0, 4);
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      EncodingHelper.encodeLittleEndianFixedWidthLong(counts[i], bytes, 4 + i * 8, 8);
+    }
+    out.write(bytes);
+  }
+
+  public static RecordSizeHistogram read(String path) throws IOException {
+    DataInputStream in = new DataInputStream(new FileInputStream(path));
+    try {
+      byte[] header = new byte[4];
+      in.readFully(header);
+      final int numBuckets = (int) EncodingHelper.decodeLittleEndianFixedWidthLong(header, 0, 4);
+      if (numBuckets != NUM_BUCKETS) {
+        throw new IOException("Expected " + NUM_BUCKETS + " record size buckets in " + path + ", but found " + numBuckets);
+      }
+      byte[] bytes = new byte[numBuckets * 8];
+      in.readFully(bytes);
+      long[] counts = new long[numBuckets];
+      for (int i = 0; i < numBuckets; i++) {
+        counts[i] = EncodingHelper.decodeLittleEndianFixedWidthLong(bytes, i * 8, 8);
+      }
+      return new RecordSizeHistogram(counts);
+    } finally {
+      in.close();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "RecordSizeHistogram [count=" + totalCount + ", p50=" + getPercentile(0.5)
+        + ", p95=" + getPercentile(0.95) + ", max=" + getMax() + "]";
+  }
+}
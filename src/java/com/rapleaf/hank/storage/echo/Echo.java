@@ -5,6 +5,7 @@ import java.nio.ByteBuffer;
 import java.util.Map;
 
 import com.rapleaf.hank.config.PartservConfigurator;
+import com.rapleaf.hank.storage.BlockCache;
 import com.rapleaf.hank.storage.Deleter;
 import com.rapleaf.hank.storage.OutputStreamFactory;
 import com.rapleaf.hank.storage.Reader;
@@ -37,7 +38,7 @@ public class Echo implements StorageEngine {
   }
 
   @Override
-  public Reader getReader(PartservConfigurator configurator, int partNum) throws IOException {
+  public Reader getReader(PartservConfigurator configurator, int partNum, BlockCache blockCache) throws IOException {
     return new EchoReader(partNum);
   }
 
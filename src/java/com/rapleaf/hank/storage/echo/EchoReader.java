@@ -25,6 +25,12 @@ public class EchoReader implements Reader {
     byte[] bytes = sb.toString().getBytes();
     result.requiresBufferSize(bytes.length);
     System.arraycopy(bytes, 0, result.getBuffer().array(), 0, bytes.length);
+    result.getBuffer().position(0);
+    result.getBuffer().limit(bytes.length);
     result.found();
   }
+
+  @Override
+  public void close() throws IOException {
+  }
 }
@@ -52,4 +52,8 @@ public class MapReader implements Reader {
       result.getBuffer().rewind();
     }
   }
+
+  @Override
+  public void close() throws IOException {
+  }
 }
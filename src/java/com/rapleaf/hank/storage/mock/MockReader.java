@@ -54,4 +54,8 @@ public class MockReader implements Reader {
   public int getPartNum() {
     return partNum;
   }
+
+  @Override
+  public void close() throws IOException {
+  }
 }
@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 
 import com.rapleaf.hank.config.PartservConfigurator;
+import com.rapleaf.hank.storage.BlockCache;
 import com.rapleaf.hank.storage.Deleter;
 import com.rapleaf.hank.storage.OutputStreamFactory;
 import com.rapleaf.hank.storage.Reader;
@@ -30,7 +31,7 @@ public class MockStorageEngine implements StorageEngine {
   public boolean getReaderCalled;
 
   @Override
-  public Reader getReader(PartservConfigurator configurator, int partNum)
+  public Reader getReader(PartservConfigurator configurator, int partNum, BlockCache blockCache)
   throws IOException {
     getReaderCalled = true;
     return null;
@@ -0,0 +1,193 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.util;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A read-only memory mapping of the first <i>length</i> bytes of a file.
+ * Since a single MappedByteBuffer can't address more than 2GB, larger files are
+ * mapped as a series of fixed-size segments. All accessors use absolute
+ * positions, so a single instance can safely be shared between threads.
+ *
+ * Closing unmaps the file right away, rather than whenever the buffers happen
+ * to be collected. Nothing may read from the mapping once it's closed:
+ * accessors that notice throw an IllegalStateException, but one that's
+ * already in progress would read unmapped memory and crash the JVM.
+ */
+public final class MemoryMappedFile {
+  private static final Logger LOG = Logger.getLogger(MemoryMappedFile.class);
+
+  public static final long DEFAULT_SEGMENT_SIZE = 1L << 30;
+
+  // how to unmap a buffer on this JVM, if there is a way. both are internal
+  // APIs: Unsafe.invokeCleaner on Java 9 and later, the buffer's Cleaner
+  // before that.
+  private static final Object UNSAFE;
+  private static final Method INVOKE_CLEANER;
+  static {
+    Object unsafe = null;
+    Method invokeCleaner = null;
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      unsafe = theUnsafe.get(null);
+    } catch (Exception e) {
+      invokeCleaner = null;
+    }
+    UNSAFE = unsafe;
+    INVOKE_CLEANER = invokeCleaner;
+  }
+
+  private final MappedByteBuffer[] segments;
+  private final long segmentSize;
+  private final long length;
+  private volatile boolean closed = false;
+  // each thread positions its own views of the segments, so that concurrent
+  // readers don't fight over them
+  private final ThreadLocal<ByteBuffer[]> views = new ThreadLocal<ByteBuffer[]>() {
+    @Override
+    protected ByteBuffer[] initialValue() {
+      return new ByteBuffer[segments.length];
+    }
+  };
+
+  public MemoryMappedFile(FileChannel channel, long length) throws IOException {
+    this(channel, length, DEFAULT_SEGMENT_SIZE);
+  }
+
+  public MemoryMappedFile(FileChannel channel, long length, long segmentSize) throws IOException {
+    if (segmentSize <= 0 || segmentSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+    }
+    this.length = length;
+    this.segmentSize = segmentSize;
+
+    int numSegments = (int) ((length + segmentSize - 1) / segmentSize);
+    segments = new MappedByteBuffer[numSegments];
+    for (int i = 0; i < numSegments; i++) {
+      long segmentStart = i * segmentSize;
+      long segmentLength = Math.min(segmentSize, length - segmentStart);
+      segments[i] = channel.map(MapMode.READ_ONLY, segmentStart, segmentLength);
+    }
+  }
+
+  /**
+   * Get the byte at <i>position</i>.
+   * @param position
+   * @return
+   */
+  public byte get(long position) {
+    checkOpen();
+    return segments[(int) (position / segmentSize)].get((int) (position % segmentSize));
+  }
+
+  /**
+   * Copy <i>len</i> bytes starting at <i>position</i> into <i>dst</i>,
+   * crossing segment boundaries as necessary.
+   * @param position
+   * @param dst
+   * @param off
+   * @param len
+   */
+  public void get(long position, byte[] dst, int off, int len) {
+    if (position < 0 || position + len > length) {
+      throw new IndexOutOfBoundsException("Tried to read " + len
+          + " bytes at position " + position + " of a mapping of length "
+          + length);
+    }
+    checkOpen();
+    while (len > 0) {
+      int segmentIdx = (int) (position / segmentSize);
+      int segmentOffset = (int) (position % segmentSize);
+      int amount = Math.min(len, (int) (segments[segmentIdx].capacity() - segmentOffset));
+      ByteBuffer view = getView(segmentIdx);
+      view.position(segmentOffset);
+      view.get(dst, off, amount);
+      position += amount;
+      off += amount;
+      len -= amount;
+    }
+  }
+
+  private ByteBuffer getView(int segmentIdx) {
+    ByteBuffer[] threadViews = views.get();
+    if (threadViews[segmentIdx] == null) {
+      threadViews[segmentIdx] = segments[segmentIdx].duplicate();
+    }
+    return threadViews[segmentIdx];
+  }
+
+  public long length() {
+    return length;
+  }
+
+  public int getNumSegments() {
+    return segments.length;
+  }
+
+  /**
+   * Unmap the file. The caller has to make sure nothing is still reading
+   * from it.
+   */
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    for (int i = 0; i < segments.length; i++) {
+      if (!unmap(segments[i])) {
+        // it'll be unmapped when it's collected instead
+        break;
+      }
+    }
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("The mapping has been closed!");
+    }
+  }
+
+  private static boolean unmap(MappedByteBuffer buffer) {
+    try {
+      if (INVOKE_CLEANER != null) {
+        INVOKE_CLEANER.invoke(UNSAFE, buffer);
+      } else {
+        Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+        Object cleaner = cleanerMethod.invoke(buffer);
+        if (cleaner != null) {
+          cleaner.getClass().getMethod("clean").invoke(cleaner);
+        }
+      }
+      return true;
+    } catch (Exception e) {
+      LOG.warn("Unable to unmap a memory mapped file. It will stay mapped until it's garbage collected.", e);
+      return false;
+    }
+  }
+}
@@ -0,0 +1,94 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter for many threads to add to at once. Each thread adds to one of
+ * several stripes, picked by its id, and the stripes are only summed when the
+ * counter is read. That keeps busy threads from all fighting over the same
+ * cache line, at the cost of a slower read.
+ */
+public final class StripedCounter {
+  // the stripes are a cache line apart, so that threads on different stripes
+  // don't invalidate each other's copies
+  private static final int LONGS_PER_STRIPE = 8;
+
+  private final AtomicLongArray stripes;
+  private final int mask;
+
+  public StripedCounter() {
+    this(2 * Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param numStripes rounded up to a power of two
+   */
+  public StripedCounter(int numStripes) {
+    int size = 1;
+    while (size < numStripes) {
+      size <<= 1;
+    }
+    stripes = new AtomicLongArray(size * LONGS_PER_STRIPE);
+    mask = size - 1;
+  }
+
+  public void add(long delta) {
+    stripes.addAndGet(stripe(), delta);
+  }
+
+  public void increment() {
+    add(1);
+  }
+
+  /**
+   * @return the total of everything added so far. Not a snapshot: adds that
+   *         happen during the call may or may not be included.
+   */
+  public long sum() {
+    long sum = 0;
+    for (int i = 0; i < stripes.length(); i += LONGS_PER_STRIPE) {
+      sum += stripes.get(i);
+    }
+    return sum;
+  }
+
+  /**
+   * Reset the counter to 0.
+   * @return the total of everything added since the last reset. Adds that
+   *         happen during the call are counted either now or in the next
+   *         total, never lost.
+   */
+  public long sumThenReset() {
+    long sum = 0;
+    for (int i = 0; i < stripes.length(); i += LONGS_PER_STRIPE) {
+      sum += stripes.getAndSet(i, 0);
+    }
+    return sum;
+  }
+
+  private int stripe() {
+    // thread ids are handed out sequentially, so masking them spreads a pool
+    // of worker threads evenly
+    return ((int) Thread.currentThread().getId() & mask) * LONGS_PER_STRIPE;
+  }
+
+  @Override
+  public String toString() {
+    return Long.toString(sum());
+  }
+}
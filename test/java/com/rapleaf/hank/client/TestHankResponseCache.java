@@ -0,0 +1,123 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.client;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import com.rapleaf.hank.generated.HankExceptions;
+import com.rapleaf.hank.generated.HankResponse;
+
+public class TestHankResponseCache extends TestCase {
+  private static final ByteBuffer KEY_1 = ByteBuffer.wrap(new byte[] { 1 });
+  private static final ByteBuffer KEY_2 = ByteBuffer.wrap(new byte[] { 2 });
+  private static final ByteBuffer KEY_3 = ByteBuffer.wrap(new byte[] { 3 });
+  private static final HankResponse VALUE = HankResponse.value(new byte[] { 4, 5 });
+  private static final HankResponse NOT_FOUND = HankResponse.not_found(true);
+
+  public void testGetAndPut() throws Exception {
+    HankResponseCache cache = new HankResponseCache(10, 0);
+    assertNull(cache.get(1, KEY_1));
+    cache.put(cache.getGeneration(), 1, KEY_1, VALUE);
+    cache.put(cache.getGeneration(), 1, KEY_2, NOT_FOUND);
+    cache.put(cache.getGeneration(), 1, KEY_3, HankResponse.xception(HankExceptions.zero_replicas(true)));
+
+    assertEquals(VALUE, cache.get(1, KEY_1));
+    assertEquals(NOT_FOUND, cache.get(1, KEY_2));
+    assertNull(cache.get(1, KEY_3));
+    // other domains have their own keys
+    assertNull(cache.get(2, KEY_1));
+
+    assertEquals(2, cache.getNumEntries());
+    assertEquals(2, cache.getNumHits());
+    assertEquals(3, cache.getNumMisses());
+    assertEquals(0.4, cache.getHitRate(), 0.0001);
+  }
+
+  public void testEvictByCount() throws Exception {
+    HankResponseCache cache = new HankResponseCache(2, 0);
+    cache.put(0, 1, KEY_1, VALUE);
+    cache.put(0, 1, KEY_2, VALUE);
+    // using KEY_1 makes KEY_2 the least recently used
+    cache.get(1, KEY_1);
+    cache.put(0, 1, KEY_3, VALUE);
+
+    assertEquals(2, cache.getNumEntries());
+    assertEquals(1, cache.getNumEvictions());
+    assertNotNull(cache.get(1, KEY_1));
+    assertNull(cache.get(1, KEY_2));
+    assertNotNull(cache.get(1, KEY_3));
+  }
+
+  public void testEvictBySize() throws Exception {
+    int entrySize = HankResponseCache.ENTRY_OVERHEAD_BYTES + 1 + 2;
+    HankResponseCache cache = new HankResponseCache(0, 2 * entrySize);
+    cache.put(0, 1, KEY_1, VALUE);
+    cache.put(0, 1, KEY_2, VALUE);
+    assertEquals(2 * entrySize, cache.getNumBytes());
+    cache.put(0, 1, KEY_3, VALUE);
+    assertEquals(2, cache.getNumEntries());
+    assertEquals(2 * entrySize, cache.getNumBytes());
+    assertNull(cache.get(1, KEY_1));
+
+    // too big to cache at all
+    cache.put(0, 1, KEY_1, HankResponse.value(new byte[3 * entrySize]));
+    assertNull(cache.get(1, KEY_1));
+    assertEquals(2, cache.getNumEntries());
+  }
+
+  public void testClear() throws Exception {
+    HankResponseCache cache = new HankResponseCache(10, 0);
+    long generation = cache.getGeneration();
+    cache.put(generation, 1, KEY_1, VALUE);
+    cache.clear();
+    assertEquals(0, cache.getNumEntries());
+    assertEquals(0, cache.getNumBytes());
+
+    // a response to a request sent before the clear is ignored
+    cache.put(generation, 1, KEY_1, VALUE);
+    assertNull(cache.get(1, KEY_1));
+    cache.put(cache.getGeneration(), 1, KEY_1, VALUE);
+    assertEquals(VALUE, cache.get(1, KEY_1));
+  }
+
+  public void testSegments() throws Exception {
+    // small caches keep exact LRU order in a single segment
+    assertEquals(1, new HankResponseCache(2, 0).getNumSegments());
+    HankResponseCache cache = new HankResponseCache(HankResponseCache.MAX_NUM_SEGMENTS * HankResponseCache.MIN_SEGMENT_ENTRIES, 0);
+    assertEquals(HankResponseCache.MAX_NUM_SEGMENTS, cache.getNumSegments());
+
+    for (int i = 0; i < 10000; i++) {
+      cache.put(0, 1, ByteBuffer.wrap(Integer.toString(i).getBytes()), VALUE);
+    }
+    // every segment stays within its share of the limit
+    assertEquals(HankResponseCache.MAX_NUM_SEGMENTS * HankResponseCache.MIN_SEGMENT_ENTRIES, cache.getNumEntries());
+    assertEquals(10000 - cache.getNumEntries(), cache.getNumEvictions());
+    assertEquals(VALUE, cache.get(1, ByteBuffer.wrap("9999".getBytes())));
+  }
+
+  public void testLookupWithOffsetBuffer() throws Exception {
+    HankResponseCache cache = new HankResponseCache(10, 0);
+    cache.put(0, 1, KEY_2, VALUE);
+    // a key that is a slice of a larger array still matches
+    ByteBuffer key = ByteBuffer.wrap(new byte[] { 1, 2, 3 }, 1, 1).slice();
+    assertEquals(VALUE, cache.get(1, key));
+    ByteBuffer direct = ByteBuffer.allocateDirect(1);
+    direct.put((byte) 2).flip();
+    assertEquals(VALUE, cache.get(1, direct));
+  }
+}
@@ -16,13 +16,19 @@
 package com.rapleaf.hank.client;
 
 import java.io.IOException;
+import java.net.ServerSocket;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.apache.thrift.TException;
@@ -88,15 +94,25 @@ public class TestHankSmartClient extends BaseTestCase {
     }
 
     @Override
-    public HankResponse get(int domainId, ByteBuffer key) throws TException {
+    public HankResponse get(int domainId, ByteBuffer key, long deadlineMs) throws TException {
       return HankResponse.value(result);
     }
+
+    @Override
+    public List<HankResponse> getBulk(int domainId, List<ByteBuffer> keys, long deadlineMs) throws TException {
+      List<HankResponse> responses = new ArrayList<HankResponse>(keys.size());
+      for (ByteBuffer key : keys) {
+        responses.add(get(domainId, key, deadlineMs));
+      }
+      return responses;
+    }
   }
 
   private static final ByteBuffer KEY_1 = ByteBuffer.wrap(new byte[] { 1 });
   private static final ByteBuffer VALUE_1 = ByteBuffer.wrap(new byte[] { 1 });
   private static final ByteBuffer KEY_2 = ByteBuffer.wrap(new byte[] { 2 });
   private static final ByteBuffer VALUE_2 = ByteBuffer.wrap(new byte[] { 2 });
+  private static final HankResponse OVERLOADED = HankResponse.xception(HankExceptions.overloaded(true));
 
   private static int server1Port = 12345;
   private static int server2Port = 0;
@@ -228,6 +244,68 @@ public class TestHankSmartClient extends BaseTestCase {
 
       assertEquals(HankResponse.value(VALUE_1), c.get("existent_domain", KEY_1));
       assertEquals(HankResponse.value(VALUE_2), c.get("existent_domain", KEY_2));
+
+      // keys for both hosts, in an order that interleaves them
+      assertEquals(Arrays.asList(HankResponse.value(VALUE_2), HankResponse.value(VALUE_1), HankResponse.value(VALUE_1), HankResponse.value(VALUE_2)),
+          c.getBulk("existent_domain", Arrays.asList(KEY_2, KEY_1, KEY_1, KEY_2)));
+      assertEquals(Arrays.asList(HankResponse.xception(HankExceptions.no_such_domain(true))),
+          c.getBulk("nonexistent_domain", Arrays.asList(KEY_1)));
+
+      // many asynchronous gets in flight at once
+      List<Future<HankResponse>> futures = new ArrayList<Future<HankResponse>>();
+      for (int i = 0; i < 20; i++) {
+        futures.add(c.getAsync("existent_domain", i % 2 == 0 ? KEY_1 : KEY_2));
+      }
+      for (int i = 0; i < 20; i++) {
+        assertEquals(HankResponse.value(i % 2 == 0 ? VALUE_1 : VALUE_2), futures.get(i).get(5, TimeUnit.SECONDS));
+      }
+      assertEquals(HankResponse.xception(HankExceptions.no_such_domain(true)),
+          c.getAsync("nonexistent_domain", KEY_1).get());
+
+      // threads share the connections of a pipelined client
+      final HankSmartClient pipelinedClient = new HankSmartClient(mockCoord, "myRingGroup",
+          new HankSmartClientOptions().setPipelined(true));
+      List<Thread> threads = new ArrayList<Thread>();
+      final List<HankResponse> pipelinedResponses = Collections.synchronizedList(new ArrayList<HankResponse>());
+      for (int i = 0; i < 10; i++) {
+        threads.add(new Thread(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              pipelinedResponses.add(pipelinedClient.get("existent_domain", KEY_1));
+              pipelinedResponses.add(pipelinedClient.get("existent_domain", KEY_2));
+            } catch (TException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        }));
+      }
+      for (Thread thread : threads) {
+        thread.start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      assertEquals(20, pipelinedResponses.size());
+      assertEquals(10, Collections.frequency(pipelinedResponses, HankResponse.value(VALUE_1)));
+      assertEquals(10, Collections.frequency(pipelinedResponses, HankResponse.value(VALUE_2)));
+
+      // repeated lookups are answered from the cache until the ring group changes
+      HankSmartClient cachingClient = new HankSmartClient(mockCoord, "myRingGroup",
+          new HankSmartClientOptions().setCacheMaxNumEntries(10));
+      HankResponseCache cache = cachingClient.getCache();
+      assertEquals(HankResponse.value(VALUE_1), cachingClient.get("existent_domain", KEY_1));
+      assertEquals(HankResponse.value(VALUE_1), cachingClient.get("existent_domain", KEY_1));
+      assertEquals(Arrays.asList(HankResponse.value(VALUE_1), HankResponse.value(VALUE_2)),
+          cachingClient.getBulk("existent_domain", Arrays.asList(KEY_1, KEY_2)));
+      assertEquals(HankResponse.value(VALUE_2), cachingClient.getAsync("existent_domain", KEY_2).get());
+      assertEquals(3, cache.getNumHits());
+      assertEquals(2, cache.getNumMisses());
+      assertEquals(2, cache.getNumEntries());
+      cachingClient.onRingGroupChange(mockRingGroupConfig);
+      assertEquals(0, cache.getNumEntries());
+      assertEquals(HankResponse.value(VALUE_1), cachingClient.get("existent_domain", KEY_1));
+      assertEquals(3, cache.getNumMisses());
     } finally {
       server1.stop();
       server2.stop();
@@ -238,7 +316,202 @@ public class TestHankSmartClient extends BaseTestCase {
     }
   }
 
-  private Host getHostConfig(PartDaemonAddress address, final int partNum)
+  /**
+   * Two replicas of both partitions, one of which hangs up on every request.
+   * Whatever replica a get starts with, it ends up with the live one.
+   */
+  public void testFailover() throws Exception {
+    int port = getFreePort();
+    MockServer server = new MockServer(new MockPartDaemonHandler(0, VALUE_1), port);
+
+    final ServerSocket deadSocket = new ServerSocket(0);
+    Thread deadThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            deadSocket.accept().close();
+          }
+        } catch (IOException e) {
+          // closed
+        }
+      }
+    }, "dead part daemon");
+    deadThread.start();
+
+    PartDaemonAddress liveAddress = new PartDaemonAddress("localhost", port);
+    PartDaemonAddress deadAddress = new PartDaemonAddress("localhost", deadSocket.getLocalPort());
+    Coordinator coord = getCoordinator(getHostConfig(liveAddress, 0, 1), getHostConfig(deadAddress, 0, 1));
+    // keep the dead replica in play, so that every get has a chance of trying it
+    HankSmartClientOptions options = new HankSmartClientOptions().setCircuitBreakerFailureThreshold(0);
+
+    Thread.sleep(1000);
+
+    try {
+      HankSmartClient c = new HankSmartClient(coord, "myRingGroup", options);
+      for (int i = 0; i < 10; i++) {
+        assertEquals(HankResponse.value(VALUE_1), c.get("existent_domain", i % 2 == 0 ? KEY_1 : KEY_2));
+      }
+      assertTrue(c.getCircuitBreakers().get(deadAddress).getNumFailures() > 0);
+
+      c = new HankSmartClient(coord, "myRingGroup", options);
+      for (int i = 0; i < 10; i++) {
+        assertEquals(Arrays.asList(HankResponse.value(VALUE_1), HankResponse.value(VALUE_1), HankResponse.value(VALUE_1)),
+            c.getBulk("existent_domain", Arrays.asList(KEY_1, KEY_2, KEY_1)));
+      }
+      assertTrue(c.getCircuitBreakers().get(deadAddress).getNumFailures() > 0);
+
+      c = new HankSmartClient(coord, "myRingGroup", options);
+      for (int i = 0; i < 10; i++) {
+        assertEquals(HankResponse.value(VALUE_1),
+            c.getAsync("existent_domain", i % 2 == 0 ? KEY_1 : KEY_2).get(5, TimeUnit.SECONDS));
+      }
+      assertTrue(c.getCircuitBreakers().get(deadAddress).getNumFailures() > 0);
+    } finally {
+      server.stop();
+      deadSocket.close();
+      deadThread.join();
+    }
+  }
+
+  /**
+   * Two replicas of both partitions, one of which turns every get away as
+   * overloaded. Gets go on to the other replica, unless it's overloaded too.
+   */
+  public void testOverloadedReplica() throws Exception {
+    final AtomicInteger numOverloaded = new AtomicInteger(0);
+    PartDaemon.Iface overloadedHandler = new MockPartDaemonHandler(0, VALUE_2) {
+      @Override
+      public HankResponse get(int domainId, ByteBuffer key, long timeoutMs) throws TException {
+        numOverloaded.incrementAndGet();
+        return OVERLOADED;
+      }
+    };
+    int livePort = getFreePort();
+    MockServer liveServer = new MockServer(new MockPartDaemonHandler(0, VALUE_1), livePort);
+    int overloadedPort = getFreePort();
+    MockServer overloadedServer = new MockServer(overloadedHandler, overloadedPort);
+
+    Host overloadedHost = getHostConfig(new PartDaemonAddress("localhost", overloadedPort), 0, 1);
+    Coordinator coord = getCoordinator(getHostConfig(new PartDaemonAddress("localhost", livePort), 0, 1), overloadedHost);
+
+    Thread.sleep(1000);
+
+    try {
+      HankSmartClient c = new HankSmartClient(coord, "myRingGroup", 1);
+      for (int i = 0; i < 10; i++) {
+        assertEquals(HankResponse.value(VALUE_1), c.get("existent_domain", i % 2 == 0 ? KEY_1 : KEY_2));
+      }
+      int numTurnedAway = numOverloaded.get();
+      assertTrue(numTurnedAway > 0);
+
+      for (int i = 0; i < 10; i++) {
+        assertEquals(Arrays.asList(HankResponse.value(VALUE_1), HankResponse.value(VALUE_1), HankResponse.value(VALUE_1)),
+            c.getBulk("existent_domain", Arrays.asList(KEY_1, KEY_2, KEY_1)));
+      }
+      assertTrue(numOverloaded.get() > numTurnedAway);
+      numTurnedAway = numOverloaded.get();
+
+      for (int i = 0; i < 10; i++) {
+        assertEquals(HankResponse.value(VALUE_1),
+            c.getAsync("existent_domain", i % 2 == 0 ? KEY_1 : KEY_2).get(5, TimeUnit.SECONDS));
+      }
+      assertTrue(numOverloaded.get() > numTurnedAway);
+
+      // with nowhere else to go, the overloaded response is passed on
+      c = new HankSmartClient(getCoordinator(overloadedHost), "myRingGroup", 1);
+      assertEquals(OVERLOADED, c.get("existent_domain", KEY_1));
+      assertEquals(Arrays.asList(OVERLOADED, OVERLOADED),
+          c.getBulk("existent_domain", Arrays.asList(KEY_1, KEY_2)));
+      assertEquals(OVERLOADED, c.getAsync("existent_domain", KEY_2).get(5, TimeUnit.SECONDS));
+    } finally {
+      liveServer.stop();
+      overloadedServer.stop();
+    }
+  }
+
+  /**
+   * A part daemon served by a THsHaServer on its own thread.
+   */
+  private static class MockServer {
+    private final TNonblockingServerSocket trans;
+    private final TServer server;
+    private final Thread thread;
+
+    public MockServer(PartDaemon.Iface iface, int port) throws TTransportException {
+      trans = new TNonblockingServerSocket(port);
+      Args args = new Args(trans);
+      args.processor(new PartDaemon.Processor(iface));
+      args.protocolFactory(new TCompactProtocol.Factory());
+      server = new THsHaServer(args);
+      thread = new Thread(new ServerRunnable(server), "mock part daemon on port " + port);
+      thread.start();
+    }
+
+    public void stop() throws InterruptedException {
+      server.stop();
+      thread.join();
+      trans.close();
+    }
+  }
+
+  private static int getFreePort() throws IOException {
+    ServerSocket socket = new ServerSocket(0);
+    try {
+      return socket.getLocalPort();
+    } finally {
+      socket.close();
+    }
+  }
+
+  /**
+   * @return a coordinator with one ring of <i>hosts</i>, serving a domain
+   *         with 2 partitions, where KEY_1 is in partition 0 and KEY_2 in 1
+   */
+  private Coordinator getCoordinator(final Host... hosts) {
+    final MockRing mockRingConfig = new MockRing(null, null, 1, RingState.UP) {
+      @Override
+      public Set<Host> getHosts() {
+        return new HashSet<Host>(Arrays.asList(hosts));
+      }
+    };
+    final MockDomain existentDomain = new MockDomain("existent_domain", 2,
+        new MapPartitioner(KEY_1, 0, KEY_2, 1), null, null, null);
+    MockDomainGroup mockDomainGroupConfig = new MockDomainGroup("myDomainGroup") {
+      @Override
+      public Domain getDomain(int domainId) {
+        return domainId == 1 ? existentDomain : null;
+      }
+
+      @Override
+      public Integer getDomainId(String domainName) {
+        return domainName.equals("existent_domain") ? 1 : null;
+      }
+
+      @Override
+      public DomainGroupVersion getLatestVersion() {
+        return new MockDomainGroupVersion(
+            new HashSet<DomainGroupVersionDomainVersion>(
+                Arrays.asList(new MockDomainGroupVersionDomainVersion(
+                    existentDomain, 1))), this, 1);
+      }
+    };
+    final MockRingGroup mockRingGroupConfig = new MockRingGroup(
+        mockDomainGroupConfig, "myRingGroup", null) {
+      @Override
+      public Set<Ring> getRings() {
+        return Collections.singleton((Ring) mockRingConfig);
+      }
+    };
+    return new MockCoordinator() {
+      @Override
+      public RingGroup getRingGroupConfig(String ringGroupName) {
+        return mockRingGroupConfig;
+      }
+    };
+  }
+
+  private Host getHostConfig(PartDaemonAddress address, final int... partNums)
       throws IOException {
     MockHost hc = new MockHost(address) {
       @Override
@@ -257,9 +530,11 @@ public class TestHankSmartClient extends BaseTestCase {
 
           @Override
           public Set<HostDomainPartition> getPartitions() {
-            return Collections
-                .singleton((HostDomainPartition) new MockHostDomainPartition(
-                    partNum, 1, -1));
+            Set<HostDomainPartition> partitions = new HashSet<HostDomainPartition>();
+            for (int partNum : partNums) {
+              partitions.add(new MockHostDomainPartition(partNum, 1, -1));
+            }
+            return partitions;
           }
         });
       }
@@ -0,0 +1,68 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.client;
+
+import com.rapleaf.hank.BaseTestCase;
+import com.rapleaf.hank.client.HostCircuitBreaker.State;
+
+public class TestHostCircuitBreaker extends BaseTestCase {
+  public void testTripsAfterThreshold() throws Exception {
+    HostCircuitBreaker breaker = new HostCircuitBreaker(3, 10000, 10000);
+    breaker.recordFailure();
+    breaker.recordFailure();
+    assertTrue(breaker.isAvailable());
+    // a success resets the count
+    breaker.recordSuccess();
+    breaker.recordFailure();
+    breaker.recordFailure();
+    assertEquals(State.CLOSED, breaker.getState());
+    breaker.recordFailure();
+    assertEquals(State.OPEN, breaker.getState());
+    assertFalse(breaker.isAvailable());
+    assertEquals(5, breaker.getNumFailures());
+    assertEquals(1, breaker.getNumTrips());
+  }
+
+  public void testHalfOpen() throws Exception {
+    HostCircuitBreaker breaker = new HostCircuitBreaker(1, 50, 150);
+    breaker.recordFailure();
+    assertFalse(breaker.isAvailable());
+    Thread.sleep(70);
+    assertEquals(State.HALF_OPEN, breaker.getState());
+    assertTrue(breaker.isAvailable());
+
+    // failing again opens it for twice as long
+    breaker.recordFailure();
+    assertEquals(State.OPEN, breaker.getState());
+    Thread.sleep(70);
+    assertFalse(breaker.isAvailable());
+    Thread.sleep(60);
+    assertTrue(breaker.isAvailable());
+
+    breaker.recordSuccess();
+    assertEquals(State.CLOSED, breaker.getState());
+    assertEquals(2, breaker.getNumTrips());
+  }
+
+  public void testNeverOpensWithoutThreshold() throws Exception {
+    HostCircuitBreaker breaker = new HostCircuitBreaker(0, 0, 0);
+    for (int i = 0; i < 10; i++) {
+      breaker.recordFailure();
+    }
+    assertTrue(breaker.isAvailable());
+    assertEquals(10, breaker.getConsecutiveFailures());
+  }
+}
@@ -0,0 +1,64 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.client;
+
+import junit.framework.TestCase;
+
+public class TestHostLatencyTracker extends TestCase {
+  public void testPercentiles() throws Exception {
+    HostLatencyTracker tracker = new HostLatencyTracker();
+    assertEquals(0.0, tracker.getAverageNanos());
+    for (int i = 1; i < HostLatencyTracker.MIN_SAMPLES; i++) {
+      tracker.record(i);
+    }
+    assertEquals(-1, tracker.getPercentileNanos(0.95));
+
+    HostLatencyTracker full = new HostLatencyTracker();
+    for (int i = 1; i <= 100; i++) {
+      full.record(i);
+    }
+    assertEquals(100, full.getNumSamples());
+    assertEquals(95, full.getPercentileNanos(0.95));
+    assertEquals(50, full.getPercentileNanos(0.5));
+  }
+
+  public void testWindow() throws Exception {
+    HostLatencyTracker tracker = new HostLatencyTracker();
+    for (int i = 0; i < HostLatencyTracker.WINDOW_SIZE; i++) {
+      tracker.record(1000);
+    }
+    assertEquals(1000, tracker.getPercentileNanos(0.99));
+    assertEquals(1000.0, tracker.getAverageNanos(), 0.001);
+
+    // old samples fall out of the window, and the average follows
+    for (int i = 0; i < HostLatencyTracker.WINDOW_SIZE; i++) {
+      tracker.record(10);
+    }
+    assertEquals(HostLatencyTracker.WINDOW_SIZE, tracker.getNumSamples());
+    assertEquals(10, tracker.getPercentileNanos(0.99));
+    assertTrue(tracker.getAverageNanos() < 11);
+  }
+
+  public void testOverloaded() throws Exception {
+    HostLatencyTracker tracker = new HostLatencyTracker();
+    assertFalse(tracker.isOverloaded());
+    tracker.recordOverloaded();
+    assertTrue(tracker.isOverloaded());
+    assertEquals(0, tracker.getNumSamples());
+    Thread.sleep(HostLatencyTracker.OVERLOADED_PENALTY_MS + 50);
+    assertFalse("only for a while", tracker.isOverloaded());
+  }
+}
@@ -0,0 +1,194 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.client;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TSocket;
+
+import com.rapleaf.hank.BaseTestCase;
+import com.rapleaf.hank.coordinator.HostState;
+import com.rapleaf.hank.coordinator.MockHost;
+import com.rapleaf.hank.coordinator.PartDaemonAddress;
+import com.rapleaf.hank.generated.HankExceptions;
+import com.rapleaf.hank.generated.HankResponse;
+import com.rapleaf.hank.generated.PartDaemon;
+
+public class TestPartDaemonAsyncConnection extends BaseTestCase {
+  private ServerSocket serverSocket;
+  private MockHost host;
+  private PartDaemonAsyncSelector selector;
+  private PartDaemonAsyncConnection connection;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    serverSocket = new ServerSocket(0);
+    host = new MockHost(new PartDaemonAddress("localhost", serverSocket.getLocalPort()));
+    host.setState(HostState.SERVING);
+    selector = new PartDaemonAsyncSelector();
+    selector.start();
+    connection = new PartDaemonAsyncConnection(host, new HostCircuitBreaker(0, 0, 0), selector);
+  }
+
+  public void testManyGetsInFlight() throws Exception {
+    List<HankResponseFuture> futures = new ArrayList<HankResponseFuture>();
+    for (int i = 0; i < 10; i++) {
+      futures.add(get(i, 0));
+    }
+    TProtocol protocol = accept();
+    // every get is sent without waiting for the earlier ones to be answered
+    List<Integer> seqIds = new ArrayList<Integer>();
+    for (int i = 0; i < 10; i++) {
+      seqIds.add(readCall(protocol));
+    }
+    assertEquals(10, connection.getNumPending());
+    // and each one gets its own response, whatever order they come back in
+    for (int i = 9; i >= 0; i--) {
+      reply(protocol, seqIds.get(i), i);
+    }
+    for (int i = 0; i < 10; i++) {
+      assertEquals(HankResponse.value(new byte[] { (byte) i }), futures.get(i).get(10, TimeUnit.SECONDS));
+    }
+    assertEquals(0, connection.getNumPending());
+  }
+
+  public void testDeadline() throws Exception {
+    HankResponseFuture late = get(1, System.currentTimeMillis() + 50);
+    TProtocol protocol = accept();
+    int lateSeqId = readCall(protocol);
+    assertEquals(HankResponse.xception(HankExceptions.deadline_exceeded(true)), late.get(10, TimeUnit.SECONDS));
+    // a get that gave up doesn't count as pending anymore
+    assertEquals(0, connection.getNumPending());
+
+    // the late response is dropped, and the connection keeps working
+    HankResponseFuture next = get(2, System.currentTimeMillis() + 10000);
+    int nextSeqId = readCall(protocol);
+    reply(protocol, lateSeqId, 1);
+    reply(protocol, nextSeqId, 2);
+    assertEquals(HankResponse.value(new byte[] { 2 }), next.get(10, TimeUnit.SECONDS));
+    assertEquals(0, connection.getNumPending());
+
+    // a get that's already too late isn't sent at all
+    assertEquals(HankResponse.xception(HankExceptions.deadline_exceeded(true)),
+        get(3, System.currentTimeMillis() - 1).get(10, TimeUnit.SECONDS));
+  }
+
+  public void testConnectionBreaks() throws Exception {
+    HankResponseFuture first = get(1, 0);
+    HankResponseFuture second = get(2, 0);
+    Socket socket = serverSocket.accept();
+    TProtocol protocol = new TCompactProtocol(new TFramedTransport(new TSocket(socket)));
+    readCall(protocol);
+    readCall(protocol);
+    socket.close();
+    // every get on the broken socket fails
+    assertGetFails(first);
+    assertGetFails(second);
+
+    // and the next get opens a new one
+    HankResponseFuture third = get(3, 0);
+    protocol = accept();
+    reply(protocol, readCall(protocol), 3);
+    assertEquals(HankResponse.value(new byte[] { 3 }), third.get(10, TimeUnit.SECONDS));
+  }
+
+  public void testHostStopsServing() throws Exception {
+    HankResponseFuture inFlight = get(1, 0);
+    TProtocol protocol = accept();
+    int seqId = readCall(protocol);
+
+    host.setState(HostState.IDLE);
+    connection.onHostStateChange(host);
+    assertTrue(connection.isClosed());
+    assertGetFails(get(2, 0));
+
+    // a get that was already sent still completes
+    reply(protocol, seqId, 1);
+    assertEquals(HankResponse.value(new byte[] { 1 }), inFlight.get(10, TimeUnit.SECONDS));
+  }
+
+  public void testStalledHostIsClosedOnceItsGetsGiveUp() throws Exception {
+    HankResponseFuture stalled = get(1, System.currentTimeMillis() + 200);
+    Socket socket = serverSocket.accept();
+    TProtocol protocol = new TCompactProtocol(new TFramedTransport(new TSocket(socket)));
+    readCall(protocol);
+
+    host.setState(HostState.IDLE);
+    connection.onHostStateChange(host);
+    assertEquals(HankResponse.xception(HankExceptions.deadline_exceeded(true)), stalled.get(10, TimeUnit.SECONDS));
+    assertEquals(0, connection.getNumPending());
+
+    // the host never answered, but the socket is closed anyway
+    socket.setSoTimeout(10000);
+    assertEquals(-1, socket.getInputStream().read());
+  }
+
+  private HankResponseFuture get(int key, long deadlineMs) {
+    HankResponseFuture future = new HankResponseFuture();
+    connection.get(0, ByteBuffer.wrap(new byte[] { (byte) key }), deadlineMs, future);
+    return future;
+  }
+
+  private TProtocol accept() throws Exception {
+    return new TCompactProtocol(new TFramedTransport(new TSocket(serverSocket.accept())));
+  }
+
+  private static int readCall(TProtocol protocol) throws TException {
+    TMessage message = protocol.readMessageBegin();
+    assertEquals("get", message.name);
+    new PartDaemon.get_args().read(protocol);
+    protocol.readMessageEnd();
+    return message.seqid;
+  }
+
+  private static void reply(TProtocol protocol, int seqId, int value) throws TException {
+    protocol.writeMessageBegin(new TMessage("get", TMessageType.REPLY, seqId));
+    PartDaemon.get_result result = new PartDaemon.get_result();
+    result.set_success(HankResponse.value(new byte[] { (byte) value }));
+    result.write(protocol);
+    protocol.writeMessageEnd();
+    protocol.getTransport().flush();
+  }
+
+  private static void assertGetFails(HankResponseFuture future) throws Exception {
+    try {
+      future.get(10, TimeUnit.SECONDS);
+      fail("the get should have failed");
+    } catch (ExecutionException e) {
+      // expected
+    }
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    selector.shutDown();
+    serverSocket.close();
+    super.tearDown();
+  }
+}
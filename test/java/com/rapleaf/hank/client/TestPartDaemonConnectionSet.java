@@ -0,0 +1,460 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.client;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.server.THsHaServer;
+import org.apache.thrift.server.THsHaServer.Args;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TTransportException;
+
+import com.rapleaf.hank.BaseTestCase;
+import com.rapleaf.hank.coordinator.HostState;
+import com.rapleaf.hank.coordinator.MockHost;
+import com.rapleaf.hank.coordinator.PartDaemonAddress;
+import com.rapleaf.hank.generated.HankExceptions;
+import com.rapleaf.hank.generated.HankResponse;
+import com.rapleaf.hank.generated.PartDaemon;
+
+public class TestPartDaemonConnectionSet extends BaseTestCase {
+  private static final ByteBuffer KEY = ByteBuffer.wrap(new byte[] { 1 });
+  private static final ByteBuffer SLOW_VALUE = ByteBuffer.wrap(new byte[] { 1 });
+  private static final ByteBuffer FAST_VALUE = ByteBuffer.wrap(new byte[] { 2 });
+  private static final ByteBuffer REMOTE_VALUE = ByteBuffer.wrap(new byte[] { 3 });
+  private static final long SLOW_GET_MS = 2000;
+
+  private static class DelayedPartDaemonHandler implements PartDaemon.Iface {
+    private final ByteBuffer value;
+    private final long delayMs;
+
+    public DelayedPartDaemonHandler(ByteBuffer value, long delayMs) {
+      this.value = value;
+      this.delayMs = delayMs;
+    }
+
+    @Override
+    public HankResponse get(int domainId, ByteBuffer key, long deadlineMs) throws TException {
+      try {
+        Thread.sleep(delayMs);
+      } catch (InterruptedException e) {
+        throw new TException(e);
+      }
+      return HankResponse.value(value);
+    }
+
+    @Override
+    public List<HankResponse> getBulk(int domainId, List<ByteBuffer> keys, long deadlineMs) throws TException {
+      List<HankResponse> responses = new ArrayList<HankResponse>(keys.size());
+      for (ByteBuffer key : keys) {
+        responses.add(get(domainId, key, deadlineMs));
+      }
+      return responses;
+    }
+  }
+
+  // turns every request away
+  private static class OverloadedPartDaemonHandler implements PartDaemon.Iface {
+    public int numRequests = 0;
+
+    @Override
+    public HankResponse get(int domainId, ByteBuffer key, long deadlineMs) throws TException {
+      numRequests++;
+      return OVERLOADED;
+    }
+
+    @Override
+    public List<HankResponse> getBulk(int domainId, List<ByteBuffer> keys, long deadlineMs) throws TException {
+      numRequests++;
+      List<HankResponse> responses = new ArrayList<HankResponse>(keys.size());
+      for (int i = 0; i < keys.size(); i++) {
+        responses.add(OVERLOADED);
+      }
+      return responses;
+    }
+  }
+
+  private static final HankResponse OVERLOADED = HankResponse.xception(HankExceptions.overloaded(true));
+
+  private final List<TServer> servers = new ArrayList<TServer>();
+  private final List<ServerSocket> brokenServers = new ArrayList<ServerSocket>();
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private int nextPort = 12400;
+
+  public void testHedgedGet() throws Exception {
+    PartDaemonConnection slow = new PartDaemonConnection(startServer(new DelayedPartDaemonHandler(SLOW_VALUE, SLOW_GET_MS)));
+    PartDaemonConnection fast = new PartDaemonConnection(startServer(new DelayedPartDaemonHandler(FAST_VALUE, 0)));
+    PartDaemonConnectionSet connectionSet = new PartDaemonConnectionSet(Arrays.asList(slow, fast),
+        new HankSmartClientOptions().setHedgeDelayMs(50), executor);
+
+    // round robin sends the first get to the slow host, and the second to the
+    // fast one. either way, the fast host answers long before the slow one
+    for (int i = 0; i < 3; i++) {
+      long start = System.currentTimeMillis();
+      assertEquals(HankResponse.value(FAST_VALUE), connectionSet.get(0, KEY));
+      assertTrue(System.currentTimeMillis() - start < SLOW_GET_MS / 2);
+    }
+    assertTrue(fast.getLatencyTracker().getNumSamples() >= 3);
+  }
+
+  public void testUnhedgedGet() throws Exception {
+    PartDaemonConnection slow = new PartDaemonConnection(startServer(new DelayedPartDaemonHandler(SLOW_VALUE, 100)));
+    PartDaemonConnection fast = new PartDaemonConnection(startServer(new DelayedPartDaemonHandler(FAST_VALUE, 0)));
+    PartDaemonConnectionSet connectionSet = new PartDaemonConnectionSet(Arrays.asList(slow, fast));
+
+    assertEquals(HankResponse.value(SLOW_VALUE), connectionSet.get(0, KEY));
+    assertEquals(HankResponse.value(FAST_VALUE), connectionSet.get(0, KEY));
+    assertEquals(1, slow.getLatencyTracker().getNumSamples());
+    assertTrue(slow.getLatencyTracker().getAverageNanos() > fast.getLatencyTracker().getAverageNanos());
+  }
+
+  public void testDeadline() throws Exception {
+    HostCircuitBreaker breaker = new HostCircuitBreaker(3, 10000, 10000);
+    PartDaemonConnection slow = new PartDaemonConnection(startServer(new DelayedPartDaemonHandler(SLOW_VALUE, SLOW_GET_MS)),
+        new HostLatencyTracker(), breaker, false);
+    PartDaemonConnectionSet connectionSet = new PartDaemonConnectionSet(Arrays.asList(slow));
+
+    long start = System.currentTimeMillis();
+    assertEquals(HankResponse.xception(HankExceptions.deadline_exceeded(true)), connectionSet.get(0, KEY, start + 100));
+    assertTrue(System.currentTimeMillis() - start < SLOW_GET_MS / 2);
+    // the timeout counts against the host
+    assertEquals(1, breaker.getNumFailures());
+
+    assertEquals(Arrays.asList(HankResponse.xception(HankExceptions.deadline_exceeded(true))),
+        connectionSet.getBulk(0, Arrays.asList(KEY), System.currentTimeMillis() - 1));
+  }
+
+  public void testHedgedGetDeadline() throws Exception {
+    PartDaemonConnection slow1 = new PartDaemonConnection(startServer(new DelayedPartDaemonHandler(SLOW_VALUE, SLOW_GET_MS)));
+    PartDaemonConnection slow2 = new PartDaemonConnection(startServer(new DelayedPartDaemonHandler(SLOW_VALUE, SLOW_GET_MS)));
+    PartDaemonConnectionSet connectionSet = new PartDaemonConnectionSet(Arrays.asList(slow1, slow2),
+        new HankSmartClientOptions().setHedgeDelayMs(50), executor);
+
+    long start = System.currentTimeMillis();
+    assertEquals(HankResponse.xception(HankExceptions.deadline_exceeded(true)), connectionSet.get(0, KEY, start + 150));
+    assertTrue(System.currentTimeMillis() - start < SLOW_GET_MS / 2);
+  }
+
+  public void testPowerOfTwoChoices() throws Exception {
+    PartDaemonConnection slow = new PartDaemonConnection(startServer(new DelayedPartDaemonHandler(SLOW_VALUE, 100)));
+    PartDaemonConnection fast = new PartDaemonConnection(startServer(new DelayedPartDaemonHandler(FAST_VALUE, 0)));
+    PartDaemonConnectionSet connectionSet = new PartDaemonConnectionSet(Arrays.asList(slow, fast),
+        new HankSmartClientOptions().setReplicaSelection(ReplicaSelection.POWER_OF_TWO_CHOICES), null);
+
+    // hosts without samples are tried first, after that the fast host wins
+    for (int i = 0; i < 10; i++) {
+      connectionSet.get(0, KEY);
+    }
+    assertEquals(1, slow.getLatencyTracker().getNumSamples());
+    assertEquals(9, fast.getLatencyTracker().getNumSamples());
+    assertEquals(0, slow.getLatencyTracker().getNumInFlight());
+  }
+
+  public void testLeastOutstanding() throws Exception {
+    final PartDaemonConnection slow = new PartDaemonConnection(startServer(new DelayedPartDaemonHandler(SLOW_VALUE, 500)));
+    PartDaemonConnection fast = new PartDaemonConnection(startServer(new DelayedPartDaemonHandler(FAST_VALUE, 0)));
+    final PartDaemonConnectionSet connectionSet = new PartDaemonConnectionSet(Arrays.asList(slow, fast),
+        new HankSmartClientOptions().setReplicaSelection(ReplicaSelection.LEAST_OUTSTANDING), null);
+
+    // tie up the slow host, and everything else should go to the fast one
+    Thread blocked = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          connectionSet.get(0, KEY);
+        } catch (TException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    blocked.start();
+    while (slow.getLatencyTracker().getNumInFlight() == 0) {
+      Thread.sleep(1);
+    }
+    for (int i = 0; i < 5; i++) {
+      assertEquals(HankResponse.value(FAST_VALUE), connectionSet.get(0, KEY));
+    }
+    blocked.join();
+  }
+
+  public void testPreferredHosts() throws Exception {
+    PartDaemonConnection remote = new PartDaemonConnection(startServer("127.0.0.1", new DelayedPartDaemonHandler(SLOW_VALUE, 0)));
+    MockHost localHost = startServer("localhost", new DelayedPartDaemonHandler(FAST_VALUE, 0));
+    PartDaemonConnection local = new PartDaemonConnection(localHost);
+    PartDaemonConnectionSet connectionSet = new PartDaemonConnectionSet(Arrays.asList(remote, local),
+        new HankSmartClientOptions().setPreferredHostNameSuffix("host"), null);
+
+    for (int i = 0; i < 4; i++) {
+      assertEquals(HankResponse.value(FAST_VALUE), connectionSet.get(0, KEY));
+    }
+
+    // with the preferred host gone, the others are used
+    localHost.setState(HostState.OFFLINE);
+    local.onHostStateChange(localHost);
+    assertEquals(HankResponse.value(SLOW_VALUE), connectionSet.get(0, KEY));
+  }
+
+  public void testFailover() throws Exception {
+    HostCircuitBreaker breaker = new HostCircuitBreaker(3, 10000, 10000);
+    PartDaemonConnection broken = new PartDaemonConnection(startBrokenServer(), new HostLatencyTracker(), breaker, false);
+    PartDaemonConnection good = new PartDaemonConnection(startServer(new DelayedPartDaemonHandler(FAST_VALUE, 0)));
+    PartDaemonConnectionSet connectionSet = new PartDaemonConnectionSet(Arrays.asList(broken, good));
+
+    for (int i = 0; i < 6; i++) {
+      assertEquals(HankResponse.value(FAST_VALUE), connectionSet.get(0, KEY));
+      // give the broken connection time to reconnect
+      Thread.sleep(300);
+    }
+    assertFalse("reconnected in the background", broken.isClosed());
+    assertEquals(HostCircuitBreaker.State.OPEN, breaker.getState());
+    assertEquals(3, breaker.getNumFailures());
+    assertEquals(1, breaker.getNumTrips());
+  }
+
+  public void testHedgedFailover() throws Exception {
+    PartDaemonConnection broken1 = new PartDaemonConnection(startBrokenServer());
+    PartDaemonConnection broken2 = new PartDaemonConnection(startBrokenServer());
+    PartDaemonConnection good = new PartDaemonConnection(startServer(new DelayedPartDaemonHandler(FAST_VALUE, 0)));
+    PartDaemonConnectionSet connectionSet = new PartDaemonConnectionSet(Arrays.asList(broken1, broken2, good),
+        new HankSmartClientOptions().setHedgeDelayMs(SLOW_GET_MS), executor);
+
+    // round robin makes the first broken host the primary, and neither has
+    // been timed, so the second is the backup. the good host is tried once
+    // both have failed, without waiting for the hedge delay.
+    long start = System.currentTimeMillis();
+    assertEquals(HankResponse.value(FAST_VALUE), connectionSet.get(0, KEY));
+    assertTrue(System.currentTimeMillis() - start < SLOW_GET_MS / 2);
+    assertEquals(1, good.getLatencyTracker().getNumSamples());
+  }
+
+  public void testHedgedGetPrefersLocalBackup() throws Exception {
+    PartDaemonConnection localSlow = new PartDaemonConnection(startServer("localhost", new DelayedPartDaemonHandler(SLOW_VALUE, SLOW_GET_MS)));
+    PartDaemonConnection localFast = new PartDaemonConnection(startServer("localhost", new DelayedPartDaemonHandler(FAST_VALUE, 0)));
+    PartDaemonConnection remote = new PartDaemonConnection(startServer("127.0.0.1", new DelayedPartDaemonHandler(REMOTE_VALUE, 0)));
+    PartDaemonConnectionSet connectionSet = new PartDaemonConnectionSet(Arrays.asList(localSlow, localFast, remote),
+        new HankSmartClientOptions().setPreferredHostNameSuffix("host").setHedgeDelayMs(50), executor);
+    // the remote host looks faster, but isn't in the client's locality
+    remote.getLatencyTracker().record(TimeUnit.MILLISECONDS.toNanos(1));
+    localFast.getLatencyTracker().record(TimeUnit.MILLISECONDS.toNanos(10));
+
+    assertEquals(HankResponse.value(FAST_VALUE), connectionSet.get(0, KEY));
+  }
+
+  public void testStateChangeDoesntWaitForStuckRequest() throws Exception {
+    // accepts connections and never answers, so requests without a deadline
+    // wait forever
+    final ServerSocket blackHole = new ServerSocket(0);
+    final List<Socket> accepted = new ArrayList<Socket>();
+    Thread acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            accepted.add(blackHole.accept());
+          }
+        } catch (IOException e) {
+          // closed
+        }
+      }
+    }, "black hole part daemon");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    try {
+      final MockHost host = new MockHost(new PartDaemonAddress("localhost", blackHole.getLocalPort()));
+      host.setState(HostState.SERVING);
+      HostCircuitBreaker breaker = new HostCircuitBreaker(3, 10000, 10000);
+      final PartDaemonConnection connection = new PartDaemonConnection(host, new HostLatencyTracker(), breaker, false);
+      Future<HankResponse> stuck = executor.submit(new Callable<HankResponse>() {
+        @Override
+        public HankResponse call() throws Exception {
+          return connection.get(0, KEY, 0);
+        }
+      });
+      Thread.sleep(200);
+      assertTrue(connection.isBusy());
+
+      host.setState(HostState.OFFLINE);
+      Future<?> stateChange = executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          connection.onHostStateChange(host);
+        }
+      });
+      stateChange.get(1, TimeUnit.SECONDS);
+      assertTrue(connection.isClosed());
+
+      // closing the socket fails the stuck request, which isn't the host's
+      // fault
+      try {
+        stuck.get(1, TimeUnit.SECONDS);
+        fail("should have thrown");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof TTransportException);
+      }
+      assertEquals(0, breaker.getNumFailures());
+      try {
+        connection.get(0, KEY, 0);
+        fail("should have thrown");
+      } catch (TTransportException e) {
+        assertEquals(TTransportException.NOT_OPEN, e.getType());
+      }
+    } finally {
+      blackHole.close();
+      for (Socket socket : accepted) {
+        socket.close();
+      }
+    }
+  }
+
+  public void testOverloadedFailover() throws Exception {
+    OverloadedPartDaemonHandler overloadedHandler = new OverloadedPartDaemonHandler();
+    HostCircuitBreaker breaker = new HostCircuitBreaker(3, 10000, 10000);
+    PartDaemonConnection overloaded = new PartDaemonConnection(startServer(overloadedHandler),
+        new HostLatencyTracker(), breaker, false);
+    PartDaemonConnection good = new PartDaemonConnection(startServer(new DelayedPartDaemonHandler(FAST_VALUE, 0)));
+    PartDaemonConnectionSet connectionSet = new PartDaemonConnectionSet(Arrays.asList(overloaded, good));
+
+    // failing over moves round robin along too, so every get goes to the
+    // overloaded host first
+    for (int i = 0; i < 4; i++) {
+      assertEquals(HankResponse.value(FAST_VALUE), connectionSet.get(0, KEY));
+    }
+    for (int i = 0; i < 2; i++) {
+      assertEquals(Arrays.asList(HankResponse.value(FAST_VALUE), HankResponse.value(FAST_VALUE)),
+          connectionSet.getBulk(0, Arrays.asList(KEY, KEY)));
+    }
+    assertEquals(6, overloadedHandler.numRequests);
+    // being overloaded isn't a failure
+    assertEquals(0, breaker.getNumFailures());
+
+    // hedged gets don't wait for the hedge delay to try the other host
+    PartDaemonConnectionSet hedged = new PartDaemonConnectionSet(Arrays.asList(overloaded, good),
+        new HankSmartClientOptions().setHedgeDelayMs(SLOW_GET_MS), executor);
+    for (int i = 0; i < 2; i++) {
+      long start = System.currentTimeMillis();
+      assertEquals(HankResponse.value(FAST_VALUE), hedged.get(0, KEY));
+      assertTrue(System.currentTimeMillis() - start < SLOW_GET_MS / 2);
+    }
+
+    // with nowhere else to go, the client gets the overloaded error
+    PartDaemonConnectionSet alone = new PartDaemonConnectionSet(Arrays.asList(overloaded));
+    assertEquals(OVERLOADED, alone.get(0, KEY));
+    assertEquals(Arrays.asList(OVERLOADED), alone.getBulk(0, Arrays.asList(KEY)));
+  }
+
+  public void testOverloadedHostIsntPreferred() throws Exception {
+    for (ReplicaSelection selection : new ReplicaSelection[] {ReplicaSelection.LEAST_OUTSTANDING, ReplicaSelection.POWER_OF_TWO_CHOICES}) {
+      OverloadedPartDaemonHandler overloadedHandler = new OverloadedPartDaemonHandler();
+      PartDaemonConnection overloaded = new PartDaemonConnection(startServer(overloadedHandler));
+      PartDaemonConnection good = new PartDaemonConnection(startServer(new DelayedPartDaemonHandler(FAST_VALUE, 1)));
+      PartDaemonConnectionSet connectionSet = new PartDaemonConnectionSet(Arrays.asList(overloaded, good),
+          new HankSmartClientOptions().setReplicaSelection(selection), null);
+
+      for (int i = 0; i < 20; i++) {
+        assertEquals(HankResponse.value(FAST_VALUE), connectionSet.get(0, KEY));
+      }
+      // turning gets away is quick, but doesn't make the host look fast
+      assertEquals(0, overloaded.getLatencyTracker().getNumSamples());
+      assertTrue(overloaded.getLatencyTracker().isOverloaded());
+      assertTrue(selection + " kept sending gets to the overloaded host", overloadedHandler.numRequests <= 1);
+    }
+  }
+
+  /**
+   * Start a server that accepts connections and hangs up right away, so
+   * every request to it fails.
+   */
+  private MockHost startBrokenServer() throws Exception {
+    final ServerSocket brokenServer = new ServerSocket(0);
+    brokenServers.add(brokenServer);
+    Thread acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            brokenServer.accept().close();
+          }
+        } catch (IOException e) {
+          // closed
+        }
+      }
+    }, "broken part daemon");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    MockHost host = new MockHost(new PartDaemonAddress("localhost", brokenServer.getLocalPort()));
+    host.setState(HostState.SERVING);
+    return host;
+  }
+
+  private MockHost startServer(PartDaemon.Iface handler) throws Exception {
+    return startServer("localhost", handler);
+  }
+
+  private MockHost startServer(String hostName, PartDaemon.Iface handler) throws Exception {
+    TNonblockingServerSocket socket = null;
+    while (socket == null) {
+      try {
+        socket = new TNonblockingServerSocket(nextPort);
+      } catch (TTransportException e) {
+        nextPort++;
+      }
+    }
+    Args args = new Args(socket);
+    args.processor(new PartDaemon.Processor(handler));
+    args.protocolFactory(new TCompactProtocol.Factory());
+    final TServer server = new THsHaServer(args);
+    servers.add(server);
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        server.serve();
+      }
+    }, "mock part daemon on port " + nextPort).start();
+    Thread.sleep(100);
+
+    MockHost host = new MockHost(new PartDaemonAddress(hostName, nextPort));
+    host.setState(HostState.SERVING);
+    nextPort++;
+    return host;
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    for (TServer server : servers) {
+      server.stop();
+    }
+    for (ServerSocket brokenServer : brokenServers) {
+      brokenServer.close();
+    }
+    executor.shutdownNow();
+    super.tearDown();
+  }
+}
@@ -0,0 +1,173 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.client;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.server.THsHaServer;
+import org.apache.thrift.server.THsHaServer.Args;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+import com.rapleaf.hank.BaseTestCase;
+import com.rapleaf.hank.generated.HankResponse;
+import com.rapleaf.hank.generated.PartDaemon;
+
+public class TestPipelinedPartDaemonClient extends BaseTestCase {
+  // answers with the key it was asked for
+  private static class EchoPartDaemonHandler implements PartDaemon.Iface {
+    @Override
+    public HankResponse get(int domainId, ByteBuffer key, long deadlineMs) throws TException {
+      try {
+        Thread.sleep(5);
+      } catch (InterruptedException e) {
+        throw new TException(e);
+      }
+      return HankResponse.value(key);
+    }
+
+    @Override
+    public List<HankResponse> getBulk(int domainId, List<ByteBuffer> keys, long deadlineMs) throws TException {
+      List<HankResponse> responses = new ArrayList<HankResponse>(keys.size());
+      for (ByteBuffer key : keys) {
+        responses.add(get(domainId, key, deadlineMs));
+      }
+      return responses;
+    }
+  }
+
+  private TServer server;
+  private int port = 12500;
+  private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    TNonblockingServerSocket socket = null;
+    while (socket == null) {
+      try {
+        socket = new TNonblockingServerSocket(port);
+      } catch (TTransportException e) {
+        port++;
+      }
+    }
+    Args args = new Args(socket);
+    args.processor(new PartDaemon.Processor(new EchoPartDaemonHandler()));
+    args.protocolFactory(new TCompactProtocol.Factory());
+    server = new THsHaServer(args);
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        server.serve();
+      }
+    }, "mock part daemon").start();
+    Thread.sleep(100);
+  }
+
+  public void testManyCallersOneConnection() throws Exception {
+    TTransport transport = new TSocket("localhost", port);
+    transport.open();
+    final PipelinedPartDaemonClient client = new PipelinedPartDaemonClient(transport, "localhost:" + port);
+
+    List<Future<HankResponse>> futures = new ArrayList<Future<HankResponse>>();
+    for (int i = 0; i < 100; i++) {
+      final ByteBuffer key = ByteBuffer.wrap(new byte[] { (byte) i });
+      futures.add(executor.submit(new Callable<HankResponse>() {
+        @Override
+        public HankResponse call() throws Exception {
+          return client.get(0, key, 0);
+        }
+      }));
+    }
+    // every caller gets the response to its own request
+    for (int i = 0; i < 100; i++) {
+      assertEquals(HankResponse.value(new byte[] { (byte) i }), futures.get(i).get(10, TimeUnit.SECONDS));
+    }
+    assertEquals(Arrays.asList(HankResponse.value(new byte[] { 1 }), HankResponse.value(new byte[] { 2 })),
+        client.getBulk(0, Arrays.asList(ByteBuffer.wrap(new byte[] { 1 }), ByteBuffer.wrap(new byte[] { 2 })), 0));
+    assertEquals(0, client.getNumPending());
+    assertTrue(client.isOpen());
+
+    client.close();
+    assertFalse(client.isOpen());
+    try {
+      client.get(0, ByteBuffer.wrap(new byte[] { 1 }), 0);
+      fail("a closed client should refuse requests");
+    } catch (TTransportException e) {
+      // expected
+    }
+  }
+
+  public void testTransportBreaks() throws Exception {
+    TTransport transport = new TSocket("localhost", port);
+    transport.open();
+    PipelinedPartDaemonClient client = new PipelinedPartDaemonClient(transport, "localhost:" + port);
+    assertEquals(HankResponse.value(new byte[] { 1 }), client.get(0, ByteBuffer.wrap(new byte[] { 1 }), 0));
+
+    // the reader notices the socket is gone
+    transport.close();
+    for (int i = 0; i < 100 && client.isOpen(); i++) {
+      Thread.sleep(10);
+    }
+    assertFalse(client.isOpen());
+    try {
+      client.get(0, ByteBuffer.wrap(new byte[] { 1 }), 0);
+      fail("a broken client should refuse requests");
+    } catch (TException e) {
+      // expected
+    }
+  }
+
+  public void testDeadline() throws Exception {
+    TTransport transport = new TSocket("localhost", port);
+    transport.open();
+    PipelinedPartDaemonClient client = new PipelinedPartDaemonClient(transport, "localhost:" + port);
+    try {
+      // the handler takes 5ms
+      client.get(0, ByteBuffer.wrap(new byte[] { 1 }), System.currentTimeMillis() + 1);
+      fail("the get should have timed out");
+    } catch (TTransportException e) {
+      assertEquals(TTransportException.TIMED_OUT, e.getType());
+    }
+    // the late response is dropped, and the connection keeps working
+    assertTrue(client.isOpen());
+    assertEquals(HankResponse.value(new byte[] { 2 }), client.get(0, ByteBuffer.wrap(new byte[] { 2 }), System.currentTimeMillis() + 10000));
+    assertEquals(0, client.getNumPending());
+    client.close();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    if (server != null) {
+      server.stop();
+    }
+    executor.shutdownNow();
+    super.tearDown();
+  }
+}
@@ -35,6 +35,7 @@ public class TestYamlDataDeployerConfigurator extends TestCase {
     pw.println("data_deployer:");
     pw.println("  ring_group_name: myRingGroup");
     pw.println("  sleep_interval: 1000");
+    pw.println("  update_while_serving: true");
     pw.println("coordinator:");
     pw.println("  factory: " + MockCoordinator.Factory.class.getName());
     pw.println("  options:");
@@ -46,6 +47,7 @@ public class TestYamlDataDeployerConfigurator extends TestCase {
     YamlDataDeployerConfigurator c = new YamlDataDeployerConfigurator(PATH);
     assertEquals(1000, c.getSleepInterval());
     assertEquals("myRingGroup", c.getRingGroupName());
+    assertTrue(c.isUpdateWhileServing());
     assertTrue(c.getCoordinator() instanceof MockCoordinator);
     assertTrue(((MockCoordinator)c.getCoordinator()).getInitOptions().containsKey("blah"));
   }
@@ -34,8 +34,13 @@ public class TestYamlPartservConfigurator extends BaseTestCase {
     pw.println("  ring_group_name: rg1");
     pw.println("  part_daemon:");
     pw.println("    num_worker_threads: 5");
+    pw.println("    block_cache_capacity: 1048576");
+    pw.println("    domain_concurrency_limits:");
+    pw.println("      domain1: 16");
     pw.println("  update_daemon:");
     pw.println("    num_concurrent_updates: 5");
+    pw.println("    merge_read_ahead_blocks: 2");
+    pw.println("    stream_remote_deltas: true");
     pw.println("coordinator:");
     pw.println("  factory: " + MockCoordinator.Factory.class.getName());
     pw.println("  options:");
@@ -47,6 +52,11 @@ public class TestYamlPartservConfigurator extends BaseTestCase {
     assertEquals(1, conf.getServicePort());
     assertEquals("rg1", conf.getRingGroupName());
     assertEquals(5, conf.getNumConcurrentUpdates());
+    assertEquals(2, conf.getMergeReadAheadBlocks());
+    assertTrue(conf.getStreamRemoteDeltas());
     assertEquals(5, conf.getNumThreads());
+    assertEquals(1048576, conf.getBlockCacheCapacity());
+    assertEquals(16, conf.getMaxConcurrentRequests("domain1"));
+    assertEquals(0, conf.getMaxConcurrentRequests("domain2"));
   }
 }
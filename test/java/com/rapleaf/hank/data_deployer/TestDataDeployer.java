@@ -114,6 +114,11 @@ public class TestDataDeployer extends TestCase {
         return "myRingGroup";
       }
 
+      @Override
+      public boolean isUpdateWhileServing() {
+        return false;
+      }
+
       @Override
       public Coordinator getCoordinator() {
         return new MockCoordinator(){
@@ -170,6 +175,11 @@ public class TestDataDeployer extends TestCase {
         return "myRingGroup";
       }
 
+      @Override
+      public boolean isUpdateWhileServing() {
+        return false;
+      }
+
       @Override
       public Coordinator getCoordinator() {
         return new MockCoordinator(){
@@ -26,6 +26,7 @@ import junit.framework.TestCase;
 import com.rapleaf.hank.coordinator.Host;
 import com.rapleaf.hank.coordinator.HostCommand;
 import com.rapleaf.hank.coordinator.HostState;
+import com.rapleaf.hank.coordinator.MockHost;
 import com.rapleaf.hank.coordinator.MockRing;
 import com.rapleaf.hank.coordinator.MockRingGroup;
 import com.rapleaf.hank.coordinator.PartDaemonAddress;
@@ -108,6 +109,48 @@ public class TestRingGroupUpdateTransitionFunctionImpl extends TestCase {
     return new RingGroupUpdateTransitionFunctionImpl();
   }
 
+  public void testUpdatesWhileServing() throws Exception {
+    MRC r1 = new MRC(1, RingState.UP, 1, 2);
+    MRC r2 = new MRC(2, RingState.UP, 1, 2);
+    MRG rg = new MRG(1, 2, r1, r2);
+    new RingGroupUpdateTransitionFunctionImpl(true).manageTransitions(rg);
+
+    assertEquals("r1 should have been told to update", HostCommand.EXECUTE_UPDATE, r1.allCommanded);
+    assertEquals(RingState.UPDATING, r1.getState());
+    assertNull("r2 should not have been told to update", r2.allCommanded);
+    assertEquals(RingState.UP, r2.getState());
+  }
+
+  public void testWaitsForHostsUpdatingWhileServing() throws Exception {
+    final MockHost host = new MockHost(new PartDaemonAddress("localhost", 1));
+    host.setState(HostState.SERVING);
+    host.enqueueCommand(HostCommand.EXECUTE_UPDATE);
+    MRC r1 = new MRC(1, RingState.UPDATING, 1, 2) {
+      @Override
+      public Set<Host> getHosts() {
+        return Collections.singleton((Host) host);
+      }
+    };
+    MRG rg = new MRG(1, 2, r1);
+
+    // the host hasn't picked up its command yet
+    new RingGroupUpdateTransitionFunctionImpl(true).manageTransitions(rg);
+    assertNull(r1.allCommanded);
+    assertEquals(RingState.UPDATING, r1.getState());
+
+    // the host is updating in the background
+    host.processNextCommand();
+    new RingGroupUpdateTransitionFunctionImpl(true).manageTransitions(rg);
+    assertNull(r1.allCommanded);
+    assertEquals(RingState.UPDATING, r1.getState());
+
+    // the host has swapped in the new versions
+    host.completeCommand();
+    new RingGroupUpdateTransitionFunctionImpl(true).manageTransitions(rg);
+    assertEquals(HostCommand.SERVE_DATA, r1.allCommanded);
+    assertEquals(RingState.COMING_UP, r1.getState());
+  }
+
   public void testDownsOnlyNotYetUpdatedRing() throws Exception {
     // this ring is fully updated
     MRC r1 = new MRC(1, RingState.UP, 2, null);
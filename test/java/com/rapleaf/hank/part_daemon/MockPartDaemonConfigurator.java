@@ -16,6 +16,8 @@
 package com.rapleaf.hank.part_daemon;
 
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import com.rapleaf.hank.config.PartservConfigurator;
@@ -27,6 +29,7 @@ public class MockPartDaemonConfigurator implements PartservConfigurator {
   private final Coordinator coordinator;
   private final String ringGroupName;
   private final String localDataDir;
+  private final Map<String, Integer> maxConcurrentRequests = new HashMap<String, Integer>();
 
   public MockPartDaemonConfigurator(int servicePort, Coordinator coordinator, String ringGroupName, String localDataDir) {
     this.servicePort = servicePort;
@@ -64,4 +67,39 @@ public class MockPartDaemonConfigurator implements PartservConfigurator {
   public int getNumConcurrentUpdates() {
     return 1;
   }
+
+  @Override
+  public int getMergeReadAheadBlocks() {
+    return 0;
+  }
+
+  @Override
+  public boolean getStreamRemoteDeltas() {
+    return false;
+  }
+
+  @Override
+  public long getBlockCacheCapacity() {
+    return 0;
+  }
+
+  @Override
+  public String getServerEngine() {
+    return "hsha";
+  }
+
+  @Override
+  public int getNumSelectorThreads() {
+    return 1;
+  }
+
+  @Override
+  public int getMaxConcurrentRequests(String domainName) {
+    Integer limit = maxConcurrentRequests.get(domainName);
+    return limit == null ? 0 : limit;
+  }
+
+  public void setMaxConcurrentRequests(String domainName, int limit) {
+    maxConcurrentRequests.put(domainName, limit);
+  }
 }
@@ -1,6 +1,7 @@
 package com.rapleaf.hank.part_daemon;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.rapleaf.hank.BaseTestCase;
 import com.rapleaf.hank.coordinator.MockHostDomainPartition;
@@ -26,18 +27,94 @@ public class TestDomainReaderSet extends BaseTestCase {
     drs.get(key, result);
     drs.get(nullKey, result);
 
-    assertEquals(prc[0].getRequests().get(), 2l);
-    assertEquals(prc[0].getHits().get(), 1l);
+    assertEquals(prc[0].getRequests().sum(), 2l);
+    assertEquals(prc[0].getHits().sum(), 1l);
+    assertEquals(prc[0].getBytesServed().sum(), 1l);
+    assertTrue(prc[0].getLatencyNs().sum() > 0);
 
-    assertEquals(prc[0].getHostDomainPartition().getCount("Requests in last minute").intValue(), 0);
-    assertEquals(prc[0].getHostDomainPartition().getCount("Hits in last minute").intValue(), 0);
+    assertEquals(prc[0].getHostDomainPartition().getCount(PartReaderAndCounters.REQUESTS_COUNTER).intValue(), 0);
+    assertEquals(prc[0].getHostDomainPartition().getCount(PartReaderAndCounters.HITS_COUNTER).intValue(), 0);
+    assertEquals(prc[0].getHostDomainPartition().getCount(PartReaderAndCounters.BYTES_SERVED_COUNTER).intValue(), 0);
 
     Thread.sleep(3000);
 
-    assertEquals(prc[0].getRequests().get(), 0l);
-    assertEquals(prc[0].getHits().get(), 0l);
+    assertEquals(prc[0].getRequests().sum(), 0l);
+    assertEquals(prc[0].getHits().sum(), 0l);
+    assertEquals(prc[0].getBytesServed().sum(), 0l);
+    assertEquals(prc[0].getLatencyNs().sum(), 0l);
 
-    assertEquals(prc[0].getHostDomainPartition().getCount("Requests in last minute").intValue(), 2);
-    assertEquals(prc[0].getHostDomainPartition().getCount("Hits in last minute").intValue(), 1);
+    assertEquals(prc[0].getHostDomainPartition().getCount(PartReaderAndCounters.REQUESTS_COUNTER).intValue(), 2);
+    assertEquals(prc[0].getHostDomainPartition().getCount(PartReaderAndCounters.HITS_COUNTER).intValue(), 1);
+    assertEquals(prc[0].getHostDomainPartition().getCount(PartReaderAndCounters.BYTES_SERVED_COUNTER).intValue(), 1);
+    assertNotNull(prc[0].getHostDomainPartition().getCount(PartReaderAndCounters.MEAN_LATENCY_COUNTER));
+
+    drs.shutDown();
+  }
+
+  public void testConcurrencyLimitFromManyThreads() throws Exception {
+    ByteBuffer key = ByteBuffer.wrap("key".getBytes());
+    PartReaderAndCounters prc[] = new PartReaderAndCounters[] {new PartReaderAndCounters(
+        new MockHostDomainPartition(0, 1, 2), new MockReader(null, 1, "v".getBytes()))};
+    final DomainReaderSet drs = new DomainReaderSet("domainReaderSet", prc,
+        new MapPartitioner(key, 0), 3, 2000);
+    final AtomicInteger inFlight = new AtomicInteger(0);
+    final AtomicInteger maxInFlight = new AtomicInteger(0);
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 10000; j++) {
+            if (drs.tryStartRequest()) {
+              int current = inFlight.incrementAndGet();
+              int max;
+              while (current > (max = maxInFlight.get()) && !maxInFlight.compareAndSet(max, current)) {
+              }
+              inFlight.decrementAndGet();
+              drs.finishRequest();
+            }
+          }
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertTrue("never more than the limit", maxInFlight.get() <= 3);
+    assertEquals(0, drs.getNumInFlight());
+    drs.shutDown();
+  }
+
+  public void testConcurrencyLimit() throws Exception {
+    ByteBuffer key = ByteBuffer.wrap("key".getBytes());
+    PartReaderAndCounters prc[] = new PartReaderAndCounters[] {new PartReaderAndCounters(
+        new MockHostDomainPartition(0, 1, 2), new MockReader(null, 1, "v".getBytes()))};
+    DomainReaderSet drs = new DomainReaderSet("domainReaderSet", prc,
+        new MapPartitioner(key, 0), 2, 2000);
+
+    assertTrue(drs.tryStartRequest());
+    assertTrue(drs.tryStartRequest());
+    assertEquals(2, drs.getNumInFlight());
+    assertFalse("at the limit", drs.tryStartRequest());
+    assertEquals("turned away requests aren't counted", 2, drs.getNumInFlight());
+    drs.recordShed(key);
+    assertEquals(1, prc[0].getShed().sum());
+
+    drs.finishRequest();
+    assertTrue(drs.tryStartRequest());
+    drs.finishRequest();
+    assertEquals(1, drs.getNumInFlight());
+
+    Thread.sleep(3000);
+    assertEquals(prc[0].getHostDomainPartition().getCount(PartReaderAndCounters.SHED_COUNTER).intValue(), 1);
+    assertEquals(prc[0].getShed().sum(), 0l);
+    // the domain's admission control state is published too
+    assertEquals(prc[0].getHostDomainPartition().getCount(PartReaderAndCounters.DOMAIN_IN_FLIGHT_COUNTER).intValue(), 1);
+    assertEquals(prc[0].getHostDomainPartition().getCount(PartReaderAndCounters.DOMAIN_MAX_CONCURRENT_REQUESTS_COUNTER).intValue(), 2);
+    drs.finishRequest();
+    assertEquals(0, drs.getNumInFlight());
+
+    drs.shutDown();
   }
 }
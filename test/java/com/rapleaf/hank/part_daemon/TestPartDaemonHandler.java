@@ -17,9 +17,11 @@ package com.rapleaf.hank.part_daemon;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import com.rapleaf.hank.BaseTestCase;
@@ -49,6 +51,7 @@ import com.rapleaf.hank.generated.HankExceptions;
 import com.rapleaf.hank.generated.HankResponse;
 import com.rapleaf.hank.partitioner.MapPartitioner;
 import com.rapleaf.hank.partitioner.Partitioner;
+import com.rapleaf.hank.storage.BlockCache;
 import com.rapleaf.hank.storage.Reader;
 import com.rapleaf.hank.storage.mock.MockReader;
 import com.rapleaf.hank.storage.mock.MockStorageEngine;
@@ -60,7 +63,12 @@ public class TestPartDaemonHandler extends BaseTestCase {
   private static final ByteBuffer K4 = bb(4);
   private static final ByteBuffer K5 = bb(5);
   private static final byte[] V1 = new byte[] { 9 };
-  private static final Host mockHostConfig = new MockHost(
+  private static final byte[] V2 = new byte[] { 10 };
+  // the version and assignment of the host's partitions, which reloads pick up
+  private int partVersion = 1;
+  private boolean part4Assigned = true;
+
+  private final Host mockHostConfig = new MockHost(
       new PartDaemonAddress("localhost", 12345)) {
 
     @Override
@@ -78,9 +86,12 @@ public class TestPartDaemonHandler extends BaseTestCase {
 
         @Override
         public Set<HostDomainPartition> getPartitions() throws IOException {
-          return new HashSet<HostDomainPartition>(Arrays.asList(
-              new MockHostDomainPartition(0, 1, 2),
-              new MockHostDomainPartition(4, 1, 2)));
+          Set<HostDomainPartition> partitions = new HashSet<HostDomainPartition>();
+          partitions.add(new MockHostDomainPartition(0, partVersion, 2));
+          if (part4Assigned) {
+            partitions.add(new MockHostDomainPartition(4, partVersion, 2));
+          }
+          return partitions;
         }
 
         @Override
@@ -99,11 +110,20 @@ public class TestPartDaemonHandler extends BaseTestCase {
   public void testSetUpAndServe() throws Exception {
     Partitioner partitioner = new MapPartitioner(K1, 0, K2, 1, K3, 2, K4, 3,
         K5, 4);
+    final byte[][] currentValue = new byte[][] { V1 };
+    final List<Reader> closedReaders = new ArrayList<Reader>();
+    final List<BlockCache> blockCaches = new ArrayList<BlockCache>();
     MockStorageEngine storageEngine = new MockStorageEngine() {
       @Override
-      public Reader getReader(PartservConfigurator configurator, int partNum)
-          throws IOException {
-        return new MockReader(configurator, partNum, V1);
+      public Reader getReader(PartservConfigurator configurator, int partNum,
+          BlockCache blockCache) throws IOException {
+        blockCaches.add(blockCache);
+        return new MockReader(configurator, partNum, currentValue[0]) {
+          @Override
+          public void close() throws IOException {
+            closedReaders.add(this);
+          }
+        };
       }
     };
     Domain dc = new MockDomain("myDomain", 5, partitioner, storageEngine, null,
@@ -147,19 +167,82 @@ public class TestPartDaemonHandler extends BaseTestCase {
       }
     };
     PartservConfigurator config = new MockPartDaemonConfigurator(12345,
-        mockCoordinator, "myRingGroupName", "/tmp/local/data/dir");
+        mockCoordinator, "myRingGroupName", "/tmp/local/data/dir") {
+      @Override
+      public long getBlockCacheCapacity() {
+        return 1024 * 1024;
+      }
+    };
     PartDaemonHandler handler = new PartDaemonHandler(new PartDaemonAddress(
         "localhost", 12345), config);
 
-    assertEquals(HankResponse.value(V1), handler.get((byte) 0, K1));
-    assertEquals(HankResponse.value(V1), handler.get((byte) 0, K5));
+    // every reader shares the handler's block cache
+    assertEquals(2, blockCaches.size());
+    assertNotNull(blockCaches.get(0));
+    assertSame(blockCaches.get(0), blockCaches.get(1));
+
+    assertEquals(HankResponse.value(V1), handler.get((byte) 0, K1, 0));
+    assertEquals(HankResponse.value(V1), handler.get((byte) 0, K5, 0));
 
     assertEquals(HankResponse.xception(HankExceptions.wrong_host(true)),
-        handler.get((byte) 0, K2));
+        handler.get((byte) 0, K2, 0));
     assertEquals(HankResponse.xception(HankExceptions.wrong_host(true)),
-        handler.get((byte) 0, K3));
+        handler.get((byte) 0, K3, 0));
     assertEquals(HankResponse.xception(HankExceptions.wrong_host(true)),
-        handler.get((byte) 0, K4));
+        handler.get((byte) 0, K4, 0));
+
+    assertEquals(Arrays.asList(HankResponse.value(V1),
+        HankResponse.xception(HankExceptions.wrong_host(true)),
+        HankResponse.value(V1)),
+        handler.getBulk((byte) 0, Arrays.asList(K1, K2, K5), 0));
+    assertEquals(Arrays.asList(HankResponse.xception(HankExceptions.no_such_domain(true))),
+        handler.getBulk((byte) 1, Arrays.asList(K1), 0));
+
+    // timeouts count from when the request was read, so requests that waited
+    // for a worker for longer than that aren't served
+    assertEquals(HankResponse.value(V1), handler.get((byte) 0, K1, 60000));
+    assertEquals(Arrays.asList(HankResponse.value(V1), HankResponse.value(V1)),
+        handler.getBulk((byte) 0, Arrays.asList(K1, K5), 60000));
+    RequestReceivedTime.set(System.currentTimeMillis() - 1000);
+    try {
+      assertEquals(HankResponse.value(V1), handler.get((byte) 0, K1, 60000));
+      assertEquals(HankResponse.xception(HankExceptions.deadline_exceeded(true)),
+          handler.get((byte) 0, K1, 500));
+      assertEquals(Arrays.asList(HankResponse.xception(HankExceptions.deadline_exceeded(true)),
+          HankResponse.xception(HankExceptions.deadline_exceeded(true))),
+          handler.getBulk((byte) 0, Arrays.asList(K1, K5), 500));
+    } finally {
+      RequestReceivedTime.set(0);
+    }
+
+    // partitions whose version hasn't changed keep their readers
+    currentValue[0] = V2;
+    handler.reload();
+    assertEquals(HankResponse.value(V1), handler.get((byte) 0, K1, 0));
+    assertEquals(0, closedReaders.size());
+
+    // reloading swaps in readers for the new version and closes the old ones
+    partVersion = 2;
+    handler.reload();
+    assertEquals(HankResponse.value(V2), handler.get((byte) 0, K1, 0));
+    assertEquals(HankResponse.value(V2), handler.get((byte) 0, K5, 0));
+    assertEquals(2, closedReaders.size());
+
+    // a partition that's no longer assigned stops being served, without
+    // touching the others
+    part4Assigned = false;
+    handler.reload();
+    assertEquals(HankResponse.xception(HankExceptions.wrong_host(true)),
+        handler.get((byte) 0, K5, 0));
+    assertEquals(3, closedReaders.size());
+
+    // and one that's reassigned is served again
+    part4Assigned = true;
+    handler.reload();
+    assertEquals(HankResponse.value(V2), handler.get((byte) 0, K5, 0));
+
+    handler.shutDown();
+    assertEquals(5, closedReaders.size());
   }
 
   private static ByteBuffer bb(int i) {
@@ -17,6 +17,7 @@ package com.rapleaf.hank.part_daemon;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.List;
 
 import org.apache.thrift.TException;
 
@@ -35,15 +36,19 @@ import com.rapleaf.hank.generated.HankResponse;
 
 public class TestPartDaemonServer extends BaseTestCase {
   private final class MockUpdateManager implements IUpdateManager {
-    public boolean updateCalled = false;
+    public int numUpdates = 0;
+    public boolean fail = false;
     @Override
     public void update() throws IOException {
-      updateCalled = true;
+      numUpdates++;
       try {
         Thread.sleep(1000);
       } catch (InterruptedException e) {
         e.printStackTrace();
       }
+      if (fail) {
+        throw new IOException("failed on purpose");
+      }
     }
   }
 
@@ -70,43 +75,15 @@ public class TestPartDaemonServer extends BaseTestCase {
     }
   };
 
-  private static final MockPartDaemonConfigurator configurator = new MockPartDaemonConfigurator(12345, mockCoord, "myRingGroup", null);
 
   public void testColdStartAndShutDown() throws Exception {
     final MockUpdateManager mockUpdateManager = new MockUpdateManager();
-    final PartDaemonServer server = new PartDaemonServer(configurator, "localhost") {
-      @Override
-      protected IfaceWithShutdown getHandler() throws IOException {
-        return new IfaceWithShutdown() {
-          @Override
-          public HankResponse get(int domainId, ByteBuffer key) throws TException {return null;}
-
-          @Override
-          public void shutDown() throws InterruptedException {}
-        };
-      }
-
-      @Override
-      protected IUpdateManager getUpdateManager() {
-        return mockUpdateManager;
-      }
-    };
-
-    Runnable serverRunnable = new Runnable() {
-      @Override
-      public void run() {
-        try {
-          server.run();
-        } catch (IOException e) {
-          fail("exception!" + e);
-        }
-      }
-    };
-    Thread t = new Thread(serverRunnable, "server thread");
+    final int[] numReloads = new int[] { 0 };
+    final PartDaemonServer server = getServer(12345, mockUpdateManager, numReloads);
+    Thread t = startServer(server);
 
     // TODO: test here for when starting up with commands in the queue...
 
-    t.start();
     Thread.sleep(1000);
     assertEquals(HostState.IDLE, mockHostConfig.getState());
 
@@ -117,6 +94,18 @@ public class TestPartDaemonServer extends BaseTestCase {
         HostState.SERVING,
         mockHostConfig.getState());
 
+    // updating while serving keeps serving and swaps in the new versions
+    mockHostConfig.enqueueCommand(HostCommand.EXECUTE_UPDATE);
+    server.onCommandQueueChange(mockHostConfig);
+    assertEquals("Daemon state is still SERVING",
+        HostState.SERVING,
+        mockHostConfig.getState());
+    Thread.sleep(1500);
+    assertEquals("update called", 1, mockUpdateManager.numUpdates);
+    assertEquals("handler reloaded", 1, numReloads[0]);
+    assertNull("current command cleared", mockHostConfig.getCurrentCommand());
+    assertEquals(HostState.SERVING, mockHostConfig.getState());
+
     mockHostConfig.enqueueCommand(HostCommand.GO_TO_IDLE);
     server.onCommandQueueChange(mockHostConfig);
     assertEquals("Daemon state is now IDLE",
@@ -129,11 +118,132 @@ public class TestPartDaemonServer extends BaseTestCase {
         HostState.UPDATING,
         mockHostConfig.getState());
     Thread.sleep(1500);
-    assertTrue("update called", mockUpdateManager.updateCalled);
+    assertEquals("update called", 2, mockUpdateManager.numUpdates);
     assertNull("current command cleared", mockHostConfig.getCurrentCommand());
+    assertEquals("Daemon state is now IDLE",
+        HostState.IDLE,
+        mockHostConfig.getState());
+    assertEquals("no reload when not serving", 1, numReloads[0]);
 
     server.stop();
     t.join();
     assertEquals(HostState.OFFLINE, mockHostConfig.getState());
   }
+
+  public void testCommandsQueuedDuringUpdateWhileServing() throws Exception {
+    final MockUpdateManager mockUpdateManager = new MockUpdateManager();
+    final int[] numReloads = new int[] { 0 };
+    final PartDaemonServer server = getServer(12346, mockUpdateManager, numReloads);
+    Thread t = startServer(server);
+    Thread.sleep(1000);
+
+    mockHostConfig.enqueueCommand(HostCommand.SERVE_DATA);
+    server.onCommandQueueChange(mockHostConfig);
+    assertEquals(HostState.SERVING, mockHostConfig.getState());
+
+    mockHostConfig.enqueueCommand(HostCommand.EXECUTE_UPDATE);
+    server.onCommandQueueChange(mockHostConfig);
+    mockHostConfig.enqueueCommand(HostCommand.GO_TO_IDLE);
+    server.onCommandQueueChange(mockHostConfig);
+    assertEquals("still SERVING while updating",
+        HostState.SERVING,
+        mockHostConfig.getState());
+    assertEquals("GO_TO_IDLE stays queued",
+        HostCommand.EXECUTE_UPDATE,
+        mockHostConfig.getCurrentCommand());
+    assertEquals(1, mockHostConfig.getCommandQueue().size());
+
+    Thread.sleep(1500);
+    assertEquals("update called", 1, mockUpdateManager.numUpdates);
+    assertEquals("handler reloaded", 1, numReloads[0]);
+    assertEquals("GO_TO_IDLE processed after the update",
+        HostState.IDLE,
+        mockHostConfig.getState());
+    assertNull("current command cleared", mockHostConfig.getCurrentCommand());
+    assertTrue(mockHostConfig.getCommandQueue().isEmpty());
+
+    server.stop();
+    t.join();
+  }
+
+  public void testFailedUpdateWhileServing() throws Exception {
+    final MockUpdateManager mockUpdateManager = new MockUpdateManager();
+    mockUpdateManager.fail = true;
+    final int[] numReloads = new int[] { 0 };
+    final PartDaemonServer server = getServer(12347, mockUpdateManager, numReloads);
+    Thread t = startServer(server);
+    Thread.sleep(1000);
+
+    mockHostConfig.enqueueCommand(HostCommand.SERVE_DATA);
+    server.onCommandQueueChange(mockHostConfig);
+    mockHostConfig.enqueueCommand(HostCommand.EXECUTE_UPDATE);
+    server.onCommandQueueChange(mockHostConfig);
+    Thread.sleep(1500);
+    assertEquals("update called", 1, mockUpdateManager.numUpdates);
+    assertEquals("no reload after a failed update", 0, numReloads[0]);
+    assertNull("current command cleared", mockHostConfig.getCurrentCommand());
+    assertEquals(HostState.SERVING, mockHostConfig.getState());
+
+    // the host isn't wedged: it can update again and go idle
+    mockUpdateManager.fail = false;
+    mockHostConfig.enqueueCommand(HostCommand.EXECUTE_UPDATE);
+    server.onCommandQueueChange(mockHostConfig);
+    Thread.sleep(1500);
+    assertEquals("update called again", 2, mockUpdateManager.numUpdates);
+    assertEquals("handler reloaded", 1, numReloads[0]);
+
+    mockHostConfig.enqueueCommand(HostCommand.GO_TO_IDLE);
+    server.onCommandQueueChange(mockHostConfig);
+    assertEquals(HostState.IDLE, mockHostConfig.getState());
+
+    server.stop();
+    t.join();
+  }
+
+  // each test gets its own port, since a stopped Thrift server doesn't
+  // release its server socket
+  private PartDaemonServer getServer(int port, final MockUpdateManager mockUpdateManager, final int[] numReloads) throws IOException {
+    MockPartDaemonConfigurator configurator = new MockPartDaemonConfigurator(port, mockCoord, "myRingGroup", null);
+    return new PartDaemonServer(configurator, "localhost") {
+      @Override
+      protected IfaceWithShutdown getHandler() throws IOException {
+        return new IfaceWithShutdown() {
+          @Override
+          public HankResponse get(int domainId, ByteBuffer key, long deadlineMs) throws TException {return null;}
+
+          @Override
+          public List<HankResponse> getBulk(int domainId, List<ByteBuffer> keys, long deadlineMs) throws TException {return null;}
+
+          @Override
+          public void shutDown() throws InterruptedException {}
+
+          @Override
+          public void reload() throws IOException {
+            numReloads[0]++;
+          }
+        };
+      }
+
+      @Override
+      protected IUpdateManager getUpdateManager() {
+        return mockUpdateManager;
+      }
+    };
+  }
+
+  private Thread startServer(final PartDaemonServer server) {
+    Runnable serverRunnable = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          server.run();
+        } catch (IOException e) {
+          fail("exception!" + e);
+        }
+      }
+    };
+    Thread t = new Thread(serverRunnable, "server thread");
+    t.start();
+    return t;
+  }
 }
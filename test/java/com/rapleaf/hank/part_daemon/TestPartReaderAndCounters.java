@@ -0,0 +1,196 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.part_daemon;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.rapleaf.hank.BaseTestCase;
+import com.rapleaf.hank.compress.NoCompressionCodec;
+import com.rapleaf.hank.coordinator.MockHostDomainPartition;
+import com.rapleaf.hank.hasher.Murmur64Hasher;
+import com.rapleaf.hank.storage.Result;
+import com.rapleaf.hank.storage.cueball.CueballReader;
+import com.rapleaf.hank.storage.cueball.CueballWriter;
+import com.rapleaf.hank.storage.mock.MockReader;
+
+public class TestPartReaderAndCounters extends BaseTestCase {
+  private static class ClosableMockReader extends MockReader {
+    public volatile boolean closed = false;
+
+    public ClosableMockReader() {
+      super(null, 0, new byte[] {1});
+    }
+
+    @Override
+    public void close() throws IOException {
+      assertFalse("closed twice", closed);
+      closed = true;
+    }
+  }
+
+  public void testSwapWaitsForInFlightRequests() throws Exception {
+    ClosableMockReader r1 = new ClosableMockReader();
+    ClosableMockReader r2 = new ClosableMockReader();
+    PartReaderAndCounters prc = new PartReaderAndCounters(new MockHostDomainPartition(0, 1, 2), r1, 1);
+
+    RefCountedReader inFlight = prc.acquireReader();
+    assertSame(r1, inFlight.getReader());
+
+    prc.swapReader(r2, 2);
+    assertEquals(Integer.valueOf(2), prc.getVersion());
+    assertSame(r2, prc.getReader());
+    assertFalse("still in use", r1.closed);
+
+    // new requests get the new reader
+    RefCountedReader next = prc.acquireReader();
+    assertSame(r2, next.getReader());
+    next.release();
+
+    inFlight.release();
+    assertTrue("closed once the last request is done", r1.closed);
+    assertFalse(r2.closed);
+  }
+
+  public void testClose() throws Exception {
+    ClosableMockReader r1 = new ClosableMockReader();
+    PartReaderAndCounters prc = new PartReaderAndCounters(new MockHostDomainPartition(0, 1, 2), r1);
+
+    prc.close();
+    assertTrue(r1.closed);
+    assertNull(prc.getReader());
+    assertNull(prc.acquireReader());
+    // closing again is harmless
+    prc.close();
+  }
+
+  public void testRetiredReaderCantBeRetained() throws Exception {
+    ClosableMockReader mockReader = new ClosableMockReader();
+    RefCountedReader reader = new RefCountedReader(mockReader);
+    assertTrue(reader.retain());
+    assertTrue(reader.retain());
+    assertEquals(2, reader.getNumInUse());
+
+    reader.retire();
+    assertFalse("retired readers aren't handed out", reader.retain());
+    assertEquals(2, reader.getNumInUse());
+    reader.release();
+    assertFalse("still in use", mockReader.closed);
+    reader.release();
+    assertEquals(0, reader.getNumInUse());
+    assertTrue(mockReader.closed);
+    assertTrue(reader.isClosed());
+  }
+
+  public void testReleasedOnAnotherThread() throws Exception {
+    ClosableMockReader mockReader = new ClosableMockReader();
+    final RefCountedReader reader = new RefCountedReader(mockReader);
+    assertTrue(reader.retain());
+    reader.retire();
+    Thread t = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        reader.release();
+      }
+    });
+    t.start();
+    t.join();
+    assertTrue(mockReader.closed);
+  }
+
+  public void testConcurrentRequestsAndSwaps() throws Exception {
+    final PartReaderAndCounters prc = new PartReaderAndCounters(new MockHostDomainPartition(0, 1, 2), new ClosableMockReader());
+    final boolean[] sawClosed = new boolean[] { false };
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 20000; j++) {
+            RefCountedReader reader = prc.acquireReader();
+            if (((ClosableMockReader) reader.getReader()).closed) {
+              sawClosed[0] = true;
+            }
+            reader.release();
+          }
+        }
+      });
+      threads[i].start();
+    }
+    List<ClosableMockReader> swappedOut = new ArrayList<ClosableMockReader>();
+    for (int i = 0; i < 200; i++) {
+      swappedOut.add((ClosableMockReader) prc.getReader());
+      prc.swapReader(new ClosableMockReader());
+      Thread.yield();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertFalse("a request used a closed reader", sawClosed[0]);
+    for (ClosableMockReader r : swappedOut) {
+      assertTrue("every swapped out reader gets closed", r.closed);
+    }
+    prc.close();
+  }
+
+  public void testRepeatedSwapsUnmapOldReaders() throws Exception {
+    String root = localTmpDir + "/mapped";
+    new File(root).mkdirs();
+    String basePath = root + "/00000.base.cueball";
+    CueballWriter writer = new CueballWriter(new FileOutputStream(basePath), 4, new Murmur64Hasher(), 1, new NoCompressionCodec(), 1);
+    writer.write(ByteBuffer.wrap(new byte[] {1, 2, 3, 4}), ByteBuffer.wrap(new byte[] {7}));
+    writer.close();
+
+    PartReaderAndCounters prc = new PartReaderAndCounters(new MockHostDomainPartition(0, 1, 2),
+        new CueballReader(root, 4, new Murmur64Hasher(), 1, 1, new NoCompressionCodec(), true, null));
+    for (int i = 0; i < 50; i++) {
+      prc.swapReader(new CueballReader(root, 4, new Murmur64Hasher(), 1, 1, new NoCompressionCodec(), true, null));
+    }
+
+    Result result = new Result();
+    prc.getReader().get(ByteBuffer.wrap(new byte[] {1, 2, 3, 4}), result);
+    assertEquals(ByteBuffer.wrap(new byte[] {7}), result.getBuffer());
+
+    // only the current reader still has the base mapped
+    File maps = new File("/proc/self/maps");
+    if (maps.exists()) {
+      assertEquals(1, countMappings(maps, new File(basePath).getCanonicalPath()));
+    }
+    prc.close();
+  }
+
+  private static int countMappings(File maps, String path) throws IOException {
+    BufferedReader in = new BufferedReader(new FileReader(maps));
+    int count = 0;
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        if (line.endsWith(path)) {
+          count++;
+        }
+      }
+    } finally {
+      in.close();
+    }
+    return count;
+  }
+}
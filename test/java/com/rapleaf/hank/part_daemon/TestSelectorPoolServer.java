@@ -0,0 +1,189 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.part_daemon;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+import com.rapleaf.hank.BaseTestCase;
+import com.rapleaf.hank.generated.HankResponse;
+import com.rapleaf.hank.generated.PartDaemon;
+
+public class TestSelectorPoolServer extends BaseTestCase {
+  private static final int BIG_VALUE_SIZE = 4 * 1024 * 1024;
+
+  // answers with the key it was asked for, or a big value for an empty key
+  private static class EchoPartDaemonHandler implements PartDaemon.Iface {
+    @Override
+    public HankResponse get(int domainId, ByteBuffer key, long deadlineMs) throws TException {
+      if (!key.hasRemaining()) {
+        return HankResponse.value(new byte[BIG_VALUE_SIZE]);
+      }
+      return HankResponse.value(key);
+    }
+
+    @Override
+    public List<HankResponse> getBulk(int domainId, List<ByteBuffer> keys, long deadlineMs) throws TException {
+      List<HankResponse> responses = new ArrayList<HankResponse>(keys.size());
+      for (ByteBuffer key : keys) {
+        responses.add(get(domainId, key, deadlineMs));
+      }
+      return responses;
+    }
+  }
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+  public void testEventLoop() throws Exception {
+    doTestEngine(ServerEngine.EVENT_LOOP);
+  }
+
+  public void testSelectorPool() throws Exception {
+    doTestEngine(ServerEngine.SELECTOR_POOL);
+  }
+
+  public void testRequestReceivedTime() throws Exception {
+    for (ServerEngine engine : ServerEngine.values()) {
+      final long[] receivedMs = new long[1];
+      EchoPartDaemonHandler handler = new EchoPartDaemonHandler() {
+        @Override
+        public HankResponse get(int domainId, ByteBuffer key, long deadlineMs) throws TException {
+          receivedMs[0] = RequestReceivedTime.get();
+          return super.get(domainId, key, deadlineMs);
+        }
+      };
+      int port = 12700;
+      TServer server = null;
+      while (server == null) {
+        try {
+          server = engine.createServer(new PartDaemon.Processor(handler), port, 2, 2);
+        } catch (TTransportException e) {
+          port++;
+        }
+      }
+      Thread serverThread = startServer(server);
+      TTransport transport = new TFramedTransport(new TSocket("localhost", port));
+      transport.open();
+      long beforeMs = System.currentTimeMillis();
+      new PartDaemon.Client(new TCompactProtocol(transport)).get(0, ByteBuffer.wrap(new byte[] {1}), 0);
+      // every engine records when the request was read, for the handler to
+      // count queueing time against its deadline
+      assertTrue(engine + " recorded " + receivedMs[0], receivedMs[0] >= beforeMs);
+      assertTrue(receivedMs[0] <= System.currentTimeMillis());
+      transport.close();
+      server.stop();
+      serverThread.join(10000);
+    }
+  }
+
+  private void doTestEngine(ServerEngine engine) throws Exception {
+    int port = 12600;
+    TServer server = null;
+    while (server == null) {
+      try {
+        server = engine.createServer(new PartDaemon.Processor(new EchoPartDaemonHandler()), port, 4, 3);
+      } catch (TTransportException e) {
+        port++;
+      }
+    }
+    Thread serverThread = startServer(server);
+    final int finalPort = port;
+
+    // lots of connections, spread over all the selectors
+    List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+    for (int i = 0; i < 16; i++) {
+      final byte b = (byte) i;
+      futures.add(executor.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          TTransport transport = new TFramedTransport(new TSocket("localhost", finalPort));
+          transport.open();
+          PartDaemon.Client client = new PartDaemon.Client(new TCompactProtocol(transport));
+          for (int j = 0; j < 100; j++) {
+            ByteBuffer key = ByteBuffer.wrap(new byte[] {b, (byte) j});
+            assertEquals(HankResponse.value(key), client.get(0, key, 0));
+          }
+          transport.close();
+          return true;
+        }
+      }));
+    }
+    for (Future<Boolean> future : futures) {
+      assertTrue(future.get(10, TimeUnit.SECONDS));
+    }
+
+    // requests pipelined on one connection are answered in order
+    TTransport transport = new TFramedTransport(new TSocket("localhost", port));
+    transport.open();
+    // (a client per call, since each one checks its responses' sequence ids)
+    List<PartDaemon.Client> pipelined = new ArrayList<PartDaemon.Client>();
+    for (int i = 0; i < 100; i++) {
+      PartDaemon.Client client = new PartDaemon.Client(new TCompactProtocol(transport));
+      client.send_get(0, ByteBuffer.wrap(new byte[] {(byte) i}), 0);
+      pipelined.add(client);
+    }
+    for (int i = 0; i < 100; i++) {
+      assertEquals(HankResponse.value(new byte[] {(byte) i}), pipelined.get(i).recv_get());
+    }
+    PartDaemon.Client client = new PartDaemon.Client(new TCompactProtocol(transport));
+
+    // responses bigger than the socket's buffer take several writes
+    assertEquals(BIG_VALUE_SIZE, client.get(0, ByteBuffer.wrap(new byte[0]), 0).get_value().length);
+    assertEquals(Arrays.asList(HankResponse.value(new byte[] {1}), HankResponse.value(new byte[] {2})),
+        client.getBulk(0, Arrays.asList(ByteBuffer.wrap(new byte[] {1}), ByteBuffer.wrap(new byte[] {2})), 0));
+    transport.close();
+
+    server.stop();
+    serverThread.join(10000);
+    assertFalse("server should have exited", serverThread.isAlive());
+    assertFalse(server.isServing());
+
+    // and the port is free again
+    TServer restarted = engine.createServer(new PartDaemon.Processor(new EchoPartDaemonHandler()), port, 4, 3);
+    serverThread = startServer(restarted);
+    restarted.stop();
+    serverThread.join(10000);
+  }
+
+  private static Thread startServer(final TServer server) throws InterruptedException {
+    Thread serverThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        server.serve();
+      }
+    }, "selector pool server");
+    serverThread.start();
+    while (!server.isServing()) {
+      Thread.sleep(10);
+    }
+    return serverThread;
+  }
+}
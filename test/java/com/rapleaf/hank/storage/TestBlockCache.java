@@ -0,0 +1,54 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.storage;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+public class TestBlockCache extends TestCase {
+  private static final byte[] BLOCK = new byte[] {0, 1, 2, 3, 4, 5, 6, 7};
+
+  public void testHitsAndMisses() throws Exception {
+    BlockCache cache = new BlockCache(1024 * 1024);
+    long fileId = BlockCache.getNextFileId();
+
+    assertNull(cache.get(fileId, 0));
+    cache.put(fileId, 0, BLOCK, 2, 4);
+    assertEquals(ByteBuffer.wrap(BLOCK, 2, 4), ByteBuffer.wrap(cache.get(fileId, 0)));
+    // same offset in a different file
+    assertNull(cache.get(BlockCache.getNextFileId(), 0));
+
+    assertEquals(1, cache.getHits());
+    assertEquals(2, cache.getMisses());
+  }
+
+  public void testEviction() throws Exception {
+    // 16 segments of 1000 bytes each
+    BlockCache cache = new BlockCache(16000);
+    long fileId = BlockCache.getNextFileId();
+    byte[] block = new byte[300];
+    for (int i = 0; i < 1000; i++) {
+      cache.put(fileId, i, block, 0, block.length);
+    }
+    assertTrue(cache.getSize() <= cache.getCapacity());
+    assertTrue(cache.getEvictions() > 0);
+
+    // blocks that don't fit in a segment are never cached
+    cache.put(fileId, 5000, new byte[2000], 0, 2000);
+    assertNull(cache.get(fileId, 5000));
+  }
+}
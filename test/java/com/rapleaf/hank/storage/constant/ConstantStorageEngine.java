@@ -22,6 +22,7 @@ import java.util.Map;
 import org.apache.commons.lang.NotImplementedException;
 
 import com.rapleaf.hank.config.PartservConfigurator;
+import com.rapleaf.hank.storage.BlockCache;
 import com.rapleaf.hank.storage.Deleter;
 import com.rapleaf.hank.storage.OutputStreamFactory;
 import com.rapleaf.hank.storage.Reader;
@@ -52,7 +53,7 @@ public class ConstantStorageEngine implements StorageEngine {
   }
 
   @Override
-  public Reader getReader(PartservConfigurator configurator, int partNum) throws IOException {
+  public Reader getReader(PartservConfigurator configurator, int partNum, BlockCache blockCache) throws IOException {
     throw new NotImplementedException();
   }
 
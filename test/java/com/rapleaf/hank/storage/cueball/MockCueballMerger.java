@@ -35,7 +35,7 @@ public class MockCueballMerger implements ICueballMerger {
 
   @Override
   public void merge(String latestBase, SortedSet<String> deltas,
-      String newBasePath, int keyHashSize, int valueSize, ValueTransformer transformer, int hashIndexBits, CompressionCodec compressionCodec)
+      String newBasePath, int keyHashSize, int valueSize, ValueTransformer transformer, int hashIndexBits, CompressionCodec compressionCodec, int subBlockEntries, double bloomFilterFalsePositiveRate)
   throws IOException {
     this.called  = true;
     this.latestBase = latestBase;
@@ -18,12 +18,17 @@ package com.rapleaf.hank.storage.cueball;
 import java.io.File;
 import java.io.IOException;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 public class MockFetcher implements IFetcher {
+  public static final String REMOTE_ROOT = "/remote";
+
   public int latestLocalVersion;
   private String[] localFilesToCreate;
   private final String localRoot;
   public Set<Integer> excludeVersions;
+  public String remoteRegex;
 
   public MockFetcher(String localRoot, String ... localFilesToCreate) {
     this.localRoot = localRoot;
@@ -38,4 +43,20 @@ public class MockFetcher implements IFetcher {
       new File(localRoot + "/" + s).createNewFile();
     }
   }
-}
\ No newline at end of file
+
+  @Override
+  public SortedSet<String> fetch(int fromVersion, int toVersion, Set<Integer> excludeVersions, String remoteRegex) throws IOException {
+    this.latestLocalVersion = fromVersion;
+    this.excludeVersions = excludeVersions;
+    this.remoteRegex = remoteRegex;
+    SortedSet<String> remoteFiles = new TreeSet<String>();
+    for (String s : localFilesToCreate) {
+      if (s.matches(remoteRegex)) {
+        remoteFiles.add(REMOTE_ROOT + "/" + s);
+      } else {
+        new File(localRoot + "/" + s).createNewFile();
+      }
+    }
+    return remoteFiles;
+  }
+}
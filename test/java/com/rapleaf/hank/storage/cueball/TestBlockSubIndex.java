@@ -0,0 +1,74 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.storage.cueball;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import com.rapleaf.hank.compress.CompressionCodec;
+import com.rapleaf.hank.compress.JavaGzipCompressionCodec;
+import com.rapleaf.hank.compress.NoCompressionCodec;
+
+public class TestBlockSubIndex extends TestCase {
+  // five records of a 2 byte key hash and a 1 byte value
+  private static final byte[] RECORDS = new byte[] {
+    1, 1, 10,
+    2, 2, 20,
+    3, 3, 30,
+    4, 4, 40,
+    5, 5, 50,
+  };
+
+  public void testIsEnabled() throws Exception {
+    assertFalse(BlockSubIndex.isEnabled(0, new JavaGzipCompressionCodec()));
+    assertFalse(BlockSubIndex.isEnabled(2, new NoCompressionCodec()));
+    assertTrue(BlockSubIndex.isEnabled(2, new JavaGzipCompressionCodec()));
+  }
+
+  public void testRoundTrip() throws Exception {
+    CompressionCodec codec = new JavaGzipCompressionCodec();
+    byte[] block = new byte[BlockSubIndex.getMaxBlockSize(codec, 2, 3, 5, 2)];
+    int blockLength = BlockSubIndex.compress(codec, RECORDS, RECORDS.length, block, 2, 3, 2);
+    assertTrue(blockLength <= block.length);
+    assertEquals(3, BlockSubIndex.getNumSubBlocks(block, 0));
+
+    byte[] decompressed = new byte[RECORDS.length];
+    assertEquals(RECORDS.length, BlockSubIndex.decompress(codec, block, 0, decompressed, 0, 2));
+    assertEquals(ByteBuffer.wrap(RECORDS), ByteBuffer.wrap(decompressed));
+
+    // the last sub-block holds just the fifth record
+    int start = BlockSubIndex.getSubBlockStart(block, 0, 2, 2);
+    int end = BlockSubIndex.getSubBlockEnd(block, 0, 2, 2);
+    assertEquals(blockLength, end);
+    byte[] last = new byte[3];
+    assertEquals(3, codec.decompress(block, start, end - start, last, 0));
+    assertEquals(ByteBuffer.wrap(new byte[] {5, 5, 50}), ByteBuffer.wrap(last));
+  }
+
+  public void testFind() throws Exception {
+    CompressionCodec codec = new JavaGzipCompressionCodec();
+    byte[] block = new byte[BlockSubIndex.getMaxBlockSize(codec, 2, 3, 5, 2)];
+    BlockSubIndex.compress(codec, RECORDS, RECORDS.length, block, 2, 3, 2);
+
+    assertEquals(-1, BlockSubIndex.find(block, 0, 2, new byte[] {0, 9}));
+    assertEquals(0, BlockSubIndex.find(block, 0, 2, new byte[] {1, 1}));
+    assertEquals(0, BlockSubIndex.find(block, 0, 2, new byte[] {2, 2}));
+    assertEquals(1, BlockSubIndex.find(block, 0, 2, new byte[] {3, 3}));
+    assertEquals(1, BlockSubIndex.find(block, 0, 2, new byte[] {4, 9}));
+    assertEquals(2, BlockSubIndex.find(block, 0, 2, new byte[] {(byte) 0xff, 0}));
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.storage.cueball;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.channels.FileChannel;
+
+import com.rapleaf.hank.BaseTestCase;
+import com.rapleaf.hank.util.Bytes;
+
+public class TestBloomFilter extends BaseTestCase {
+  private static final int NUM_ENTRIES = 10000;
+
+  public void testNoFalseNegatives() throws Exception {
+    BloomFilter filter = new BloomFilter(NUM_ENTRIES, 0.01);
+    for (int i = 0; i < NUM_ENTRIES; i++) {
+      filter.add(fingerprint(i));
+    }
+    for (int i = 0; i < NUM_ENTRIES; i++) {
+      assertTrue(filter.mightContain(fingerprint(i)));
+    }
+  }
+
+  public void testFalsePositiveRate() throws Exception {
+    BloomFilter filter = new BloomFilter(NUM_ENTRIES, 0.01);
+    for (int i = 0; i < NUM_ENTRIES; i++) {
+      filter.add(fingerprint(i));
+    }
+    int falsePositives = 0;
+    for (int i = NUM_ENTRIES; i < 2 * NUM_ENTRIES; i++) {
+      if (filter.mightContain(fingerprint(i))) {
+        falsePositives++;
+      }
+    }
+    // generous bound, since the rate is only expected
+    assertTrue("Too many false positives: " + falsePositives, falsePositives < NUM_ENTRIES * 0.02);
+  }
+
+  public void testReadWrite() throws Exception {
+    BloomFilter filter = new BloomFilter(NUM_ENTRIES, 0.01);
+    for (int i = 0; i < NUM_ENTRIES; i += 2) {
+      filter.add(fingerprint(i));
+    }
+
+    // surround the filter with other bytes, like in a real base
+    String path = localTmpDir + "/filter";
+    FileOutputStream out = new FileOutputStream(path);
+    out.write(new byte[7]);
+    filter.write(out);
+    out.write(new byte[5]);
+    out.close();
+
+    FileChannel channel = new FileInputStream(path).getChannel();
+    long end = channel.size() - 5;
+    assertEquals(filter.getSerializedLength(), BloomFilter.getSerializedLength(channel, end));
+    BloomFilter read = BloomFilter.read(channel, end);
+    channel.close();
+
+    assertEquals(filter.getNumBits(), read.getNumBits());
+    assertEquals(filter.getNumHashFunctions(), read.getNumHashFunctions());
+    for (int i = 0; i < NUM_ENTRIES; i++) {
+      assertEquals(filter.mightContain(fingerprint(i)), read.mightContain(fingerprint(i)));
+    }
+  }
+
+  private static long fingerprint(int i) {
+    byte[] keyHash = Bytes.intToBytes(i);
+    return BloomFilter.fingerprint(keyHash, 0, keyHash.length);
+  }
+}
@@ -19,12 +19,21 @@ import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
+import com.rapleaf.hank.compress.JavaGzipCompressionCodec;
 import com.rapleaf.hank.compress.NoCompressionCodec;
+import com.rapleaf.hank.storage.Result;
+import com.rapleaf.hank.util.Bytes;
 
 public class TestCueballMerger extends AbstractCueballTest {
   private final String LOCAL_ROOT = localTmpDir;
@@ -179,7 +188,9 @@ public class TestCueballMerger extends AbstractCueballTest {
         1,
         null,
         1,
-        new NoCompressionCodec());
+        new NoCompressionCodec(),
+        0,
+        0);
 
     DataInputStream in = new DataInputStream(new FileInputStream(NEW_BASE_PATH));
     int length = (int) new File(NEW_BASE_PATH).length();
@@ -188,4 +199,173 @@ public class TestCueballMerger extends AbstractCueballTest {
 
     assertEquals(ByteBuffer.wrap(EXPECTED_MERGED_DATA), ByteBuffer.wrap(actualMergedData));
   }
+
+  public void testMergeRebuildsBloomFilter() throws Exception {
+    new File(LOCAL_ROOT).mkdirs();
+    CueballWriter writer = new CueballWriter(new FileOutputStream(BASE_FILE_PATH), 10, HASHER, 5, new JavaGzipCompressionCodec(), 1,
+        new CueballWriter.Options().setSubBlockEntries(1).setBloomFilterFalsePositiveRate(0.01));
+    writer.write(ByteBuffer.wrap(KEY1), ByteBuffer.wrap(new byte[]{1,1,1,1,1}));
+    writer.write(ByteBuffer.wrap(KEY3), ByteBuffer.wrap(new byte[]{3,3,3,3,3}));
+    writer.close();
+
+    writer = new CueballWriter(new FileOutputStream(DELTA_1_FILE_PATH), 10, HASHER, 5, new JavaGzipCompressionCodec(), 1,
+        new CueballWriter.Options().setSubBlockEntries(1).setBloomFilterFalsePositiveRate(0.01));
+    writer.write(ByteBuffer.wrap(KEY2), ByteBuffer.wrap(new byte[]{2,2,2,2,2}));
+    writer.write(ByteBuffer.wrap(KEY3), ByteBuffer.wrap(new byte[]{4,4,4,4,4}));
+    writer.close();
+
+    new CueballMerger().merge(BASE_FILE_PATH,
+        new TreeSet<String>(Arrays.asList(DELTA_1_FILE_PATH)),
+        LOCAL_ROOT + "/00001.base.cueball",
+        10,
+        5,
+        null,
+        1,
+        new JavaGzipCompressionCodec(),
+        1,
+        0.01);
+    new File(BASE_FILE_PATH).delete();
+
+    CueballReader reader = new CueballReader(LOCAL_ROOT, 10, HASHER, 5, 1, new JavaGzipCompressionCodec(), false, null);
+    Result result = new Result();
+    reader.get(ByteBuffer.wrap(KEY1), result);
+    assertEquals(ByteBuffer.wrap(new byte[]{1,1,1,1,1}), result.getBuffer());
+    reader.get(ByteBuffer.wrap(KEY2), result);
+    assertEquals(ByteBuffer.wrap(new byte[]{2,2,2,2,2}), result.getBuffer());
+    reader.get(ByteBuffer.wrap(KEY3), result);
+    assertEquals(ByteBuffer.wrap(new byte[]{4,4,4,4,4}), result.getBuffer());
+    reader.get(ByteBuffer.wrap(KEY4), result);
+    assertFalse(result.isFound());
+  }
+
+  public void testMergeDifferentLayouts() throws Exception {
+    // the base has sub-indexed blocks, the delta doesn't, and the new base
+    // won't either. each is read the way it was written.
+    new File(LOCAL_ROOT).mkdirs();
+    CueballWriter writer = new CueballWriter(new FileOutputStream(BASE_FILE_PATH), 10, HASHER, 5, new JavaGzipCompressionCodec(), 1,
+        new CueballWriter.Options().setSubBlockEntries(1));
+    writer.write(ByteBuffer.wrap(KEY1), ByteBuffer.wrap(new byte[]{1,1,1,1,1}));
+    writer.write(ByteBuffer.wrap(KEY3), ByteBuffer.wrap(new byte[]{3,3,3,3,3}));
+    writer.close();
+
+    writer = new CueballWriter(new FileOutputStream(DELTA_1_FILE_PATH), 10, HASHER, 5, new JavaGzipCompressionCodec(), 1);
+    writer.write(ByteBuffer.wrap(KEY2), ByteBuffer.wrap(new byte[]{2,2,2,2,2}));
+    writer.close();
+
+    new CueballMerger().merge(BASE_FILE_PATH,
+        new TreeSet<String>(Arrays.asList(DELTA_1_FILE_PATH)),
+        LOCAL_ROOT + "/00001.base.cueball",
+        10,
+        5,
+        null,
+        1,
+        new JavaGzipCompressionCodec(),
+        0,
+        0);
+    new File(BASE_FILE_PATH).delete();
+
+    CueballReader reader = new CueballReader(LOCAL_ROOT, 10, HASHER, 5, 1, new JavaGzipCompressionCodec());
+    Result result = new Result();
+    reader.get(ByteBuffer.wrap(KEY1), result);
+    assertEquals(ByteBuffer.wrap(new byte[]{1,1,1,1,1}), result.getBuffer());
+    reader.get(ByteBuffer.wrap(KEY2), result);
+    assertEquals(ByteBuffer.wrap(new byte[]{2,2,2,2,2}), result.getBuffer());
+    reader.get(ByteBuffer.wrap(KEY3), result);
+    assertEquals(ByteBuffer.wrap(new byte[]{3,3,3,3,3}), result.getBuffer());
+  }
+
+  public void testMergeManyDeltas() throws Exception {
+    new File(LOCAL_ROOT).mkdirs();
+    final int keyHashSize = 12;
+    final int valueSize = 2;
+    Comparator<byte[]> unsigned = new Comparator<byte[]>() {
+      @Override
+      public int compare(byte[] a, byte[] b) {
+        return Bytes.compareBytesUnsigned(a, 0, b, 0, a.length);
+      }
+    };
+    Random random = new Random(1);
+    Map<byte[], byte[]> expected = new TreeMap<byte[], byte[]>(unsigned);
+
+    TreeSet<String> deltaPaths = new TreeSet<String>();
+    for (int version = 0; version < 32; version++) {
+      // lots of keys share their first 8 bytes, and many show up in more than
+      // one version
+      Map<byte[], byte[]> records = new TreeMap<byte[], byte[]>(unsigned);
+      for (int i = 0; i < 50; i++) {
+        byte[] keyHash = new byte[keyHashSize];
+        keyHash[0] = (byte) (random.nextInt(4) * 0x40 + 0x20);
+        keyHash[7] = (byte) random.nextInt(3);
+        keyHash[11] = (byte) random.nextInt(256);
+        byte[] value = new byte[] {(byte) version, (byte) i};
+        records.put(keyHash, value);
+      }
+      expected.putAll(records);
+
+      String path = String.format("%s/%05d.%s.cueball", LOCAL_ROOT, version, version == 0 ? "base" : "delta");
+      CueballWriter writer = new CueballWriter(new FileOutputStream(path), keyHashSize, null, valueSize, new JavaGzipCompressionCodec(), 2);
+      for (Map.Entry<byte[], byte[]> record : records.entrySet()) {
+        writer.writeHash(ByteBuffer.wrap(record.getKey()), ByteBuffer.wrap(record.getValue()));
+      }
+      writer.close();
+      if (version > 0) {
+        deltaPaths.add(path);
+      }
+    }
+
+    // merging with the inputs read ahead and the output compressed on other
+    // threads comes out the same
+    for (int threads : new int[] {0, 2}) {
+      String mergedPath = LOCAL_ROOT + "/00032.base.cueball." + threads;
+      new CueballMerger(threads, threads).merge(String.format("%s/%05d.base.cueball", LOCAL_ROOT, 0),
+          deltaPaths, mergedPath, keyHashSize, valueSize, null, 2, new JavaGzipCompressionCodec(), 0, 0);
+
+      StreamBuffer merged = new StreamBuffer(mergedPath, 0, keyHashSize, valueSize, 2, new JavaGzipCompressionCodec());
+      for (Map.Entry<byte[], byte[]> record : expected.entrySet()) {
+        assertTrue(merged.anyRemaining());
+        assertEquals(ByteBuffer.wrap(record.getKey()), ByteBuffer.wrap(merged.getBuffer(), merged.getCurrentOffset(), keyHashSize));
+        assertEquals(ByteBuffer.wrap(record.getValue()), ByteBuffer.wrap(merged.getBuffer(), merged.getCurrentOffset() + keyHashSize, valueSize));
+        merged.consume();
+      }
+      assertFalse(merged.anyRemaining());
+      merged.close();
+    }
+  }
+
+  public void testMergeCorruptInputWithReadAhead() throws Exception {
+    new File(LOCAL_ROOT).mkdirs();
+    CueballWriter writer = new CueballWriter(new FileOutputStream(BASE_FILE_PATH), 10, HASHER, 5, new JavaGzipCompressionCodec(), 1);
+    writer.write(ByteBuffer.wrap(KEY1), ByteBuffer.wrap(new byte[]{1,1,1,1,1}));
+    writer.write(ByteBuffer.wrap(KEY3), ByteBuffer.wrap(new byte[]{3,3,3,3,3}));
+    writer.close();
+
+    writer = new CueballWriter(new FileOutputStream(DELTA_1_FILE_PATH), 10, HASHER, 5, new JavaGzipCompressionCodec(), 1);
+    writer.write(ByteBuffer.wrap(KEY2), ByteBuffer.wrap(new byte[]{2,2,2,2,2}));
+    writer.close();
+
+    // clobber the gzip header of the delta's first block, so that the codec
+    // throws a RuntimeException on the read-ahead thread
+    RandomAccessFile delta = new RandomAccessFile(DELTA_1_FILE_PATH, "rw");
+    delta.write(new byte[]{0, 0, 0, 0});
+    delta.close();
+
+    final Throwable[] thrown = new Throwable[1];
+    Thread merge = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          new CueballMerger(2, 0).merge(BASE_FILE_PATH,
+              new TreeSet<String>(Arrays.asList(DELTA_1_FILE_PATH)),
+              NEW_BASE_PATH, 10, 5, null, 1, new JavaGzipCompressionCodec(), 0, 0);
+        } catch (Throwable t) {
+          thrown[0] = t;
+        }
+      }
+    });
+    merge.start();
+    merge.join(10000);
+
+    assertFalse("the merge should fail instead of hanging", merge.isAlive());
+    assertTrue(thrown[0] instanceof IOException);
+  }
 }
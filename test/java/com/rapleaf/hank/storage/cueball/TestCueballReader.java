@@ -19,8 +19,13 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
+import com.rapleaf.hank.compress.JavaGzipCompressionCodec;
 import com.rapleaf.hank.compress.NoCompressionCodec;
+import com.rapleaf.hank.storage.BlockCache;
 import com.rapleaf.hank.storage.Result;
 
 public class TestCueballReader extends AbstractCueballTest {
@@ -34,7 +39,117 @@ public class TestCueballReader extends AbstractCueballTest {
     os.close();
 
     CueballReader reader = new CueballReader(root, 10, HASHER, 5, 1, new NoCompressionCodec());
+    doTestRead(reader);
+  }
+
+  public void testMmapRead() throws Exception {
+    String root = localTmpDir + "/1";
+    new File(root).mkdir();
+    OutputStream os = new FileOutputStream(root + "/00000.base.cueball");
+    os.write(EXPECTED_DATA);
+    os.flush();
+    os.close();
+
+    CueballReader reader = new CueballReader(root, 10, HASHER, 5, 1, new NoCompressionCodec(), true, null);
+    doTestRead(reader);
+  }
+
+  public void testCompressedReadWithBlockCache() throws Exception {
+    String root = localTmpDir + "/1";
+    new File(root).mkdir();
+    CueballWriter writer = new CueballWriter(new FileOutputStream(root + "/00000.base.cueball"), 10, HASHER, 5, new JavaGzipCompressionCodec(), 1);
+    writer.write(ByteBuffer.wrap(KEY1), ByteBuffer.wrap(new byte[]{1,2,1,2,1}));
+    writer.write(ByteBuffer.wrap(KEY2), ByteBuffer.wrap(new byte[]{2,1,2,1,2}));
+    writer.write(ByteBuffer.wrap(KEY3), ByteBuffer.wrap(new byte[]{(byte) 0x8f,1,2,1,2}));
+    writer.close();
+
+    BlockCache blockCache = new BlockCache(1024 * 1024);
+    CueballReader reader = new CueballReader(root, 10, HASHER, 5, 1, new JavaGzipCompressionCodec(), false, blockCache);
+    doTestRead(reader);
+    // 6 lookups across blocks 0 and 1, so only the first touch of each misses
+    assertEquals(2, blockCache.getMisses());
+    assertEquals(4, blockCache.getHits());
+
+    // the cache is keyed per file, so a second reader starts out cold
+    CueballReader mmapReader = new CueballReader(root, 10, HASHER, 5, 1, new JavaGzipCompressionCodec(), true, blockCache);
+    doTestRead(mmapReader);
+    assertEquals(4, blockCache.getMisses());
+    assertEquals(8, blockCache.getHits());
+  }
+
+  public void testSubIndexedRead() throws Exception {
+    String root = localTmpDir + "/1";
+    new File(root).mkdir();
+    // one entry per sub-block, so block 0 gets two sub-blocks
+    CueballWriter writer = new CueballWriter(new FileOutputStream(root + "/00000.base.cueball"), 10, HASHER, 5, new JavaGzipCompressionCodec(), 1,
+        new CueballWriter.Options().setSubBlockEntries(1));
+    writer.write(ByteBuffer.wrap(KEY1), ByteBuffer.wrap(new byte[]{1,2,1,2,1}));
+    writer.write(ByteBuffer.wrap(KEY2), ByteBuffer.wrap(new byte[]{2,1,2,1,2}));
+    writer.write(ByteBuffer.wrap(KEY3), ByteBuffer.wrap(new byte[]{(byte) 0x8f,1,2,1,2}));
+    writer.close();
+
+    BlockCache blockCache = new BlockCache(1024 * 1024);
+    CueballReader reader = new CueballReader(root, 10, HASHER, 5, 1, new JavaGzipCompressionCodec(), false, blockCache);
+    doTestRead(reader);
+    // sub-blocks are cached individually: KEY4 falls in KEY1's sub-block and
+    // KEY10 in KEY3's, but KEY2 has a sub-block of its own
+    assertEquals(3, blockCache.getMisses());
+    assertEquals(3, blockCache.getHits());
+
+    doTestRead(new CueballReader(root, 10, HASHER, 5, 1, new JavaGzipCompressionCodec(), true, null));
+  }
+
+  public void testBloomFilterRead() throws Exception {
+    String root = localTmpDir + "/1";
+    new File(root).mkdir();
+    CueballWriter writer = new CueballWriter(new FileOutputStream(root + "/00000.base.cueball"), 10, HASHER, 5, new JavaGzipCompressionCodec(), 1,
+        new CueballWriter.Options().setBloomFilterFalsePositiveRate(0.01));
+    writer.write(ByteBuffer.wrap(KEY1), ByteBuffer.wrap(new byte[]{1,2,1,2,1}));
+    writer.write(ByteBuffer.wrap(KEY2), ByteBuffer.wrap(new byte[]{2,1,2,1,2}));
+    writer.write(ByteBuffer.wrap(KEY3), ByteBuffer.wrap(new byte[]{(byte) 0x8f,1,2,1,2}));
+    writer.close();
+
+    BlockCache blockCache = new BlockCache(1024 * 1024);
+    CueballReader reader = new CueballReader(root, 10, HASHER, 5, 1, new JavaGzipCompressionCodec(), false, blockCache);
+    doTestRead(reader);
+    // the filter turns away both absent keys before their blocks are touched
+    assertEquals(4, blockCache.getMisses() + blockCache.getHits());
+  }
+
+  public void testConcurrentReads() throws Exception {
+    String root = localTmpDir + "/1";
+    new File(root).mkdir();
+    OutputStream os = new FileOutputStream(root + "/00000.base.cueball");
+    os.write(EXPECTED_DATA);
+    os.flush();
+    os.close();
+
+    // readers keep per-thread scratch state, so hammer one from a few threads
+    final CueballReader reader = new CueballReader(root, 10, HASHER, 5, 1, new NoCompressionCodec(), true, null);
+    final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < 100; j++) {
+              doTestRead(reader);
+            }
+          } catch (Throwable t) {
+            failures.add(t);
+          }
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(Collections.emptyList(), failures);
+  }
 
+  private void doTestRead(CueballReader reader) throws Exception {
     Result result = new Result();
     reader.get(ByteBuffer.wrap(KEY1), result);
     assertTrue(result.isFound());
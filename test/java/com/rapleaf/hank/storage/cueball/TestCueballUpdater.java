@@ -16,20 +16,25 @@
 package com.rapleaf.hank.storage.cueball;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 
 import com.rapleaf.hank.BaseTestCase;
+import com.rapleaf.hank.compress.JavaGzipCompressionCodec;
 import com.rapleaf.hank.compress.NoCompressionCodec;
 
 public class TestCueballUpdater extends BaseTestCase {
   private final String LOCAL_ROOT = localTmpDir + "/local";
+  private final String REMOTE_ROOT = localTmpDir + "/remote";
 
   public void setUp() throws Exception {
     super.setUp();
     new File(LOCAL_ROOT).mkdirs();
+    new File(REMOTE_ROOT).mkdirs();
   }
 
   public void testBootstrapWithDeltas() throws Exception {
@@ -37,7 +42,7 @@ public class TestCueballUpdater extends BaseTestCase {
 
     MockFetcher fetcher = new MockFetcher(LOCAL_ROOT, "00000.base.cueball", "00001.delta.cueball");
     MockCueballMerger merger = new MockCueballMerger();
-    CueballUpdater updater = new CueballUpdater(LOCAL_ROOT, 12, 5, fetcher, merger, new NoCompressionCodec(), 1);
+    CueballUpdater updater = new CueballUpdater(LOCAL_ROOT, 12, 5, fetcher, merger, new NoCompressionCodec(), 1, 0, 0);
 
     updater.update(1, Collections.singleton(45));
 
@@ -67,7 +72,7 @@ public class TestCueballUpdater extends BaseTestCase {
     MockFetcher fetcher = new MockFetcher(LOCAL_ROOT, "00006.delta.cueball", "00007.delta.cueball");
     MockCueballMerger merger = new MockCueballMerger();
     CueballUpdater updater = new CueballUpdater(LOCAL_ROOT, 12, 5, fetcher,
-        merger, new NoCompressionCodec(), 1);
+        merger, new NoCompressionCodec(), 1, 0, 0);
 
     updater.update(7, Collections.singleton(45));
 
@@ -98,7 +103,7 @@ public class TestCueballUpdater extends BaseTestCase {
     MockFetcher fetcher = new MockFetcher(LOCAL_ROOT, "00006.base.cueball", "00007.delta.cueball");
     MockCueballMerger merger = new MockCueballMerger();
     CueballUpdater updater = new CueballUpdater(LOCAL_ROOT, 12, 5, fetcher,
-        merger, new NoCompressionCodec(), 1);
+        merger, new NoCompressionCodec(), 1, 0, 0);
 
     updater.update(7, null);
 
@@ -121,6 +126,42 @@ public class TestCueballUpdater extends BaseTestCase {
     assertFalse(localFileExists(LOCAL_ROOT + "/00007.delta.cueball"));
   }
 
+  public void testStreamRemoteDeltas() throws Exception {
+    // the base is already local, and the deltas are only on the remote side
+    writeFile(LOCAL_ROOT + "/00000.base.cueball", new byte[][] {{1, 0}, {5, 0}});
+    writeFile(REMOTE_ROOT + "/00000.base.cueball", new byte[][] {{1, 0}, {5, 0}});
+    writeFile(REMOTE_ROOT + "/00001.delta.cueball", new byte[][] {{1, 1}, {2, 1}});
+    writeFile(REMOTE_ROOT + "/00002.delta.cueball", new byte[][] {{2, 2}, {9, 2}});
+
+    CueballUpdater updater = new CueballUpdater(LOCAL_ROOT, 2, 1,
+        new LocalFileOps(REMOTE_ROOT, LOCAL_ROOT), new CueballFileSelector(),
+        new JavaGzipCompressionCodec(), 1, 0, 0, 0, 0, true);
+    updater.update(2, Collections.<Integer>emptySet());
+
+    // the deltas were merged without being copied to local
+    assertEquals(new HashSet<String>(Arrays.asList("00002.base.cueball")),
+        new HashSet<String>(Arrays.asList(new File(LOCAL_ROOT).list())));
+
+    StreamBuffer merged = new StreamBuffer(LOCAL_ROOT + "/00002.base.cueball",
+        0, 2, 1, 1, new JavaGzipCompressionCodec());
+    for (byte[] record : new byte[][] {{1, 0, 1}, {2, 0, 2}, {5, 0, 0}, {9, 0, 2}}) {
+      assertTrue(merged.anyRemaining());
+      assertEquals(ByteBuffer.wrap(record), ByteBuffer.wrap(merged.getBuffer(), merged.getCurrentOffset(), 3));
+      merged.consume();
+    }
+    assertFalse(merged.anyRemaining());
+    merged.close();
+  }
+
+  // each key is {first byte, 0}, and its value is the second byte
+  private void writeFile(String path, byte[][] records) throws IOException {
+    CueballWriter writer = new CueballWriter(new FileOutputStream(path), 2, null, 1, new JavaGzipCompressionCodec(), 1);
+    for (byte[] record : records) {
+      writer.writeHash(ByteBuffer.wrap(new byte[] {record[0], 0}), ByteBuffer.wrap(new byte[] {record[1]}));
+    }
+    writer.close();
+  }
+
   private boolean localFileExists(String localFile) {
     return new File(LOCAL_ROOT + "/" + localFile).exists();
   }
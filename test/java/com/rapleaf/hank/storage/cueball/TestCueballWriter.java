@@ -15,8 +15,11 @@
  */
 package com.rapleaf.hank.storage.cueball;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Random;
 
+import com.rapleaf.hank.compress.JavaGzipCompressionCodec;
 import com.rapleaf.hank.compress.NoCompressionCodec;
 
 
@@ -38,6 +41,69 @@ public class TestCueballWriter extends AbstractCueballTest {
         ByteBuffer.wrap(result));
   }
 
+  public void testParallelCompression() throws Exception {
+    // enough blocks to keep every thread busy and wrap around the free blocks,
+    // with sub-blocks and a Bloom filter thrown in
+    ByteArrayOutputStream serial = new ByteArrayOutputStream();
+    ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+    CueballWriter serialWriter = new CueballWriter(serial, 10, null, 5, new JavaGzipCompressionCodec(), 6,
+        new CueballWriter.Options().setSubBlockEntries(8).setBloomFilterFalsePositiveRate(0.01));
+    CueballWriter parallelWriter = new CueballWriter(parallel, 10, null, 5, new JavaGzipCompressionCodec(), 6,
+        new CueballWriter.Options().setSubBlockEntries(8).setBloomFilterFalsePositiveRate(0.01).setCompressionThreads(3));
+
+    Random random = new Random(1);
+    byte[] keyHash = new byte[10];
+    byte[] value = new byte[5];
+    for (int i = 0; i < 1000; i++) {
+      keyHash[0] = (byte) (i * 256 / 1000);
+      keyHash[8] = (byte) (i >> 8);
+      keyHash[9] = (byte) i;
+      random.nextBytes(value);
+      serialWriter.writeHash(ByteBuffer.wrap(keyHash), ByteBuffer.wrap(value));
+      parallelWriter.writeHash(ByteBuffer.wrap(keyHash), ByteBuffer.wrap(value));
+    }
+    serialWriter.close();
+    parallelWriter.close();
+
+    assertEquals(serialWriter.getNumBytesWritten(), parallelWriter.getNumBytesWritten());
+    assertEquals(ByteBuffer.wrap(serial.toByteArray()), ByteBuffer.wrap(parallel.toByteArray()));
+  }
+
+  public void testFailedCompressionStopsThreads() throws Exception {
+    CueballWriter writer = new CueballWriter(new ByteArrayOutputStream(), 10, null, 5, new NoCompressionCodec() {
+      @Override
+      public int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset) {
+        throw new RuntimeException("broken codec");
+      }
+    }, 6, new CueballWriter.Options().setCompressionThreads(2));
+
+    byte[] keyHash = new byte[10];
+    try {
+      for (int i = 0; i < 256; i++) {
+        keyHash[0] = (byte) i;
+        writer.writeHash(ByteBuffer.wrap(keyHash), ByteBuffer.wrap(new byte[5]));
+      }
+      fail("the failed compression should have been reported");
+    } catch (IOException e) {
+      // expected
+    }
+    // the compression threads go away without the writer being closed
+    for (int i = 0; i < 50 && countCompressorThreads() > 0; i++) {
+      Thread.sleep(100);
+    }
+    assertEquals(0, countCompressorThreads());
+  }
+
+  private static int countCompressorThreads() {
+    int count = 0;
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().startsWith("CueballWriter compressor") && thread.isAlive()) {
+        count++;
+      }
+    }
+    return count;
+  }
+
   public void testEnforceKeyOrdering() {
     try {
       ByteArrayOutputStream s = new ByteArrayOutputStream();
@@ -16,6 +16,7 @@
 package com.rapleaf.hank.storage.cueball;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
@@ -37,6 +38,16 @@ public class TestFetcher extends BaseTestCase {
     public List<String> listFiles() throws IOException {
       return Arrays.asList("x", "y", "z");
     }
+
+    @Override
+    public InputStream getInputStream(String fileName, long offset) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long getFileLength(String fileName) {
+      throw new UnsupportedOperationException();
+    }
   }
 
   private class MFS implements IFileSelector {
@@ -70,4 +81,18 @@ public class TestFetcher extends BaseTestCase {
     assertEquals("selectFilesToCopy called with", new HashSet<String>(Arrays.asList("x", "z")), mockFileSelector.selectFilesToCopyCalledWith);
     assertEquals("copyToLocal called with", new HashSet<String>(Arrays.asList("z")), mockFileOps.copyToLocalCalledWith);
   }
+
+  public void testLeaveFilesRemote() throws Exception {
+    MFO mockFileOps = new MFO();
+    MFS mockFileSelector = new MFS() {
+      @Override
+      public List<String> selectFilesToCopy(List<String> relevantFiles, Integer fromVersion, int toVersion, Set<Integer> excludeVersions) {
+        return relevantFiles;
+      }
+    };
+    Fetcher f = new Fetcher(mockFileOps, mockFileSelector);
+
+    assertEquals(Collections.singleton("z"), f.fetch(7, 10, Collections.singleton(9), "z"));
+    assertEquals("copyToLocal called with", Collections.singleton("x"), mockFileOps.copyToLocalCalledWith);
+  }
 }
@@ -32,6 +32,37 @@ public class TestFooter extends BaseTestCase {
     assertTrue(Arrays.equals(new long[]{5, 25, 125, 255}, footer.getHashIndex()));
   }
 
+  public void testFormatTrailer() throws Exception {
+    final FileOutputStream out = new FileOutputStream(filePath);
+    out.write(new byte[]{
+        // not going to have any actual data section
+        5,0,0,0,0,0,0,0,
+        25,0,0,0,0,0,0,0,
+        125,0,0,0,0,0,0,0,
+        (byte) 0xff,0,0,0,0,0,0,0,
+        (byte) 130,0,0,0,
+        (byte) 250,0,0,0,
+        // sub-block entries
+        16,0,0,0,
+        // flags
+        0,0,0,0,
+        // magic
+        0x00,0x1f,(byte) 0xa1,(byte) 0xcb,
+    });
+    out.flush();
+    out.close();
+
+    final Footer footer = new Footer(new FileInputStream(filePath).getChannel(), 2);
+    assertEquals(0, footer.getDataLength());
+    assertEquals(52, footer.getFileSize());
+    assertEquals(250, footer.getMaxCompressedBufferSize());
+    assertEquals(130, footer.getMaxUncompressedBufferSize());
+    assertTrue(Arrays.equals(new long[]{5, 25, 125, 255}, footer.getHashIndex()));
+    assertTrue(footer.isSubIndexed());
+    assertEquals(16, footer.getSubBlockEntries());
+    assertFalse(footer.hasBloomFilter());
+  }
+
   private static final List<byte[]> INVALID_CASES = Arrays.asList(
       // offset inversion
       new byte[]{
@@ -72,6 +103,19 @@ public class TestFooter extends BaseTestCase {
           (byte) 0xff,0,0,0,0,0,0,0,
           (byte) 130,0,0,0,
           (byte) 250,0,0,(byte) 0x80,
+      },
+      // unknown format flags
+      new byte[]{
+          // not going to have any actual data section
+          5,0,0,0,0,0,0,0,
+          25,0,0,0,0,0,0,0,
+          125,0,0,0,0,0,0,0,
+          (byte) 0xff,0,0,0,0,0,0,0,
+          (byte) 130,0,0,0,
+          (byte) 250,0,0,0,
+          0,0,0,0,
+          2,0,0,0,
+          0x00,0x1f,(byte) 0xa1,(byte) 0xcb,
       }
   );
 
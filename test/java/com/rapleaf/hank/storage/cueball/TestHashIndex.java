@@ -0,0 +1,69 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.storage.cueball;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class TestHashIndex extends TestCase {
+  public void testSmallIndex() throws Exception {
+    HashIndex index = new HashIndex(new long[] {-1, 0, -1, 30, 45, -1}, 100);
+    assertEquals(6, index.size());
+    assertEquals(1, index.getDeltaWidth());
+
+    assertEquals(-1, index.getBlockStart(0));
+    assertEquals(0, index.getBlockStart(1));
+    assertEquals(30, index.getBlockEnd(1));
+    assertEquals(-1, index.getBlockStart(2));
+    assertEquals(30, index.getBlockStart(3));
+    assertEquals(45, index.getBlockEnd(3));
+    assertEquals(45, index.getBlockStart(4));
+    assertEquals(100, index.getBlockEnd(4));
+    assertEquals(-1, index.getBlockStart(5));
+  }
+
+  public void testLargeOffsets() throws Exception {
+    // big blocks spread over several groups, past the 4GB mark
+    long[] offsets = new long[1 << 10];
+    Arrays.fill(offsets, -1);
+    long offset = 5L << 32;
+    for (int i = 0; i < offsets.length; i += 3) {
+      offsets[i] = offset;
+      offset += 1000000 + i;
+    }
+    HashIndex index = new HashIndex(offsets, offset);
+    assertEquals(4, index.getDeltaWidth());
+    assertTrue(index.getSizeInBytes() < offsets.length * 8);
+
+    for (int i = 0; i < offsets.length; i++) {
+      assertEquals(offsets[i], index.getBlockStart(i));
+      if (offsets[i] >= 0) {
+        long expectedEnd = i + 3 < offsets.length ? offsets[i + 3] : offset;
+        assertEquals(expectedEnd, index.getBlockEnd(i));
+      }
+    }
+  }
+
+  public void testEmptyIndex() throws Exception {
+    long[] offsets = new long[4];
+    Arrays.fill(offsets, -1);
+    HashIndex index = new HashIndex(offsets, 0);
+    for (int i = 0; i < offsets.length; i++) {
+      assertEquals(-1, index.getBlockStart(i));
+    }
+  }
+}
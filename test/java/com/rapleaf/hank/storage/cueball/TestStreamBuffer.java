@@ -76,6 +76,67 @@ public class TestStreamBuffer extends BaseTestCase {
     assertFalse(sb.anyRemaining());
   }
 
+  public void testReadAhead() throws Exception {
+    final FileOutputStream stream = new FileOutputStream(CONTIG_PATH);
+    stream.write(CONTIG_DATA);
+    stream.close();
+
+    final StreamBuffer sb = new StreamBuffer(CONTIG_PATH, 0, 1, 1, 2, new NoCompressionCodec(), 2);
+    for (int i = 0; i < 4; i++) {
+      assertTrue(sb.anyRemaining());
+      assertEquals(0, sb.getCurrentOffset());
+      assertEquals(ByteBuffer.wrap(CONTIG_DATA, i * 2, 2), ByteBuffer.wrap(sb.getBuffer(), 0, 2));
+      sb.consume();
+    }
+    assertFalse(sb.anyRemaining());
+    assertFalse(sb.anyRemaining());
+    sb.close();
+  }
+
+  public void testRemoteFile() throws Exception {
+    final FileOutputStream stream = new FileOutputStream(CONTIG_PATH);
+    stream.write(CONTIG_DATA);
+    stream.close();
+
+    for (int readAheadBlocks : new int[] {0, 2}) {
+      final StreamBuffer sb = new StreamBuffer(new LocalFileOps(localTmpDir, localTmpDir),
+          CONTIG_PATH, 0, 1, 1, 2, new NoCompressionCodec(), readAheadBlocks);
+      for (int i = 0; i < 4; i++) {
+        assertTrue(sb.anyRemaining());
+        assertEquals(0, sb.getCurrentOffset());
+        assertEquals(ByteBuffer.wrap(CONTIG_DATA, i * 2, 2), ByteBuffer.wrap(sb.getBuffer(), 0, 2));
+        sb.consume();
+      }
+      assertFalse(sb.anyRemaining());
+      sb.close();
+    }
+  }
+
+  public void testCloseBeforeReadingAhead() throws Exception {
+    final FileOutputStream stream = new FileOutputStream(CONTIG_PATH);
+    stream.write(CONTIG_DATA);
+    stream.close();
+
+    // the read ahead thread fills its single buffer and then waits for a
+    // free one, which close() has to get it out of
+    final StreamBuffer sb = new StreamBuffer(CONTIG_PATH, 0, 1, 1, 2, new NoCompressionCodec(), 1);
+    assertTrue(sb.anyRemaining());
+    sb.consume();
+    sb.close();
+
+    for (Thread thread : getAllThreads()) {
+      assertFalse(thread.getName(), thread.getName().startsWith("StreamBuffer read ahead of " + CONTIG_PATH));
+    }
+  }
+
+  private static Thread[] getAllThreads() {
+    Thread[] threads = new Thread[Thread.activeCount() * 2 + 10];
+    int count = Thread.enumerate(threads);
+    Thread[] all = new Thread[count];
+    System.arraycopy(threads, 0, all, 0, count);
+    return all;
+  }
+
   public void testDiscontiguousInternalBlocks() throws Exception {
     final FileOutputStream stream = new FileOutputStream(DISCONTIG_INTERNAL_HOLE_PATH);
     stream.write(DISCONTIG_DATA_INTERNAL_HOLE);
@@ -120,4 +181,42 @@ public class TestStreamBuffer extends BaseTestCase {
 
     assertFalse(sb.anyRemaining());
   }
+
+  public void testCompareTo() throws Exception {
+    // 10 byte keys, one per block. the first two only differ after their
+    // first 8 bytes, and the last one sorts after the others unsigned
+    final byte[] data = new byte[] {
+        1,2,3,4,5,6,7,8,9,1, 0,
+        1,2,3,4,5,6,7,8,9,2, 0,
+        (byte) 0x81,0,0,0,0,0,0,0,0,0, 0,
+        0,0,0,0,0,0,0,0,
+        11,0,0,0,0,0,0,0,
+        22,0,0,0,0,0,0,0,
+        -1,-1,-1,-1,-1,-1,-1,-1,
+        11,0,0,0,
+        11,0,0,0,
+    };
+    String path = localTmpDir + "/compare.cueball";
+    final FileOutputStream stream = new FileOutputStream(path);
+    stream.write(data);
+    stream.close();
+
+    StreamBuffer a = new StreamBuffer(path, 0, 10, 1, 2, new NoCompressionCodec());
+    StreamBuffer b = new StreamBuffer(path, 1, 10, 1, 2, new NoCompressionCodec());
+    assertTrue(a.anyRemaining());
+    assertTrue(b.anyRemaining());
+    assertEquals(0, a.compareTo(b));
+
+    b.consume();
+    assertTrue(b.anyRemaining());
+    assertEquals(-1, a.compareTo(b));
+    assertEquals(1, b.compareTo(a));
+
+    a.consume();
+    a.anyRemaining();
+    a.consume();
+    assertTrue(a.anyRemaining());
+    assertEquals(1, a.compareTo(b));
+    assertEquals(-1, b.compareTo(a));
+  }
 }
@@ -45,6 +45,9 @@ public class TestCurlyFileSelector extends BaseTestCase {
     assertTrue(s.isRelevantFile("00001.delta.curly", 0, 1, Collections.EMPTY_SET));
     assertFalse(s.isRelevantFile("00002.delta.cueball", null, 1, Collections.EMPTY_SET));
     assertFalse(s.isRelevantFile("00002.delta.curly", null, 1, Collections.EMPTY_SET));
+    assertTrue(s.isRelevantFile("00001.base.curlystats", 0, 1, Collections.EMPTY_SET));
+    assertTrue(s.isRelevantFile("00001.delta.curlystats", 0, 1, Collections.EMPTY_SET));
+    assertFalse(s.isRelevantFile("00000.base.curlystats", 0, 1, Collections.EMPTY_SET));
   }
 
   public void testSelectFilesToCopy() throws Exception {
@@ -53,6 +56,7 @@ public class TestCurlyFileSelector extends BaseTestCase {
     assertEquals(h("00001.base.cueball", "00001.base.curly"), h(s.selectFilesToCopy(Arrays.asList("00001.base.cueball", "00001.base.curly"), null, 1, Collections.EMPTY_SET)));
     assertEquals(h("00001.base.cueball", "00002.delta.cueball", "00001.base.curly", "00002.delta.curly"), h(s.selectFilesToCopy(Arrays.asList("00001.base.cueball", "00002.delta.cueball", "00001.base.curly", "00002.delta.curly"), null, 2, Collections.EMPTY_SET)));
     assertEquals(h("00003.base.cueball", "00003.base.curly"), h(s.selectFilesToCopy(Arrays.asList("00001.base.cueball", "00002.delta.cueball", "00003.base.cueball", "00001.base.curly", "00002.delta.curly", "00003.base.curly"), null, 3, Collections.EMPTY_SET)));
+    assertEquals(h("00003.base.curly", "00003.base.curlystats"), h(s.selectFilesToCopy(Arrays.asList("00001.base.curly", "00001.base.curlystats", "00003.base.curly", "00003.base.curlystats"), null, 3, Collections.EMPTY_SET)));
   }
 
   private Set<String> h(String... col) {
@@ -72,4 +72,35 @@ public class TestCurlyMerger extends TestCase {
 
     assertEquals(ByteBuffer.allocate(17).put(BASE_DATA).put(DELTA1_DATA).put(DELTA2_DATA).rewind(), ByteBuffer.wrap(merged));
   }
+
+  public void testMergeStats() throws Exception {
+    new FileOutputStream(BASE_NAME).close();
+    new FileOutputStream(DELTA1_NAME).close();
+    new FileOutputStream(DELTA2_NAME).close();
+    writeStats(BASE_NAME, 5, 5);
+    writeStats(DELTA1_NAME, 100);
+    writeStats(DELTA2_NAME, 5);
+
+    new CurlyMerger().merge(BASE_NAME, new TreeSet<String>(Arrays.asList(DELTA1_NAME, DELTA2_NAME)));
+
+    RecordSizeHistogram merged = RecordSizeHistogram.read(Curly.getStatsPath(BASE_NAME));
+    assertEquals(4, merged.getCount());
+    assertEquals(5, merged.getPercentile(0.75));
+    assertEquals(103, merged.getMax());
+
+    // if a delta has no stats, the base's can't be kept accurate
+    new File(Curly.getStatsPath(DELTA2_NAME)).delete();
+    new CurlyMerger().merge(BASE_NAME, new TreeSet<String>(Arrays.asList(DELTA1_NAME, DELTA2_NAME)));
+    assertFalse(new File(Curly.getStatsPath(BASE_NAME)).exists());
+  }
+
+  private static void writeStats(String recordFile, int... recordSizes) throws Exception {
+    RecordSizeHistogram histogram = new RecordSizeHistogram();
+    for (int recordSize : recordSizes) {
+      histogram.add(recordSize);
+    }
+    OutputStream out = new FileOutputStream(Curly.getStatsPath(recordFile));
+    histogram.write(out);
+    out.close();
+  }
 }
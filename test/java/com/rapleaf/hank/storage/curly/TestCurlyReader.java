@@ -18,14 +18,24 @@ package com.rapleaf.hank.storage.curly;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import com.rapleaf.hank.storage.Result;
 import com.rapleaf.hank.storage.map.MapReader;
+import com.rapleaf.hank.util.FsUtils;
 
 public class TestCurlyReader extends AbstractCurlyTestBase {
   private static final String TMP_TEST_CURLY_READER = "/tmp/TestCurlyReader";
 
   public void testReader() throws Exception {
+    doTestReader(false);
+  }
+
+  public void testMmapReader() throws Exception {
+    doTestReader(true);
+  }
+
+  private void doTestReader(boolean mmapReads) throws Exception {
     new File(TMP_TEST_CURLY_READER).mkdirs();
     OutputStream s = new FileOutputStream(TMP_TEST_CURLY_READER + "/00000.base.curly");
     s.write(EXPECTED_RECORD_FILE);
@@ -38,7 +48,7 @@ public class TestCurlyReader extends AbstractCurlyTestBase {
         KEY3.array(), new byte[]{10, 0, 0}
     );
 
-    CurlyReader reader = new CurlyReader(TMP_TEST_CURLY_READER, 1024, keyfileReader);
+    CurlyReader reader = new CurlyReader(TMP_TEST_CURLY_READER, 1024, keyfileReader, mmapReads);
 
     Result result = new Result();
 
@@ -57,4 +67,50 @@ public class TestCurlyReader extends AbstractCurlyTestBase {
     assertTrue(result.isFound());
     assertEquals(VALUE2, result.getBuffer());
   }
+
+  public void testReadSizeFromStats() throws Exception {
+    String root = TMP_TEST_CURLY_READER + "/stats";
+    FsUtils.rmrf(root);
+    new File(root).mkdirs();
+
+    // a small record, then one much bigger than the first read
+    byte[] bigValue = new byte[200];
+    for (int i = 0; i < bigValue.length; i++) {
+      bigValue[i] = (byte) i;
+    }
+    OutputStream s = new FileOutputStream(root + "/00000.base.curly");
+    s.write(new byte[]{4, 4, 3, 2, 1});
+    s.write(new byte[]{(byte) 0xc8, 0x01});
+    s.write(bigValue);
+    s.close();
+
+    RecordSizeHistogram recordSizes = new RecordSizeHistogram();
+    for (int i = 0; i < 99; i++) {
+      recordSizes.add(5);
+    }
+    recordSizes.add(202);
+    s = new FileOutputStream(root + "/00000.base.curlystats");
+    recordSizes.write(s);
+    s.close();
+
+    MapReader keyfileReader = new MapReader(
+        KEY1.array(), new byte[]{0, 0, 0},
+        KEY2.array(), new byte[]{5, 0, 0}
+    );
+    CurlyReader reader = new CurlyReader(root, 1024, keyfileReader);
+    assertEquals(5, reader.getReadBufferSize());
+
+    Result result = new Result();
+    reader.get(KEY2, result);
+    assertTrue(result.isFound());
+    assertEquals(ByteBuffer.wrap(bigValue), result.getBuffer());
+
+    reader.get(KEY1, result);
+    assertTrue(result.isFound());
+    assertEquals(VALUE1, result.getBuffer());
+
+    // without stats, the configured size is used
+    new File(root + "/00000.base.curlystats").delete();
+    assertEquals(1024, new CurlyReader(root, 1024, keyfileReader).getReadBufferSize());
+  }
 }
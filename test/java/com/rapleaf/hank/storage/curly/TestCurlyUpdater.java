@@ -80,7 +80,7 @@ public class TestCurlyUpdater extends TestCase {
     MockCurlyMerger curlyMerger = new MockCurlyMerger();
     MockCueballMerger cueballMerger = new MockCueballMerger();
     CurlyUpdater updater = new CurlyUpdater(LOCAL_ROOT, 12, 5,
-        fetcher, curlyMerger, cueballMerger, new NoCompressionCodec(), 1);
+        fetcher, curlyMerger, cueballMerger, new NoCompressionCodec(), 1, 0);
 
     updater.update(1, Collections.singleton(45));
 
@@ -115,7 +115,7 @@ public class TestCurlyUpdater extends TestCase {
     MockCurlyMerger curlyMerger = new MockCurlyMerger();
     MockCueballMerger cueballMerger = new MockCueballMerger();
     CurlyUpdater updater = new CurlyUpdater(LOCAL_ROOT, 12, 5,
-        fetcher, curlyMerger, cueballMerger, new NoCompressionCodec(), 1);
+        fetcher, curlyMerger, cueballMerger, new NoCompressionCodec(), 1, 0);
 
     updater.update(7, null);
 
@@ -151,7 +151,7 @@ public class TestCurlyUpdater extends TestCase {
     MockCurlyMerger curlyMerger = new MockCurlyMerger();
     MockCueballMerger cueballMerger = new MockCueballMerger();
     CurlyUpdater updater = new CurlyUpdater(LOCAL_ROOT, 12, 5,
-        fetcher, curlyMerger, cueballMerger, new NoCompressionCodec(), 1);
+        fetcher, curlyMerger, cueballMerger, new NoCompressionCodec(), 1, 0);
 
     updater.update(7, null);
 
@@ -179,6 +179,22 @@ public class TestCurlyUpdater extends TestCase {
     assertFalse(deltaExists(7));
   }
 
+  public void testUpdateKeepsStats() throws Exception {
+    makeLocalBase(5);
+    assertTrue(new File(LOCAL_ROOT + "/00005.base.curlystats").createNewFile());
+
+    MockFetcher fetcher = new MockFetcher(LOCAL_ROOT, "00006.delta.cueball", "00006.delta.curly", "00006.delta.curlystats");
+    CurlyUpdater updater = new CurlyUpdater(LOCAL_ROOT, 12, 5,
+        fetcher, new MockCurlyMerger(), new MockCueballMerger(), new NoCompressionCodec(), 1, 0);
+
+    updater.update(6, null);
+
+    // the base's stats follow it to its new version, and the delta's go away
+    assertTrue(exists("00006.base.curlystats"));
+    assertFalse(exists("00005.base.curlystats"));
+    assertFalse(exists("00006.delta.curlystats"));
+  }
+
   private String pad(int v) {
     String paddedV = String.format("%05d", v);
     return paddedV;
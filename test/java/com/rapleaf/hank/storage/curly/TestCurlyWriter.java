@@ -16,6 +16,7 @@
 package com.rapleaf.hank.storage.curly;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
 import java.nio.ByteBuffer;
 
 import com.rapleaf.hank.storage.map.MapWriter;
@@ -46,4 +47,22 @@ public class TestCurlyWriter extends AbstractCurlyTestBase {
     // verify that the record stream looks as expected
     assertEquals(ByteBuffer.wrap(EXPECTED_RECORD_FILE), ByteBuffer.wrap(s.toByteArray()));
   }
+
+  public void testWriteStats() throws Exception {
+    ByteArrayOutputStream stats = new ByteArrayOutputStream();
+    CurlyWriter writer = new CurlyWriter(new ByteArrayOutputStream(), new MapWriter(), 3, stats);
+    writer.write(KEY1, VALUE1);
+    writer.write(KEY2, ByteBuffer.wrap(new byte[300]));
+    writer.close();
+
+    String path = "/tmp/TestCurlyWriter.curlystats";
+    FileOutputStream out = new FileOutputStream(path);
+    out.write(stats.toByteArray());
+    out.close();
+    RecordSizeHistogram recordSizes = RecordSizeHistogram.read(path);
+    assertEquals(2, recordSizes.getCount());
+    assertEquals(5, recordSizes.getPercentile(0.5));
+    // 302 bytes lands in the 288-319 bucket
+    assertEquals(319, recordSizes.getMax());
+  }
 }
@@ -0,0 +1,79 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.storage.curly;
+
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import junit.framework.TestCase;
+
+public class TestRecordSizeHistogram extends TestCase {
+  private static final String PATH = "/tmp/TestRecordSizeHistogram.curlystats";
+
+  public void testBuckets() throws Exception {
+    for (int size = 0; size < 16; size++) {
+      assertEquals(size, RecordSizeHistogram.getBucketUpperBound(RecordSizeHistogram.getBucket(size)));
+    }
+    int[] sizes = {16, 17, 100, 1000, 32 * 1024, 1 << 20, Integer.MAX_VALUE};
+    for (int size : sizes) {
+      int bucket = RecordSizeHistogram.getBucket(size);
+      assertTrue(bucket < RecordSizeHistogram.NUM_BUCKETS);
+      int upperBound = RecordSizeHistogram.getBucketUpperBound(bucket);
+      assertTrue(upperBound >= size);
+      assertTrue(upperBound - size < size / 8 + 1);
+      if (upperBound < Integer.MAX_VALUE) {
+        assertEquals(bucket + 1, RecordSizeHistogram.getBucket(upperBound + 1));
+      }
+    }
+  }
+
+  public void testPercentiles() throws Exception {
+    RecordSizeHistogram histogram = new RecordSizeHistogram();
+    assertEquals(0, histogram.getPercentile(0.95));
+    assertEquals(0, histogram.getMax());
+
+    for (int i = 0; i < 90; i++) {
+      histogram.add(10);
+    }
+    for (int i = 0; i < 10; i++) {
+      histogram.add(1000);
+    }
+    assertEquals(100, histogram.getCount());
+    assertEquals(10, histogram.getPercentile(0.5));
+    assertEquals(10, histogram.getPercentile(0.9));
+    assertEquals(1023, histogram.getPercentile(0.95));
+    assertEquals(1023, histogram.getMax());
+  }
+
+  public void testAddAndSerialize() throws Exception {
+    RecordSizeHistogram a = new RecordSizeHistogram();
+    a.add(5);
+    a.add(5);
+    RecordSizeHistogram b = new RecordSizeHistogram();
+    b.add(70000);
+    a.add(b);
+    assertEquals(3, a.getCount());
+
+    OutputStream out = new FileOutputStream(PATH);
+    a.write(out);
+    out.close();
+
+    RecordSizeHistogram read = RecordSizeHistogram.read(PATH);
+    assertEquals(3, read.getCount());
+    assertEquals(5, read.getPercentile(0.6));
+    assertEquals(a.getMax(), read.getMax());
+  }
+}
@@ -3,7 +3,9 @@ package com.rapleaf.hank.ui;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.thrift.TException;
@@ -112,6 +114,11 @@ public class StatusWebDaemonTester extends ZkTestCase {
       public Coordinator getCoordinator() {
         return coord;
       }
+
+      @Override
+      public long getRequestTimeoutMs() {
+        return 0;
+      }
     };
     final Iface mockClient = new Iface() {
       private final Map<String, ByteBuffer> values = new HashMap<String, ByteBuffer>() {
@@ -137,6 +144,15 @@ public class StatusWebDaemonTester extends ZkTestCase {
 
         return HankResponse.not_found(true);
       }
+
+      @Override
+      public List<HankResponse> getBulk(String domainName, List<ByteBuffer> keys) throws TException {
+        List<HankResponse> responses = new ArrayList<HankResponse>(keys.size());
+        for (ByteBuffer key : keys) {
+          responses.add(get(domainName, key));
+        }
+        return responses;
+      }
     };
     IClientCache clientCache = new IClientCache() {
       @Override
@@ -0,0 +1,79 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.util;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import com.rapleaf.hank.BaseTestCase;
+
+public class TestMemoryMappedFile extends BaseTestCase {
+  private static final byte[] DATA = new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+
+  public void testSegmentedReads() throws Exception {
+    String path = localTmpDir + "/mapped";
+    FileOutputStream out = new FileOutputStream(path);
+    out.write(DATA);
+    out.close();
+
+    FileChannel channel = new FileInputStream(path).getChannel();
+    // map only the first 9 bytes, in segments of 4
+    MemoryMappedFile mmf = new MemoryMappedFile(channel, 9, 4);
+    channel.close();
+
+    assertEquals(3, mmf.getNumSegments());
+    assertEquals(9, mmf.length());
+    assertEquals(1, mmf.get(0));
+    assertEquals(5, mmf.get(4));
+    assertEquals(9, mmf.get(8));
+
+    // read across two segment boundaries
+    byte[] buf = new byte[8];
+    mmf.get(1, buf, 1, 7);
+    assertTrue(Arrays.equals(new byte[] {0, 2, 3, 4, 5, 6, 7, 8}, buf));
+
+    try {
+      mmf.get(5, buf, 0, 5);
+      fail("should have thrown an exception reading past the mapping");
+    } catch (IndexOutOfBoundsException e) {
+      // expected
+    }
+  }
+
+  public void testClose() throws Exception {
+    String path = localTmpDir + "/mapped";
+    FileOutputStream out = new FileOutputStream(path);
+    out.write(DATA);
+    out.close();
+
+    FileChannel channel = new FileInputStream(path).getChannel();
+    MemoryMappedFile mmf = new MemoryMappedFile(channel, DATA.length, 4);
+    channel.close();
+    assertEquals(1, mmf.get(0));
+
+    mmf.close();
+    try {
+      mmf.get(0);
+      fail("should have thrown an exception reading a closed mapping");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    // closing again is harmless
+    mmf.close();
+  }
+}
@@ -0,0 +1,60 @@
+/**
+ *  Copyright 2011 Rapleaf
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.rapleaf.hank.util;
+
+import junit.framework.TestCase;
+
+public class TestStripedCounter extends TestCase {
+  public void testSingleThread() throws Exception {
+    StripedCounter counter = new StripedCounter(3);
+    assertEquals(0, counter.sum());
+    counter.increment();
+    counter.add(41);
+    assertEquals(42, counter.sum());
+    assertEquals(42, counter.sumThenReset());
+    assertEquals(0, counter.sum());
+    counter.add(-5);
+    assertEquals(-5, counter.sum());
+  }
+
+  public void testManyThreads() throws Exception {
+    final StripedCounter counter = new StripedCounter(4);
+    Thread[] threads = new Thread[10];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 100000; j++) {
+            counter.increment();
+          }
+        }
+      });
+      threads[i].start();
+    }
+
+    // resetting while the threads are adding loses nothing
+    long total = 0;
+    for (int i = 0; i < 10; i++) {
+      total += counter.sumThenReset();
+      Thread.sleep(1);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    total += counter.sumThenReset();
+    assertEquals(1000000, total);
+  }
+}